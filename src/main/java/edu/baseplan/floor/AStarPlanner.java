@@ -0,0 +1,107 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+
+/**
+ * A* search for the path with the lowest total power cost.
+ * <p>
+ * All search state lives in primitive arrays sized to the floor and allocated
+ * once, a query creates no objects apart from the returned path. Instead of 
+ * clearing the arrays between queries every entry carries the number of the
+ * search that wrote it, entries from older searches count as unvisited.
+ */
+class AStarPlanner implements PathPlanner {
+
+	private final NavigationGrid _grid;
+	private final Heuristic _heuristic;
+	private final int[] _g;
+	private final int[] _parent;
+	private final int[] _searchOf;
+	private final IndexedMinHeap _open;
+	private int _search;
+
+	/**
+	 * Planner using the OctileHeuristic
+	 * @param grid grid to plan on
+	 */
+	AStarPlanner(NavigationGrid grid){
+		this(grid, new OctileHeuristic(grid));
+	}
+
+	/**
+	 * @param grid grid to plan on
+	 * @param heuristic consistent heuristic for grid
+	 */
+	AStarPlanner(NavigationGrid grid, Heuristic heuristic){
+		_grid = grid;
+		_heuristic = heuristic;
+		_g = new int[grid.getCellCount()];
+		_parent = new int[grid.getCellCount()];
+		_searchOf = new int[grid.getCellCount()];
+		_open = new IndexedMinHeap(grid.getCellCount());
+		_search = 0;
+	}
+
+	@Override
+	public PlannedPath plan(int source, int target) {
+		long doorVersion = _grid.getDoorVersion();
+		if(!_grid.isPassable(source) || !_grid.isPassable(target))
+			return null;
+
+		_heuristic.prepare(source, target);
+		startSearch();
+		_g[source] = 0;
+		_parent[source] = -1;
+		_searchOf[source] = _search;
+		_open.insertOrUpdate(source, key(_heuristic.estimate(source, target), 0));
+
+		int expansions = 0;
+		while(!_open.isEmpty()){
+			int cell = _open.poll();
+			expansions++;
+			if(cell == target)
+				return new PlannedPath(PlannedPath.tracePath(_parent, target), _g[target], expansions, doorVersion);
+
+			int g = _g[cell];
+			int x = _grid.xOf(cell);
+			int y = cell - x * _grid.getSizeY();
+			for(int d=0; d<8; d++){
+				int next = _grid.destination(x, y, d);
+				if(next < 0 || !canEnter(next))
+					continue;
+				int nextG = g + _grid.getCost(next);
+				if(_searchOf[next] != _search || nextG < _g[next]){
+					_searchOf[next] = _search;
+					_g[next] = nextG;
+					_parent[next] = cell;
+					_open.insertOrUpdate(next, key(nextG + _heuristic.estimate(next, target), nextG));
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Restricts the search to part of the floor, every cell is allowed unless overridden
+	 * @param cell dense cell index of a cell the search is about to step onto
+	 * @return true if the search may use the cell
+	 */
+	protected boolean canEnter(int cell){
+		return true;
+	}
+
+	/**
+	 * Orders by f, and on equal f prefers the cell furthest along its path
+	 */
+	static long key(int f, int g){
+		return ((long) f << 32) | (Integer.MAX_VALUE - g);
+	}
+
+	private void startSearch(){
+		_open.clear();
+		if(++_search == Integer.MAX_VALUE){
+			Arrays.fill(_searchOf, 0);
+			_search = 1;
+		}
+	}
+}
@@ -12,6 +12,7 @@ abstract class AbstractCell {
 	protected int _grade;
 	protected int _x;
 	protected int _y;
+	protected FloorEventBus _eventBus;
 	
 	AbstractCell(int x, int y){
 		_adjacentCells = new AbstractCell[8];
@@ -45,15 +46,25 @@ abstract class AbstractCell {
 	}
 	
 	
+	/**
+	 * Sets the event bus that dirt and door changes of this cell are recorded on
+	 * @param eventBus the event bus of the floor this cell is on
+	 */
+	void setEventBus(FloorEventBus eventBus){
+		_eventBus = eventBus;
+	}
+	
 	/**
 	 * Remove dirt from AbstractCell type 
 	 * subtract the amount of dirt removed from total then return the amount removed
 	 * @return amount of dirt units removed, should either be 1 if dirt was removed or 0 if no dirt was removed
 	 */
-	int getDirt(){
+	synchronized int getDirt(){
 		if(!this.isClean()){
 			_dirt -= 1;
 			logger.info("Dirt Being Removed From Cell");
+			if(_eventBus != null)
+				_eventBus.record(_dirt == 0 ? FloorEventBus.CELL_CLEANED : FloorEventBus.DIRT_REMOVED, _x, _y, _dirt);
 			return 1;
 		}
 		else{
@@ -0,0 +1,401 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Anytime search that returns a path within a time budget and improves it while time is left.
+ * <p>
+ * Runs Anytime Repairing A* (Likhachev, Gordon and Thrun): weighted A* ordered
+ * by g + epsilon * h finds a first path quickly, whose cost is at most epsilon
+ * times the optimal cost. Epsilon is then lowered step by step down to 1 and
+ * each step reuses the previous search, only cells whose cost dropped after
+ * they were expanded are opened again. Every path found is published with the
+ * bound that holds for it, the smaller of epsilon and the path cost over the
+ * lowest unweighted f still open. That lowest f is kept in a second heap
+ * over the open and inconsistent cells as they change, so publishing a path
+ * costs no more than tracing it. The search checks its deadline and
+ * cancellation every few hundred expansions, and so does the refill of the
+ * open list after epsilon is lowered, which picks up where it stopped on
+ * the next call. A query for the same source, target and door state as the
+ * last one continues where that one stopped.
+ * Use one planner per robot, or one per thread.
+ */
+class AnytimePlanner implements PathPlanner {
+
+	/**
+	 * Epsilon of the first search
+	 */
+	static final double INITIAL_EPSILON = 3.0;
+
+	/**
+	 * Amount epsilon is lowered by after each path found
+	 */
+	static final double EPSILON_STEP = 0.5;
+
+	private static final int SCALE = 1000;
+	private static final int CHECK_INTERVAL = 256;
+	private static final int NOT_FOUND = Integer.MAX_VALUE;
+	private static final long FOREVER = Long.MAX_VALUE / 2;
+
+	private final NavigationGrid _grid;
+	private final Heuristic _heuristic;
+	private final int _initialEpsilon;
+	private final int _epsilonStep;
+	private final int[] _g;
+	private final int[] _parent;
+	private final int[] _searchOf;
+	private final int[] _closedIn;
+	private final int[] _inconsistentIn;
+	private final IndexedMinHeap _open;
+	private final IndexedMinHeap _lowest;
+	private int[] _inconsistent;
+	private int _inconsistentCount;
+	private int _refilled;
+	private int _search;
+	private int _iteration;
+	private int _epsilon;
+	private int _source;
+	private int _target;
+	private long _doorVersion;
+	private int _expansions;
+	private boolean _finished;
+	private boolean _searched;
+	private boolean _refilling;
+	private volatile BoundedPath _best;
+	private volatile boolean _cancelled;
+	private AtomicBoolean _backgroundStarted;
+	private CountDownLatch _backgroundDone;
+
+	/**
+	 * Planner using the OctileHeuristic and the default epsilon schedule
+	 * @param grid grid to plan on
+	 */
+	AnytimePlanner(NavigationGrid grid){
+		this(grid, new OctileHeuristic(grid), INITIAL_EPSILON, EPSILON_STEP);
+	}
+
+	/**
+	 * @param grid grid to plan on
+	 * @param heuristic consistent heuristic for grid
+	 * @param initialEpsilon weight of the first search, at least 1
+	 * @param epsilonStep amount the weight is lowered by after each path found
+	 */
+	AnytimePlanner(NavigationGrid grid, Heuristic heuristic, double initialEpsilon, double epsilonStep){
+		if(initialEpsilon < 1 || epsilonStep <= 0)
+			throw new IllegalArgumentException("epsilon must start at 1 or more and decrease");
+		_grid = grid;
+		_heuristic = heuristic;
+		_initialEpsilon = (int) Math.round(initialEpsilon * SCALE);
+		_epsilonStep = Math.max(1, (int) Math.round(epsilonStep * SCALE));
+		_g = new int[grid.getCellCount()];
+		_parent = new int[grid.getCellCount()];
+		_searchOf = new int[grid.getCellCount()];
+		_closedIn = new int[grid.getCellCount()];
+		_inconsistentIn = new int[grid.getCellCount()];
+		_inconsistent = new int[256];
+		_open = new IndexedMinHeap(grid.getCellCount());
+		_lowest = new IndexedMinHeap(grid.getCellCount());
+		_source = -1;
+	}
+
+	/**
+	 * Plans without a deadline, the result is optimal
+	 */
+	@Override
+	public PlannedPath plan(int source, int target) {
+		return planUntil(source, target, System.nanoTime() + FOREVER);
+	}
+
+	/**
+	 * @param source dense index of the start cell
+	 * @param target dense index of the goal cell
+	 * @param budgetNanos time the planner may take, in nanoseconds
+	 * @return the best path found in time, or null if none was found in time or target can't be reached
+	 */
+	BoundedPath planWithin(int source, int target, long budgetNanos){
+		return planUntil(source, target, System.nanoTime() + Math.min(budgetNanos, FOREVER));
+	}
+
+	/**
+	 * @param source dense index of the start cell
+	 * @param target dense index of the goal cell
+	 * @param deadline value of System.nanoTime() to return by
+	 * @return the best path found in time, or null if none was found in time or target can't be reached
+	 */
+	BoundedPath planUntil(int source, int target, long deadline){
+		stopBackground();
+		_cancelled = false;
+		if(!_grid.isPassable(source) || !_grid.isPassable(target))
+			return null;
+		if(source != _source || target != _target || _doorVersion != _grid.getDoorVersion())
+			restart(source, target);
+		improve(deadline);
+		return _best;
+	}
+
+	/**
+	 * Keeps improving the path of the last query on another thread until it is
+	 * optimal or cancel is called. Read the progress with getBestPath, the next
+	 * query on this planner stops the improvement first.
+	 * @param executor executor to run on
+	 * @return the optimal path once the improvement is done, or the best path if it was cancelled
+	 */
+	Future<BoundedPath> improveInBackground(ExecutorService executor){
+		if(_source < 0)
+			throw new IllegalStateException("nothing has been planned yet");
+		stopBackground();
+		_cancelled = false;
+		AtomicBoolean started = new AtomicBoolean();
+		CountDownLatch done = new CountDownLatch(1);
+		_backgroundStarted = started;
+		_backgroundDone = done;
+		return executor.submit(() -> {
+			// A run stopped before it started must not touch the planner any more
+			if(!started.compareAndSet(false, true))
+				return _best;
+			boolean completed = false;
+			try{
+				improve(System.nanoTime() + FOREVER);
+				completed = true;
+				return _best;
+			}
+			finally{
+				// The search stopped half way through an update, start over next time
+				if(!completed)
+					_source = -1;
+				done.countDown();
+			}
+		});
+	}
+
+	/**
+	 * Stops the search running on any thread at its next check, keeping the best path so far
+	 */
+	void cancel(){
+		_cancelled = true;
+	}
+
+	/**
+	 * Safe to call from any thread, also while improving in the background
+	 * @return the best path of the last query so far, or null if none was found yet
+	 */
+	BoundedPath getBestPath(){
+		return _best;
+	}
+
+	/**
+	 * @return true once the path of the last query is optimal or known not to exist
+	 */
+	boolean isFinished(){
+		return _finished;
+	}
+
+	/**
+	 * @return number of cells expanded for the last query, over all its improvements
+	 */
+	int getExpansions(){
+		return _expansions;
+	}
+
+	/**
+	 * Stops the background improvement and waits until it has really ended.
+	 * The Future can't tell, once cancelled it reports done while the search
+	 * may still be running.
+	 */
+	private void stopBackground(){
+		if(_backgroundDone == null)
+			return;
+		_cancelled = true;
+		if(!_backgroundStarted.compareAndSet(false, true)){
+			boolean interrupted = false;
+			while(true){
+				try{
+					_backgroundDone.await();
+					break;
+				}
+				catch(InterruptedException e){
+					interrupted = true;
+				}
+			}
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+		_backgroundStarted = null;
+		_backgroundDone = null;
+	}
+
+	private void restart(int source, int target){
+		_heuristic.prepare(source, target);
+		_open.clear();
+		_lowest.clear();
+		if(++_search == Integer.MAX_VALUE){
+			Arrays.fill(_searchOf, 0);
+			_search = 1;
+		}
+		nextIteration();
+		_inconsistentCount = 0;
+		_refilled = 0;
+		_source = source;
+		_target = target;
+		_doorVersion = _grid.getDoorVersion();
+		_epsilon = _initialEpsilon;
+		_expansions = 0;
+		_finished = false;
+		_searched = false;
+		_refilling = false;
+		_best = null;
+		_g[source] = 0;
+		_parent[source] = -1;
+		_searchOf[source] = _search;
+		int h = _heuristic.estimate(source, target);
+		_open.insertOrUpdate(source, key(0, h));
+		_lowest.insertOrUpdate(source, h);
+	}
+
+	/**
+	 * Runs searches with lower and lower epsilon until the path is optimal, the deadline passes or the search is cancelled
+	 */
+	private void improve(long deadline){
+		while(!_finished){
+			if(_searched){
+				if(_cancelled || System.nanoTime() - deadline > 0 || Thread.currentThread().isInterrupted())
+					return;
+				lowerEpsilon();
+			}
+			if(!refill(deadline) || !improvePath(deadline))
+				return;
+			_searched = true;
+			if(goalG() == NOT_FOUND){
+				_finished = true;
+				return;
+			}
+			// Cells reached cheaper after the target can make the recorded path cheaper than g of the target
+			int[] cells = PlannedPath.tracePath(_parent, _target);
+			int cost = 0;
+			for(int i=1; i<cells.length; i++)
+				cost += _grid.getCost(cells[i]);
+			double bound = bound(cost);
+			_best = new BoundedPath(cells, cost, _expansions, _doorVersion, bound);
+			_finished = bound <= 1.0;
+		}
+	}
+
+	/**
+	 * Starts the next search, epsilon changes every key so the open cells join the inconsistent ones for refill to key again
+	 */
+	private void lowerEpsilon(){
+		for(int i=0; i<_open.size(); i++)
+			addInconsistent(_open.elementAt(i));
+		_open.clear();
+		_epsilon = Math.max(SCALE, _epsilon - _epsilonStep);
+		nextIteration();
+		_refilled = 0;
+		_refilling = true;
+		_searched = false;
+	}
+
+	/**
+	 * Moves the inconsistent cells to the open list with the keys of the current epsilon,
+	 * once after epsilon was lowered. Cells that become inconsistent in the search after
+	 * wait for the next epsilon.
+	 * @return false if the deadline passed or the search was cancelled first, the next call goes on from there
+	 */
+	private boolean refill(long deadline){
+		if(!_refilling)
+			return true;
+		for(; _refilled<_inconsistentCount; _refilled++){
+			if(_refilled % CHECK_INTERVAL == CHECK_INTERVAL - 1
+					&& (_cancelled || System.nanoTime() - deadline > 0 || Thread.currentThread().isInterrupted()))
+				return false;
+			int cell = _inconsistent[_refilled];
+			_open.insertOrUpdate(cell, key(_g[cell], _heuristic.estimate(cell, _target)));
+		}
+		_inconsistentCount = 0;
+		_refilled = 0;
+		_refilling = false;
+		return true;
+	}
+
+	/**
+	 * Expands cells until no open cell can lead to a path cheaper than the one to the target
+	 * @return false if the deadline passed or the search was cancelled first
+	 */
+	private boolean improvePath(long deadline){
+		int checks = 0;
+		while(!_open.isEmpty() && (long) goalG() * SCALE > _open.peekKey() >>> 20){
+			if(++checks == CHECK_INTERVAL){
+				checks = 0;
+				if(_cancelled || System.nanoTime() - deadline > 0 || Thread.currentThread().isInterrupted())
+					return false;
+			}
+			int cell = _open.poll();
+			_lowest.remove(cell);
+			_closedIn[cell] = _iteration;
+			_expansions++;
+
+			int g = _g[cell];
+			int x = _grid.xOf(cell);
+			int y = cell - x * _grid.getSizeY();
+			for(int d=0; d<8; d++){
+				int next = _grid.destination(x, y, d);
+				if(next < 0)
+					continue;
+				int nextG = g + _grid.getCost(next);
+				if(_searchOf[next] != _search || nextG < _g[next]){
+					_searchOf[next] = _search;
+					_g[next] = nextG;
+					_parent[next] = cell;
+					int h = _heuristic.estimate(next, _target);
+					if(_closedIn[next] != _iteration)
+						_open.insertOrUpdate(next, key(nextG, h));
+					else if(_inconsistentIn[next] != _iteration)
+						addInconsistent(next);
+					_lowest.insertOrUpdate(next, (long) nextG + h);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Suboptimality bound of a path to the target, the lowest unweighted f
+	 * of the open and inconsistent cells is a lower bound on the optimal cost
+	 * @param cost cost of the path
+	 */
+	private double bound(int cost){
+		long lowest = _lowest.isEmpty() ? Long.MAX_VALUE : _lowest.peekKey();
+		if(lowest >= cost)
+			return 1.0;
+		return Math.min((double) _epsilon / SCALE, (double) cost / lowest);
+	}
+
+	private int goalG(){
+		return _searchOf[_target] == _search ? _g[_target] : NOT_FOUND;
+	}
+
+	/**
+	 * Orders by g + epsilon * h, and on equal keys prefers the cell furthest along its path
+	 */
+	private long key(int g, int h){
+		return ((long) g * SCALE + (long) _epsilon * h) << 20 | (0xFFFFF - Math.min(g, 0xFFFFF));
+	}
+
+	private void nextIteration(){
+		if(++_iteration == Integer.MAX_VALUE){
+			Arrays.fill(_closedIn, 0);
+			Arrays.fill(_inconsistentIn, 0);
+			_iteration = 1;
+		}
+	}
+
+	private void addInconsistent(int cell){
+		if(_inconsistentCount == _inconsistent.length)
+			_inconsistent = Arrays.copyOf(_inconsistent, _inconsistentCount * 2);
+		_inconsistent[_inconsistentCount++] = cell;
+		_inconsistentIn[cell] = _iteration;
+	}
+}
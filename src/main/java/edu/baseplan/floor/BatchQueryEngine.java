@@ -0,0 +1,176 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Answers many power cost queries at once by sharing searches between them.
+ * <p>
+ * Queries with the same source, or the same target, are grouped and each
+ * group is answered by one Dijkstra search from its source, or one search
+ * from its target over the transposed graph, which stops once every cell
+ * the group asks for is settled. A query joins the side it shares with more
+ * other queries, so a round of robots asking for the same few chargers costs
+ * one search per charger. Move costs are 0 to 3, so the searches use a ring
+ * of four buckets instead of a heap. Groups are searched in parallel on the
+ * pool. Every batch refreshes the NavigationGraph first and runs on that
+ * snapshot, so doors that change while a batch runs don't affect it. The
+ * transposed graph is built again whenever the door state version of the
+ * graph has moved on. Run one batch at a time per engine.
+ */
+class BatchQueryEngine {
+
+	static final int UNREACHED = BucketSearch.UNREACHED;
+
+	private NavigationGraph _graph;
+	private final ForkJoinPool _pool;
+	private final ThreadLocal<GroupSearch> _searches;
+	private NavigationGraph _transposed;
+	private int _groupCount;
+
+	/**
+	 * @param graph graph to answer queries on, refreshed when doors change
+	 * @param pool pool the groups are searched on
+	 */
+	BatchQueryEngine(NavigationGraph graph, ForkJoinPool pool){
+		_graph = graph;
+		_pool = pool;
+		_searches = ThreadLocal.withInitial(() -> new GroupSearch(graph.getCellCount()));
+	}
+
+	/**
+	 * @return number of searches the last batch needed
+	 */
+	int getLastGroupCount(){
+		return _groupCount;
+	}
+
+	/**
+	 * @param sources dense index of the start cell of every query
+	 * @param targets dense index of the goal cell of every query, as long as sources
+	 * @return power cost of the cheapest path of every query, UNREACHED where there is none
+	 */
+	int[] costs(int[] sources, int[] targets){
+		if(sources.length != targets.length)
+			throw new IllegalArgumentException("every query needs a source and a target");
+		int queryCount = sources.length;
+		_graph = _graph.refresh();
+		final NavigationGraph graph = _graph;
+		NavigationGrid grid = graph.getGrid();
+		int[] costs = new int[queryCount];
+		Arrays.fill(costs, UNREACHED);
+
+		// Each query joins its source's group or its target's, whichever more queries share
+		int[] sourceShare = shares(sources);
+		int[] targetShare = shares(targets);
+		long[] order = new long[queryCount];
+		int count = 0;
+		boolean reverse = false;
+		for(int q=0; q<queryCount; q++){
+			if(!grid.isPassable(sources[q]) || !grid.isPassable(targets[q]))
+				continue;
+			boolean fromSource = sourceShare[q] >= targetShare[q];
+			long root = fromSource ? 2L * sources[q] : 2L * targets[q] + 1;
+			order[count++] = root << 32 | q;
+			reverse |= !fromSource;
+		}
+		Arrays.sort(order, 0, count);
+		if(reverse && (_transposed == null || _transposed.getDoorVersion() != graph.getDoorVersion()))
+			_transposed = graph.transpose();
+		final NavigationGraph transposed = _transposed;
+
+		int[] groupStart = new int[count + 1];
+		int groupCount = 0;
+		for(int i=0; i<count; i++)
+			if(i == 0 || order[i] >>> 32 != order[i - 1] >>> 32)
+				groupStart[groupCount++] = i;
+		groupStart[groupCount] = count;
+		_groupCount = groupCount;
+
+		final int groups = groupCount;
+		try{
+			_pool.submit(() -> IntStream.range(0, groups).parallel().forEach(g -> {
+				int first = groupStart[g];
+				int last = groupStart[g + 1];
+				long root = order[first] >>> 32;
+				boolean fromSource = (root & 1) == 0;
+				int[] goals = new int[last - first];
+				for(int i=first; i<last; i++){
+					int q = (int) order[i];
+					goals[i - first] = fromSource ? targets[q] : sources[q];
+				}
+				GroupSearch search = _searches.get();
+				search.run(fromSource ? graph : transposed, (int) (root >>> 1), goals);
+				for(int i=first; i<last; i++)
+					costs[(int) order[i]] = search.costOf(goals[i - first]);
+			})).get();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while answering queries", e);
+		}
+		catch(ExecutionException e){
+			throw new IllegalStateException("a group search failed", e.getCause());
+		}
+		return costs;
+	}
+
+	/**
+	 * @return for every query, the number of queries with the same cell in cells
+	 */
+	private static int[] shares(int[] cells){
+		long[] sorted = new long[cells.length];
+		for(int q=0; q<cells.length; q++)
+			sorted[q] = (long) cells[q] << 32 | q;
+		Arrays.sort(sorted);
+		int[] share = new int[cells.length];
+		for(int start=0, end; start<sorted.length; start=end){
+			for(end=start + 1; end<sorted.length && sorted[end] >>> 32 == sorted[start] >>> 32; end++);
+			for(int i=start; i<end; i++)
+				share[(int) sorted[i]] = end - start;
+		}
+		return share;
+	}
+
+	/**
+	 * Search state of one thread, reused between groups
+	 */
+	private static final class GroupSearch {
+		final BucketSearch _search;
+		final int[] _goalIn;
+		int _group;
+		int _remaining;
+
+		GroupSearch(int cellCount){
+			_search = new BucketSearch(cellCount);
+			_goalIn = new int[cellCount];
+		}
+
+		/**
+		 * Settles cells in order of cost from root until every goal is settled
+		 */
+		void run(NavigationGraph graph, int root, int[] goals){
+			if(++_group == Integer.MAX_VALUE){
+				Arrays.fill(_goalIn, 0);
+				_group = 1;
+			}
+			_remaining = 0;
+			for(int goal : goals){
+				if(_goalIn[goal] != _group){
+					_goalIn[goal] = _group;
+					_remaining++;
+				}
+			}
+			_search.run(graph, new int[]{root}, (cell, cost) -> _goalIn[cell] == _group && --_remaining == 0);
+		}
+
+		/**
+		 * @return cost of cell in the last run, UNREACHED if it was not settled
+		 */
+		int costOf(int cell){
+			return _search.costOf(cell);
+		}
+	}
+}
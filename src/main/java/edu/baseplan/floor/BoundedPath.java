@@ -0,0 +1,32 @@
+package edu.baseplan.floor;
+
+/**
+ * PlannedPath from an anytime search, with how far from optimal it can be.
+ */
+class BoundedPath extends PlannedPath {
+
+	private final double _bound;
+
+	/**
+	 * @param cells dense cell indices from source to target
+	 * @param cost total power cost of the path
+	 * @param expansions number of cells the planner expanded so far
+	 * @param doorVersion door state version the path was planned against
+	 * @param bound the cost is at most bound times the optimal cost
+	 */
+	BoundedPath(int[] cells, int cost, int expansions, long doorVersion, double bound){
+		super(cells, cost, expansions, doorVersion);
+		_bound = bound;
+	}
+
+	/**
+	 * @return factor the cost is at most above the optimal cost, 1 for an optimal path
+	 */
+	double getBound(){
+		return _bound;
+	}
+
+	boolean isOptimal(){
+		return _bound <= 1.0;
+	}
+}
@@ -0,0 +1,118 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+
+/**
+ * Dijkstra search over a NavigationGraph that is reused between runs.
+ * Move costs are 0 to 3, so cells wait in a ring of four buckets instead
+ * of a heap. A run starts from any number of roots and every cell keeps
+ * the root its cheapest path starts at. Not thread safe, keep one per thread.
+ */
+class BucketSearch {
+
+	static final int UNREACHED = Integer.MAX_VALUE;
+
+	private static final int MAX_COST = 3;
+
+	/**
+	 * Decides when a search stops
+	 */
+	interface Goal {
+		/**
+		 * @param cell cell the search just settled
+		 * @param cost cost of reaching it
+		 * @return true to stop the search
+		 */
+		boolean settled(int cell, int cost);
+	}
+
+	private final int[] _cost;
+	private final int[] _rootOf;
+	private final int[] _reachedIn;
+	private final int[] _settledIn;
+	private final int[][] _buckets = new int[MAX_COST + 1][];
+	private final int[] _bucketSize = new int[MAX_COST + 1];
+	private int _search;
+
+	/**
+	 * @param cellCount number of cells of the graphs searched
+	 */
+	BucketSearch(int cellCount){
+		_cost = new int[cellCount];
+		_rootOf = new int[cellCount];
+		_reachedIn = new int[cellCount];
+		_settledIn = new int[cellCount];
+		for(int b=0; b<=MAX_COST; b++)
+			_buckets[b] = new int[256];
+	}
+
+	/**
+	 * Settles cells in order of cost from the nearest root until goal stops the search
+	 * @param graph graph to search, its edges must cost 0 to 3
+	 * @param roots dense indices of the cells the search starts at
+	 * @param goal called for every settled cell
+	 * @return the cell the search stopped at, -1 if every reachable cell was settled
+	 */
+	int run(NavigationGraph graph, int[] roots, Goal goal){
+		if(++_search == Integer.MAX_VALUE){
+			Arrays.fill(_reachedIn, 0);
+			Arrays.fill(_settledIn, 0);
+			_search = 1;
+		}
+		Arrays.fill(_bucketSize, 0);
+		int queued = 0;
+		for(int root : roots){
+			_cost[root] = 0;
+			_rootOf[root] = root;
+			_reachedIn[root] = _search;
+			push(root, 0);
+			queued++;
+		}
+
+		for(int cost=0; queued > 0; cost++){
+			int b = cost & MAX_COST;
+			while(_bucketSize[b] > 0){
+				int cell = _buckets[b][--_bucketSize[b]];
+				queued--;
+				if(_settledIn[cell] == _search || _cost[cell] != cost)
+					continue;
+				_settledIn[cell] = _search;
+				if(goal.settled(cell, cost))
+					return cell;
+				for(int edge=graph.getEdgeStart(cell), end=graph.getEdgeEnd(cell); edge<end; edge++){
+					int next = graph.getEdgeTarget(edge);
+					int nextCost = cost + graph.getEdgeWeight(edge);
+					if(_reachedIn[next] != _search || nextCost < _cost[next]){
+						_reachedIn[next] = _search;
+						_cost[next] = nextCost;
+						_rootOf[next] = _rootOf[cell];
+						push(next, nextCost);
+						queued++;
+					}
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return cost of cell in the last run, UNREACHED if it was not settled
+	 */
+	int costOf(int cell){
+		return _settledIn[cell] == _search ? _cost[cell] : UNREACHED;
+	}
+
+	/**
+	 * @return the root the cheapest path to cell in the last run starts at, only valid for settled cells
+	 */
+	int rootOf(int cell){
+		return _rootOf[cell];
+	}
+
+	private void push(int cell, int cost){
+		int b = cost & MAX_COST;
+		if(_bucketSize[b] == _buckets[b].length)
+			_buckets[b] = Arrays.copyOf(_buckets[b], _bucketSize[b] * 2);
+		_buckets[b][_bucketSize[b]++] = cell;
+	}
+}
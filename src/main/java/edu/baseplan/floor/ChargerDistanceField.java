@@ -0,0 +1,294 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Power needed to reach the nearest charging station from every cell.
+ * <p>
+ * The field is built once with a multi-source Dijkstra that runs backwards
+ * from all charging stations over the moves of a NavigationGrid. For every
+ * cell it keeps the power cost, the station reached and the next cell on the
+ * way there. When doors change, only the cells around them are repaired: an
+ * opened door can only lower costs, so the new moves are relaxed and the
+ * improvement is propagated. A closed door removes moves, so every cell whose
+ * route home used one of them is cleared and computed again from its still
+ * valid neighbours.
+ * <p>
+ * Repairs change the arrays in place under the write lock of a StampedLock.
+ * Lookups read optimistically and only take the read lock when a repair ran
+ * while they read, so they never see a cell halfway through a repair.
+ */
+class ChargerDistanceField {
+
+	/**
+	 * Cost of cells that can't reach a charging station
+	 */
+	static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	private final NavigationGrid _grid;
+	private final Floor _floor;
+	private final int[] _cost;
+	private final int[] _station;
+	private final int[] _next;
+	private final IndexedMinHeap _heap;
+	private final StampedLock _lock;
+	private final boolean[] _doorOpen;
+	private final boolean[] _doorSnapshot;
+	private final boolean[] _cleared;
+	private int[] _clearedCells;
+	private volatile int _lastRepairSize;
+	private volatile long _version;
+
+	/**
+	 * Builds the field for the current door states of grid's floor
+	 * @param grid grid to build the field on
+	 */
+	ChargerDistanceField(NavigationGrid grid){
+		_grid = grid;
+		_floor = grid.getFloor();
+		_cost = new int[grid.getCellCount()];
+		_station = new int[grid.getCellCount()];
+		_next = new int[grid.getCellCount()];
+		_heap = new IndexedMinHeap(grid.getCellCount());
+		_lock = new StampedLock();
+		_doorOpen = new boolean[_floor.getDoorCount()];
+		_doorSnapshot = new boolean[_floor.getDoorCount()];
+		_cleared = new boolean[grid.getCellCount()];
+		_clearedCells = new int[64];
+		build();
+	}
+
+	/**
+	 * @param cell dense cell index
+	 * @return power needed to reach the nearest charging station, or UNREACHABLE
+	 */
+	int getCost(int cell){
+		refresh();
+		return read(_cost, cell);
+	}
+
+	/**
+	 * @param cell dense cell index
+	 * @return index of the nearest charging station, see Floor.getChargingStation, or -1
+	 */
+	int getStation(int cell){
+		refresh();
+		return read(_station, cell);
+	}
+
+	/**
+	 * @param cell dense cell index
+	 * @return the next cell on the cheapest way to the nearest charging station, -1 at a station or if unreachable
+	 */
+	int getNextCell(int cell){
+		refresh();
+		return read(_next, cell);
+	}
+
+	/**
+	 * Reads one value of the field, waiting for a repair that runs at the same time
+	 */
+	private int read(int[] values, int cell){
+		long stamp = _lock.tryOptimisticRead();
+		int value = values[cell];
+		if(_lock.validate(stamp))
+			return value;
+		stamp = _lock.readLock();
+		try{
+			return values[cell];
+		}
+		finally{
+			_lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @return number of cells whose value was recomputed by the last repair
+	 */
+	int getLastRepairSize(){
+		return _lastRepairSize;
+	}
+
+	/**
+	 * Brings the field up to date with the doors of the floor, does nothing if no door changed
+	 */
+	void refresh(){
+		if(_version != _floor.getDoorVersion())
+			repair();
+	}
+
+	private synchronized void build(){
+		_version = _floor.readDoorStates(_doorOpen);
+		Arrays.fill(_cost, UNREACHABLE);
+		Arrays.fill(_station, -1);
+		Arrays.fill(_next, -1);
+		_heap.clear();
+		for(int i=0; i<_floor.getChargingStationCount(); i++){
+			int cell = _floor.indexOf(_floor.getChargingStation(i));
+			_cost[cell] = 0;
+			_station[cell] = i;
+			_heap.insertOrUpdate(cell, 0);
+		}
+		propagate();
+	}
+
+	private synchronized void repair(){
+		long version = _floor.readDoorStates(_doorSnapshot);
+		if(version == _version)
+			return;
+
+		int repaired = 0;
+		long stamp = _lock.writeLock();
+		try{
+			for(int i=0; i<_doorSnapshot.length; i++){
+				if(_doorSnapshot[i] == _doorOpen[i])
+					continue;
+				int door = _floor.indexOf(_floor.getDoor(i));
+				if(_doorSnapshot[i])
+					repaired += doorOpened(door);
+				else
+					repaired += doorClosed(door);
+				_doorOpen[i] = _doorSnapshot[i];
+			}
+		}
+		finally{
+			_lock.unlockWrite(stamp);
+		}
+		_lastRepairSize = repaired;
+		_version = version;
+	}
+
+	/**
+	 * Relaxes every move that starts near the door and propagates the improvements
+	 * @return number of cells that got cheaper
+	 */
+	private int doorOpened(int door){
+		int x = _grid.xOf(door);
+		int y = _grid.yOf(door);
+		for(int nx=Math.max(0, x - 2); nx<=Math.min(_grid.getSizeX() - 1, x + 2); nx++){
+			for(int ny=Math.max(0, y - 2); ny<=Math.min(_grid.getSizeY() - 1, y + 2); ny++){
+				int cell = _grid.indexOf(nx, ny);
+				if(_grid.isPassable(cell))
+					relaxFromNeighbours(cell);
+			}
+		}
+		return propagate();
+	}
+
+	/**
+	 * Clears every cell whose way home used a move through the door and computes them again
+	 * @return number of cells cleared
+	 */
+	private int doorClosed(int door){
+		int count = 0;
+		int x = _grid.xOf(door);
+		int y = _grid.yOf(door);
+		for(int nx=Math.max(0, x - 2); nx<=Math.min(_grid.getSizeX() - 1, x + 2); nx++){
+			for(int ny=Math.max(0, y - 2); ny<=Math.min(_grid.getSizeY() - 1, y + 2); ny++){
+				int cell = _grid.indexOf(nx, ny);
+				if(!_cleared[cell] && _cost[cell] != UNREACHABLE && !hasValidNext(cell))
+					count = clear(cell, count);
+			}
+		}
+
+		// Every cell whose next cell was cleared depends on the closed door too
+		for(int i=0; i<count; i++){
+			int cell = _clearedCells[i];
+			for(int d=0; d<8; d++){
+				for(int back=1; back<=2; back++){
+					int from = behind(cell, d, back);
+					if(from >= 0 && !_cleared[from] && _next[from] == cell)
+						count = clear(from, count);
+				}
+			}
+		}
+
+		for(int i=0; i<count; i++){
+			int cell = _clearedCells[i];
+			_cost[cell] = UNREACHABLE;
+			_station[cell] = -1;
+			_next[cell] = -1;
+		}
+		for(int i=0; i<count; i++){
+			int cell = _clearedCells[i];
+			_cleared[cell] = false;
+			if(_grid.isPassable(cell))
+				relaxFromNeighbours(cell);
+		}
+		propagate();
+		return count;
+	}
+
+	private int clear(int cell, int count){
+		if(count == _clearedCells.length)
+			_clearedCells = Arrays.copyOf(_clearedCells, count * 2);
+		_clearedCells[count] = cell;
+		_cleared[cell] = true;
+		return count + 1;
+	}
+
+	/**
+	 * @return true if cell is a station, or the move to its next cell is still possible
+	 */
+	private boolean hasValidNext(int cell){
+		int next = _next[cell];
+		if(next < 0)
+			return _station[cell] >= 0 && _grid.isPassable(cell);
+		return _grid.isPassable(cell) && _grid.destination(cell, _grid.directionOf(cell, next)) == next;
+	}
+
+	/**
+	 * Cell back steps behind cell against direction, without checking any moves
+	 */
+	private int behind(int cell, int direction, int back){
+		int x = _grid.xOf(cell) - NavigationGrid.DX[direction] * back;
+		int y = _grid.yOf(cell) - NavigationGrid.DY[direction] * back;
+		if(x < 0 || y < 0 || x >= _grid.getSizeX() || y >= _grid.getSizeY())
+			return -1;
+		return _grid.indexOf(x, y);
+	}
+
+	/**
+	 * Lowers the cost of cell to the best of its moves and queues it if that helped
+	 */
+	private void relaxFromNeighbours(int cell){
+		for(int d=0; d<8; d++){
+			int next = _grid.destination(cell, d);
+			if(next < 0 || _cost[next] == UNREACHABLE)
+				continue;
+			int cost = _cost[next] + _grid.getCost(next);
+			if(cost < _cost[cell]){
+				_cost[cell] = cost;
+				_station[cell] = _station[next];
+				_next[cell] = next;
+				_heap.insertOrUpdate(cell, cost);
+			}
+		}
+	}
+
+	/**
+	 * Dijkstra backwards over the moves, from the queued cells outwards
+	 * @return number of cells settled
+	 */
+	private int propagate(){
+		int settled = 0;
+		while(!_heap.isEmpty()){
+			int cell = _heap.poll();
+			settled++;
+			int cost = _cost[cell] + _grid.getCost(cell);
+			for(int d=0; d<8; d++){
+				for(int back=1; back<=2; back++){
+					int from = _grid.origin(cell, d, back == 2);
+					if(from >= 0 && cost < _cost[from]){
+						_cost[from] = cost;
+						_station[from] = _station[cell];
+						_next[from] = cell;
+						_heap.insertOrUpdate(from, cost);
+					}
+				}
+			}
+		}
+		return settled;
+	}
+}
@@ -0,0 +1,494 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+
+/**
+ * Route that lands on every open cell a robot can reach, for cleaning the
+ * whole floor.
+ * <p>
+ * Each room is split into boustrophedon cells (Choset): every column of the
+ * floor is cut into runs of open cells, and a run continues the sweep cell of
+ * the run beside it in the column before when the two only touch each other.
+ * Where an obstacle splits or joins runs a new sweep cell starts, so each one
+ * can be swept column by column, up one column and down the next, with single
+ * moves. Sweep cells are visited depth first over the ones they touch, the
+ * nearest first, and a short sweep cell beside a column, like the gap between
+ * two shelves, is swept on the way past it. Where the next cell to sweep is
+ * more than a move away, A* bridges the gap. Rooms are swept one after the
+ * other, the next one is picked on the links of the RoomMap rather than by a
+ * search over the cells: of the rooms an open link away from the rooms swept
+ * so far, the one behind the door nearest the robot goes next, entered at its
+ * cell closest to that door. The decomposition is one pass over the grid,
+ * made once, and a plan sweeps every cell once apart from the bridges. Every
+ * covered cell but the start has to be landed on at least once, so the sum of
+ * their costs is a lower bound on the power of any covering route.
+ */
+class CoveragePlanner {
+
+	private static final int POCKET_LENGTH = 3;
+
+	private final NavigationGrid _grid;
+	private final RoomMap _rooms;
+	private final AStarPlanner _bridges;
+
+	// Runs of open cells in order of x then y, and the sweep cell of every open cell
+	private final int[] _columnStart;
+	private final int[] _runX;
+	private final int[] _runStart;
+	private final int[] _runEnd;
+	private final int[] _sweepOf;
+
+	// Runs of every sweep cell in order of x and the sweep cells it touches
+	private final int[] _sweepRunStart;
+	private final int[] _sweepRuns;
+	private final int[] _neighbourStart;
+	private final int[] _neighbours;
+
+	// Open cells of every room
+	private final int[] _roomCellStart;
+	private final int[] _roomCells;
+
+	// Breadth first search over the moves, to count what can be reached
+	private final int[] _seenIn;
+	private final int[] _queue;
+	private int _queueLength;
+	private int _search;
+
+	private final int[] _pockets;
+	private int _pocketCount;
+	private int[] _route = new int[256];
+	private int _routeLength;
+	private int _expansions;
+	private long _lowerBound;
+	private int _covered;
+
+	/**
+	 * Decomposes every room into sweep cells
+	 * @param rooms rooms of the floor to cover
+	 */
+	CoveragePlanner(RoomMap rooms){
+		_rooms = rooms;
+		_grid = rooms.getGrid();
+		// Bridges need not be cheapest, the moves to the target alone keep them from flooding doors and chargers
+		int minCost = Math.max(1, _grid.getMinPositiveCost());
+		_bridges = new AStarPlanner(_grid, new Heuristic(){
+			@Override
+			public void prepare(int source, int target) {
+			}
+
+			@Override
+			public int estimate(int cell, int target) {
+				return minCost * _grid.distance(cell, target);
+			}
+		});
+		_seenIn = new int[_grid.getCellCount()];
+		_queue = new int[_grid.getCellCount()];
+		int sizeX = _grid.getSizeX();
+		int sizeY = _grid.getSizeY();
+
+		int roomCount = rooms.getRoomCount();
+		_roomCellStart = new int[roomCount + 1];
+		for(int room=0; room<roomCount; room++)
+			_roomCellStart[room + 1] = _roomCellStart[room] + rooms.getRoomSize(room);
+		_roomCells = new int[_roomCellStart[roomCount]];
+		int[] roomFill = Arrays.copyOf(_roomCellStart, roomCount);
+		for(int cell=0; cell<_grid.getCellCount(); cell++){
+			int room = rooms.roomOf(cell);
+			if(room >= 0)
+				_roomCells[roomFill[room]++] = cell;
+		}
+
+		_columnStart = new int[sizeX + 1];
+		int[] runX = new int[64];
+		int[] runStart = new int[64];
+		int[] runEnd = new int[64];
+		int runs = 0;
+		for(int x=0; x<sizeX; x++){
+			_columnStart[x] = runs;
+			for(int y=0; y<sizeY; y++){
+				if(_grid.getKind(x * sizeY + y) != NavigationGrid.OPEN)
+					continue;
+				int start = y;
+				while(y + 1 < sizeY && _grid.getKind(x * sizeY + y + 1) == NavigationGrid.OPEN)
+					y++;
+				if(runs == runX.length){
+					runX = Arrays.copyOf(runX, runs * 2);
+					runStart = Arrays.copyOf(runStart, runs * 2);
+					runEnd = Arrays.copyOf(runEnd, runs * 2);
+				}
+				runX[runs] = x;
+				runStart[runs] = start;
+				runEnd[runs++] = y;
+			}
+		}
+		_columnStart[sizeX] = runs;
+		_runX = Arrays.copyOf(runX, runs);
+		_runStart = Arrays.copyOf(runStart, runs);
+		_runEnd = Arrays.copyOf(runEnd, runs);
+
+		// Runs of neighbouring columns touch when they overlap, corners included,
+		// and the runs of one column a run touches follow each other from firstTouch
+		int[] firstTouch = new int[runs];
+		int[] touchesBefore = new int[runs];
+		int[] touchesAfter = new int[runs];
+		for(int x=1; x<sizeX; x++){
+			int before = _columnStart[x - 1];
+			for(int run=_columnStart[x]; run<_columnStart[x + 1]; run++){
+				while(before < _columnStart[x] && _runEnd[before] + 1 < _runStart[run])
+					before++;
+				firstTouch[run] = before;
+				for(int q=before; q<_columnStart[x] && _runStart[q] <= _runEnd[run] + 1; q++){
+					touchesBefore[run]++;
+					touchesAfter[q]++;
+				}
+			}
+		}
+
+		// A run starts a new sweep cell unless it and the run it touches only touch each other
+		int[] runSweep = new int[runs];
+		int sweeps = 0;
+		int[] edges = new int[64];
+		int edgeCount = 0;
+		for(int run=0; run<runs; run++){
+			int before = firstTouch[run];
+			if(touchesBefore[run] == 1 && touchesAfter[before] == 1){
+				runSweep[run] = runSweep[before];
+				continue;
+			}
+			runSweep[run] = sweeps++;
+			if(edgeCount + 2 * touchesBefore[run] > edges.length)
+				edges = Arrays.copyOf(edges, 2 * (edgeCount + 2 * touchesBefore[run]));
+			for(int q=before; q<before + touchesBefore[run]; q++){
+				edges[edgeCount++] = runSweep[q];
+				edges[edgeCount++] = runSweep[run];
+			}
+		}
+
+		_sweepRunStart = new int[sweeps + 1];
+		for(int run=0; run<runs; run++)
+			_sweepRunStart[runSweep[run] + 1]++;
+		for(int s=0; s<sweeps; s++)
+			_sweepRunStart[s + 1] += _sweepRunStart[s];
+		_sweepRuns = new int[runs];
+		int[] fill = Arrays.copyOf(_sweepRunStart, sweeps);
+		for(int run=0; run<runs; run++)
+			_sweepRuns[fill[runSweep[run]]++] = run;
+
+		_neighbourStart = new int[sweeps + 1];
+		for(int e=0; e<edgeCount; e++)
+			_neighbourStart[edges[e] + 1]++;
+		for(int s=0; s<sweeps; s++)
+			_neighbourStart[s + 1] += _neighbourStart[s];
+		_neighbours = new int[edgeCount];
+		fill = Arrays.copyOf(_neighbourStart, sweeps);
+		for(int e=0; e<edgeCount; e+=2){
+			_neighbours[fill[edges[e]]++] = edges[e + 1];
+			_neighbours[fill[edges[e + 1]]++] = edges[e];
+		}
+
+		_pockets = new int[sweeps];
+		_sweepOf = new int[_grid.getCellCount()];
+		Arrays.fill(_sweepOf, -1);
+		for(int run=0; run<runs; run++)
+			for(int y=_runStart[run]; y<=_runEnd[run]; y++)
+				_sweepOf[_runX[run] * sizeY + y] = runSweep[run];
+	}
+
+	/**
+	 * @return number of boustrophedon cells over all rooms
+	 */
+	int getSweepCellCount(){
+		return _sweepRunStart.length - 1;
+	}
+
+	/**
+	 * @return power any route covering the cells of the last plan needs, the cost of every covered cell but the start
+	 */
+	long getLastLowerBound(){
+		return _lowerBound;
+	}
+
+	/**
+	 * @return number of open cells the last plan covers, the start included
+	 */
+	int getLastCoveredCount(){
+		return _covered;
+	}
+
+	/**
+	 * Plans a route from start over every open cell reachable through the doors as they are now
+	 * @param start dense index of the open cell the robot starts on
+	 * @return the route, the cost is the power it takes, or null if start is not an open cell
+	 */
+	PlannedPath plan(int start){
+		if(_grid.getKind(start) != NavigationGrid.OPEN)
+			return null;
+		reach(start);
+		_routeLength = 0;
+		_expansions = 0;
+		append(start);
+
+		boolean[] swept = new boolean[getSweepCellCount()];
+		int[] stack = new int[_neighbours.length + 1];
+		boolean[] doorOpen = new boolean[_grid.getDoorCells().length];
+		_grid.getFloor().readDoorStates(doorOpen);
+		boolean[] seen = new boolean[_rooms.getNodeCount()];
+		boolean[] roomSwept = new boolean[_rooms.getRoomCount()];
+		int[] candidates = new int[_rooms.getRoomCount()];
+		int[] doors = new int[_rooms.getNodeCount()];
+		int room = _rooms.roomOf(start);
+		seen[room] = true;
+		int entry = start;
+		int candidateCount = 0;
+		while(true){
+			moveTo(entry);
+			sweepRoom(_sweepOf[entry], swept, stack);
+			roomSwept[room] = true;
+			candidateCount = addNextRooms(room, doorOpen, seen, candidates, candidateCount, doors);
+			if(candidateCount == 0)
+				break;
+
+			// The room behind the door fewest moves from where the sweep ended goes next
+			int here = _route[_routeLength - 1];
+			int nearest = -1;
+			int nearestDoor = -1;
+			for(int i=0; i<candidateCount; i++){
+				int door = nearestDoor(candidates[i], here, doorOpen, seen, roomSwept);
+				if(nearest < 0 || _grid.distance(door, here) < _grid.distance(nearestDoor, here)){
+					nearest = i;
+					nearestDoor = door;
+				}
+			}
+			room = candidates[nearest];
+			candidates[nearest] = candidates[--candidateCount];
+			entry = closestCell(room, nearestDoor);
+		}
+
+		int[] cells = Arrays.copyOf(_route, _routeLength);
+		int cost = 0;
+		for(int i=1; i<cells.length; i++)
+			cost += _grid.getCost(cells[i]);
+		return new PlannedPath(cells, cost, _expansions, _grid.getDoorVersion());
+	}
+
+	/**
+	 * Counts the open cells reachable from start and sums the lower bound
+	 */
+	private void reach(int start){
+		startSearch(start);
+		_lowerBound = -_grid.getCost(start);
+		_covered = 0;
+		for(int head=0; head<_queueLength; head++){
+			int cell = _queue[head];
+			// Doors can be landed on behind another door but need no cleaning
+			if(_rooms.roomOf(cell) >= 0){
+				_lowerBound += _grid.getCost(cell);
+				_covered++;
+			}
+			expand(cell);
+		}
+	}
+
+	/**
+	 * Adds the rooms one open link of the RoomMap away from room, or behind
+	 * doors the robot can stand on, to the candidates for the next room
+	 * @return the new number of candidates
+	 */
+	private int addNextRooms(int room, boolean[] doorOpen, boolean[] seen, int[] candidates, int candidateCount, int[] doors){
+		int doorCount = 0;
+		int node = room;
+		while(true){
+			for(int i=_rooms.getNodeLinkStart(node); i<_rooms.getNodeLinkEnd(node); i++){
+				int link = _rooms.getNodeLink(i);
+				int next = _rooms.getLinkFrom(link) == node ? _rooms.getLinkTo(link) : _rooms.getLinkFrom(link);
+				if(seen[next] || !_rooms.isLinkOpen(link, doorOpen))
+					continue;
+				seen[next] = true;
+				if(next < _rooms.getRoomCount())
+					candidates[candidateCount++] = next;
+				else
+					doors[doorCount++] = next;
+			}
+			if(doorCount == 0)
+				return candidateCount;
+			node = doors[--doorCount];
+		}
+	}
+
+	/**
+	 * @return the cell of the door nearest to cell among the open links from room to swept rooms and door nodes
+	 */
+	private int nearestDoor(int room, int cell, boolean[] doorOpen, boolean[] seen, boolean[] roomSwept){
+		int[] doorCells = _grid.getDoorCells();
+		int nearest = -1;
+		for(int i=_rooms.getNodeLinkStart(room); i<_rooms.getNodeLinkEnd(room); i++){
+			int link = _rooms.getNodeLink(i);
+			int next = _rooms.getLinkFrom(link) == room ? _rooms.getLinkTo(link) : _rooms.getLinkFrom(link);
+			if(!_rooms.isLinkOpen(link, doorOpen) || (next < roomSwept.length ? !roomSwept[next] : !seen[next]))
+				continue;
+			for(int d=_rooms.getLinkDoorStart(link); d<_rooms.getLinkDoorEnd(link); d++){
+				int door = doorCells[_rooms.getLinkDoor(d)];
+				if(nearest < 0 || _grid.distance(door, cell) < _grid.distance(nearest, cell))
+					nearest = door;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * @return the open cell of room fewest moves from cell on an empty floor
+	 */
+	private int closestCell(int room, int cell){
+		int closest = _roomCells[_roomCellStart[room]];
+		for(int i=_roomCellStart[room] + 1; i<_roomCellStart[room + 1]; i++)
+			if(_grid.distance(_roomCells[i], cell) < _grid.distance(closest, cell))
+				closest = _roomCells[i];
+		return closest;
+	}
+
+	private void startSearch(int start){
+		if(++_search == Integer.MAX_VALUE){
+			Arrays.fill(_seenIn, 0);
+			_search = 1;
+		}
+		_queue[0] = start;
+		_queueLength = 1;
+		_seenIn[start] = _search;
+	}
+
+	/**
+	 * Queues the cells one move from cell that the current search hasn't seen
+	 */
+	private void expand(int cell){
+		int x = _grid.xOf(cell);
+		int y = _grid.yOf(cell);
+		for(int d=0; d<8; d++){
+			int next = _grid.destination(x, y, d);
+			if(next >= 0 && _seenIn[next] != _search){
+				_seenIn[next] = _search;
+				_queue[_queueLength++] = next;
+			}
+		}
+	}
+
+	/**
+	 * Sweeps the sweep cells of one room depth first from entry, the nearest touching cell first
+	 */
+	private void sweepRoom(int entry, boolean[] swept, int[] stack){
+		int top = 0;
+		stack[top++] = entry;
+		while(top > 0){
+			int sweep = stack[--top];
+			if(swept[sweep])
+				continue;
+			swept[sweep] = true;
+			_pocketCount = 0;
+			sweep(sweep, swept, true);
+
+			// Pockets swept on the way may be the only way on to other sweep cells
+			int here = _route[_routeLength - 1];
+			int mark = top;
+			for(int p=-1; p<_pocketCount; p++){
+				int from = p < 0 ? sweep : _pockets[p];
+				for(int n=_neighbourStart[from]; n<_neighbourStart[from + 1]; n++)
+					if(!swept[_neighbours[n]])
+						stack[top++] = _neighbours[n];
+			}
+			int nearest = top - 1;
+			for(int i=mark; i<top - 1; i++)
+				if(distanceTo(stack[i], here) < distanceTo(stack[nearest], here))
+					nearest = i;
+			if(nearest >= mark){
+				int swap = stack[nearest];
+				stack[nearest] = stack[top - 1];
+				stack[top - 1] = swap;
+			}
+		}
+	}
+
+	/**
+	 * Sweeps one sweep cell from its end nearest to the route, each column from its end nearest to the route.
+	 * Pockets beside a column are swept on the way past them.
+	 */
+	private void sweep(int sweep, boolean[] swept, boolean detours){
+		int first = _sweepRunStart[sweep];
+		int last = _sweepRunStart[sweep + 1] - 1;
+		int here = _route[_routeLength - 1];
+		boolean forward = distanceTo(_sweepRuns[first], here, true) <= distanceTo(_sweepRuns[last], here, true);
+		for(int i=0; i<=last - first; i++){
+			int run = _sweepRuns[forward ? first + i : last - i];
+			int x = _runX[run];
+			here = _route[_routeLength - 1];
+			boolean up = distanceTo(run, here, false) <= _grid.distance(here, _grid.indexOf(x, _runEnd[run]));
+			int step = up ? 1 : -1;
+			int end = up ? _runEnd[run] : _runStart[run];
+			for(int y=up ? _runStart[run] : _runEnd[run]; y!=end + step; y+=step){
+				moveTo(_grid.indexOf(x, y));
+				if(!detours)
+					continue;
+				for(int side=-1; side<=1; side+=2){
+					int pocket = x + side >= 0 && x + side < _grid.getSizeX() ? _sweepOf[_grid.indexOf(x + side, y)] : -1;
+					if(pocket >= 0 && !swept[pocket] && isPocket(pocket)){
+						swept[pocket] = true;
+						_pockets[_pocketCount++] = pocket;
+						sweep(pocket, swept, false);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true for a sweep cell of a single short run, cheaper to sweep from beside it than on its own
+	 */
+	private boolean isPocket(int sweep){
+		if(_sweepRunStart[sweep + 1] - _sweepRunStart[sweep] != 1)
+			return false;
+		int run = _sweepRuns[_sweepRunStart[sweep]];
+		return _runEnd[run] - _runStart[run] < POCKET_LENGTH;
+	}
+
+	/**
+	 * Extends the route to cell, with a single move or an A* path
+	 */
+	private void moveTo(int cell){
+		int here = _route[_routeLength - 1];
+		if(cell == here)
+			return;
+		if(_grid.distance(here, cell) == 1){
+			append(cell);
+			return;
+		}
+		PlannedPath bridge = _bridges.plan(here, cell);
+		if(bridge == null)
+			throw new IllegalStateException("no path between two reachable cells " + here + " and " + cell);
+		_expansions += bridge.getExpansions();
+		int[] cells = bridge.getCells();
+		for(int i=1; i<cells.length; i++)
+			append(cells[i]);
+	}
+
+	private void append(int cell){
+		if(_routeLength == _route.length)
+			_route = Arrays.copyOf(_route, _routeLength * 2);
+		_route[_routeLength++] = cell;
+	}
+
+	/**
+	 * Moves from cell to the nearest corner of a sweep cell on an empty floor
+	 */
+	private int distanceTo(int sweep, int cell){
+		return Math.min(distanceTo(_sweepRuns[_sweepRunStart[sweep]], cell, true),
+				distanceTo(_sweepRuns[_sweepRunStart[sweep + 1] - 1], cell, true));
+	}
+
+	/**
+	 * Moves from cell to the start of a run, or to its nearer end when bothEnds is true, on an empty floor
+	 */
+	private int distanceTo(int run, int cell, boolean bothEnds){
+		int distance = _grid.distance(cell, _grid.indexOf(_runX[run], _runStart[run]));
+		if(bothEnds)
+			distance = Math.min(distance, _grid.distance(cell, _grid.indexOf(_runX[run], _runEnd[run])));
+		return distance;
+	}
+}
@@ -0,0 +1,342 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+
+/**
+ * Incremental planner for one robot following D* Lite (Koenig and Likhachev).
+ * <p>
+ * The search runs backwards from the goal and is kept between calls. When the
+ * robot asks again, only the cells touched by door changes since the last call
+ * are made consistent again, so the work depends on how much of the cheapest
+ * route changed rather than on the size of the floor. Moving the robot is
+ * absorbed into the key offset instead of a new search. A new goal starts a
+ * fresh search. All state lives in primitive arrays owned by this planner,
+ * use one planner per robot.
+ */
+class DStarLitePlanner implements PathPlanner {
+
+	private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+	private final NavigationGrid _grid;
+	private final Floor _floor;
+	private final Heuristic _heuristic;
+	private final int[] _g;
+	private final int[] _rhs;
+	private final int[] _searchOf;
+	private final IndexedMinHeap _open;
+	private final boolean[] _doorOpen;
+	private final boolean[] _doorSnapshot;
+	private final int[] _walkOf;
+	private int _walk;
+	private int _search;
+	private int _goal;
+	private int _start;
+	private int _keyOffset;
+	private long _doorVersion;
+	private int _expansions;
+
+	DStarLitePlanner(NavigationGrid grid){
+		this(grid, new OctileHeuristic(grid));
+	}
+
+	/**
+	 * @param grid grid to plan on
+	 * @param heuristic heuristic that is consistent in both arguments
+	 */
+	DStarLitePlanner(NavigationGrid grid, Heuristic heuristic){
+		_grid = grid;
+		_floor = grid.getFloor();
+		_heuristic = heuristic;
+		_g = new int[grid.getCellCount()];
+		_rhs = new int[grid.getCellCount()];
+		_searchOf = new int[grid.getCellCount()];
+		_open = new IndexedMinHeap(grid.getCellCount());
+		_doorOpen = new boolean[_floor.getDoorCount()];
+		_doorSnapshot = new boolean[_floor.getDoorCount()];
+		_walkOf = new int[grid.getCellCount()];
+		_goal = -1;
+	}
+
+	/**
+	 * Plans from source to target, reusing the previous search if target is unchanged
+	 */
+	@Override
+	public PlannedPath plan(int source, int target) {
+		if(target != _goal)
+			setGoal(target, source);
+		return replan(source);
+	}
+
+	/**
+	 * Starts a new search towards goal
+	 * @param goal dense index of the goal cell
+	 * @param start dense index of the robot's cell
+	 */
+	void setGoal(int goal, int start){
+		_open.clear();
+		if(++_search == Integer.MAX_VALUE){
+			Arrays.fill(_searchOf, 0);
+			_search = 1;
+		}
+		_goal = goal;
+		_start = start;
+		_keyOffset = 0;
+		_doorVersion = _floor.readDoorStates(_doorOpen);
+		touch(goal);
+		_rhs[goal] = 0;
+		_open.insertOrUpdate(goal, key(goal));
+	}
+
+	/**
+	 * Brings the search up to date with the doors and the robot's cell and returns the cheapest path
+	 * @param start dense index of the robot's cell
+	 * @return path to the goal, or null if the goal can't be reached
+	 */
+	PlannedPath replan(int start){
+		_expansions = 0;
+		_keyOffset += _heuristic.estimate(_start, start);
+		_start = start;
+		if(_doorVersion != _floor.getDoorVersion())
+			applyDoorChanges();
+
+		computeShortestPath();
+		if(rhs(start) >= INFINITY || !_grid.isPassable(start))
+			return null;
+		int[] cells = extractPath(start);
+		int cost = 0;
+		for(int i=1; i<cells.length; i++)
+			cost += _grid.getCost(cells[i]);
+		return new PlannedPath(cells, cost, _expansions, _doorVersion);
+	}
+
+	/**
+	 * @return number of cells expanded by the last replan
+	 */
+	int getLastExpansions(){
+		return _expansions;
+	}
+
+	private void applyDoorChanges(){
+		_doorVersion = _floor.readDoorStates(_doorSnapshot);
+		for(int i=0; i<_doorSnapshot.length; i++){
+			if(_doorSnapshot[i] == _doorOpen[i])
+				continue;
+			_doorOpen[i] = _doorSnapshot[i];
+
+			// Every move that passes, leaves or lands on the door starts within two cells of it
+			int door = _floor.indexOf(_floor.getDoor(i));
+			int x = _grid.xOf(door);
+			int y = _grid.yOf(door);
+			for(int nx=Math.max(0, x - 2); nx<=Math.min(_grid.getSizeX() - 1, x + 2); nx++){
+				for(int ny=Math.max(0, y - 2); ny<=Math.min(_grid.getSizeY() - 1, y + 2); ny++){
+					int cell = _grid.indexOf(nx, ny);
+					if(cell != _goal){
+						touch(cell);
+						_rhs[cell] = bestSuccessor(cell);
+						updateVertex(cell);
+					}
+				}
+			}
+		}
+	}
+
+	private void computeShortestPath(){
+		while(!_open.isEmpty() && (_open.peekKey() < key(_start) || rhs(_start) > g(_start))){
+			int cell = _open.peek();
+			long oldKey = _open.peekKey();
+			long newKey = key(cell);
+			if(oldKey < newKey){
+				_open.insertOrUpdate(cell, newKey);
+				continue;
+			}
+
+			_expansions++;
+			if(_g[cell] > _rhs[cell]){
+				_g[cell] = _rhs[cell];
+				_open.remove(cell);
+				int cost = _g[cell] + _grid.getCost(cell);
+				for(int d=0; d<8; d++){
+					for(int back=1; back<=2; back++){
+						int from = _grid.origin(cell, d, back == 2);
+						if(from >= 0 && from != _goal){
+							touch(from);
+							if(cost < _rhs[from]){
+								_rhs[from] = cost;
+								updateVertex(from);
+							}
+						}
+					}
+				}
+			}
+			else{
+				int oldCost = _g[cell] + _grid.getCost(cell);
+				_g[cell] = INFINITY;
+				if(cell != _goal)
+					_rhs[cell] = bestSuccessor(cell);
+				updateVertex(cell);
+				for(int d=0; d<8; d++){
+					for(int back=1; back<=2; back++){
+						int from = _grid.origin(cell, d, back == 2);
+						if(from >= 0 && from != _goal){
+							touch(from);
+							if(_rhs[from] == oldCost){
+								_rhs[from] = bestSuccessor(from);
+								updateVertex(from);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private int bestSuccessor(int cell){
+		if(!_grid.isPassable(cell))
+			return INFINITY;
+		int best = INFINITY;
+		for(int d=0; d<8; d++){
+			int next = _grid.destination(cell, d);
+			if(next >= 0)
+				best = Math.min(best, g(next) + _grid.getCost(next));
+		}
+		return Math.min(best, INFINITY);
+	}
+
+	/**
+	 * Follows the cheapest successor from start to the goal. Every step has to
+	 * keep the cost promised by rhs(start). Where only zero cost cells tie for
+	 * the cheapest step, the cells of that tie are searched breadth first for
+	 * the nearest one that leaves it, a plain argmin could walk the tie forever.
+	 * @param start dense index of the robot's cell
+	 * @return cells from start to the goal
+	 * @throws IllegalStateException if the g values don't lead to the goal at the promised cost
+	 */
+	private int[] extractPath(int start){
+		if(++_walk == Integer.MAX_VALUE){
+			Arrays.fill(_walkOf, 0);
+			_walk = 1;
+		}
+		int[] cells = new int[64];
+		int length = 0;
+		cells[length++] = start;
+		_walkOf[start] = _walk;
+		int remaining = rhs(start);
+		while(cells[length - 1] != _goal){
+			int cell = cells[length - 1];
+			int best = cheapestStep(cell, remaining);
+			if(best < 0){
+				int[] run = leaveZeroCostTie(cell, remaining);
+				if(length + run.length > cells.length)
+					cells = Arrays.copyOf(cells, Math.max(length * 2, length + run.length));
+				System.arraycopy(run, 0, cells, length, run.length);
+				length += run.length;
+				continue;
+			}
+			remaining = g(best);
+			if(length == cells.length)
+				cells = Arrays.copyOf(cells, length * 2);
+			cells[length++] = best;
+			_walkOf[best] = _walk;
+		}
+		return Arrays.copyOf(cells, length);
+	}
+
+	/**
+	 * @return the cheapest successor of cell if it costs something to enter, or -1 if only zero cost cells tie for it
+	 * @throws IllegalStateException if no successor keeps the remaining cost
+	 */
+	private int cheapestStep(int cell, int remaining){
+		int best = -1;
+		int bestCost = INFINITY;
+		boolean tie = false;
+		for(int d=0; d<8; d++){
+			int next = _grid.destination(cell, d);
+			if(next < 0)
+				continue;
+			int cost = g(next) + _grid.getCost(next);
+			if(cost < bestCost || (cost == bestCost && best >= 0 && _grid.getCost(best) == 0)){
+				best = next;
+				bestCost = cost;
+			}
+			if(cost == remaining && _grid.getCost(next) == 0)
+				tie = true;
+		}
+		if(bestCost != remaining)
+			throw new IllegalStateException("cheapest route breaks off at cell " + cell + ", expected " + remaining + " to go but found " + bestCost);
+		return tie && _grid.getCost(best) == 0 ? -1 : best;
+	}
+
+	/**
+	 * Breadth first search over the zero cost cells that keep the remaining cost,
+	 * from cell to the first one with a paid step that keeps it, or to the goal
+	 * @return cells after cell up to and including the one found
+	 * @throws IllegalStateException if no cell of the tie leaves it
+	 */
+	private int[] leaveZeroCostTie(int cell, int remaining){
+		int[] queue = new int[16];
+		int[] parent = new int[16];
+		int tail = 0;
+		queue[tail] = cell;
+		parent[tail++] = -1;
+		for(int head=0; head<tail; head++){
+			int here = queue[head];
+			if(head > 0 && (here == _goal || cheapestStep(here, remaining) >= 0)){
+				int length = 0;
+				for(int i=head; i>0; i=parent[i])
+					length++;
+				int[] run = new int[length];
+				for(int i=head; i>0; i=parent[i]){
+					run[--length] = queue[i];
+					_walkOf[queue[i]] = _walk;
+				}
+				return run;
+			}
+			for(int d=0; d<8; d++){
+				int next = _grid.destination(here, d);
+				if(next < 0 || _walkOf[next] == _walk || _grid.getCost(next) != 0 || g(next) != remaining)
+					continue;
+				_walkOf[next] = _walk;
+				if(tail == queue.length){
+					queue = Arrays.copyOf(queue, tail * 2);
+					parent = Arrays.copyOf(parent, tail * 2);
+				}
+				queue[tail] = next;
+				parent[tail++] = head;
+			}
+		}
+		throw new IllegalStateException("no way out of the zero cost cells around " + cell + " with " + remaining + " to go");
+	}
+
+	private void updateVertex(int cell){
+		if(_g[cell] != _rhs[cell])
+			_open.insertOrUpdate(cell, key(cell));
+		else
+			_open.remove(cell);
+	}
+
+	private long key(int cell){
+		int best = Math.min(g(cell), rhs(cell));
+		if(best >= INFINITY)
+			return ((long) INFINITY << 32) | INFINITY;
+		return ((long) (best + _heuristic.estimate(_start, cell) + _keyOffset) << 32) | best;
+	}
+
+	/**
+	 * Gives cell its initial values the first time the current search sees it
+	 */
+	private void touch(int cell){
+		if(_searchOf[cell] != _search){
+			_searchOf[cell] = _search;
+			_g[cell] = INFINITY;
+			_rhs[cell] = INFINITY;
+		}
+	}
+
+	private int g(int cell){
+		return _searchOf[cell] == _search ? _g[cell] : INFINITY;
+	}
+
+	private int rhs(int cell){
+		return _searchOf[cell] == _search ? _rhs[cell] : INFINITY;
+	}
+}
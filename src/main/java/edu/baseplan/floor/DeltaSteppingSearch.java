@@ -0,0 +1,225 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Single source power costs to every cell with parallel delta-stepping
+ * (Meyer and Sanders).
+ * <p>
+ * Cells are kept in buckets of width delta by their tentative cost. The
+ * lowest bucket is emptied in phases: every cell in it is relaxed in parallel
+ * on the pool, improvements go into the shared cost array with a CAS-min,
+ * and cells that land in the same bucket again form the next phase. Move
+ * costs are at most 3, so with delta of at least 3 every edge is light and
+ * a bucket never needs a separate heavy edge pass. The costs come out the
+ * same as Dijkstra's. The search runs on a NavigationGraph, so doors that
+ * change while it runs don't affect it.
+ * <p>
+ * It has not been shown to be faster than a sequential search. A wider delta
+ * doesn't cut the phases: the cells that land back in a bucket form one
+ * phase per cost level, so a phase holds only a few thousand cells. On one
+ * core it is slower than BucketSearch over the same graph, and its
+ * speedup on more cores has not been measured. Use BucketSearch unless
+ * that speedup is measured on the target machine.
+ */
+class DeltaSteppingSearch {
+
+	static final int UNREACHED = Integer.MAX_VALUE;
+
+	/**
+	 * Smallest part of a phase worth handing to another worker
+	 */
+	private static final int SPLIT = 1024;
+
+	private final NavigationGraph _graph;
+	private final ForkJoinPool _pool;
+	private final int _delta;
+	private int _phases;
+
+	/**
+	 * @param graph graph to search
+	 * @param delta bucket width in power units, at least 1
+	 * @param pool pool the phases are relaxed on
+	 */
+	DeltaSteppingSearch(NavigationGraph graph, int delta, ForkJoinPool pool){
+		if(delta < 1)
+			throw new IllegalArgumentException("delta must be at least 1");
+		_graph = graph;
+		_delta = delta;
+		_pool = pool;
+	}
+
+	/**
+	 * @param source dense index of the start cell
+	 * @return power cost of the cheapest path from source to every cell, UNREACHED where there is none
+	 */
+	int[] costsFrom(int source){
+		int cellCount = _graph.getCellCount();
+		AtomicIntegerArray cost = new AtomicIntegerArray(cellCount);
+		for(int cell=0; cell<cellCount; cell++)
+			cost.set(cell, UNREACHED);
+		_phases = 0;
+		if(!_graph.getGrid().isPassable(source))
+			return snapshot(cost);
+
+		// A move adds at most 3, so only the next few buckets are ever filled
+		int slots = 3 / _delta + 2;
+		IntBuffer[] buckets = new IntBuffer[slots];
+		for(int i=0; i<slots; i++)
+			buckets[i] = new IntBuffer();
+		int[] queuedIn = new int[cellCount];
+		Arrays.fill(queuedIn, -1);
+
+		cost.set(source, 0);
+		buckets[0].add(source);
+		queuedIn[source] = 0;
+		int pending = 1;
+		IntBuffer frontier = new IntBuffer();
+		int[] improved = new int[0];
+
+		for(int bucket=0; pending > 0; bucket++){
+			IntBuffer current = buckets[bucket % slots];
+			while(current.size() > 0){
+				// Take the cells still belonging to this bucket as the next phase
+				frontier.clear();
+				for(int i=0; i<current.size(); i++){
+					int cell = current.get(i);
+					if(queuedIn[cell] == bucket && cost.get(cell) / _delta == bucket){
+						frontier.add(cell);
+						queuedIn[cell] = -1;
+					}
+				}
+				pending -= current.size();
+				current.clear();
+				if(frontier.size() == 0)
+					break;
+
+				_phases++;
+				if(improved.length < frontier.size() * 8)
+					improved = new int[frontier.size() * 8];
+				Relax relax = new Relax(cost, frontier.array(), improved, 0, frontier.size());
+				if(frontier.size() <= SPLIT)
+					relax.compute();
+				else
+					_pool.invoke(relax);
+
+				for(int i=0; i<frontier.size() * 8; i++){
+					int cell = improved[i];
+					if(cell < 0)
+						continue;
+					int target = cost.get(cell) / _delta;
+					if(queuedIn[cell] != target){
+						queuedIn[cell] = target;
+						buckets[target % slots].add(cell);
+						pending++;
+					}
+				}
+			}
+		}
+		return snapshot(cost);
+	}
+
+	/**
+	 * @return number of parallel phases run by the last search
+	 */
+	int getLastPhases(){
+		return _phases;
+	}
+
+	private static int[] snapshot(AtomicIntegerArray cost){
+		int[] result = new int[cost.length()];
+		for(int cell=0; cell<result.length; cell++)
+			result[cell] = cost.get(cell);
+		return result;
+	}
+
+	/**
+	 * Relaxes the moves out of part of a phase. For every cell and each of its
+	 * up to eight edges, improved receives the destination if its cost was
+	 * lowered, otherwise -1.
+	 */
+	private class Relax extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final AtomicIntegerArray _cost;
+		private final int[] _frontier;
+		private final int[] _improved;
+		private final int _from;
+		private final int _to;
+
+		Relax(AtomicIntegerArray cost, int[] frontier, int[] improved, int from, int to){
+			_cost = cost;
+			_frontier = frontier;
+			_improved = improved;
+			_from = from;
+			_to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(_to - _from > SPLIT){
+				int middle = (_from + _to) >>> 1;
+				invokeAll(new Relax(_cost, _frontier, _improved, _from, middle),
+						new Relax(_cost, _frontier, _improved, middle, _to));
+				return;
+			}
+
+			for(int i=_from; i<_to; i++){
+				int cell = _frontier[i];
+				int base = _cost.get(cell);
+				int start = _graph.getEdgeStart(cell);
+				int end = _graph.getEdgeEnd(cell);
+				for(int k=0; k<8; k++){
+					int result = -1;
+					if(start + k < end){
+						int next = _graph.getEdgeTarget(start + k);
+						int candidate = base + _graph.getEdgeWeight(start + k);
+						int old = _cost.get(next);
+						while(candidate < old){
+							if(_cost.compareAndSet(next, old, candidate)){
+								result = next;
+								break;
+							}
+							old = _cost.get(next);
+						}
+					}
+					_improved[i * 8 + k] = result;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Growable list of cell indices
+	 */
+	private static final class IntBuffer {
+		private int[] _cells = new int[64];
+		private int _size;
+
+		void add(int cell){
+			if(_size == _cells.length)
+				_cells = Arrays.copyOf(_cells, _size * 2);
+			_cells[_size++] = cell;
+		}
+
+		int get(int i){
+			return _cells[i];
+		}
+
+		int size(){
+			return _size;
+		}
+
+		int[] array(){
+			return _cells;
+		}
+
+		void clear(){
+			_size = 0;
+		}
+	}
+}
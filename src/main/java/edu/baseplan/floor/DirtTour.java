@@ -0,0 +1,85 @@
+package edu.baseplan.floor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of a TourOptimizer query. Stops are dense cell indices in the order
+ * the robot visits them, from the cell it starts on to the charging station
+ * it ends at. Every other stop is a dirty cell to clean or a charging station
+ * to recharge at, getting from one stop to the next is left to a PathPlanner.
+ */
+class DirtTour {
+
+	private final int[] _stops;
+	private final boolean[] _recharge;
+	private final int _cost;
+	private final int[] _skipped;
+
+	/**
+	 * @param stops dense cell indices of the stops in order
+	 * @param recharge recharge[i] is true if the robot recharges at stop i
+	 * @param cost total power cost of the cheapest paths between the stops
+	 * @param skipped dense cell indices of the dirty cells the tour leaves out
+	 */
+	DirtTour(int[] stops, boolean[] recharge, int cost, int[] skipped){
+		_stops = stops;
+		_recharge = recharge;
+		_cost = cost;
+		_skipped = skipped;
+	}
+
+	int[] getStops(){
+		return _stops;
+	}
+
+	/**
+	 * @param stop position in getStops
+	 * @return true if the robot recharges at the stop, false for a dirty cell or the start
+	 */
+	boolean isRecharge(int stop){
+		return _recharge[stop];
+	}
+
+	/**
+	 * @return number of stops at a charging station, the last stop included
+	 */
+	int getRechargeCount(){
+		int count = 0;
+		for(boolean recharge : _recharge)
+			if(recharge)
+				count++;
+		return count;
+	}
+
+	/**
+	 * @return total power cost of the tour
+	 */
+	int getCost(){
+		return _cost;
+	}
+
+	/**
+	 * @return dirty cells that can't be reached or are too far from every charging station for one battery
+	 */
+	int[] getSkipped(){
+		return _skipped;
+	}
+
+	/**
+	 * @param grid grid the tour was planned on
+	 * @return a Location for every stop
+	 */
+	List<Location> getLocations(NavigationGrid grid){
+		List<Location> locations = new ArrayList<Location>(_stops.length);
+		for(int stop : _stops)
+			locations.add(new Location(grid.getFloor().getCellAt(stop), Direction.NORTH));
+		return locations;
+	}
+
+	@Override
+	public String toString() {
+		return "DirtTour [stops=" + _stops.length + ", recharges=" + getRechargeCount() + ", cost=" + _cost
+				+ ", skipped=" + _skipped.length + "]";
+	}
+}
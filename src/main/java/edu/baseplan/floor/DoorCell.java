@@ -13,7 +13,9 @@ class DoorCell extends AbstractCell implements Serializable {
 	 */
 	private static final Logger logger = LogManager.getLogger(DoorCell.class.getName());
 	private static final long serialVersionUID = 3650207702512000586L;
-	private boolean _open;
+	private volatile boolean _open;
+	private volatile long _changedAtVersion;
+	private transient DoorStateVersion _doorStateVersion;
 	
 	DoorCell(int x, int y){
 		super(x,y);
@@ -37,12 +39,66 @@ class DoorCell extends AbstractCell implements Serializable {
 		return 0;
 	}
 	
+	/**
+	 * Door state without logging, used by navigation code that checks doors often
+	 * @return true if door is open
+	 */
+	boolean isOpen(){
+		return _open;
+	}
+	
+	/**
+	 * Links this door to the version of its floor's door states,
+	 * open and close will bump that version from now on
+	 * @param doorStateVersion the door state version of the floor this door is on
+	 */
+	void setDoorStateVersion(DoorStateVersion doorStateVersion){
+		_doorStateVersion = doorStateVersion;
+	}
+	
+	/**
+	 * Version of the floor's door states right after this door last changed
+	 * @return 0 if the door never changed since it was placed
+	 */
+	long getChangedAtVersion(){
+		return _changedAtVersion;
+	}
+	
 	void open(){
-		_open = true;
+		setOpen(true);
 	}
 	
 	void close(){
-		_open = false;
+		setOpen(false);
+	}
+	
+	private void setOpen(boolean open){
+		if(_doorStateVersion == null){
+			if(_open != open && _eventBus != null)
+				_eventBus.record(open ? FloorEventBus.DOOR_OPENED : FloorEventBus.DOOR_CLOSED, _x, _y, 0);
+			_open = open;
+			return;
+		}
+		
+		if(_open == open)
+			return;
+		
+		// The door's version is written before endUpdate publishes the floor's,
+		// so a reader that sees the new floor version also sees this door's
+		long stamp = _doorStateVersion.beginUpdate();
+		boolean changed = _open != open;
+		if(changed){
+			_changedAtVersion = _doorStateVersion.nextVersion();
+			if(open)
+				_doorStateVersion.markOpened();
+			_open = open;
+		}
+		long version = _doorStateVersion.endUpdate(stamp, changed);
+		if(changed){
+			if(_eventBus != null)
+				_eventBus.record(open ? FloorEventBus.DOOR_OPENED : FloorEventBus.DOOR_CLOSED, _x, _y, (int) version);
+			logger.debug("Door at (" + _x + "," + _y + ") is now " + (open ? "open" : "closed") + ", version " + version);
+		}
 	}
 	
 	@Override
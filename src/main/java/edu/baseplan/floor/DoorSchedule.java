@@ -0,0 +1,123 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+
+/**
+ * Known opening times of the doors on a floor, in simulation ticks.
+ * <p>
+ * Every scheduled door is open during its intervals and closed outside them,
+ * doors are numbered as in Floor.getDoor. A door without a schedule keeps
+ * whatever state its DoorCell has. Intervals are half open, [start, end),
+ * and overlapping or touching intervals are merged. Build the schedule first,
+ * after that it can be read from several threads.
+ */
+class DoorSchedule {
+
+	/**
+	 * Returned by nextOpenTime for a door that never opens again
+	 */
+	static final long NEVER = Long.MAX_VALUE;
+
+	private final Floor _floor;
+	private final long[][] _intervals;
+
+	/**
+	 * Schedule with no scheduled doors yet
+	 * @param floor floor whose doors are scheduled
+	 */
+	DoorSchedule(Floor floor){
+		_floor = floor;
+		_intervals = new long[floor.getDoorCount()][];
+	}
+
+	Floor getFloor(){
+		return _floor;
+	}
+
+	/**
+	 * Adds a time the door is open, the door is closed at all times not added
+	 * @param door door number, see Floor.getDoor
+	 * @param start first tick the door is open
+	 * @param end first tick the door is closed again
+	 */
+	void addOpenInterval(int door, long start, long end){
+		if(end <= start)
+			throw new IllegalArgumentException("interval [" + start + ", " + end + ") is empty");
+
+		long[] old = _intervals[door] == null ? new long[0] : _intervals[door];
+		long[] merged = new long[old.length + 2];
+		int n = 0;
+		int i = 0;
+		while(i < old.length && old[i + 1] < start){
+			merged[n++] = old[i++];
+			merged[n++] = old[i++];
+		}
+		while(i < old.length && old[i] <= end){
+			start = Math.min(start, old[i]);
+			end = Math.max(end, old[i + 1]);
+			i += 2;
+		}
+		merged[n++] = start;
+		merged[n++] = end;
+		while(i < old.length)
+			merged[n++] = old[i++];
+		_intervals[door] = Arrays.copyOf(merged, n);
+	}
+
+	/**
+	 * @param door door number, see Floor.getDoor
+	 * @return true if the door has a schedule
+	 */
+	boolean isScheduled(int door){
+		return _intervals[door] != null;
+	}
+
+	/**
+	 * @param door door number, see Floor.getDoor
+	 * @param time tick
+	 * @return true if the door is open at time
+	 */
+	boolean isOpenAt(int door, long time){
+		return nextOpenTime(door, time) == time;
+	}
+
+	/**
+	 * @param door door number, see Floor.getDoor
+	 * @param time tick
+	 * @return the first tick at or after time the door is open, NEVER if it stays closed
+	 */
+	long nextOpenTime(int door, long time){
+		long[] intervals = _intervals[door];
+		if(intervals == null)
+			return _floor.getDoor(door).isOpen() ? time : NEVER;
+
+		// Last interval starting at or before time
+		int low = 0;
+		int high = intervals.length / 2 - 1;
+		while(low <= high){
+			int middle = (low + high) >>> 1;
+			if(intervals[middle * 2] <= time)
+				low = middle + 1;
+			else
+				high = middle - 1;
+		}
+		if(high >= 0 && time < intervals[high * 2 + 1])
+			return time;
+		return low < intervals.length / 2 ? intervals[low * 2] : NEVER;
+	}
+
+	/**
+	 * Opens and closes the scheduled doors of the floor as they are at time
+	 * @param time tick
+	 */
+	void applyTo(long time){
+		for(int door=0; door<_intervals.length; door++){
+			if(_intervals[door] == null)
+				continue;
+			if(isOpenAt(door, time))
+				_floor.getDoor(door).open();
+			else
+				_floor.getDoor(door).close();
+		}
+	}
+}
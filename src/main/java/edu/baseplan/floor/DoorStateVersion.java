@@ -0,0 +1,98 @@
+package edu.baseplan.floor;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Global version of the door states of one Floor.
+ * <p>
+ * Door changes are written under the write lock of a StampedLock and bump
+ * the version. Readers never take a lock, they read an optimistic stamp,
+ * read the doors they care about and validate the stamp afterwards.
+ * Caches such as planned paths remember the version they were built
+ * against and compare it with getVersion() to detect door changes.
+ */
+class DoorStateVersion {
+
+	private final StampedLock _lock;
+	private volatile long _version;
+	private volatile long _openedVersion;
+
+	DoorStateVersion(){
+		_lock = new StampedLock();
+		_version = 0;
+	}
+
+	/**
+	 * @return version of the door states, increases every time a door opens or closes
+	 */
+	long getVersion(){
+		return _version;
+	}
+
+	/**
+	 * Opening a door can make paths elsewhere cheaper, closing one only
+	 * affects the paths through it
+	 * @return the version right after the last door opened, 0 if none did
+	 */
+	long getOpenedVersion(){
+		return _openedVersion;
+	}
+
+	/**
+	 * Starts an optimistic read, does not block
+	 * @return stamp to pass to validate, 0 if a door is being changed right now
+	 */
+	long beginRead(){
+		return _lock.tryOptimisticRead();
+	}
+
+	/**
+	 * @param stamp stamp returned by beginRead
+	 * @return true if no door changed since the stamp was taken
+	 */
+	boolean validate(long stamp){
+		return stamp != 0 && _lock.validate(stamp);
+	}
+
+	/**
+	 * Starts a door change, only used by DoorCell
+	 * @return stamp to pass to endUpdate
+	 */
+	long beginUpdate(){
+		return _lock.writeLock();
+	}
+
+	/**
+	 * Version the running door change will publish, only valid between
+	 * beginUpdate and endUpdate so a door can record it before readers see it
+	 * @return the version after the current update if it changes a door
+	 */
+	long nextVersion(){
+		return _version + 1;
+	}
+
+	/**
+	 * Records that the running door change opens a door, only valid between
+	 * beginUpdate and endUpdate
+	 */
+	void markOpened(){
+		_openedVersion = _version + 1;
+	}
+
+	/**
+	 * Finishes a door change
+	 * @param stamp stamp returned by beginUpdate
+	 * @param changed true if the door state actually changed
+	 * @return the version after the update
+	 */
+	long endUpdate(long stamp, boolean changed){
+		try{
+			if(changed)
+				_version++;
+			return _version;
+		}
+		finally{
+			_lock.unlockWrite(stamp);
+		}
+	}
+}
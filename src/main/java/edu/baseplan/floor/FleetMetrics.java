@@ -0,0 +1,66 @@
+package edu.baseplan.floor;
+
+/**
+ * Aggregate throughput of a fleet run, created by FleetRunner.getMetrics()
+ */
+public class FleetMetrics {
+
+	private final int _robots;
+	private final long _moves;
+	private final long _steps;
+	private final long _elapsedNanos;
+
+	FleetMetrics(int robots, long moves, long steps, long elapsedNanos){
+		_robots = robots;
+		_moves = moves;
+		_steps = steps;
+		_elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * @return number of robots in the fleet
+	 */
+	public int getRobotCount(){
+		return _robots;
+	}
+
+	/**
+	 * @return total successful moves made by all robots
+	 */
+	public long getMoves(){
+		return _moves;
+	}
+
+	/**
+	 * @return total control steps performed by all robots
+	 */
+	public long getSteps(){
+		return _steps;
+	}
+
+	/**
+	 * @return wall clock time the fleet has been running in nanoseconds
+	 */
+	public long getElapsedNanos(){
+		return _elapsedNanos;
+	}
+
+	/**
+	 * @return aggregate moves per second over the whole run, 0 if no time has elapsed
+	 */
+	public double getMovesPerSecond(){
+		if(_elapsedNanos <= 0)
+			return 0;
+		return _moves * 1e9 / _elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Robots: ").append(_robots).append("\n");
+		sb.append("Moves: ").append(_moves).append("\n");
+		sb.append("Steps: ").append(_steps).append("\n");
+		sb.append("Moves/s: ").append(String.format("%.1f", getMovesPerSecond())).append("\n");
+		return sb.toString();
+	}
+}
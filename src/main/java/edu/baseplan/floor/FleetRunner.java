@@ -0,0 +1,231 @@
+package edu.baseplan.floor;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Runs many robots over one shared floor, one thread per robot.
+ * On a Java 21+ runtime every robot gets a virtual thread, so fleets
+ * well past the platform thread limit can run blocking control loops.
+ * On older runtimes it falls back to a cached pool of daemon platform threads.
+ */
+public class FleetRunner implements AutoCloseable {
+
+	private static final Logger logger = LogManager.getLogger(FleetRunner.class.getName());
+	private static final long DEFAULT_STOP_TIMEOUT_MILLIS = 5000;
+	private final Floor _floor;
+	private final List<RobotController> _controllers;
+	private final LongAdder _moves;
+	private final LongAdder _steps;
+	private ReservationTable _reservations;
+	private volatile boolean _running;
+	private ExecutorService _executor;
+	private long _startNanos;
+	private long _stopNanos;
+	private long _stopTimeoutMillis = DEFAULT_STOP_TIMEOUT_MILLIS;
+
+	public FleetRunner(String floorPlanFilename){
+		this(loadFloor(floorPlanFilename));
+	}
+
+	FleetRunner(Floor floor){
+		_floor = floor;
+		_controllers = new ArrayList<RobotController>();
+		_moves = new LongAdder();
+		_steps = new LongAdder();
+	}
+
+	private static Floor loadFloor(String floorPlanFilename){
+		Floor floor = new Floor();
+		floor.createFloorPlanFromFile(floorPlanFilename);
+		return floor;
+	}
+
+	/**
+	 * Adds a robot to the fleet, robots must be added before the fleet is started
+	 * @param controller the control loop for the new robot
+	 */
+	public synchronized void addRobot(RobotController controller){
+		if(_executor != null)
+			throw new IllegalStateException("Fleet already started");
+		_controllers.add(controller);
+	}
+
+	/**
+	 * Makes robots avoid each other, every robot's proxy consults a shared 
+	 * ReservationTable so no two robots move onto the same cell
+	 */
+	public synchronized void enableCollisionAvoidance(){
+		if(_executor != null)
+			throw new IllegalStateException("Fleet already started");
+		if(_reservations == null)
+			_reservations = new ReservationTable(_floor);
+	}
+	
+	/**
+	 * Sets how long stop waits for robots to finish their step before interrupting them
+	 * @param millis time to wait in milliseconds
+	 */
+	synchronized void setStopTimeout(long millis){
+		_stopTimeoutMillis = millis;
+	}
+	
+	/**
+	 * @return number of robots added to this fleet
+	 */
+	public synchronized int getRobotCount(){
+		return _controllers.size();
+	}
+
+	/**
+	 * Starts every robot on its own thread, robots are placed on the
+	 * charging stations of the floor in round robin order. With collision
+	 * avoidance every robot claims its start cell first, a robot whose
+	 * station is taken starts on the nearest free cell instead.
+	 */
+	public synchronized void start(){
+		if(_executor != null)
+			throw new IllegalStateException("Fleet already started");
+
+		_running = true;
+		_executor = newRobotExecutor();
+		_startNanos = System.nanoTime();
+
+		int stations = _floor.getChargingStationCount();
+		for(int i=0; i<_controllers.size(); i++){
+			final RobotController controller = _controllers.get(i);
+			final FloorNavigationProxy proxy = new FloorNavigationProxy(_floor);
+			proxy.setMoveCounter(_moves);
+			proxy.setReservationTable(_reservations, i);
+			final Location start = claimStart(_floor.getChargingStation(i % stations), i);
+			final int robot = i;
+			_executor.execute(() -> runRobot(robot, controller, proxy, start));
+		}
+		logger.info("Started fleet of " + _controllers.size() + " robots");
+	}
+
+	/**
+	 * Claims the free cell closest to a charging station, searching outward
+	 * over the moves a robot can make from the station
+	 * @param station charging station the robot belongs to
+	 * @param robot id of the robot
+	 * @return location of the claimed cell
+	 */
+	private Location claimStart(ChargingStationCell station, int robot){
+		int first = _floor.indexOf(station);
+		if(_reservations == null || _reservations.claim(first, robot))
+			return new Location(station, Direction.NORTH);
+
+		NavigationGrid grid = _floor.getNavigationGrid();
+		boolean[] seen = new boolean[grid.getCellCount()];
+		int[] queue = new int[grid.getCellCount()];
+		int tail = 0;
+		queue[tail++] = first;
+		seen[first] = true;
+		for(int head=0; head<tail; head++){
+			for(int d=0; d<8; d++){
+				int next = grid.destination(queue[head], d);
+				if(next < 0 || seen[next])
+					continue;
+				if(_reservations.claim(next, robot))
+					return new Location(_floor.getCellAt(next), Direction.NORTH);
+				seen[next] = true;
+				queue[tail++] = next;
+			}
+		}
+		throw new IllegalStateException("No free cell left for robot " + robot);
+	}
+
+	private void runRobot(int robot, RobotController controller, FloorNavigationProxy proxy, Location location){
+		try{
+			while(_running && location != null && !Thread.currentThread().isInterrupted()){
+				location = controller.step(proxy, location);
+				_steps.increment();
+			}
+		}
+		catch(RuntimeException e){
+			logger.error("Robot " + robot + " stopped after failure", e);
+		}
+	}
+
+	/**
+	 * Signals every robot to stop after its current step and waits for all of them to finish.
+	 * Robots still inside a step when the stop timeout runs out are interrupted.
+	 * @throws InterruptedException if interrupted while waiting for the robots
+	 */
+	public void stop() throws InterruptedException{
+		ExecutorService executor;
+		long timeout;
+		synchronized(this){
+			if(_executor == null || !_running)
+				return;
+			_running = false;
+			executor = _executor;
+			timeout = _stopTimeoutMillis;
+		}
+		executor.shutdown();
+		if(!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)){
+			logger.warn("Robots still running after " + timeout + " ms, interrupting them");
+			executor.shutdownNow();
+			if(!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+				logger.error("Robots did not stop after being interrupted");
+		}
+		synchronized(this){
+			_stopNanos = System.nanoTime();
+		}
+		logger.info("Stopped fleet. " + getMetrics().getMovesPerSecond() + " moves/s");
+	}
+
+	/**
+	 * Same as stop, but restores the interrupt flag instead of throwing
+	 */
+	@Override
+	public void close(){
+		try{
+			stop();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Snapshot of the fleet's aggregate throughput, may be called while running
+	 * @return metrics for the run so far
+	 */
+	public synchronized FleetMetrics getMetrics(){
+		long elapsed = 0;
+		if(_executor != null)
+			elapsed = (_stopNanos == 0 ? System.nanoTime() : _stopNanos) - _startNanos;
+		return new FleetMetrics(_controllers.size(), _moves.sum(), _steps.sum(), elapsed);
+	}
+
+	/**
+	 * Creates a thread per task executor, using virtual threads when the runtime supports them
+	 * @return executor for robot control loops
+	 */
+	static ExecutorService newRobotExecutor(){
+		try{
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		}
+		catch(ReflectiveOperationException e){
+			logger.debug("Virtual threads not available, using platform threads");
+		}
+
+		final AtomicInteger count = new AtomicInteger();
+		return Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "robot-" + count.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+}
@@ -1,13 +1,14 @@
 package edu.baseplan.floor;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.apache.logging.log4j.Logger; 
 import org.apache.logging.log4j.LogManager;
@@ -23,13 +24,30 @@ class Floor {
 
 	//private AbstractCell[][] _floor;
 	private static final Logger logger = LogManager.getLogger(Floor.class.getName());
+	private static final long PATH_CACHE_BYTES = 4L << 20;
+	private static final int LANDMARK_COUNT = 8;
 	private List<List<AbstractCell>> _floor;
 	private AbstractCell _startingCell;
 	private List<ChargingStationCell> _setOfChargingStations;
+	private List<DoorCell> _setOfDoors;
+	private DoorStateVersion _doorStateVersion;
+	private FloorEventBus _eventBus;
+	private NavigationGrid _navigationGrid;
+	private NavigationGraph _navigationGraph;
+	private ChargerDistanceField _chargerDistanceField;
+	private RoomMap _roomMap;
+	private ReachabilityOracle _reachabilityOracle;
+	private PortalGraph _portalGraph;
+	private PathCache _pathCache;
+	private LandmarkHeuristic _landmarkHeuristic;
+	private QuadtreeMap _quadtreeMap;
 	
 	Floor(){
 		_floor = new ArrayList<List<AbstractCell>>();
 		_setOfChargingStations = new ArrayList<ChargingStationCell>();
+		_setOfDoors = new ArrayList<DoorCell>();
+		_doorStateVersion = new DoorStateVersion();
+		_eventBus = new FloorEventBus();
 	}
 	
 	/**
@@ -51,6 +69,14 @@ class Floor {
 		return _startingCell;
 	}
 	
+	/**
+	 * Returns the number of charging stations on this floor
+	 * @return size of the charging station list
+	 */
+	int getChargingStationCount(){
+		return _setOfChargingStations.size();
+	}
+	
 	ChargingStationCell getChargingStation(int x){
 		if(x < _setOfChargingStations.size())
 			return _setOfChargingStations.get(x);
@@ -58,6 +84,217 @@ class Floor {
 			return null;
 	}
 	
+	/**
+	 * Dense indices of every charging station, in the order of getChargingStation
+	 * @return index of each charging station
+	 */
+	int[] getChargingStationCells(){
+		int[] cells = new int[_setOfChargingStations.size()];
+		for(int i=0; i<cells.length; i++)
+			cells[i] = indexOf(_setOfChargingStations.get(i));
+		return cells;
+	}
+	
+	/**
+	 * Dense indices of the cells that still have dirt, see showDirtAmount
+	 * @return index of each dirty cell, column by column
+	 */
+	int[] getDirtyCells(){
+		int[] cells = new int[16];
+		int count = 0;
+		for(int x=0; x<getSizeX(); x++){
+			for(int y=0; y<getSizeY(); y++){
+				if(_floor.get(x).get(y).showDirtAmount() == 0)
+					continue;
+				if(count == cells.length)
+					cells = Arrays.copyOf(cells, count * 2);
+				cells[count++] = indexOf(x, y);
+			}
+		}
+		return Arrays.copyOf(cells, count);
+	}
+	
+	/**
+	 * Returns the number of doors on this floor
+	 * @return size of the door list
+	 */
+	int getDoorCount(){
+		return _setOfDoors.size();
+	}
+	
+	/**
+	 * Returns door by position in the door list
+	 * @param x position in the door list
+	 * @return the DoorCell, or null if there is no such door
+	 */
+	DoorCell getDoor(int x){
+		if(x < _setOfDoors.size())
+			return _setOfDoors.get(x);
+		else
+			return null;
+	}
+	
+	/**
+	 * Version of the door states of this floor, changes whenever a door opens or closes
+	 * @return current door state version
+	 */
+	long getDoorVersion(){
+		return _doorStateVersion.getVersion();
+	}
+	
+	/**
+	 * Lock free access to the door state version, for readers that
+	 * need to validate several door reads at once
+	 * @return the DoorStateVersion shared by all doors on this floor
+	 */
+	DoorStateVersion getDoorStateVersion(){
+		return _doorStateVersion;
+	}
+	
+	/**
+	 * Copies the state of every door into open without blocking, the copy 
+	 * is consistent with a single door state version
+	 * @param open array with at least getDoorCount() elements, open[i] is set for getDoor(i)
+	 * @return the door state version of the copy
+	 */
+	long readDoorStates(boolean[] open){
+		while(true){
+			long stamp = _doorStateVersion.beginRead();
+			long version = _doorStateVersion.getVersion();
+			for(int i=0; i<_setOfDoors.size(); i++)
+				open[i] = _setOfDoors.get(i).isOpen();
+			if(_doorStateVersion.validate(stamp))
+				return version;
+			Thread.yield();
+		}
+	}
+	
+	/**
+	 * Change events for dirt removal and door changes on this floor
+	 * @return the FloorEventBus of this floor
+	 */
+	FloorEventBus getEventBus(){
+		return _eventBus;
+	}
+	
+	/**
+	 * Registers a listener for batches of cell and door changes, delivered on a separate thread
+	 * @param listener the listener to add
+	 */
+	void addChangeListener(FloorChangeListener listener){
+		_eventBus.addListener(listener);
+	}
+	
+	/**
+	 * Primitive array view of this floor used by the path planners, 
+	 * created on first use and shared afterwards
+	 * @return the NavigationGrid of this floor
+	 */
+	synchronized NavigationGrid getNavigationGrid(){
+		if(_navigationGrid == null)
+			_navigationGrid = new NavigationGrid(this);
+		return _navigationGrid;
+	}
+	
+	/**
+	 * Compressed sparse row graph of the moves on this floor for the current doors, 
+	 * created on first use and patched around the doors that changed since
+	 * @return the NavigationGraph for the current door states
+	 */
+	synchronized NavigationGraph getNavigationGraph(){
+		if(_navigationGraph == null)
+			_navigationGraph = new NavigationGraph(getNavigationGrid());
+		else
+			_navigationGraph = _navigationGraph.refresh();
+		return _navigationGraph;
+	}
+	
+	/**
+	 * Power needed to reach the nearest charging station from every cell, 
+	 * created on first use and repaired when doors change
+	 * @return the ChargerDistanceField of this floor
+	 */
+	synchronized ChargerDistanceField getChargerDistanceField(){
+		if(_chargerDistanceField == null)
+			_chargerDistanceField = new ChargerDistanceField(getNavigationGrid());
+		return _chargerDistanceField;
+	}
+	
+	/**
+	 * Rooms of this floor and the doors between them, created on first use
+	 * @return the RoomMap of this floor
+	 */
+	synchronized RoomMap getRoomMap(){
+		if(_roomMap == null)
+			_roomMap = new RoomMap(getNavigationGrid());
+		return _roomMap;
+	}
+	
+	/**
+	 * Which cells can be reached from which with the current doors, 
+	 * created on first use and updated as doors change
+	 * @return the ReachabilityOracle of this floor
+	 */
+	synchronized ReachabilityOracle getReachabilityOracle(){
+		if(_reachabilityOracle == null)
+			_reachabilityOracle = new ReachabilityOracle(getRoomMap());
+		return _reachabilityOracle;
+	}
+	
+	/**
+	 * Rooms and doors of this floor for hierarchical planning, 
+	 * created on first use and kept up to date with the doors
+	 * @return the PortalGraph of this floor
+	 */
+	synchronized PortalGraph getPortalGraph(){
+		if(_portalGraph == null)
+			_portalGraph = new PortalGraph(getRoomMap());
+		return _portalGraph;
+	}
+	
+	/**
+	 * Paths planned on this floor, shared by every robot, created on first use
+	 * @return the PathCache of this floor
+	 */
+	synchronized PathCache getPathCache(){
+		if(_pathCache == null)
+			_pathCache = new PathCache(getNavigationGrid(), PATH_CACHE_BYTES);
+		return _pathCache;
+	}
+	
+	/**
+	 * Landmark costs for A*, created on first use and rebuilt when doors change
+	 * @return the LandmarkHeuristic of this floor
+	 */
+	synchronized LandmarkHeuristic getLandmarkHeuristic(){
+		if(_landmarkHeuristic == null)
+			_landmarkHeuristic = new LandmarkHeuristic(getNavigationGrid(), LANDMARK_COUNT);
+		return _landmarkHeuristic;
+	}
+	
+	/**
+	 * Quadtree of the passable space, created on first use
+	 * @return the QuadtreeMap of this floor
+	 */
+	synchronized QuadtreeMap getQuadtreeMap(){
+		if(_quadtreeMap == null)
+			_quadtreeMap = new QuadtreeMap(getNavigationGrid());
+		return _quadtreeMap;
+	}
+	
+	/**
+	 * Creates a DoorCell linked to this floor's door state version
+	 * @param x x-coordinate location on floor
+	 * @param y y-coordinate location on floor
+	 * @return the new DoorCell
+	 */
+	private DoorCell createDoorCell(int x, int y){
+		DoorCell d = new DoorCell(x,y);
+		d.setDoorStateVersion(_doorStateVersion);
+		_setOfDoors.add(d);
+		return d;
+	}
+	
 	/**
 	 * Helper method used to return cell based on x and y location in collection
 	 * @param x x-coordinate location in collection
@@ -76,6 +313,83 @@ class Floor {
 			return null;
 	}
 	
+	/**
+	 * Number of cells along the x-axis of this floor
+	 * @return number of columns in the collection
+	 */
+	int getSizeX(){
+		return _floor.size();
+	}
+	
+	/**
+	 * Number of cells along the y-axis of this floor
+	 * @return number of cells in each column of the collection
+	 */
+	int getSizeY(){
+		if(_floor.isEmpty())
+			return 0;
+		return _floor.get(0).size();
+	}
+	
+	/**
+	 * Dense index of the cell at x,y, cells are numbered column by column
+	 * @param x x-coordinate location on floor
+	 * @param y y-coordinate location on floor
+	 * @return x * getSizeY() + y
+	 */
+	int indexOf(int x, int y){
+		return x * getSizeY() + y;
+	}
+	
+	/**
+	 * Dense index of cell, see indexOf(int, int)
+	 * @param cell a cell on this floor
+	 * @return index of cell
+	 */
+	int indexOf(AbstractCell cell){
+		return indexOf(cell.getX(), cell.getY());
+	}
+	
+	/**
+	 * Returns the cell with the given dense index
+	 * @param index index created by indexOf
+	 * @return the AbstractCell with that index
+	 */
+	AbstractCell getCellAt(int index){
+		int sizeY = getSizeY();
+		return _floor.get(index / sizeY).get(index % sizeY);
+	}
+	
+	/**
+	 * Cell a robot ends up on when leaving cell in direction. An open door is 
+	 * skipped and the cell directly after it is returned, the same way 
+	 * FloorNavigationProxy moves through doors.
+	 * @param cell the cell the robot is leaving
+	 * @param direction direction of travel
+	 * @return the destination cell, or null if the move leaves the floor or is obstructed
+	 */
+	AbstractCell getDestinationCell(AbstractCell cell, Direction direction){
+		AbstractCell next = cell.getAdjacentCell(direction);
+		if(next == null)
+			return null;
+		
+		if(next.getClass() == DoorCell.class){
+			if(!((DoorCell) next).isOpen())
+				return null;
+			next = next.getAdjacentCell(direction);
+			if(next == null)
+				return null;
+		}
+		
+		if(next.getClass() == DoorCell.class){
+			if(!((DoorCell) next).isOpen())
+				return null;
+		}
+		else if(next.isObstructed())
+			return null;
+		return next;
+	}
+	
 	/**
 	 * Used for directly modifying the floor, (MAY REMOVE?)
 	 * @param x x-coordinate location in collection
@@ -128,7 +442,7 @@ class Floor {
 		if(x >= _floor.size())
 			_floor.add(x,new ArrayList<AbstractCell>());
 		else{
-			_floor.get(x).add(y, new DoorCell(x,y));
+			_floor.get(x).add(y, createDoorCell(x,y));
 		}
 	}
 	
@@ -325,8 +639,38 @@ class Floor {
 		if(path == null)
 			throw new InvalidPathException(filename, "path is null");
 		
-		//Reset list of charging stations
-		_setOfChargingStations = new ArrayList<ChargingStationCell>();
+		try{
+			return createFloorPlan(Files.newBufferedReader(path, Charset.defaultCharset()));
+		}
+		catch(IOException e){
+			return false;
+		}
+	}
+	
+	/**
+	 * Creates floor structure from .cft formatted text, 
+	 * used for floor plans that do not live in a resource file
+	 * @param reader source of .cft formatted text, every line must end with a new line
+	 * @return true if floor construction is successful , false if not.
+	 */
+	boolean createFloorPlan(Reader reader){
+		
+		//Reset cells, list of charging stations and doors, under the getters' lock
+		//so none of them hands out a structure of the old plan
+		synchronized(this){
+			_floor = new ArrayList<List<AbstractCell>>();
+			_setOfChargingStations = new ArrayList<ChargingStationCell>();
+			_setOfDoors = new ArrayList<DoorCell>();
+			_navigationGrid = null;
+			_navigationGraph = null;
+			_chargerDistanceField = null;
+			_roomMap = null;
+			_reachabilityOracle = null;
+			_portalGraph = null;
+			_pathCache = null;
+			_landmarkHeuristic = null;
+			_quadtreeMap = null;
+		}
 		
 		// keep track of x and y coordinates 
 		int x = 0;
@@ -338,7 +682,6 @@ class Floor {
 		int yMax = 1;
 		
 		try{
-			BufferedReader reader = Files.newBufferedReader(path, Charset.defaultCharset());
 			int value = 0;
 			
 			ArrayList<AbstractCell> line = new ArrayList<AbstractCell>();
@@ -372,7 +715,7 @@ class Floor {
 					if(yMax < y){ yMax = y;}
 					break;
 				case 'D':
-					line.add(y,new DoorCell(x,y));
+					line.add(y,createDoorCell(x,y));
 					y++;
 					if(yMax < y){ yMax = y;}
 					break;
@@ -403,6 +746,14 @@ class Floor {
 		catch(Exception e){
 			return false;
 		}
+		finally{
+			try{
+				reader.close();
+			}
+			catch(IOException e){
+				logger.debug("Unable to close floor plan reader");
+			}
+		}
 		
 		// Still need to re-loop through array list to
 		// adjust for empty spaces and add null cells
@@ -418,6 +769,7 @@ class Floor {
 	
 	
 		populateAdjacentCells();
+		attachEventBus();
 		
 		//Set starting location to first charging station in list
 		setStartingCell(_setOfChargingStations.get(0));
@@ -469,7 +821,7 @@ class Floor {
 		placeBareFloorCellAt(1,8);
 		placeWallCellAt(1,9);
 		placeBareFloorCellAt(1,10);
-		placeCellAt(1,11, new DoorCell(1,11));
+		placeCellAt(1,11, createDoorCell(1,11));
 		placeLowPileCarpetCellAt(1,12);
 		placeLowPileCarpetCellAt(1,13);
 		placeLowPileCarpetCellAt(1,14);
@@ -778,6 +1130,18 @@ class Floor {
 		placeWallCellAt(16,17);
 		
 		populateAdjacentCells();
+		attachEventBus();
+	}
+	
+	/**
+	 * Helper method for constructing _floor structure, links every
+	 * cell to the event bus of this floor
+	 */
+	private void attachEventBus(){
+		_eventBus.setSizeY(getSizeY());
+		for(List<AbstractCell> column : _floor)
+			for(AbstractCell cell : column)
+				cell.setEventBus(_eventBus);
 	}
 	
 	//Must run after collection has been filled
@@ -0,0 +1,15 @@
+package edu.baseplan.floor;
+
+/**
+ * Receives batches of cell and door changes from a FloorEventBus.
+ * Events are packed longs, use FloorEventBus.typeOf, cellOf and valueOf to read them.
+ */
+interface FloorChangeListener {
+
+	/**
+	 * Called on the event bus thread with the next batch of changes, in the order they were recorded
+	 * @param events packed events, the array is reused after this call returns
+	 * @param count number of valid events in the array
+	 */
+	void onFloorChanges(long[] events, int count);
+}
@@ -0,0 +1,238 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Change events for the cells and doors of one Floor.
+ * <p>
+ * Writers claim a slot of a preallocated ring buffer with compare and set,
+ * store the event as a packed long and publish it. They never block and never
+ * allocate, when the ring is full the event is dropped and counted instead.
+ * A single daemon thread drains the ring and hands the events to the
+ * listeners in batches. Until the first listener is added, recording an
+ * event is a single volatile read.
+ * <p>
+ * Event layout: type in the top 8 bits, value in the next 24 bits and the
+ * dense cell index in the low 32 bits.
+ */
+class FloorEventBus {
+
+	private static final Logger logger = LogManager.getLogger(FloorEventBus.class.getName());
+
+	/**
+	 * A unit of dirt was removed from a cell, value is the dirt left
+	 */
+	static final int DIRT_REMOVED = 1;
+	/**
+	 * The last unit of dirt was removed from a cell
+	 */
+	static final int CELL_CLEANED = 2;
+	/**
+	 * A door opened, value is the low 24 bits of the new door state version
+	 */
+	static final int DOOR_OPENED = 3;
+	/**
+	 * A door closed, value is the low 24 bits of the new door state version
+	 */
+	static final int DOOR_CLOSED = 4;
+
+	private static final int DEFAULT_CAPACITY = 1 << 16;
+	private static final int DEFAULT_BATCH = 1024;
+	private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+	private final long[] _events;
+	private final AtomicLongArray _published;
+	private final int _mask;
+	private final AtomicLong _head;
+	private final AtomicLong _dropped;
+	private final long[] _batch;
+	private final List<FloorChangeListener> _listeners;
+	private volatile long _tail;
+	private volatile boolean _active;
+	private volatile int _sizeY;
+	private Thread _thread;
+
+	FloorEventBus(){
+		this(DEFAULT_CAPACITY, DEFAULT_BATCH);
+	}
+
+	/**
+	 * @param capacity ring buffer size, rounded up to a power of two
+	 * @param batchSize largest batch handed to listeners
+	 */
+	FloorEventBus(int capacity, int batchSize){
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		_events = new long[size];
+		_published = new AtomicLongArray(size);
+		for(int i=0; i<size; i++)
+			_published.set(i, -1);
+		_mask = size - 1;
+		_head = new AtomicLong();
+		_dropped = new AtomicLong();
+		_batch = new long[batchSize];
+		_listeners = new CopyOnWriteArrayList<FloorChangeListener>();
+	}
+
+	static long pack(int type, int cell, int value){
+		return ((long) type << 56) | ((long) (value & 0xFFFFFF) << 32) | (cell & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param event packed event
+	 * @return one of DIRT_REMOVED, CELL_CLEANED, DOOR_OPENED or DOOR_CLOSED
+	 */
+	static int typeOf(long event){
+		return (int) (event >>> 56);
+	}
+
+	/**
+	 * @param event packed event
+	 * @return dense index of the cell that changed
+	 */
+	static int cellOf(long event){
+		return (int) event;
+	}
+
+	/**
+	 * @param event packed event
+	 * @return the event's value, see the event type constants
+	 */
+	static int valueOf(long event){
+		return (int) (event >>> 32) & 0xFFFFFF;
+	}
+
+	/**
+	 * Sets the floor height used to turn cell coordinates into dense indices
+	 * @param sizeY number of cells along the y-axis of the floor
+	 */
+	void setSizeY(int sizeY){
+		_sizeY = sizeY;
+	}
+
+	/**
+	 * Records a change of the cell at x,y, dropped if nobody listens or the ring is full
+	 * @param type event type
+	 * @param x x-coordinate of the cell
+	 * @param y y-coordinate of the cell
+	 * @param value event value
+	 */
+	void record(int type, int x, int y, int value){
+		if(!_active)
+			return;
+
+		long seq;
+		do{
+			seq = _head.get();
+			if(seq - _tail > _mask){
+				_dropped.incrementAndGet();
+				return;
+			}
+		}while(!_head.compareAndSet(seq, seq + 1));
+
+		int slot = (int) seq & _mask;
+		_events[slot] = pack(type, x * _sizeY + y, value);
+		_published.lazySet(slot, seq);
+	}
+
+	/**
+	 * Registers a listener and starts the delivery thread if needed
+	 * @param listener receives all events recorded from now on
+	 */
+	synchronized void addListener(FloorChangeListener listener){
+		_listeners.add(listener);
+		if(_thread == null){
+			_active = true;
+			_thread = new Thread(this::deliverLoop, "floor-events");
+			_thread.setDaemon(true);
+			_thread.start();
+		}
+	}
+
+	synchronized void removeListener(FloorChangeListener listener){
+		_listeners.remove(listener);
+	}
+
+	/**
+	 * Stops recording and delivering events, events still in the ring are delivered first
+	 * @throws InterruptedException if interrupted while waiting for the delivery thread
+	 */
+	void shutdown() throws InterruptedException{
+		Thread thread;
+		synchronized(this){
+			thread = _thread;
+			_active = false;
+			_thread = null;
+		}
+		if(thread != null){
+			LockSupport.unpark(thread);
+			thread.join();
+		}
+	}
+
+	/**
+	 * @return number of events lost because the ring buffer was full
+	 */
+	long getDroppedCount(){
+		return _dropped.get();
+	}
+
+	/**
+	 * @return number of events written to the ring so far, dropped events are not included
+	 */
+	long getRecordedCount(){
+		return _head.get();
+	}
+
+	private void deliverLoop(){
+		while(true){
+			int count = drain();
+			if(count > 0){
+				for(FloorChangeListener listener : _listeners){
+					try{
+						listener.onFloorChanges(_batch, count);
+					}
+					catch(RuntimeException e){
+						logger.error("Floor change listener failed", e);
+					}
+				}
+			}
+			else if(!_active && _tail == _head.get())
+				return;
+			else
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+		}
+	}
+
+	/**
+	 * Copies the next run of published events into the batch buffer
+	 * @return number of events copied
+	 */
+	private int drain(){
+		long tail = _tail;
+		int count = 0;
+		while(count < _batch.length){
+			long seq = tail + count;
+			int slot = (int) seq & _mask;
+			if(_published.get(slot) != seq)
+				break;
+			_batch[count++] = _events[slot];
+		}
+		if(count > 0)
+			_tail = tail + count;
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return "FloorEventBus [capacity=" + _events.length + ", recorded=" + _head.get()
+				+ ", dropped=" + _dropped.get() + ", listeners=" + Arrays.toString(_listeners.toArray()) + "]";
+	}
+}
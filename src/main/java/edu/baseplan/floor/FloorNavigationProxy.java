@@ -1,5 +1,9 @@
 package edu.baseplan.floor;
 
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.logging.log4j.Logger; 
 import org.apache.logging.log4j.LogManager;
 
@@ -16,6 +20,14 @@ public class FloorNavigationProxy {
 	private Floor _floor;
 	private Direction _headingDirection;
 	private AbstractCell _startingCell;
+	private LongAdder _moveCounter;
+	private ReservationTable _reservations;
+	private int _robotId;
+	private PathPlanner _planner;
+	private TurnAwarePlanner _turnPlanner;
+	private AnytimePlanner _anytimePlanner;
+	private CoveragePlanner _coveragePlanner;
+	private ReachabilityEnvelope _envelope;
 	
 	public FloorNavigationProxy(String floorPlanFilename){
 		_floor = new Floor();
@@ -25,6 +37,36 @@ public class FloorNavigationProxy {
 		_headingDirection = Direction.NORTH;
 	}
 	
+	/**
+	 * Creates a proxy over an already constructed floor, used when several
+	 * robots share one floor and each needs its own heading state
+	 * @param floor the shared Floor object
+	 */
+	FloorNavigationProxy(Floor floor){
+		_floor = floor;
+		_startingCell = _floor.getStartingCell();
+		_headingDirection = Direction.NORTH;
+	}
+	
+	/**
+	 * Attaches a counter that is incremented on every successful move
+	 * @param moveCounter counter shared with the owner of this proxy, may be null
+	 */
+	void setMoveCounter(LongAdder moveCounter){
+		_moveCounter = moveCounter;
+	}
+	
+	/**
+	 * Makes this proxy avoid cells held by other robots. canMove reports reserved 
+	 * cells as blocked and move claims the new cell and releases the old one.
+	 * @param reservations table shared by every robot on the floor, may be null
+	 * @param robotId id of the robot using this proxy
+	 */
+	void setReservationTable(ReservationTable reservations, int robotId){
+		_reservations = reservations;
+		_robotId = robotId;
+	}
+	
 	/**
 	 * Indicates whether adjacent location relative to current location and direction is obstructed or clear
 	 * @param location the current location
@@ -65,12 +107,17 @@ public class FloorNavigationProxy {
 			logger.debug("Can't move " + direction + " into an obstacle");
 			return false;
 		}
+		else if(_reservations != null && !_reservations.isAvailable(_floor.indexOf(peakCell), _robotId)){
+			logger.debug("Can't move " + direction + " into a cell reserved by another robot");
+			return false;
+		}
 		else
 			return true;
 	}
 	
 	/**
-	 * Returns a new Location relative to current location and direction 
+	 * Returns a new Location relative to current location and direction. If another
+	 * robot claimed the new cell first the robot stays put and location is returned.
 	 * @param location is the current location object
 	 * @param direction relative to current location that leads to new location
 	 * @return
@@ -89,14 +136,187 @@ public class FloorNavigationProxy {
 			newCell = _floor.getCellAt(tempLocation.getLongitude(), tempLocation.getLatitude()).getAdjacentCell(direction);
 		}
 		
+		// Claim the new cell before moving, another robot may have taken it since canMove
+		if(newCell != null && _reservations != null){
+			if(!_reservations.claim(_floor.indexOf(newCell), _robotId)){
+				logger.debug("Can't move " + direction + " cell was reserved by another robot");
+				return location;
+			}
+			_reservations.release(_floor.indexOf(location.getLongitude(), location.getLatitude()), _robotId);
+		}
+		
 		// If cell is still on the floorplan return it, else return null
-		if(newCell != null)
+		if(newCell != null){
+			if(_moveCounter != null)
+				_moveCounter.increment();
 			return new Location(newCell, _headingDirection);
+		}
 		else
 			return null;
 			
 	}
 	
+	/**
+	 * Plans the path with the lowest total power cost between two locations,
+	 * moving through doors the same way move does. Paths are shared with the 
+	 * other robots on the floor through its PathCache, which drops them once
+	 * a door opens or a door on them changes.
+	 * @param from the current location
+	 * @param to the location to travel to
+	 * @return directions to pass to move one after another, or null if to can't be reached
+	 */
+	public List<Direction> planPath(Location from, Location to){
+		NavigationGrid grid = _floor.getNavigationGrid();
+		if(_planner == null)
+			_planner = new AStarPlanner(grid);
+		PlannedPath path = _floor.getPathCache().plan(_planner, grid.indexOf(from.getLongitude(), from.getLatitude()), 
+				grid.indexOf(to.getLongitude(), to.getLatitude()));
+		if (logger.isDebugEnabled()) {
+			logger.debug("planPath() was called. return - " + path);
+		}
+		return path == null ? null : path.getDirections(grid);
+	}
+	
+	/**
+	 * Plans the path with the lowest total power and turning cost between two locations,
+	 * starting out facing the heading of from. Turning paths depend on the heading, 
+	 * so they are not shared through the PathCache.
+	 * @param from the current location and heading
+	 * @param to the location to travel to, any final heading will do
+	 * @param turnCost cost of turning 45 degrees, added to the power cost of each move
+	 * @return directions to pass to move one after another, or null if to can't be reached
+	 */
+	public List<Direction> planPath(Location from, Location to, int turnCost){
+		NavigationGrid grid = _floor.getNavigationGrid();
+		if(_turnPlanner == null || _turnPlanner.getTurnCost() != turnCost)
+			_turnPlanner = new TurnAwarePlanner(grid, turnCost);
+		PlannedPath path = _turnPlanner.plan(grid.indexOf(from.getLongitude(), from.getLatitude()), 
+				from.getDirectionHeading().ordinal(), grid.indexOf(to.getLongitude(), to.getLatitude()));
+		if (logger.isDebugEnabled()) {
+			logger.debug("planPath() was called with turn cost " + turnCost + ". return - " + path);
+		}
+		return path == null ? null : path.getDirections(grid);
+	}
+	
+	/**
+	 * Plans a path between two locations within a time budget, for control loops
+	 * that can't wait for the optimal path. Asking again for the same locations
+	 * continues improving the last path while the doors stay the same.
+	 * @param from the current location
+	 * @param to the location to travel to
+	 * @param budgetNanos time the planner may take, in nanoseconds
+	 * @return directions to pass to move one after another, or null if no path was found in time
+	 */
+	public List<Direction> planPathWithin(Location from, Location to, long budgetNanos){
+		NavigationGrid grid = _floor.getNavigationGrid();
+		if(_anytimePlanner == null)
+			_anytimePlanner = new AnytimePlanner(grid);
+		BoundedPath path = _anytimePlanner.planWithin(grid.indexOf(from.getLongitude(), from.getLatitude()), 
+				grid.indexOf(to.getLongitude(), to.getLatitude()), budgetNanos);
+		if (logger.isDebugEnabled()) {
+			logger.debug("planPathWithin() was called with budget " + budgetNanos + "ns. return - " + path 
+					+ (path == null ? "" : " within " + path.getBound() + " of optimal"));
+		}
+		return path == null ? null : path.getDirections(grid);
+	}
+	
+	/**
+	 * Plans a cleaning route that lands on every open cell reachable from a location,
+	 * sweeping each room back and forth instead of wandering over cells already cleaned
+	 * @param from the location to start cleaning from
+	 * @return directions to pass to move one after another, or null if from is not an open cell
+	 */
+	public List<Direction> planCoverage(Location from){
+		NavigationGrid grid = _floor.getNavigationGrid();
+		if(_coveragePlanner == null)
+			_coveragePlanner = new CoveragePlanner(_floor.getRoomMap());
+		PlannedPath path = _coveragePlanner.plan(grid.indexOf(from.getLongitude(), from.getLatitude()));
+		if (logger.isDebugEnabled()) {
+			logger.debug("planCoverage() was called. return - " + path + " for " + _coveragePlanner.getLastCoveredCount()
+					+ " cells, lower bound " + _coveragePlanner.getLastLowerBound());
+		}
+		return path == null ? null : path.getDirections(grid);
+	}
+
+	/**
+	 * Plans the order to clean the dirty cells of the floor in on a finite battery, with
+	 * stops at charging stations where the battery would run too low to get back to one
+	 * @param from the current location
+	 * @param charge power left in the battery
+	 * @param capacity power in a full battery
+	 * @return the locations to go to and clean or recharge at one after another, ending at a
+	 * charging station, or null if no charging station can be reached with the charge left
+	 */
+	public List<Location> planDirtTour(Location from, int charge, int capacity){
+		NavigationGrid grid = _floor.getNavigationGrid();
+		TourOptimizer optimizer = new TourOptimizer(_floor.getNavigationGraph(), ForkJoinPool.commonPool());
+		DirtTour tour = optimizer.plan(grid.indexOf(from.getLongitude(), from.getLatitude()), charge, capacity,
+				_floor.getDirtyCells(), _floor.getChargingStationCells());
+		if (logger.isDebugEnabled()) {
+			logger.debug("planDirtTour() was called with charge " + charge + " of " + capacity + ". return - " + tour);
+		}
+		return tour == null ? null : tour.getLocations(grid);
+	}
+	
+	/**
+	 * Power a robot needs to get from location to the nearest charging station
+	 * @param location the current location
+	 * @return the power cost, or -1 if no charging station can be reached
+	 */
+	public int getPowerToNearestCharger(Location location){
+		ChargerDistanceField field = _floor.getChargerDistanceField();
+		int cost = field.getCost(_floor.indexOf(location.getLongitude(), location.getLatitude()));
+		return cost == ChargerDistanceField.UNREACHABLE ? -1 : cost;
+	}
+	
+	/**
+	 * Charging station that is cheapest to reach from location
+	 * @param location the current location
+	 * @return location of the charging station, or null if none can be reached
+	 */
+	public Location getNearestChargingStation(Location location){
+		ChargerDistanceField field = _floor.getChargerDistanceField();
+		int station = field.getStation(_floor.indexOf(location.getLongitude(), location.getLatitude()));
+		if(station < 0)
+			return null;
+		return new Location(_floor.getChargingStation(station), Direction.NORTH);
+	}
+	
+	/**
+	 * Cells a robot at location can drive to and still get back to a charging station
+	 * from with the charge it has left. Cheap to call every move, asking again from the
+	 * same location with less charge only drops cells from the last answer
+	 * @param location the current location
+	 * @param charge power left in the battery
+	 * @return a bit for every cell in the envelope, at longitude * floor height + latitude
+	 */
+	public BitSet getReachableEnvelope(Location location, int charge){
+		if(_envelope == null)
+			_envelope = new ReachabilityEnvelope(_floor.getNavigationGrid(), _floor.getChargerDistanceField());
+		return _envelope.query(_floor.indexOf(location.getLongitude(), location.getLatitude()), charge);
+	}
+	
+	/**
+	 * Room of a location, rooms are the open areas between walls and doors
+	 * @param location the location to look up
+	 * @return the room number, or -1 for a door or an obstacle
+	 */
+	public int getRoom(Location location){
+		return _floor.getRoomMap().roomOf(location.getLongitude(), location.getLatitude());
+	}
+	
+	/**
+	 * Indicates whether a robot can get from one location to the other through the doors open now
+	 * @param from the current location
+	 * @param to the location to get to
+	 * @return true if both locations are in rooms and the open doors connect them
+	 */
+	public boolean isConnected(Location from, Location to){
+		ReachabilityOracle oracle = _floor.getReachabilityOracle();
+		return oracle.isReachable(_floor.indexOf(from.getLongitude(), from.getLatitude()),
+				_floor.indexOf(to.getLongitude(), to.getLatitude()));
+	}
+	
 	/**
 	 * Removes dirt from location
 	 * @param location the current location or Location objection in which you would like to clean
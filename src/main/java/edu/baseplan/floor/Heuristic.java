@@ -0,0 +1,35 @@
+package edu.baseplan.floor;
+
+/**
+ * Lower bound on the power needed to travel between two cells of a NavigationGrid
+ */
+interface Heuristic {
+
+	/**
+	 * Heuristic that always estimates 0, turns A* into Dijkstra's algorithm
+	 */
+	Heuristic ZERO = new Heuristic() {
+		@Override
+		public void prepare(int source, int target) {
+		}
+
+		@Override
+		public int estimate(int cell, int target) {
+			return 0;
+		}
+	};
+
+	/**
+	 * Called by planners once before each query, before any estimate
+	 * @param source dense index of the start cell
+	 * @param target dense index of the goal
+	 */
+	void prepare(int source, int target);
+
+	/**
+	 * @param cell dense index of the cell to estimate from
+	 * @param target dense index of the goal
+	 * @return estimate that never exceeds the cheapest path cost from cell to target
+	 */
+	int estimate(int cell, int target);
+}
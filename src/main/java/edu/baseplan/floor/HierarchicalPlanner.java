@@ -0,0 +1,174 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+
+/**
+ * Two level planner over a PortalGraph.
+ * <p>
+ * The start and goal are connected to the portals of their rooms with one room
+ * confined search each, then Dijkstra over the portals picks the route of
+ * rooms. The cell path is refined with A* that may only enter the rooms on
+ * that route. The route is the cheapest one under the portal edge costs, which
+ * treat takeoff and landing cells of a door independently, so the result can
+ * in rare cases cost a little more than a full search. Before any search
+ * the RoomMap tells whether the open doors connect the two cells at all, so
+ * a query without a path returns null at once instead of searching. Queries
+ * that start or end on a door fall back to a full A* search, and so do
+ * connected queries the portals find no route for, as chains of doors longer
+ * than PortalGraph.MAX_CHAIN have no portal.
+ */
+class HierarchicalPlanner implements PathPlanner {
+
+	private final PortalGraph _graph;
+	private final RoomMap _rooms;
+	private final NavigationGrid _grid;
+	private final RoomSearch _startSearch;
+	private final RoomSearch _goalSearch;
+	private final int[] _portalCost;
+	private final int[] _portalParent;
+	private final IndexedMinHeap _open;
+	private final int _goal;
+	private final boolean[] _routeRoom;
+	private final CorridorPlanner _corridor;
+	private final AStarPlanner _fallback;
+
+	/**
+	 * A* limited to the rooms marked in _routeRoom, and the doors a hop out of them lands on
+	 */
+	private class CorridorPlanner extends AStarPlanner {
+
+		CorridorPlanner(NavigationGrid grid){
+			super(grid);
+		}
+
+		@Override
+		protected boolean canEnter(int cell) {
+			int room = _rooms.roomOf(cell);
+			return room >= 0 ? _routeRoom[room] : _grid.getKind(cell) == NavigationGrid.DOOR;
+		}
+	}
+
+	HierarchicalPlanner(PortalGraph graph){
+		_graph = graph;
+		_rooms = graph.getRooms();
+		_grid = _rooms.getGrid();
+		_startSearch = new RoomSearch(_rooms);
+		_goalSearch = new RoomSearch(_rooms);
+		_goal = graph.getPortalCount();
+		_portalCost = new int[_goal + 1];
+		_portalParent = new int[_goal + 1];
+		_open = new IndexedMinHeap(_goal + 1);
+		_routeRoom = new boolean[_rooms.getRoomCount()];
+		_corridor = new CorridorPlanner(_grid);
+		_fallback = new AStarPlanner(_grid);
+	}
+
+	@Override
+	public PlannedPath plan(int source, int target) {
+		if(!_grid.isPassable(source) || !_grid.isPassable(target) || !mayConnect(source, target))
+			return null;
+		int sourceRoom = _rooms.roomOf(source);
+		int targetRoom = _rooms.roomOf(target);
+		if(sourceRoom < 0 || targetRoom < 0)
+			return _fallback.plan(source, target);
+
+		_graph.refresh();
+		_startSearch.forward(new int[] {source}, 1, new int[] {0});
+		_goalSearch.backward(target);
+		int touched = _startSearch.getSettledCount() + _goalSearch.getSettledCount();
+
+		Arrays.fill(_portalCost, RoomSearch.UNREACHED);
+		_open.clear();
+		if(sourceRoom == targetRoom)
+			reach(_goal, _startSearch.distance(target), -1);
+		for(int exit=_graph.getExitStart(sourceRoom); exit<_graph.getExitEnd(sourceRoom); exit++){
+			int portal = _graph.getExit(exit);
+			if(_graph.isPortalOpen(portal))
+				reach(portal, _graph.takeoffCost(portal, sourceRoom, _startSearch), -1);
+		}
+
+		while(!_open.isEmpty()){
+			int portal = _open.poll();
+			touched++;
+			if(portal == _goal)
+				return refine(source, target, touched);
+
+			int cost = _portalCost[portal];
+			if(_graph.getPortalRoom(portal) == targetRoom){
+				int landing = _graph.landingCost(portal, _goalSearch);
+				if(landing != RoomSearch.UNREACHED)
+					reach(_goal, cost + landing, portal);
+			}
+			for(int edge=_graph.getEdgeStart(portal); edge<_graph.getEdgeEnd(portal); edge++){
+				int next = _graph.getEdgeTarget(edge);
+				if(_graph.isPortalOpen(next))
+					reach(next, cost + _graph.getEdgeCost(edge), portal);
+			}
+		}
+		return _fallback.plan(source, target);
+	}
+
+	/**
+	 * @return false if the open doors connect no room cell the source leads to with one that leads to the target
+	 */
+	private boolean mayConnect(int source, int target){
+		int[] from = roomCells(source, true);
+		int[] to = roomCells(target, false);
+		if(from == null || to == null)
+			return true;
+		for(int a : from)
+			for(int b : to)
+				if(_rooms.isConnected(a, b))
+					return true;
+		return false;
+	}
+
+	/**
+	 * Room cells standing in for a cell, the cell itself when it is in a room, else the cells one move away
+	 * @param leaving true for the cells a robot on cell moves to, false for the cells it comes from
+	 * @return the cells, null if one of them is a door too
+	 */
+	private int[] roomCells(int cell, boolean leaving){
+		if(_rooms.roomOf(cell) >= 0)
+			return new int[]{cell};
+		int[] cells = new int[16];
+		int count = 0;
+		for(int d=0; d<8; d++){
+			for(int i=0; i<(leaving ? 1 : 2); i++){
+				int other = leaving ? _grid.destination(cell, d) : _grid.origin(cell, d, i == 1);
+				if(other < 0)
+					continue;
+				if(_rooms.roomOf(other) < 0)
+					return null;
+				cells[count++] = other;
+			}
+		}
+		return Arrays.copyOf(cells, count);
+	}
+
+	private void reach(int portal, int cost, int parent){
+		if(cost != RoomSearch.UNREACHED && cost < _portalCost[portal]){
+			_portalCost[portal] = cost;
+			_portalParent[portal] = parent;
+			_open.insertOrUpdate(portal, cost);
+		}
+	}
+
+	/**
+	 * Runs A* through the rooms on the portal route found
+	 */
+	private PlannedPath refine(int source, int target, int touched){
+		Arrays.fill(_routeRoom, false);
+		_routeRoom[_rooms.roomOf(source)] = true;
+		_routeRoom[_rooms.roomOf(target)] = true;
+		for(int portal = _portalParent[_goal]; portal >= 0; portal = _portalParent[portal])
+			_routeRoom[_graph.getPortalRoom(portal)] = true;
+
+		PlannedPath path = _corridor.plan(source, target);
+		if(path == null)
+			path = _fallback.plan(source, target);
+		if(path == null)
+			return null;
+		return new PlannedPath(path.getCells(), path.getCost(), touched + path.getExpansions(), path.getDoorVersion());
+	}
+}
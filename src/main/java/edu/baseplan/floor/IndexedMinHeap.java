@@ -0,0 +1,200 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+
+/**
+ * Binary min heap of int elements with long keys, backed by primitive arrays.
+ * Elements are in the range [0, capacity) and every element knows its
+ * position, so keys can be changed in place without any per node objects.
+ */
+class IndexedMinHeap {
+
+	private int[] _position;
+	private int[] _heap;
+	private long[] _keys;
+	private int _size;
+
+	/**
+	 * @param capacity elements are in [0, capacity)
+	 */
+	IndexedMinHeap(int capacity){
+		_position = new int[capacity];
+		_heap = new int[Math.min(capacity, 1024) + 1];
+		_keys = new long[_heap.length];
+		_size = 0;
+	}
+
+	/**
+	 * Allows elements up to capacity - 1, for callers whose elements are handed out as they go
+	 * @param capacity elements are in [0, capacity) from now on
+	 */
+	void ensureCapacity(int capacity){
+		if(capacity > _position.length)
+			_position = Arrays.copyOf(_position, capacity);
+	}
+
+	boolean isEmpty(){
+		return _size == 0;
+	}
+
+	int size(){
+		return _size;
+	}
+
+	/**
+	 * Element stored at a position of the heap, for visiting every element in no particular order
+	 * @param i position from 0 to size() - 1
+	 * @return the element
+	 */
+	int elementAt(int i){
+		return _heap[i + 1];
+	}
+
+	/**
+	 * @param element element to look for
+	 * @return true if element is in the heap
+	 */
+	boolean contains(int element){
+		return _position[element] != 0;
+	}
+
+	/**
+	 * @param element an element in the heap
+	 * @return the key of the element
+	 */
+	long keyOf(int element){
+		return _keys[_position[element]];
+	}
+
+	/**
+	 * @return the element with the smallest key, the heap must not be empty
+	 */
+	int peek(){
+		return _heap[1];
+	}
+
+	/**
+	 * @return the smallest key, the heap must not be empty
+	 */
+	long peekKey(){
+		return _keys[1];
+	}
+
+	/**
+	 * Adds element, or moves it to its new key if it is already in the heap
+	 * @param element element to add or update
+	 * @param key the element's key
+	 */
+	void insertOrUpdate(int element, long key){
+		int i = _position[element];
+		if(i == 0){
+			if(++_size == _heap.length)
+				grow();
+			i = _size;
+			_heap[i] = element;
+			_keys[i] = key;
+			_position[element] = i;
+			siftUp(i);
+		}
+		else if(key < _keys[i]){
+			_keys[i] = key;
+			siftUp(i);
+		}
+		else{
+			_keys[i] = key;
+			siftDown(i);
+		}
+	}
+
+	/**
+	 * Removes and returns the element with the smallest key
+	 * @return the removed element, the heap must not be empty
+	 */
+	int poll(){
+		int min = _heap[1];
+		removeAt(1);
+		return min;
+	}
+
+	/**
+	 * Removes element if it is in the heap
+	 * @param element element to remove
+	 */
+	void remove(int element){
+		int i = _position[element];
+		if(i != 0)
+			removeAt(i);
+	}
+
+	/**
+	 * Empties the heap, takes time proportional to its size and not its capacity
+	 */
+	void clear(){
+		for(int i=1; i<=_size; i++)
+			_position[_heap[i]] = 0;
+		_size = 0;
+	}
+
+	private void removeAt(int i){
+		_position[_heap[i]] = 0;
+		if(i != _size){
+			_heap[i] = _heap[_size];
+			_keys[i] = _keys[_size];
+			_position[_heap[i]] = i;
+			_size--;
+			siftDown(i);
+			siftUp(i);
+		}
+		else
+			_size--;
+	}
+
+	private void siftUp(int i){
+		int element = _heap[i];
+		long key = _keys[i];
+		while(i > 1){
+			int parent = i >>> 1;
+			if(_keys[parent] <= key)
+				break;
+			_heap[i] = _heap[parent];
+			_keys[i] = _keys[parent];
+			_position[_heap[i]] = i;
+			i = parent;
+		}
+		_heap[i] = element;
+		_keys[i] = key;
+		_position[element] = i;
+	}
+
+	private void siftDown(int i){
+		int element = _heap[i];
+		long key = _keys[i];
+		int half = _size >>> 1;
+		while(i <= half){
+			int child = i << 1;
+			if(child < _size && _keys[child + 1] < _keys[child])
+				child++;
+			if(key <= _keys[child])
+				break;
+			_heap[i] = _heap[child];
+			_keys[i] = _keys[child];
+			_position[_heap[i]] = i;
+			i = child;
+		}
+		_heap[i] = element;
+		_keys[i] = key;
+		_position[element] = i;
+	}
+
+	private void grow(){
+		int length = Math.min(_heap.length * 2, _position.length + 1);
+		if(length <= _heap.length)
+			length = _heap.length + 1;
+		int[] heap = new int[length];
+		long[] keys = new long[length];
+		System.arraycopy(_heap, 0, heap, 0, _heap.length);
+		System.arraycopy(_keys, 0, keys, 0, _keys.length);
+		_heap = heap;
+		_keys = keys;
+	}
+}
@@ -0,0 +1,325 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+
+/**
+ * Jump Point Search over a NavigationGrid, returns the same path costs as
+ * AStarPlanner with far fewer expansions on floors with large areas of one
+ * floor type.
+ * <p>
+ * A cell is interior when every neighbour it can step onto has the same
+ * power cost and none of them is a door. Inside such a region every move
+ * costs the same, so the usual jump point pruning rules apply: the search
+ * runs along straight and diagonal lines and only stops at cells with forced
+ * neighbours. All other cells are boundary cells, they stop every jump and
+ * are expanded in all eight directions like plain A*, which keeps cost
+ * changes and door hops exact. Diagonal moves may cut corners, the same as
+ * FloorNavigationProxy allows.
+ * <p>
+ * The pruning only helps inside uniform cost regions. Large rooms of one
+ * floor type get over 20 times fewer expansions and take under half the
+ * time of A*. Where carpet patches or shelves cut the rooms up the gain
+ * drops to a few times fewer expansions and a third less time. Where the floor
+ * type changes from cell to cell almost every cell is a boundary cell. Jumps
+ * then only add work, so on floors where most open cells are boundary cells
+ * the planner runs plain A* instead.
+ */
+class JumpPointPlanner implements PathPlanner {
+
+	private static final byte ALL_DIRECTIONS = 8;
+	/**
+	 * Direction ordinal for (dx + 1) * 3 + (dy + 1)
+	 */
+	private static final int[] DIRECTION_OF = {5, 6, 7, 4, -1, 0, 3, 2, 1};
+
+	private final NavigationGrid _grid;
+	private final Heuristic _heuristic;
+	private final int _sizeX;
+	private final int _sizeY;
+	private final boolean[] _boundary;
+	private final AStarPlanner _fallback;
+	private final int[] _g;
+	private final int[] _parent;
+	private final int[] _searchOf;
+	private final byte[] _arrival;
+	private final IndexedMinHeap _open;
+	private int _search;
+	private int _target;
+	private int _jumpSteps;
+
+	/**
+	 * Planner using the OctileHeuristic
+	 * @param grid grid to plan on
+	 */
+	JumpPointPlanner(NavigationGrid grid){
+		this(grid, new OctileHeuristic(grid));
+	}
+
+	/**
+	 * @param grid grid to plan on
+	 * @param heuristic consistent heuristic for grid
+	 */
+	JumpPointPlanner(NavigationGrid grid, Heuristic heuristic){
+		_grid = grid;
+		_heuristic = heuristic;
+		_sizeX = grid.getSizeX();
+		_sizeY = grid.getSizeY();
+		_boundary = findBoundaryCells(grid);
+		int open = 0;
+		int boundary = 0;
+		for(int cell=0; cell<grid.getCellCount(); cell++){
+			if(grid.getKind(cell) == NavigationGrid.OPEN){
+				open++;
+				if(_boundary[cell])
+					boundary++;
+			}
+		}
+		_fallback = boundary * 2 > open ? new AStarPlanner(grid, heuristic) : null;
+		_g = new int[grid.getCellCount()];
+		_parent = new int[grid.getCellCount()];
+		_searchOf = new int[grid.getCellCount()];
+		_arrival = new byte[grid.getCellCount()];
+		_open = new IndexedMinHeap(grid.getCellCount());
+		_search = 0;
+	}
+
+	@Override
+	public PlannedPath plan(int source, int target) {
+		if(_fallback != null)
+			return _fallback.plan(source, target);
+		long doorVersion = _grid.getDoorVersion();
+		if(!_grid.isPassable(source) || !_grid.isPassable(target))
+			return null;
+
+		_heuristic.prepare(source, target);
+		startSearch();
+		_target = target;
+		_g[source] = 0;
+		_parent[source] = -1;
+		_arrival[source] = ALL_DIRECTIONS;
+		_searchOf[source] = _search;
+		_open.insertOrUpdate(source, AStarPlanner.key(_heuristic.estimate(source, target), 0));
+
+		int expansions = 0;
+		while(!_open.isEmpty()){
+			int cell = _open.poll();
+			expansions++;
+			if(cell == target)
+				return new PlannedPath(fillPath(PlannedPath.tracePath(_parent, target)), _g[target], expansions, doorVersion);
+
+			int x = cell / _sizeY;
+			int y = cell - x * _sizeY;
+			if(_boundary[cell] || _arrival[cell] == ALL_DIRECTIONS)
+				expandAll(cell, x, y);
+			else
+				expandPruned(cell, x, y, _arrival[cell]);
+		}
+		return null;
+	}
+
+	/**
+	 * Follows every direction from a boundary cell, hopping doors the same way as the proxy
+	 */
+	private void expandAll(int cell, int x, int y){
+		for(int d=0; d<8; d++){
+			int nx = x + NavigationGrid.DX[d];
+			int ny = y + NavigationGrid.DY[d];
+			if(nx < 0 || ny < 0 || nx >= _sizeX || ny >= _sizeY)
+				continue;
+			byte kind = _grid.getKind(nx * _sizeY + ny);
+			if(kind == NavigationGrid.DOOR){
+				int next = _grid.destination(x, y, d);
+				if(next >= 0)
+					relax(cell, next, _g[cell] + _grid.getCost(next), d);
+			}
+			else if(kind == NavigationGrid.OPEN)
+				jumpAndRelax(cell, x, y, d);
+		}
+	}
+
+	/**
+	 * Follows the natural and forced neighbours of an interior cell reached in direction d
+	 */
+	private void expandPruned(int cell, int x, int y, int d){
+		int dx = NavigationGrid.DX[d];
+		int dy = NavigationGrid.DY[d];
+		if(dx != 0 && dy != 0){
+			tryJump(cell, x, y, dx, dy);
+			tryJump(cell, x, y, dx, 0);
+			tryJump(cell, x, y, 0, dy);
+			if(!isOpen(x - dx, y))
+				tryJump(cell, x, y, -dx, dy);
+			if(!isOpen(x, y - dy))
+				tryJump(cell, x, y, dx, -dy);
+		}
+		else if(dx != 0){
+			tryJump(cell, x, y, dx, 0);
+			if(!isOpen(x, y + 1))
+				tryJump(cell, x, y, dx, 1);
+			if(!isOpen(x, y - 1))
+				tryJump(cell, x, y, dx, -1);
+		}
+		else{
+			tryJump(cell, x, y, 0, dy);
+			if(!isOpen(x + 1, y))
+				tryJump(cell, x, y, 1, dy);
+			if(!isOpen(x - 1, y))
+				tryJump(cell, x, y, -1, dy);
+		}
+	}
+
+	private void tryJump(int cell, int x, int y, int dx, int dy){
+		if(isOpen(x + dx, y + dy))
+			jumpAndRelax(cell, x, y, DIRECTION_OF[(dx + 1) * 3 + dy + 1]);
+	}
+
+	private void jumpAndRelax(int cell, int x, int y, int d){
+		int first = (x + NavigationGrid.DX[d]) * _sizeY + y + NavigationGrid.DY[d];
+		int next = jump(x, y, NavigationGrid.DX[d], NavigationGrid.DY[d]);
+		if(next >= 0)
+			relax(cell, next, _g[cell] + _jumpSteps * _grid.getCost(first), d);
+	}
+
+	private void relax(int from, int to, int g, int d){
+		if(_searchOf[to] != _search || g < _g[to]){
+			_searchOf[to] = _search;
+			_g[to] = g;
+			_parent[to] = from;
+			_arrival[to] = (byte) d;
+			_open.insertOrUpdate(to, AStarPlanner.key(g + _heuristic.estimate(to, _target), g));
+		}
+	}
+
+	/**
+	 * Steps from x,y in direction dx,dy until a jump point is found, the number of
+	 * steps taken is left in _jumpSteps. Every cell passed on the way has the cost
+	 * of the first one, interior cells only border cells of their own cost.
+	 * @return dense index of the jump point, or -1 if the line runs into an obstacle
+	 */
+	private int jump(int x, int y, int dx, int dy){
+		int steps = 0;
+		while(true){
+			x += dx;
+			y += dy;
+			if(!isOpen(x, y))
+				return -1;
+			steps++;
+			int cell = x * _sizeY + y;
+			if(cell == _target || _boundary[cell] || hasForcedNeighbour(x, y, dx, dy)
+					|| (dx != 0 && dy != 0 && (jumpsToPoint(x, y, dx, 0) || jumpsToPoint(x, y, 0, dy)))){
+				_jumpSteps = steps;
+				return cell;
+			}
+		}
+	}
+
+	/**
+	 * Straight jump that only reports whether a jump point exists
+	 */
+	private boolean jumpsToPoint(int x, int y, int dx, int dy){
+		while(true){
+			x += dx;
+			y += dy;
+			if(!isOpen(x, y))
+				return false;
+			int cell = x * _sizeY + y;
+			if(cell == _target || _boundary[cell] || hasForcedNeighbour(x, y, dx, dy))
+				return true;
+		}
+	}
+
+	private boolean hasForcedNeighbour(int x, int y, int dx, int dy){
+		if(dx != 0 && dy != 0)
+			return (!isOpen(x - dx, y) && isOpen(x - dx, y + dy)) || (!isOpen(x, y - dy) && isOpen(x + dx, y - dy));
+		if(dx != 0)
+			return (!isOpen(x, y + 1) && isOpen(x + dx, y + 1)) || (!isOpen(x, y - 1) && isOpen(x + dx, y - 1));
+		return (!isOpen(x + 1, y) && isOpen(x + 1, y + dy)) || (!isOpen(x - 1, y) && isOpen(x - 1, y + dy));
+	}
+
+	private boolean isOpen(int x, int y){
+		return x >= 0 && y >= 0 && x < _sizeX && y < _sizeY && _grid.getKind(x * _sizeY + y) == NavigationGrid.OPEN;
+	}
+
+	/**
+	 * Expands a list of jump points into one cell per move
+	 */
+	private int[] fillPath(int[] jumpPoints){
+		int length = 1;
+		for(int i=1; i<jumpPoints.length; i++)
+			length += movesBetween(jumpPoints[i - 1], jumpPoints[i]);
+
+		int[] cells = new int[length];
+		int n = 0;
+		cells[n++] = jumpPoints[0];
+		for(int i=1; i<jumpPoints.length; i++){
+			int cell = jumpPoints[i - 1];
+			int step = stepBetween(cell, jumpPoints[i]);
+			while(cell != jumpPoints[i]){
+				cell += step;
+				if(_grid.getKind(cell) == NavigationGrid.DOOR)
+					cell += step;
+				cells[n++] = cell;
+			}
+		}
+		return cells;
+	}
+
+	private int movesBetween(int from, int to){
+		int moves = _grid.distance(from, to);
+		int step = stepBetween(from, to);
+		if(moves == 2 && _grid.getKind(from + step) == NavigationGrid.DOOR)
+			return 1;
+		return moves;
+	}
+
+	private int stepBetween(int from, int to){
+		int dx = Integer.signum(_grid.xOf(to) - _grid.xOf(from));
+		int dy = Integer.signum(_grid.yOf(to) - _grid.yOf(from));
+		return dx * _sizeY + dy;
+	}
+
+	/**
+	 * Marks doors, which robots can land on after hopping another door, and
+	 * open cells that border a door or an open cell with a different power cost
+	 */
+	private static boolean[] findBoundaryCells(NavigationGrid grid){
+		int sizeX = grid.getSizeX();
+		int sizeY = grid.getSizeY();
+		boolean[] boundary = new boolean[grid.getCellCount()];
+		for(int x=0; x<sizeX; x++){
+			for(int y=0; y<sizeY; y++){
+				int cell = x * sizeY + y;
+				if(grid.getKind(cell) != NavigationGrid.OPEN){
+					boundary[cell] = grid.getKind(cell) == NavigationGrid.DOOR;
+					continue;
+				}
+				for(int d=0; d<8 && !boundary[cell]; d++){
+					int nx = x + NavigationGrid.DX[d];
+					int ny = y + NavigationGrid.DY[d];
+					if(nx < 0 || ny < 0 || nx >= sizeX || ny >= sizeY)
+						continue;
+					int next = nx * sizeY + ny;
+					byte kind = grid.getKind(next);
+					boundary[cell] = kind == NavigationGrid.DOOR
+							|| (kind == NavigationGrid.OPEN && grid.getCost(next) != grid.getCost(cell));
+				}
+			}
+		}
+		return boundary;
+	}
+
+	/**
+	 * @return true if this planner runs plain A* because most open cells are boundary cells
+	 */
+	boolean isFallingBack(){
+		return _fallback != null;
+	}
+
+	private void startSearch(){
+		_open.clear();
+		if(++_search == Integer.MAX_VALUE){
+			Arrays.fill(_searchOf, 0);
+			_search = 1;
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package edu.baseplan.floor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * ALT heuristic (A*, landmarks and triangle inequality) for a NavigationGrid.
+ * <p>
+ * A few landmark cells are picked from charging stations, the cells next to
+ * doors and the cells closest to the corners and edges of the floor, spread
+ * out as far as possible from each other. For every landmark the exact power
+ * cost from it to every cell and from every cell to it is stored. Moves cost
+ * the cell landed on, so the two directions differ. The costs are stored cell
+ * by cell so one estimate reads one short run of the array. For a landmark L,
+ * cost(L, target) - cost(L, cell) and cost(cell, L) - cost(target, L) are both
+ * lower bounds of cost(cell, target); the estimate is the largest of them and
+ * the OctileHeuristic. The tables depend on the doors, a table built before
+ * a door opened can overestimate. When prepare sees a newer door state version
+ * it starts a parallel rebuild on a background thread and returns at once;
+ * until the new tables are published, estimates come from the OctileHeuristic
+ * alone.
+ */
+class LandmarkHeuristic implements Heuristic {
+
+	private static final int UNREACHED = Integer.MAX_VALUE;
+
+	private final NavigationGrid _grid;
+	private final Floor _floor;
+	private final OctileHeuristic _octile;
+	private final int[] _landmarks;
+	private volatile Tables _tables;
+	private Thread _rebuild;
+
+	/**
+	 * Cost tables for one door state version, replaced as a whole
+	 */
+	private static final class Tables {
+		final long _version;
+		final int[] _from;
+		final int[] _to;
+
+		Tables(long version, int[] from, int[] to){
+			_version = version;
+			_from = from;
+			_to = to;
+		}
+	}
+
+	/**
+	 * @param grid grid to build the tables on
+	 * @param count number of landmarks
+	 */
+	LandmarkHeuristic(NavigationGrid grid, int count){
+		_grid = grid;
+		_floor = grid.getFloor();
+		_octile = new OctileHeuristic(grid);
+		_landmarks = pickLandmarks(grid, count);
+		_tables = build();
+	}
+
+	/**
+	 * @return dense indices of the landmark cells
+	 */
+	int[] getLandmarks(){
+		return _landmarks;
+	}
+
+	@Override
+	public void prepare(int source, int target) {
+		if(!isCurrent())
+			startRebuild();
+	}
+
+	@Override
+	public int estimate(int cell, int target) {
+		int best = _octile.estimate(cell, target);
+		Tables tables = _tables;
+		if(tables._version != _floor.getDoorVersion())
+			return best;
+		int count = _landmarks.length;
+		int c = cell * count;
+		int t = target * count;
+		for(int k=0; k<count; k++){
+			int fromCell = tables._from[c + k];
+			int fromTarget = tables._from[t + k];
+			if(fromCell != UNREACHED && fromTarget != UNREACHED && fromTarget - fromCell > best)
+				best = fromTarget - fromCell;
+			int toCell = tables._to[c + k];
+			int toTarget = tables._to[t + k];
+			if(toCell != UNREACHED && toTarget != UNREACHED && toCell - toTarget > best)
+				best = toCell - toTarget;
+		}
+		return best;
+	}
+
+	/**
+	 * Starts the background rebuild unless one is running. The rebuild repeats
+	 * until its tables match the doors, a change it misses after that starts
+	 * the next one from the next prepare.
+	 */
+	private synchronized void startRebuild(){
+		if(_rebuild != null)
+			return;
+		_rebuild = new Thread(() -> {
+			try{
+				do{
+					_tables = build();
+				}while(!isCurrent());
+			}
+			finally{
+				synchronized(this){
+					_rebuild = null;
+					notifyAll();
+				}
+			}
+		}, "landmark-rebuild");
+		_rebuild.setDaemon(true);
+		_rebuild.start();
+	}
+
+	/**
+	 * Waits until no rebuild is running
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	synchronized void awaitRebuild() throws InterruptedException{
+		while(_rebuild != null)
+			wait();
+	}
+
+	/**
+	 * @return true if the published tables match the current doors
+	 */
+	boolean isCurrent(){
+		return _tables._version == _floor.getDoorVersion();
+	}
+
+	/**
+	 * One search from and one search to every landmark, all run in parallel
+	 */
+	private Tables build(){
+		final NavigationGraph forward = _floor.getNavigationGraph();
+		final NavigationGraph backward = forward.transpose();
+		final int count = _landmarks.length;
+		final int[] from = new int[_grid.getCellCount() * count];
+		final int[] to = new int[_grid.getCellCount() * count];
+		IntStream.range(0, 2 * count).parallel().forEach(task -> {
+			int k = task % count;
+			int[] costs = search(task >= count ? backward : forward, _landmarks[k]);
+			int[] table = task >= count ? to : from;
+			for(int cell=0; cell<costs.length; cell++)
+				table[cell * count + k] = costs[cell];
+		});
+		return new Tables(forward.getDoorVersion(), from, to);
+	}
+
+	/**
+	 * Dijkstra over the whole graph, on the transposed graph it gives the costs towards landmark
+	 */
+	private static int[] search(NavigationGraph graph, int landmark){
+		int[] cost = new int[graph.getCellCount()];
+		Arrays.fill(cost, UNREACHED);
+		IndexedMinHeap heap = new IndexedMinHeap(graph.getCellCount());
+		cost[landmark] = 0;
+		heap.insertOrUpdate(landmark, 0);
+		while(!heap.isEmpty()){
+			int cell = heap.poll();
+			for(int edge=graph.getEdgeStart(cell); edge<graph.getEdgeEnd(cell); edge++){
+				int next = graph.getEdgeTarget(edge);
+				if(cost[cell] + graph.getEdgeWeight(edge) < cost[next]){
+					cost[next] = cost[cell] + graph.getEdgeWeight(edge);
+					heap.insertOrUpdate(next, cost[next]);
+				}
+			}
+		}
+		return cost;
+	}
+
+	/**
+	 * Farthest point selection among stations, door sides, corners and edge midpoints
+	 */
+	private static int[] pickLandmarks(NavigationGrid grid, int count){
+		Floor floor = grid.getFloor();
+		List<Integer> candidates = new ArrayList<Integer>();
+		for(int i=0; i<floor.getChargingStationCount(); i++)
+			candidates.add(floor.indexOf(floor.getChargingStation(i)));
+		for(int door : grid.getDoorCells()){
+			for(int d=0; d<8; d++){
+				int x = grid.xOf(door) + NavigationGrid.DX[d];
+				int y = grid.yOf(door) + NavigationGrid.DY[d];
+				if(x >= 0 && y >= 0 && x < grid.getSizeX() && y < grid.getSizeY()
+						&& grid.getKind(grid.indexOf(x, y)) == NavigationGrid.OPEN){
+					candidates.add(grid.indexOf(x, y));
+					break;
+				}
+			}
+		}
+		int maxX = grid.getSizeX() - 1;
+		int maxY = grid.getSizeY() - 1;
+		int[][] anchors = {{0, 0}, {0, maxY}, {maxX, 0}, {maxX, maxY}, {0, maxY / 2}, {maxX, maxY / 2}, {maxX / 2, 0}, {maxX / 2, maxY}};
+		for(int[] anchor : anchors){
+			int closest = -1;
+			int closestDistance = Integer.MAX_VALUE;
+			for(int cell=0; cell<grid.getCellCount(); cell++){
+				if(grid.getKind(cell) != NavigationGrid.OPEN)
+					continue;
+				int distance = Math.max(Math.abs(grid.xOf(cell) - anchor[0]), Math.abs(grid.yOf(cell) - anchor[1]));
+				if(distance < closestDistance){
+					closest = cell;
+					closestDistance = distance;
+				}
+			}
+			if(closest >= 0)
+				candidates.add(closest);
+		}
+
+		int[] landmarks = new int[Math.min(count, candidates.size())];
+		int[] spread = new int[candidates.size()];
+		int centre = grid.indexOf(maxX / 2, maxY / 2);
+		for(int i=0; i<spread.length; i++)
+			spread[i] = grid.distance(candidates.get(i), centre);
+		for(int k=0; k<landmarks.length; k++){
+			int best = 0;
+			for(int i=1; i<spread.length; i++)
+				if(spread[i] > spread[best])
+					best = i;
+			landmarks[k] = candidates.get(best);
+			for(int i=0; i<spread.length; i++)
+				spread[i] = k == 0 ? grid.distance(candidates.get(i), landmarks[k])
+						: Math.min(spread[i], grid.distance(candidates.get(i), landmarks[k]));
+		}
+		return landmarks;
+	}
+}
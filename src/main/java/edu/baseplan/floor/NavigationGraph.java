@@ -0,0 +1,285 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+
+/**
+ * Compressed sparse row graph of the moves on a NavigationGrid for one door state.
+ * <p>
+ * The edges leaving a cell are numbered from getEdgeStart(cell) to
+ * getEdgeEnd(cell), each with its destination, Direction ordinal and power
+ * cost. Door hops are already collapsed into single edges as in
+ * FloorNavigationProxy.move, and cells are addressed by the dense index of
+ * the grid. The rows are stored in blocks of consecutive cells, each block
+ * with its own offset, target, direction and weight arrays, so edge numbers
+ * are not contiguous from one block to the next. A graph never changes, the
+ * door states are read once as a consistent snapshot. refresh gives a graph
+ * for the current doors that shares every block no changed door can reach
+ * and rebuilds the others.
+ */
+class NavigationGraph {
+
+	private static final int BLOCK_BITS = 12;
+	private static final int BLOCK_MASK = (1 << BLOCK_BITS) - 1;
+	private static final int EDGE_BITS = BLOCK_BITS + 3;
+	private static final int EDGE_MASK = (1 << EDGE_BITS) - 1;
+
+	private final NavigationGrid _grid;
+	private final long _doorVersion;
+	private final boolean[] _doorOpen;
+	private final Block[] _blocks;
+	private final boolean _transposed;
+
+	/**
+	 * Rows of up to 1 << BLOCK_BITS consecutive cells
+	 */
+	private static final class Block {
+		final int[] _offsets;
+		final int[] _targets;
+		final byte[] _directions;
+		final int[] _weights;
+
+		Block(int[] offsets, int edgeCount){
+			_offsets = offsets;
+			_targets = new int[edgeCount];
+			_directions = new byte[edgeCount];
+			_weights = new int[edgeCount];
+		}
+	}
+
+	/**
+	 * Builds the graph for the current door states of grid
+	 * @param grid grid to compile
+	 */
+	NavigationGraph(NavigationGrid grid){
+		_grid = grid;
+		_doorOpen = new boolean[grid.getDoorCells().length];
+		_doorVersion = readDoorStates(grid, _doorOpen);
+		_transposed = false;
+		_blocks = new Block[(grid.getCellCount() + BLOCK_MASK) >> BLOCK_BITS];
+		for(int b=0; b<_blocks.length; b++)
+			_blocks[b] = buildBlock(grid, _doorOpen, b);
+	}
+
+	private NavigationGraph(NavigationGrid grid, long doorVersion, boolean[] doorOpen, Block[] blocks, boolean transposed){
+		_grid = grid;
+		_doorVersion = doorVersion;
+		_doorOpen = doorOpen;
+		_blocks = blocks;
+		_transposed = transposed;
+	}
+
+	/**
+	 * @return this graph if no door changed since it was built, otherwise a graph for the current doors
+	 */
+	NavigationGraph refresh(){
+		if(_transposed)
+			throw new IllegalStateException("refresh the forward graph and transpose it again");
+		if(_doorVersion == _grid.getDoorVersion())
+			return this;
+
+		boolean[] doorOpen = new boolean[_doorOpen.length];
+		long version = readDoorStates(_grid, doorOpen);
+		Block[] blocks = _blocks.clone();
+		boolean[] rebuilt = new boolean[blocks.length];
+		int[] doorCells = _grid.getDoorCells();
+		for(int i=0; i<doorOpen.length; i++){
+			if(doorOpen[i] == _doorOpen[i])
+				continue;
+
+			// Every move that passes, leaves or lands on the door starts within two cells of it
+			int x = _grid.xOf(doorCells[i]);
+			int y = _grid.yOf(doorCells[i]);
+			for(int nx=Math.max(0, x - 2); nx<=Math.min(_grid.getSizeX() - 1, x + 2); nx++){
+				int first = _grid.indexOf(nx, Math.max(0, y - 2)) >> BLOCK_BITS;
+				int last = _grid.indexOf(nx, Math.min(_grid.getSizeY() - 1, y + 2)) >> BLOCK_BITS;
+				for(int b=first; b<=last; b++){
+					if(!rebuilt[b]){
+						rebuilt[b] = true;
+						blocks[b] = buildBlock(_grid, doorOpen, b);
+					}
+				}
+			}
+		}
+		return new NavigationGraph(_grid, version, doorOpen, blocks, false);
+	}
+
+	/**
+	 * Graph with every edge reversed, for searches towards a cell. An edge keeps
+	 * the Direction ordinal and power cost of the move it was reversed from.
+	 * @return the transposed graph
+	 */
+	NavigationGraph transpose(){
+		int cellCount = _grid.getCellCount();
+		int[] fill = new int[cellCount];
+		for(Block block : _blocks)
+			for(int target : block._targets)
+				fill[target]++;
+
+		Block[] blocks = new Block[_blocks.length];
+		for(int b=0; b<blocks.length; b++){
+			int start = b << BLOCK_BITS;
+			int count = Math.min(cellCount - start, 1 << BLOCK_BITS);
+			int[] offsets = new int[count + 1];
+			for(int i=0; i<count; i++){
+				offsets[i + 1] = offsets[i] + fill[start + i];
+				fill[start + i] = offsets[i];
+			}
+			blocks[b] = new Block(offsets, offsets[count]);
+		}
+
+		for(int b=0; b<_blocks.length; b++){
+			Block block = _blocks[b];
+			for(int i=0; i<block._offsets.length - 1; i++){
+				int cell = (b << BLOCK_BITS) + i;
+				for(int edge=block._offsets[i]; edge<block._offsets[i + 1]; edge++){
+					int target = block._targets[edge];
+					Block reverse = blocks[target >> BLOCK_BITS];
+					int slot = fill[target]++;
+					reverse._targets[slot] = cell;
+					reverse._directions[slot] = block._directions[edge];
+					reverse._weights[slot] = block._weights[edge];
+				}
+			}
+		}
+		return new NavigationGraph(_grid, _doorVersion, _doorOpen, blocks, !_transposed);
+	}
+
+	NavigationGrid getGrid(){
+		return _grid;
+	}
+
+	/**
+	 * @return door state version the graph was built for
+	 */
+	long getDoorVersion(){
+		return _doorVersion;
+	}
+
+	boolean isTransposed(){
+		return _transposed;
+	}
+
+	int getCellCount(){
+		return _grid.getCellCount();
+	}
+
+	int getEdgeCount(){
+		int count = 0;
+		for(Block block : _blocks)
+			count += block._targets.length;
+		return count;
+	}
+
+	int indexOf(int x, int y){
+		return _grid.indexOf(x, y);
+	}
+
+	int xOf(int cell){
+		return _grid.xOf(cell);
+	}
+
+	int yOf(int cell){
+		return _grid.yOf(cell);
+	}
+
+	/**
+	 * Edges leaving cell are numbered from getEdgeStart(cell) to getEdgeEnd(cell)
+	 */
+	int getEdgeStart(int cell){
+		int b = cell >> BLOCK_BITS;
+		return (b << EDGE_BITS) + _blocks[b]._offsets[cell & BLOCK_MASK];
+	}
+
+	int getEdgeEnd(int cell){
+		int b = cell >> BLOCK_BITS;
+		return (b << EDGE_BITS) + _blocks[b]._offsets[(cell & BLOCK_MASK) + 1];
+	}
+
+	int getEdgeTarget(int edge){
+		return _blocks[edge >> EDGE_BITS]._targets[edge & EDGE_MASK];
+	}
+
+	/**
+	 * @return Direction ordinal of the move
+	 */
+	int getEdgeDirection(int edge){
+		return _blocks[edge >> EDGE_BITS]._directions[edge & EDGE_MASK];
+	}
+
+	/**
+	 * @return power cost of the move, the cost of the cell landed on
+	 */
+	int getEdgeWeight(int edge){
+		return _blocks[edge >> EDGE_BITS]._weights[edge & EDGE_MASK];
+	}
+
+	/**
+	 * Reads the door states in the order of NavigationGrid.getDoorCells
+	 */
+	private static long readDoorStates(NavigationGrid grid, boolean[] open){
+		Floor floor = grid.getFloor();
+		boolean[] byFloorOrder = new boolean[floor.getDoorCount()];
+		long version = floor.readDoorStates(byFloorOrder);
+		for(int i=0; i<byFloorOrder.length; i++)
+			open[Arrays.binarySearch(grid.getDoorCells(), floor.indexOf(floor.getDoor(i)))] = byFloorOrder[i];
+		return version;
+	}
+
+	private static Block buildBlock(NavigationGrid grid, boolean[] doorOpen, int b){
+		int start = b << BLOCK_BITS;
+		int count = Math.min(grid.getCellCount() - start, 1 << BLOCK_BITS);
+		int[] offsets = new int[count + 1];
+		int[] moves = new int[count * 8];
+		for(int i=0; i<count; i++)
+			offsets[i + 1] = offsets[i] + moves(grid, doorOpen, start + i, moves, offsets[i]);
+
+		Block block = new Block(offsets, offsets[count]);
+		for(int edge=0; edge<offsets[count]; edge++){
+			block._targets[edge] = moves[edge] >> 3;
+			block._directions[edge] = (byte) (moves[edge] & 7);
+			block._weights[edge] = grid.getCost(moves[edge] >> 3);
+		}
+		return block;
+	}
+
+	/**
+	 * Moves out of cell for the given door states, written from row[from] on as destination * 8 + direction
+	 * @param doorOpen open state of every door in the order of NavigationGrid.getDoorCells
+	 * @return number of moves
+	 */
+	private static int moves(NavigationGrid grid, boolean[] doorOpen, int cell, int[] row, int from){
+		if(!isPassable(grid, doorOpen, cell))
+			return 0;
+		int count = 0;
+		for(int d=0; d<8; d++){
+			int x = grid.xOf(cell) + NavigationGrid.DX[d];
+			int y = grid.yOf(cell) + NavigationGrid.DY[d];
+			if(x < 0 || y < 0 || x >= grid.getSizeX() || y >= grid.getSizeY())
+				continue;
+			int next = grid.indexOf(x, y);
+			byte kind = grid.getKind(next);
+			if(kind == NavigationGrid.OBSTACLE || (kind == NavigationGrid.DOOR && !isDoorOpen(grid, doorOpen, next)))
+				continue;
+			if(kind == NavigationGrid.DOOR){
+				x += NavigationGrid.DX[d];
+				y += NavigationGrid.DY[d];
+				if(x < 0 || y < 0 || x >= grid.getSizeX() || y >= grid.getSizeY())
+					continue;
+				next = grid.indexOf(x, y);
+				if(!isPassable(grid, doorOpen, next))
+					continue;
+			}
+			row[from + count++] = next << 3 | d;
+		}
+		return count;
+	}
+
+	private static boolean isPassable(NavigationGrid grid, boolean[] doorOpen, int cell){
+		byte kind = grid.getKind(cell);
+		return kind == NavigationGrid.OPEN || (kind == NavigationGrid.DOOR && isDoorOpen(grid, doorOpen, cell));
+	}
+
+	private static boolean isDoorOpen(NavigationGrid grid, boolean[] doorOpen, int cell){
+		return doorOpen[Arrays.binarySearch(grid.getDoorCells(), cell)];
+	}
+}
@@ -0,0 +1,247 @@
+package edu.baseplan.floor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Primitive array view of a Floor for path planning.
+ * <p>
+ * Cells are addressed by their dense index (see Floor.indexOf) and directions
+ * by Direction ordinal. Cell kinds and power costs are copied once, door
+ * state is read live from the DoorCell objects so the grid never goes stale
+ * when doors open or close. Movement follows FloorNavigationProxy: an open
+ * door is skipped and the robot lands on the cell directly after it, and the
+ * cost of a move is the power cost of the cell the robot lands on.
+ * <p>
+ * A NavigationGrid is immutable and may be shared between threads.
+ */
+class NavigationGrid {
+
+	static final byte OBSTACLE = 0;
+	static final byte OPEN = 1;
+	static final byte DOOR = 2;
+
+	/**
+	 * Change in x for each Direction ordinal
+	 */
+	static final int[] DX = {0, 1, 1, 1, 0, -1, -1, -1};
+	/**
+	 * Change in y for each Direction ordinal
+	 */
+	static final int[] DY = {1, 1, 0, -1, -1, -1, 0, 1};
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	private final Floor _floor;
+	private final int _sizeX;
+	private final int _sizeY;
+	private final byte[] _kind;
+	private final int[] _cost;
+	private final int[] _doorCells;
+	private final int _minPositiveCost;
+
+	NavigationGrid(Floor floor){
+		_floor = floor;
+		_sizeX = floor.getSizeX();
+		_sizeY = floor.getSizeY();
+		_kind = new byte[_sizeX * _sizeY];
+		_cost = new int[_sizeX * _sizeY];
+
+		List<Integer> doors = new ArrayList<Integer>();
+		int minCost = Integer.MAX_VALUE;
+		for(int x=0; x<_sizeX; x++){
+			for(int y=0; y<_sizeY; y++){
+				AbstractCell cell = floor.getCellAt(x, y);
+				int index = x * _sizeY + y;
+				if(cell.getClass() == DoorCell.class){
+					_kind[index] = DOOR;
+					doors.add(index);
+				}
+				else if(!cell.isObstructed()){
+					_kind[index] = OPEN;
+					_cost[index] = cell.getPowerCost();
+					if(_cost[index] > 0 && _cost[index] < minCost)
+						minCost = _cost[index];
+				}
+			}
+		}
+		_doorCells = new int[doors.size()];
+		for(int i=0; i<_doorCells.length; i++)
+			_doorCells[i] = doors.get(i);
+		_minPositiveCost = minCost == Integer.MAX_VALUE ? 0 : minCost;
+	}
+
+	Floor getFloor(){
+		return _floor;
+	}
+
+	int getSizeX(){
+		return _sizeX;
+	}
+
+	int getSizeY(){
+		return _sizeY;
+	}
+
+	/**
+	 * @return number of cells on the floor
+	 */
+	int getCellCount(){
+		return _kind.length;
+	}
+
+	int indexOf(int x, int y){
+		return x * _sizeY + y;
+	}
+
+	int xOf(int cell){
+		return cell / _sizeY;
+	}
+
+	int yOf(int cell){
+		return cell % _sizeY;
+	}
+
+	/**
+	 * @param cell dense cell index
+	 * @return OBSTACLE, OPEN or DOOR
+	 */
+	byte getKind(int cell){
+		return _kind[cell];
+	}
+
+	/**
+	 * @param cell dense cell index
+	 * @return power cost of landing on the cell, 0 for doors and obstacles
+	 */
+	int getCost(int cell){
+		return _cost[cell];
+	}
+
+	/**
+	 * @return the smallest power cost above zero of any open cell, 0 if there is none
+	 */
+	int getMinPositiveCost(){
+		return _minPositiveCost;
+	}
+
+	/**
+	 * @return dense indices of every door cell
+	 */
+	int[] getDoorCells(){
+		return _doorCells;
+	}
+
+	/**
+	 * @param cell dense index of a door cell
+	 * @return true if the door is open
+	 */
+	boolean isDoorOpen(int cell){
+		return ((DoorCell) _floor.getCellAt(cell)).isOpen();
+	}
+
+	/**
+	 * @return current door state version of the floor
+	 */
+	long getDoorVersion(){
+		return _floor.getDoorVersion();
+	}
+
+	/**
+	 * Indicates whether a robot can stand on a cell
+	 * @param cell dense cell index
+	 * @return true for open cells and open doors
+	 */
+	boolean isPassable(int cell){
+		byte kind = _kind[cell];
+		return kind == OPEN || (kind == DOOR && isDoorOpen(cell));
+	}
+
+	/**
+	 * Cell a robot lands on when leaving cell in direction, mirrors Floor.getDestinationCell
+	 * @param cell dense index of the cell the robot is leaving
+	 * @param direction Direction ordinal
+	 * @return dense index of the destination, or -1 if the move is not possible
+	 */
+	int destination(int cell, int direction){
+		int x = cell / _sizeY;
+		return destination(x, cell - x * _sizeY, direction);
+	}
+
+	/**
+	 * Same as destination(int, int) for a cell given by its coordinates,
+	 * lets planners split the cell index once for all eight directions
+	 * @param x x-coordinate of the cell the robot is leaving
+	 * @param y y-coordinate of the cell the robot is leaving
+	 * @param direction Direction ordinal
+	 * @return dense index of the destination, or -1 if the move is not possible
+	 */
+	int destination(int x, int y, int direction){
+		x += DX[direction];
+		y += DY[direction];
+		if(x < 0 || y < 0 || x >= _sizeX || y >= _sizeY)
+			return -1;
+
+		int next = x * _sizeY + y;
+		byte kind = _kind[next];
+		if(kind == OPEN)
+			return next;
+		if(kind == OBSTACLE || !isDoorOpen(next))
+			return -1;
+
+		x += DX[direction];
+		y += DY[direction];
+		if(x < 0 || y < 0 || x >= _sizeX || y >= _sizeY)
+			return -1;
+		next = x * _sizeY + y;
+		return isPassable(next) ? next : -1;
+	}
+
+	/**
+	 * Inverse of destination, the cell a robot has to leave in direction to land on cell.
+	 * There are two candidates, the cell directly behind cell and, when that one is
+	 * a door, the cell behind the door.
+	 * @param cell dense index of the destination
+	 * @param direction Direction ordinal of the move
+	 * @param overDoor false for the cell directly behind, true for the cell behind a door
+	 * @return dense index of the origin, or -1 if that candidate can't move onto cell
+	 */
+	int origin(int cell, int direction, boolean overDoor){
+		int back = overDoor ? 2 : 1;
+		int x = cell / _sizeY - DX[direction] * back;
+		int y = cell % _sizeY - DY[direction] * back;
+		if(x < 0 || y < 0 || x >= _sizeX || y >= _sizeY)
+			return -1;
+		int from = x * _sizeY + y;
+		return isPassable(from) && destination(x, y, direction) == cell ? from : -1;
+	}
+
+	/**
+	 * Direction of a single move from one cell to another, including door hops
+	 * @param from dense index of the start of the move
+	 * @param to dense index of the end of the move
+	 * @return Direction ordinal
+	 */
+	int directionOf(int from, int to){
+		int dx = Integer.signum(xOf(to) - xOf(from));
+		int dy = Integer.signum(yOf(to) - yOf(from));
+		for(int d=0; d<DX.length; d++)
+			if(DX[d] == dx && DY[d] == dy)
+				return d;
+		throw new IllegalArgumentException("No move from " + from + " to " + to);
+	}
+
+	/**
+	 * @param direction Direction ordinal
+	 * @return the matching Direction
+	 */
+	static Direction toDirection(int direction){
+		return DIRECTIONS[direction];
+	}
+
+	/**
+	 * Chebyshev distance, the number of moves between two cells on an empty floor
+	 */
+	int distance(int from, int to){
+		return Math.max(Math.abs(xOf(to) - xOf(from)), Math.abs(yOf(to) - yOf(from)));
+	}
+}
@@ -0,0 +1,89 @@
+package edu.baseplan.floor;
+
+/**
+ * Octile distance heuristic for a NavigationGrid, scaled by the cheapest
+ * positive power cost.
+ * <p>
+ * Robots pay the same for a diagonal move as for a straight one, so the octile
+ * distance reduces to the Chebyshev distance (number of moves) times the
+ * cheapest cost. Chargers and doors cost nothing to land on or pass through,
+ * which would break that bound, so the estimate is also capped by the moves
+ * needed to reach the nearest free cell from both ends. The distances to the
+ * nearest free cell are precomputed with a two pass distance transform.
+ * The result is consistent, so A* never needs to reopen a cell.
+ */
+class OctileHeuristic implements Heuristic {
+
+	private static final int FAR = 1 << 29;
+
+	private final NavigationGrid _grid;
+	private final int _minCost;
+	private final int[] _freeDistance;
+
+	OctileHeuristic(NavigationGrid grid){
+		_grid = grid;
+		_minCost = grid.getMinPositiveCost();
+		_freeDistance = freeDistances(grid);
+	}
+
+	@Override
+	public void prepare(int source, int target) {
+	}
+
+	@Override
+	public int estimate(int cell, int target) {
+		int moves = _grid.distance(cell, target);
+		int viaFree = Math.max(0, _freeDistance[cell] - 1) + _freeDistance[target];
+		return _minCost * Math.min(moves, viaFree);
+	}
+
+	/**
+	 * Chebyshev distance from every cell to the nearest cell that costs nothing to enter
+	 */
+	private static int[] freeDistances(NavigationGrid grid){
+		int sizeX = grid.getSizeX();
+		int sizeY = grid.getSizeY();
+		int[] distance = new int[grid.getCellCount()];
+		for(int cell=0; cell<distance.length; cell++){
+			byte kind = grid.getKind(cell);
+			boolean free = kind == NavigationGrid.DOOR || (kind == NavigationGrid.OPEN && grid.getCost(cell) == 0);
+			distance[cell] = free ? 0 : FAR;
+		}
+
+		for(int x=0; x<sizeX; x++){
+			for(int y=0; y<sizeY; y++){
+				int cell = x * sizeY + y;
+				int d = distance[cell];
+				if(y > 0)
+					d = Math.min(d, distance[cell - 1] + 1);
+				if(x > 0){
+					int above = cell - sizeY;
+					d = Math.min(d, distance[above] + 1);
+					if(y > 0)
+						d = Math.min(d, distance[above - 1] + 1);
+					if(y < sizeY - 1)
+						d = Math.min(d, distance[above + 1] + 1);
+				}
+				distance[cell] = d;
+			}
+		}
+		for(int x=sizeX - 1; x>=0; x--){
+			for(int y=sizeY - 1; y>=0; y--){
+				int cell = x * sizeY + y;
+				int d = distance[cell];
+				if(y < sizeY - 1)
+					d = Math.min(d, distance[cell + 1] + 1);
+				if(x < sizeX - 1){
+					int below = cell + sizeY;
+					d = Math.min(d, distance[below] + 1);
+					if(y > 0)
+						d = Math.min(d, distance[below - 1] + 1);
+					if(y < sizeY - 1)
+						d = Math.min(d, distance[below + 1] + 1);
+				}
+				distance[cell] = Math.min(d, FAR);
+			}
+		}
+		return distance;
+	}
+}
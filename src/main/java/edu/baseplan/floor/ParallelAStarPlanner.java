@@ -0,0 +1,320 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A* for one query spread over several cores, Hash Distributed A* (Kishimoto,
+ * Fukunaga and Botea).
+ * <p>
+ * Every cell has an owner worker, picked by hashing its 16x16 tile so that
+ * neighbours mostly share an owner. A worker keeps its own open list and only
+ * writes the costs and parents of its own cells. Reaching a cell of another
+ * worker sends it (cell, cost, parent) through a lock free single producer
+ * single consumer ring, one ring per pair of workers. Workers expand out of
+ * order, so a cell may be expanded again when a cheaper cost arrives later.
+ * The cheapest cost found to the target so far is shared, and nothing with f
+ * at or above it is expanded. The search ends when no worker has anything
+ * left below that cost and no message is under way, which one counter of
+ * busy workers plus unread messages detects, and then the cost is optimal.
+ * The search runs on a NavigationGraph, so doors that change while it runs
+ * don't affect it. A worker waits for messages while it has nothing to do,
+ * so the pool must be able to run all workers at once.
+ */
+class ParallelAStarPlanner implements PathPlanner {
+
+	private static final int TILE_BITS = 4;
+	private static final int RING_SIZE = 1 << 14;
+	private static final int BATCH = 64;
+	private static final int NONE = -1;
+
+	private final NavigationGraph _graph;
+	private final Heuristic _heuristic;
+	private final ForkJoinPool _pool;
+	private final int _workerCount;
+	private final int _tilesY;
+	private final int[] _g;
+	private final int[] _parent;
+	private final int[] _searchOf;
+	private final Worker[] _workers;
+	private int _search;
+
+	private final AtomicInteger _best = new AtomicInteger();
+	private final AtomicLong _busy = new AtomicLong();
+	private int _target;
+
+	/**
+	 * Planner with one worker per thread of pool
+	 * @param graph graph to search
+	 * @param heuristic consistent heuristic for the graph's grid, estimate must be safe to call from several threads
+	 * @param pool pool the workers run on, not running anything else during a query
+	 */
+	ParallelAStarPlanner(NavigationGraph graph, Heuristic heuristic, ForkJoinPool pool){
+		_graph = graph;
+		_heuristic = heuristic;
+		_pool = pool;
+		_workerCount = pool.getParallelism();
+		_tilesY = (graph.getGrid().getSizeY() + (1 << TILE_BITS) - 1) >> TILE_BITS;
+		_g = new int[graph.getCellCount()];
+		_parent = new int[graph.getCellCount()];
+		_searchOf = new int[graph.getCellCount()];
+		_workers = new Worker[_workerCount];
+		for(int w=0; w<_workerCount; w++)
+			_workers[w] = new Worker(w);
+	}
+
+	int getWorkerCount(){
+		return _workerCount;
+	}
+
+	/**
+	 * @return number of expansions of the last plan over all workers, cells expanded twice count twice
+	 */
+	int getLastExpansions(){
+		int expansions = 0;
+		for(Worker worker : _workers)
+			expansions += worker._expansions;
+		return expansions;
+	}
+
+	/**
+	 * @return number of cells the last plan sent from one worker to another
+	 */
+	long getLastMessages(){
+		long messages = 0;
+		for(Worker worker : _workers)
+			messages += worker._sent;
+		return messages;
+	}
+
+	@Override
+	public PlannedPath plan(int source, int target) {
+		NavigationGrid grid = _graph.getGrid();
+		if(!grid.isPassable(source) || !grid.isPassable(target))
+			return null;
+
+		_heuristic.prepare(source, target);
+		if(++_search == Integer.MAX_VALUE){
+			Arrays.fill(_searchOf, 0);
+			_search = 1;
+		}
+		_target = target;
+		_best.set(Integer.MAX_VALUE);
+		_busy.set(_workerCount);
+		for(Worker worker : _workers)
+			worker.reset();
+		_workers[ownerOf(source)].receive(source, 0, NONE);
+
+		Future<?>[] running = new Future<?>[_workerCount];
+		for(int w=0; w<_workerCount; w++)
+			running[w] = _pool.submit(_workers[w]);
+		try{
+			for(Future<?> future : running)
+				future.get();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while planning", e);
+		}
+		catch(ExecutionException e){
+			throw new IllegalStateException("a search worker failed", e.getCause());
+		}
+
+		int cost = _best.get();
+		if(cost == Integer.MAX_VALUE)
+			return null;
+		return new PlannedPath(PlannedPath.tracePath(_parent, target), cost, getLastExpansions(), _graph.getDoorVersion());
+	}
+
+	/**
+	 * Worker owning cell, tiles are spread over the workers by a multiplicative hash
+	 */
+	private int ownerOf(int cell){
+		int tile = (_graph.xOf(cell) >> TILE_BITS) * _tilesY + (_graph.yOf(cell) >> TILE_BITS);
+		return (int) (((tile * 0x9E3779B9L) & 0xFFFFFFFFL) * _workerCount >>> 32);
+	}
+
+	/**
+	 * Ring of messages from one worker to another, each message is a cell with its parent and then its cost.
+	 * Only the sending worker offers and only the receiving worker polls.
+	 */
+	private static final class Ring {
+		final long[] _slots = new long[RING_SIZE];
+		final AtomicLong _head = new AtomicLong();
+		final AtomicLong _tail = new AtomicLong();
+
+		boolean offer(long cellAndParent, long g){
+			long tail = _tail.get();
+			if(tail - _head.get() == RING_SIZE)
+				return false;
+			_slots[(int) tail & (RING_SIZE - 1)] = cellAndParent;
+			_slots[(int) (tail + 1) & (RING_SIZE - 1)] = g;
+			_tail.lazySet(tail + 2);
+			return true;
+		}
+
+		void clear(){
+			_head.set(0);
+			_tail.set(0);
+		}
+	}
+
+	private final class Worker implements Runnable {
+		final int _id;
+		final IndexedMinHeap _open;
+		/** _inbox[w] carries messages from worker w */
+		final Ring[] _inbox;
+		/** Messages for worker w that didn't fit in its ring yet */
+		final long[][] _outbox;
+		final int[] _outboxSize;
+		boolean _active;
+		int _expansions;
+		long _sent;
+
+		Worker(int id){
+			_id = id;
+			_open = new IndexedMinHeap(_graph.getCellCount());
+			_inbox = new Ring[_workerCount];
+			_outbox = new long[_workerCount][];
+			_outboxSize = new int[_workerCount];
+			for(int w=0; w<_workerCount; w++){
+				_inbox[w] = new Ring();
+				_outbox[w] = new long[64];
+			}
+		}
+
+		void reset(){
+			_open.clear();
+			for(Ring ring : _inbox)
+				ring.clear();
+			Arrays.fill(_outboxSize, 0);
+			_active = true;
+			_expansions = 0;
+			_sent = 0;
+		}
+
+		@Override
+		public void run() {
+			while(true){
+				boolean received = drainInbox();
+				boolean flushed = flushOutbox();
+				if(expand())
+					continue;
+				if(_active && flushed){
+					// Nothing to expand and nothing left to hand over
+					_active = false;
+					_busy.decrementAndGet();
+				}
+				if(!_active && _busy.get() == 0)
+					return;
+				if(!received)
+					Thread.yield();
+			}
+		}
+
+		/**
+		 * Expands up to BATCH cells whose f is below the best cost to the target
+		 * @return false if there was nothing to expand
+		 */
+		private boolean expand(){
+			int count = 0;
+			while(count < BATCH && !_open.isEmpty() && (int) (_open.peekKey() >>> 32) < _best.get()){
+				int cell = _open.poll();
+				count++;
+				_expansions++;
+				int g = _g[cell];
+				for(int edge=_graph.getEdgeStart(cell), end=_graph.getEdgeEnd(cell); edge<end; edge++){
+					int next = _graph.getEdgeTarget(edge);
+					int nextG = g + _graph.getEdgeWeight(edge);
+					int owner = ownerOf(next);
+					if(owner == _id)
+						receive(next, nextG, cell);
+					else
+						send(owner, ((long) next << 32) | (cell & 0xFFFFFFFFL), nextG);
+				}
+			}
+			return count > 0;
+		}
+
+		/**
+		 * Takes a cell this worker owns, reached at cost g from parent
+		 */
+		void receive(int cell, int g, int parent){
+			if(_searchOf[cell] == _search && _g[cell] <= g)
+				return;
+			_searchOf[cell] = _search;
+			_g[cell] = g;
+			_parent[cell] = parent;
+			if(cell == _target){
+				for(int best=_best.get(); g < best && !_best.compareAndSet(best, g); best=_best.get());
+				return;
+			}
+			int f = g + _heuristic.estimate(cell, _target);
+			if(f < _best.get())
+				_open.insertOrUpdate(cell, AStarPlanner.key(f, g));
+		}
+
+		private void send(int owner, long cellAndParent, int g){
+			if(_outboxSize[owner] + 2 > _outbox[owner].length)
+				_outbox[owner] = Arrays.copyOf(_outbox[owner], _outbox[owner].length * 2);
+			_outbox[owner][_outboxSize[owner]++] = cellAndParent;
+			_outbox[owner][_outboxSize[owner]++] = g;
+			// Counted before it is visible to the receiver, so the count can't drop to 0 while it is under way
+			_busy.incrementAndGet();
+			_sent++;
+		}
+
+		/**
+		 * Moves as many waiting messages as fit into the receivers' rings
+		 * @return true if no message is left waiting
+		 */
+		private boolean flushOutbox(){
+			boolean empty = true;
+			for(int w=0; w<_workerCount; w++){
+				int size = _outboxSize[w];
+				if(size == 0)
+					continue;
+				Ring ring = _workers[w]._inbox[_id];
+				int i = 0;
+				while(i < size && ring.offer(_outbox[w][i], _outbox[w][i + 1]))
+					i += 2;
+				if(i < size){
+					System.arraycopy(_outbox[w], i, _outbox[w], 0, size - i);
+					empty = false;
+				}
+				_outboxSize[w] = size - i;
+			}
+			return empty;
+		}
+
+		/**
+		 * @return true if any message was read
+		 */
+		private boolean drainInbox(){
+			boolean received = false;
+			for(Ring ring : _inbox){
+				long head = ring._head.get();
+				long tail = ring._tail.get();
+				if(head == tail)
+					continue;
+				if(!_active){
+					_active = true;
+					_busy.incrementAndGet();
+				}
+				for(long i=head; i<tail; i+=2){
+					long cellAndParent = ring._slots[(int) i & (RING_SIZE - 1)];
+					int g = (int) ring._slots[(int) (i + 1) & (RING_SIZE - 1)];
+					receive((int) (cellAndParent >>> 32), g, (int) cellAndParent);
+				}
+				ring._head.lazySet(tail);
+				_busy.addAndGet(-(tail - head) / 2);
+				received = true;
+			}
+			return received;
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package edu.baseplan.floor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of planned paths, shared by all robots on a floor.
+ * <p>
+ * Paths are stored as one 4 bit direction per move together with the doors
+ * they pass, and evicted least recently used first once the byte budget is
+ * exceeded. Every entry remembers the door state version it was last known
+ * to be valid at. When the version has moved on, the entry is dropped if
+ * one of its own doors changed since then, or if any door opened since then,
+ * as that can make a cheaper path. Otherwise only doors off the path closed,
+ * the path is still the cheapest and is stamped with the new version and
+ * served.
+ */
+class PathCache {
+
+	/**
+	 * Rough per entry overhead of the entry object, map node and key
+	 */
+	private static final int ENTRY_OVERHEAD = 96;
+
+	private final NavigationGrid _grid;
+	private final Floor _floor;
+	private final DoorStateVersion _doorStateVersion;
+	private final long _byteBudget;
+	private final LinkedHashMap<Long, Entry> _entries;
+	private long _bytes;
+	private long _hits;
+	private long _misses;
+	private long _invalidations;
+	private long _evictions;
+
+	private static final class Entry {
+		final byte[] _moves;
+		final int _moveCount;
+		final int _cost;
+		final int[] _doors;
+		long _version;
+
+		Entry(byte[] moves, int moveCount, int cost, int[] doors, long version){
+			_moves = moves;
+			_moveCount = moveCount;
+			_cost = cost;
+			_doors = doors;
+			_version = version;
+		}
+
+		int bytes(){
+			return ENTRY_OVERHEAD + _moves.length + 4 * _doors.length;
+		}
+	}
+
+	/**
+	 * @param grid grid the cached paths are planned on
+	 * @param byteBudget largest number of bytes the cached paths may take up
+	 */
+	PathCache(NavigationGrid grid, long byteBudget){
+		_grid = grid;
+		_floor = grid.getFloor();
+		_doorStateVersion = _floor.getDoorStateVersion();
+		_byteBudget = byteBudget;
+		_entries = new LinkedHashMap<Long, Entry>(64, 0.75f, true);
+	}
+
+	/**
+	 * Returns the cached path or plans and caches a new one
+	 * @param planner planner to use on a miss, owned by the calling thread
+	 * @param source dense index of the start cell
+	 * @param target dense index of the goal cell
+	 * @return the path, or null if target can't be reached
+	 */
+	PlannedPath plan(PathPlanner planner, int source, int target){
+		PlannedPath path = get(source, target);
+		if(path == null){
+			path = planner.plan(source, target);
+			if(path != null)
+				put(path);
+		}
+		return path;
+	}
+
+	/**
+	 * @param source dense index of the start cell
+	 * @param target dense index of the goal cell
+	 * @return the cached path if it is still the cheapest for the current doors, otherwise null
+	 */
+	synchronized PlannedPath get(int source, int target){
+		Long key = key(source, target);
+		Entry entry = _entries.get(key);
+		if(entry == null){
+			_misses++;
+			return null;
+		}
+
+		long version = _doorStateVersion.getVersion();
+		if(entry._version != version){
+			if(_doorStateVersion.getOpenedVersion() > entry._version || changedDoor(entry)){
+				_entries.remove(key);
+				_bytes -= entry.bytes();
+				_invalidations++;
+				_misses++;
+				return null;
+			}
+			entry._version = version;
+		}
+		_hits++;
+		return new PlannedPath(decode(source, entry), entry._cost, 0, entry._version);
+	}
+
+	/**
+	 * @return true if a door the path of entry passes changed after the entry's version
+	 */
+	private boolean changedDoor(Entry entry){
+		for(int door : entry._doors)
+			if(((DoorCell) _floor.getCellAt(door)).getChangedAtVersion() > entry._version)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Caches path, replacing any entry for the same source and target
+	 * @param path a path planned on this cache's grid
+	 */
+	synchronized void put(PlannedPath path){
+		int[] cells = path.getCells();
+		byte[] moves = new byte[cells.length / 2];
+		int doorCount = 0;
+		for(int i=1; i<cells.length; i++){
+			int direction = _grid.directionOf(cells[i - 1], cells[i]);
+			moves[(i - 1) >> 1] |= direction << (((i - 1) & 1) << 2);
+			if(_grid.distance(cells[i - 1], cells[i]) > 1)
+				doorCount++;
+			if(_grid.getKind(cells[i]) == NavigationGrid.DOOR)
+				doorCount++;
+		}
+
+		int[] doors = new int[doorCount];
+		int n = 0;
+		for(int i=1; i<cells.length; i++){
+			if(_grid.distance(cells[i - 1], cells[i]) > 1)
+				doors[n++] = (cells[i - 1] + cells[i]) / 2;
+			if(_grid.getKind(cells[i]) == NavigationGrid.DOOR)
+				doors[n++] = cells[i];
+		}
+
+		Entry entry = new Entry(moves, cells.length - 1, path.getCost(), doors, path.getDoorVersion());
+		Entry old = _entries.put(key(path.getSource(), path.getTarget()), entry);
+		if(old != null)
+			_bytes -= old.bytes();
+		_bytes += entry.bytes();
+
+		Iterator<Map.Entry<Long, Entry>> eldest = _entries.entrySet().iterator();
+		while(_bytes > _byteBudget && eldest.hasNext()){
+			_bytes -= eldest.next().getValue().bytes();
+			eldest.remove();
+			_evictions++;
+		}
+	}
+
+	/**
+	 * Cells of a cached path. A move towards a neighbouring door always hops
+	 * over it, landing on a door only happens when the hop ends on another one.
+	 */
+	private int[] decode(int source, Entry entry){
+		int[] cells = new int[entry._moveCount + 1];
+		cells[0] = source;
+		int x = _grid.xOf(source);
+		int y = _grid.yOf(source);
+		for(int i=0; i<entry._moveCount; i++){
+			int direction = (entry._moves[i >> 1] >> ((i & 1) << 2)) & 0xF;
+			x += NavigationGrid.DX[direction];
+			y += NavigationGrid.DY[direction];
+			if(_grid.getKind(_grid.indexOf(x, y)) == NavigationGrid.DOOR){
+				x += NavigationGrid.DX[direction];
+				y += NavigationGrid.DY[direction];
+			}
+			cells[i + 1] = _grid.indexOf(x, y);
+		}
+		return cells;
+	}
+
+	private static Long key(int source, int target){
+		return ((long) source << 32) | (target & 0xFFFFFFFFL);
+	}
+
+	synchronized void clear(){
+		_entries.clear();
+		_bytes = 0;
+	}
+
+	synchronized int size(){
+		return _entries.size();
+	}
+
+	synchronized long getBytesUsed(){
+		return _bytes;
+	}
+
+	synchronized long getHits(){
+		return _hits;
+	}
+
+	synchronized long getMisses(){
+		return _misses;
+	}
+
+	/**
+	 * @return number of entries dropped because a door on their path changed or a door opened
+	 */
+	synchronized long getInvalidations(){
+		return _invalidations;
+	}
+
+	synchronized long getEvictions(){
+		return _evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "PathCache [entries=" + _entries.size() + ", bytes=" + _bytes + ", hits=" + _hits + ", misses=" + _misses
+				+ ", invalidations=" + _invalidations + ", evictions=" + _evictions + "]";
+	}
+}
@@ -0,0 +1,16 @@
+package edu.baseplan.floor;
+
+/**
+ * Finds paths between cells of a NavigationGrid.
+ * Planners keep their search arrays between queries and are not thread safe,
+ * use one planner per thread.
+ */
+interface PathPlanner {
+
+	/**
+	 * @param source dense index of the start cell
+	 * @param target dense index of the goal cell
+	 * @return the path found, or null if target can't be reached from source
+	 */
+	PlannedPath plan(int source, int target);
+}
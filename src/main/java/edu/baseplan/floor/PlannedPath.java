@@ -0,0 +1,103 @@
+package edu.baseplan.floor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Result of a PathPlanner query. Cells are dense indices from source to 
+ * target, consecutive cells are one move apart, so a door hop shows up as 
+ * the cells on either side of the door.
+ */
+class PlannedPath {
+
+	private final int[] _cells;
+	private final int _cost;
+	private final int _expansions;
+	private final long _doorVersion;
+
+	/**
+	 * @param cells dense cell indices from source to target
+	 * @param cost total power cost of the path
+	 * @param expansions number of cells the planner expanded
+	 * @param doorVersion door state version the path was planned against
+	 */
+	PlannedPath(int[] cells, int cost, int expansions, long doorVersion){
+		_cells = cells;
+		_cost = cost;
+		_expansions = expansions;
+		_doorVersion = doorVersion;
+	}
+
+	/**
+	 * Builds a path by following parent links back from target
+	 * @param parent parent[cell] is the cell before cell on the path, -1 at the source
+	 * @param target dense index of the last cell
+	 */
+	static int[] tracePath(int[] parent, int target){
+		int length = 1;
+		for(int cell = target; parent[cell] != -1; cell = parent[cell])
+			length++;
+		int[] cells = new int[length];
+		for(int cell = target; length > 0; cell = parent[cell])
+			cells[--length] = cell;
+		return cells;
+	}
+
+	int[] getCells(){
+		return _cells;
+	}
+
+	int getSource(){
+		return _cells[0];
+	}
+
+	int getTarget(){
+		return _cells[_cells.length - 1];
+	}
+
+	/**
+	 * @return number of moves on the path
+	 */
+	int getMoveCount(){
+		return _cells.length - 1;
+	}
+
+	/**
+	 * @return total power cost of the path
+	 */
+	int getCost(){
+		return _cost;
+	}
+
+	/**
+	 * @return number of cells the planner expanded to find this path
+	 */
+	int getExpansions(){
+		return _expansions;
+	}
+
+	/**
+	 * @return door state version the path was planned against
+	 */
+	long getDoorVersion(){
+		return _doorVersion;
+	}
+
+	/**
+	 * @param grid the grid the path was planned on
+	 * @return the moves to make, one Direction per move
+	 */
+	List<Direction> getDirections(NavigationGrid grid){
+		List<Direction> directions = new ArrayList<Direction>(_cells.length - 1);
+		for(int i=1; i<_cells.length; i++)
+			directions.add(NavigationGrid.toDirection(grid.directionOf(_cells[i - 1], _cells[i])));
+		return directions;
+	}
+
+	@Override
+	public String toString() {
+		return "PlannedPath [cost=" + _cost + ", moves=" + getMoveCount() + ", expansions=" + _expansions
+				+ ", doorVersion=" + _doorVersion + ", cells=" + Arrays.toString(_cells) + "]";
+	}
+}
@@ -0,0 +1,385 @@
+package edu.baseplan.floor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Abstract graph of a floor for hierarchical planning, rooms joined by doors.
+ * <p>
+ * A portal is one way through one door, or through a chain of doors when a
+ * hop lands on another door: the doors together with the room the robot
+ * lands in. Each portal knows its takeoff cells, where a hop over the first
+ * door starts, and its landing cells, where the robot steps into the room,
+ * with the cost of any doors it stood on in between. Portal to portal
+ * edges hold the cheapest walk inside a room from the landing cells of one
+ * portal to the takeoff cells of the next. Those walks never cross a door, so
+ * the edge costs are computed once, one room confined Dijkstra per portal,
+ * run in parallel. Doors only decide whether their portals can be used, so a
+ * door change just updates the flags of that door's portals. Chains of more
+ * than MAX_CHAIN doors get no portal, planners fall back to a full search
+ * when the portals find no route.
+ */
+class PortalGraph {
+
+	/**
+	 * Most doors a robot may stand on inside one portal
+	 */
+	static final int MAX_CHAIN = 3;
+
+	private final RoomMap _rooms;
+	private final NavigationGrid _grid;
+	private final Floor _floor;
+
+	private final int _portalCount;
+	private final int[] _portalDoorStart;
+	private final int[] _portalDoors;
+	private final int[] _portalRoom;
+	private final int[] _takeoffStart;
+	private final int[] _takeoffCells;
+	private final int[] _landingStart;
+	private final int[] _landingCells;
+	private final int[] _landingExtra;
+	private final int[] _edgeStart;
+	private final int[] _edgeTarget;
+	private final int[] _edgeCost;
+	private final int[] _exitStart;
+	private final int[] _exitPortals;
+	private final int[] _doorPortalStart;
+	private final int[] _doorPortals;
+
+	private final boolean[] _portalOpen;
+	private final boolean[] _doorOpen;
+	private final boolean[] _doorSnapshot;
+	private volatile long _version;
+
+	PortalGraph(RoomMap rooms){
+		_rooms = rooms;
+		_grid = rooms.getGrid();
+		_floor = _grid.getFloor();
+
+		// Every straight or diagonal hop over a door from an open cell, followed over the doors it lands on
+		Map<Integer, Integer> doorIndex = new HashMap<Integer, Integer>();
+		for(int i=0; i<_floor.getDoorCount(); i++)
+			doorIndex.put(_floor.indexOf(_floor.getDoor(i)), i);
+		Map<List<Integer>, Integer> portalOf = new HashMap<List<Integer>, Integer>();
+		List<List<Integer>> portalKeys = new ArrayList<List<Integer>>();
+		List<int[]> hops = new ArrayList<int[]>();
+		int[] chain = new int[2 * MAX_CHAIN + 1];
+		for(int door : _grid.getDoorCells()){
+			for(int d=0; d<8; d++){
+				int from = step(door, d, -1);
+				if(from >= 0 && rooms.roomOf(from) >= 0){
+					chain[0] = door;
+					land(from, step(door, d, 1), chain, 1, 0, 0, doorIndex, portalOf, portalKeys, hops);
+				}
+			}
+		}
+
+		_portalCount = portalOf.size();
+		_portalRoom = new int[_portalCount];
+		int[] portalDoorCount = new int[_portalCount + 1];
+		for(int p=0; p<_portalCount; p++){
+			List<Integer> key = portalKeys.get(p);
+			_portalRoom[p] = key.get(key.size() - 1);
+			portalDoorCount[p + 1] = key.size() - 1;
+		}
+		_portalDoorStart = prefixSums(portalDoorCount);
+		_portalDoors = new int[_portalDoorStart[_portalCount]];
+		for(int p=0; p<_portalCount; p++){
+			List<Integer> key = portalKeys.get(p);
+			for(int i=0; i<key.size() - 1; i++)
+				_portalDoors[_portalDoorStart[p] + i] = key.get(i);
+		}
+		int[] takeoffCount = new int[_portalCount + 1];
+		int[] landingCount = new int[_portalCount + 1];
+		for(int[] hop : hops){
+			takeoffCount[hop[0] + 1]++;
+			landingCount[hop[0] + 1]++;
+		}
+		_takeoffStart = prefixSums(takeoffCount);
+		_landingStart = prefixSums(landingCount);
+		_takeoffCells = new int[hops.size()];
+		_landingCells = new int[hops.size()];
+		_landingExtra = new int[hops.size()];
+		int[] fill = Arrays.copyOf(_takeoffStart, _portalCount);
+		for(int[] hop : hops){
+			_takeoffCells[fill[hop[0]]] = hop[1];
+			_landingExtra[fill[hop[0]]] = hop[3];
+			_landingCells[fill[hop[0]]++] = hop[2];
+		}
+
+		// Portals that can be taken from each room, and the portals of each door
+		int[] exitCount = new int[rooms.getRoomCount() + 1];
+		int[] doorCount = new int[_floor.getDoorCount() + 1];
+		for(int p=0; p<_portalCount; p++){
+			for(int i=_portalDoorStart[p]; i<_portalDoorStart[p + 1]; i++)
+				doorCount[_portalDoors[i] + 1]++;
+			for(int room : takeoffRooms(p))
+				exitCount[room + 1]++;
+		}
+		_exitStart = prefixSums(exitCount);
+		_exitPortals = new int[_exitStart[rooms.getRoomCount()]];
+		_doorPortalStart = prefixSums(doorCount);
+		_doorPortals = new int[_portalDoors.length];
+		int[] exitFill = Arrays.copyOf(_exitStart, rooms.getRoomCount());
+		int[] doorFill = Arrays.copyOf(_doorPortalStart, _floor.getDoorCount());
+		for(int p=0; p<_portalCount; p++){
+			for(int i=_portalDoorStart[p]; i<_portalDoorStart[p + 1]; i++)
+				_doorPortals[doorFill[_portalDoors[i]]++] = p;
+			for(int room : takeoffRooms(p))
+				_exitPortals[exitFill[room]++] = p;
+		}
+
+		// Walking cost from each portal's landing cells to the takeoff cells of every exit of that room
+		final int[][] costs = new int[_portalCount][];
+		ThreadLocal<RoomSearch> searches = ThreadLocal.withInitial(() -> new RoomSearch(_rooms));
+		IntStream.range(0, _portalCount).parallel().forEach(p -> costs[p] = exitCosts(p, searches.get()));
+
+		int[] edgeCount = new int[_portalCount + 1];
+		for(int p=0; p<_portalCount; p++)
+			for(int cost : costs[p])
+				if(cost != RoomSearch.UNREACHED)
+					edgeCount[p + 1]++;
+		_edgeStart = prefixSums(edgeCount);
+		_edgeTarget = new int[_edgeStart[_portalCount]];
+		_edgeCost = new int[_edgeStart[_portalCount]];
+		for(int p=0; p<_portalCount; p++){
+			int room = _portalRoom[p];
+			int edge = _edgeStart[p];
+			for(int i=0; i<costs[p].length; i++){
+				if(costs[p][i] == RoomSearch.UNREACHED)
+					continue;
+				_edgeTarget[edge] = _exitPortals[_exitStart[room] + i];
+				_edgeCost[edge++] = costs[p][i];
+			}
+		}
+
+		_portalOpen = new boolean[_portalCount];
+		_doorOpen = new boolean[_floor.getDoorCount()];
+		_doorSnapshot = new boolean[_floor.getDoorCount()];
+		_version = _floor.readDoorStates(_doorOpen);
+		for(int p=0; p<_portalCount; p++)
+			_portalOpen[p] = allOpen(p);
+	}
+
+	/**
+	 * Follows a hop from a room cell that lands on cell. Landing in a room ends
+	 * the portal, landing on an open door lets the robot move on from there.
+	 * @param from takeoff cell of the hop
+	 * @param cell cell the last move lands on
+	 * @param chain door cells passed so far
+	 * @param doors number of door cells in chain
+	 * @param stood number of doors stood on so far
+	 * @param extra cost of the doors stood on so far
+	 */
+	private void land(int from, int cell, int[] chain, int doors, int stood, int extra, Map<Integer, Integer> doorIndex,
+			Map<List<Integer>, Integer> portalOf, List<List<Integer>> portalKeys, List<int[]> hops){
+		if(cell < 0)
+			return;
+		if(_rooms.roomOf(cell) >= 0){
+			Integer[] key = new Integer[doors + 1];
+			for(int i=0; i<doors; i++)
+				key[i] = doorIndex.get(chain[i]);
+			Arrays.sort(key, 0, doors);
+			key[doors] = _rooms.roomOf(cell);
+			List<Integer> portalKey = Arrays.asList(key);
+			Integer portal = portalOf.get(portalKey);
+			if(portal == null){
+				portal = portalOf.size();
+				portalOf.put(portalKey, portal);
+				portalKeys.add(portalKey);
+			}
+			hops.add(new int[] {portal, from, cell, extra});
+			return;
+		}
+		if(_grid.getKind(cell) != NavigationGrid.DOOR || stood == MAX_CHAIN)
+			return;
+		for(int i=0; i<doors; i++)
+			if(chain[i] == cell)
+				return;
+
+		// Standing on the door, any move off it goes on
+		chain[doors] = cell;
+		extra += _grid.getCost(cell);
+		for(int d=0; d<8; d++){
+			int next = step(cell, d, 1);
+			if(next < 0 || _grid.getKind(next) == NavigationGrid.OBSTACLE)
+				continue;
+			if(_grid.getKind(next) == NavigationGrid.OPEN)
+				land(from, next, chain, doors + 1, stood + 1, extra, doorIndex, portalOf, portalKeys, hops);
+			else if(!contains(chain, doors + 1, next)){
+				chain[doors + 1] = next;
+				land(from, step(cell, d, 2), chain, doors + 2, stood + 1, extra, doorIndex, portalOf, portalKeys, hops);
+			}
+		}
+	}
+
+	private static boolean contains(int[] cells, int count, int cell){
+		for(int i=0; i<count; i++)
+			if(cells[i] == cell)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return true if every door of portal is open
+	 */
+	private boolean allOpen(int portal){
+		for(int i=_portalDoorStart[portal]; i<_portalDoorStart[portal + 1]; i++)
+			if(!_doorOpen[_portalDoors[i]])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Costs from the landing cells of portal to the takeoff cells of every exit of its room
+	 */
+	private int[] exitCosts(int portal, RoomSearch search){
+		int from = _landingStart[portal];
+		int count = _landingStart[portal + 1] - from;
+		int[] sources = Arrays.copyOfRange(_landingCells, from, from + count);
+		int[] startCosts = new int[count];
+		for(int i=0; i<count; i++)
+			startCosts[i] = _landingExtra[from + i] + _grid.getCost(sources[i]);
+		search.forward(sources, count, startCosts);
+
+		int room = _portalRoom[portal];
+		int[] costs = new int[_exitStart[room + 1] - _exitStart[room]];
+		for(int i=0; i<costs.length; i++)
+			costs[i] = takeoffCost(_exitPortals[_exitStart[room] + i], room, search);
+		return costs;
+	}
+
+	/**
+	 * Cheapest distance of the last search to a takeoff cell of portal in room
+	 */
+	int takeoffCost(int portal, int room, RoomSearch search){
+		int best = RoomSearch.UNREACHED;
+		for(int i=_takeoffStart[portal]; i<_takeoffStart[portal + 1]; i++)
+			if(_rooms.roomOf(_takeoffCells[i]) == room)
+				best = Math.min(best, search.distance(_takeoffCells[i]));
+		return best;
+	}
+
+	/**
+	 * Cheapest cost of the last backward search from a landing cell of portal, landing cost included
+	 */
+	int landingCost(int portal, RoomSearch search){
+		int best = RoomSearch.UNREACHED;
+		for(int i=_landingStart[portal]; i<_landingStart[portal + 1]; i++){
+			int distance = search.distance(_landingCells[i]);
+			if(distance != RoomSearch.UNREACHED)
+				best = Math.min(best, distance + _landingExtra[i] + _grid.getCost(_landingCells[i]));
+		}
+		return best;
+	}
+
+	private int[] takeoffRooms(int portal){
+		int[] rooms = new int[_takeoffStart[portal + 1] - _takeoffStart[portal]];
+		int count = 0;
+		for(int i=_takeoffStart[portal]; i<_takeoffStart[portal + 1]; i++){
+			int room = _rooms.roomOf(_takeoffCells[i]);
+			boolean seen = false;
+			for(int j=0; j<count && !seen; j++)
+				seen = rooms[j] == room;
+			if(!seen)
+				rooms[count++] = room;
+		}
+		return Arrays.copyOf(rooms, count);
+	}
+
+	private int step(int door, int direction, int distance){
+		int x = _grid.xOf(door) + NavigationGrid.DX[direction] * distance;
+		int y = _grid.yOf(door) + NavigationGrid.DY[direction] * distance;
+		if(x < 0 || y < 0 || x >= _grid.getSizeX() || y >= _grid.getSizeY())
+			return -1;
+		return _grid.indexOf(x, y);
+	}
+
+	private static int[] prefixSums(int[] counts){
+		for(int i=1; i<counts.length; i++)
+			counts[i] += counts[i - 1];
+		return counts;
+	}
+
+	/**
+	 * Updates the open flags of the portals whose door changed since the last call
+	 */
+	void refresh(){
+		if(_version == _floor.getDoorVersion())
+			return;
+		synchronized(this){
+			long version = _floor.readDoorStates(_doorSnapshot);
+			for(int door=0; door<_doorSnapshot.length; door++){
+				if(_doorSnapshot[door] == _doorOpen[door])
+					continue;
+				_doorOpen[door] = _doorSnapshot[door];
+				for(int i=_doorPortalStart[door]; i<_doorPortalStart[door + 1]; i++)
+					_portalOpen[_doorPortals[i]] = allOpen(_doorPortals[i]);
+			}
+			_version = version;
+		}
+	}
+
+	RoomMap getRooms(){
+		return _rooms;
+	}
+
+	int getPortalCount(){
+		return _portalCount;
+	}
+
+	/**
+	 * @param portal portal number
+	 * @return room the robot is in after using the portal
+	 */
+	int getPortalRoom(int portal){
+		return _portalRoom[portal];
+	}
+
+	/**
+	 * @param portal portal number
+	 * @return true if every door of the portal is open
+	 */
+	boolean isPortalOpen(int portal){
+		return _portalOpen[portal];
+	}
+
+	/**
+	 * Portals that can be taken from room, exits are numbered from getExitStart(room)
+	 */
+	int getExitStart(int room){
+		return _exitStart[room];
+	}
+
+	int getExitEnd(int room){
+		return _exitStart[room + 1];
+	}
+
+	int getExit(int exit){
+		return _exitPortals[exit];
+	}
+
+	/**
+	 * Edges leaving portal are numbered from getEdgeStart(portal) to getEdgeEnd(portal)
+	 */
+	int getEdgeStart(int portal){
+		return _edgeStart[portal];
+	}
+
+	int getEdgeEnd(int portal){
+		return _edgeStart[portal + 1];
+	}
+
+	int getEdgeTarget(int edge){
+		return _edgeTarget[edge];
+	}
+
+	int getEdgeCost(int edge){
+		return _edgeCost[edge];
+	}
+}
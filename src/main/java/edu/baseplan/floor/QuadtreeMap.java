@@ -0,0 +1,244 @@
+package edu.baseplan.floor;
+
+/**
+ * Quadtree of the passable space of a NavigationGrid, in blocks of cells
+ * that are all open with the same power cost.
+ * <p>
+ * The grid is padded to a square of side a power of two and every aligned
+ * square of side 2^level gets a code: the cost of its cells if they are all
+ * open with that cost, BLOCKED if none is passable, and MIXED otherwise. The
+ * codes are kept for every level, from single cells up to the whole grid, so
+ * the block holding a cell is found by climbing while the code stays the same,
+ * and a change of one cell only recomputes the squares above it. The blocks
+ * are the squares whose code is a cost and whose parent's is not. A door is
+ * always a block of its own and is read from the grid whenever it is asked
+ * about, so doors that open and close never change the tree. Cells can be
+ * blocked on top of the grid, for example by a pallet left in an aisle, which
+ * updates the tree with setBlocked. Blocks are numbered densely over all levels.
+ */
+class QuadtreeMap {
+
+	/**
+	 * Code of a square with cells of different costs or passability
+	 */
+	static final byte MIXED = -1;
+	/**
+	 * Code of a square with no passable cell
+	 */
+	static final byte BLOCKED = -2;
+	/**
+	 * Code of a door cell, a door never merges with its neighbours
+	 */
+	static final byte DOOR = -3;
+
+	private final NavigationGrid _grid;
+	private final int _levels;
+	private final int[] _levelStart;
+	private final byte[][] _codes;
+	private final boolean[] _blocked;
+
+	/**
+	 * Builds the tree for the cells of grid, bottom up
+	 * @param grid grid to decompose
+	 */
+	QuadtreeMap(NavigationGrid grid){
+		_grid = grid;
+		int side = 1;
+		int levels = 1;
+		while(side < Math.max(grid.getSizeX(), grid.getSizeY())){
+			side <<= 1;
+			levels++;
+		}
+		_levels = levels;
+		_levelStart = new int[levels + 1];
+		_codes = new byte[levels][];
+		for(int level=0; level<levels; level++){
+			int width = side >> level;
+			_codes[level] = new byte[width * width];
+			_levelStart[level + 1] = _levelStart[level] + width * width;
+		}
+		_blocked = new boolean[grid.getCellCount()];
+
+		for(int x=0; x<side; x++)
+			for(int y=0; y<side; y++)
+				_codes[0][x * side + y] = cellCode(x, y);
+		for(int level=1; level<levels; level++){
+			int width = side >> level;
+			for(int bx=0; bx<width; bx++)
+				for(int by=0; by<width; by++)
+					_codes[level][bx * width + by] = merge(level, bx, by);
+		}
+	}
+
+	NavigationGrid getGrid(){
+		return _grid;
+	}
+
+	/**
+	 * @return number of block numbers, every block is below this
+	 */
+	int getBlockCapacity(){
+		return _levelStart[_levels];
+	}
+
+	/**
+	 * Counts the blocks, takes time proportional to the size of the tree
+	 * @return number of passable blocks, doors included
+	 */
+	int getBlockCount(){
+		int count = 0;
+		for(int level=0; level<_levels; level++){
+			int width = getSide() >> level;
+			for(int bx=0; bx<width; bx++)
+				for(int by=0; by<width; by++)
+					if(isBlock(level, bx, by))
+						count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @param cell dense cell index
+	 * @return number of the block holding cell, -1 if the cell is not passable
+	 */
+	int blockOf(int cell){
+		return blockAt(_grid.xOf(cell), _grid.yOf(cell));
+	}
+
+	/**
+	 * @param x x-coordinate of a cell, may be outside the grid
+	 * @param y y-coordinate of a cell, may be outside the grid
+	 * @return number of the block holding the cell, -1 if there is none
+	 */
+	int blockAt(int x, int y){
+		int side = getSide();
+		if(x < 0 || y < 0 || x >= side || y >= side)
+			return -1;
+		byte code = _codes[0][x * side + y];
+		if(code == BLOCKED)
+			return -1;
+		if(code == DOOR)
+			return _grid.isPassable(x * _grid.getSizeY() + y) ? x * side + y : -1;
+		int level = 0;
+		while(level + 1 < _levels && _codes[level + 1][(x >> (level + 1)) * (side >> (level + 1)) + (y >> (level + 1))] == code)
+			level++;
+		return _levelStart[level] + (x >> level) * (side >> level) + (y >> level);
+	}
+
+	/**
+	 * @param block block number
+	 * @return side of the block is 2^level cells
+	 */
+	int levelOf(int block){
+		int level = 0;
+		while(_levelStart[level + 1] <= block)
+			level++;
+		return level;
+	}
+
+	/**
+	 * @param block block number
+	 * @return x-coordinate of the block's corner cell with the lowest coordinates
+	 */
+	int xOf(int block){
+		int level = levelOf(block);
+		return ((block - _levelStart[level]) / (getSide() >> level)) << level;
+	}
+
+	/**
+	 * @param block block number
+	 * @return y-coordinate of the block's corner cell with the lowest coordinates
+	 */
+	int yOf(int block){
+		int level = levelOf(block);
+		return ((block - _levelStart[level]) % (getSide() >> level)) << level;
+	}
+
+	/**
+	 * @param block block number
+	 * @return number of cells along each side of the block
+	 */
+	int sizeOf(int block){
+		return 1 << levelOf(block);
+	}
+
+	/**
+	 * @param block block number
+	 * @return power cost of landing on any cell of the block, 0 for a door
+	 */
+	int getCost(int block){
+		return _grid.getCost(_grid.indexOf(xOf(block), yOf(block)));
+	}
+
+	/**
+	 * @param block block number
+	 * @return true if the block is a door
+	 */
+	boolean isDoor(int block){
+		return block < _levelStart[1] && _codes[0][block] == DOOR;
+	}
+
+	/**
+	 * @param cell dense cell index
+	 * @return true if the cell was blocked with setBlocked
+	 */
+	boolean isBlocked(int cell){
+		return _blocked[cell];
+	}
+
+	/**
+	 * Blocks or frees an open cell and updates the squares above it
+	 * @param cell dense index of an open cell
+	 * @param blocked true if robots can't use the cell any more
+	 */
+	void setBlocked(int cell, boolean blocked){
+		if(_grid.getKind(cell) != NavigationGrid.OPEN)
+			throw new IllegalArgumentException("only open cells can be blocked");
+		_blocked[cell] = blocked;
+		int x = _grid.xOf(cell);
+		int y = _grid.yOf(cell);
+		int side = getSide();
+		_codes[0][x * side + y] = cellCode(x, y);
+		for(int level=1; level<_levels; level++)
+			_codes[level][(x >> level) * (side >> level) + (y >> level)] = merge(level, x >> level, y >> level);
+	}
+
+	private int getSide(){
+		return 1 << (_levels - 1);
+	}
+
+	private boolean isBlock(int level, int bx, int by){
+		int width = getSide() >> level;
+		byte code = _codes[level][bx * width + by];
+		if(code == MIXED || code == BLOCKED)
+			return false;
+		return level + 1 == _levels || _codes[level + 1][(bx >> 1) * (width >> 1) + (by >> 1)] != code;
+	}
+
+	private byte cellCode(int x, int y){
+		if(x >= _grid.getSizeX() || y >= _grid.getSizeY())
+			return BLOCKED;
+		int cell = _grid.indexOf(x, y);
+		byte kind = _grid.getKind(cell);
+		if(kind == NavigationGrid.DOOR)
+			return DOOR;
+		if(kind == NavigationGrid.OBSTACLE || _blocked[cell])
+			return BLOCKED;
+		return (byte) _grid.getCost(cell);
+	}
+
+	/**
+	 * Code of a square from the codes of its four quarters
+	 */
+	private byte merge(int level, int bx, int by){
+		byte[] below = _codes[level - 1];
+		int width = getSide() >> (level - 1);
+		byte code = below[(2 * bx) * width + 2 * by];
+		if(code == MIXED || code == DOOR)
+			return MIXED;
+		if(below[(2 * bx) * width + 2 * by + 1] != code || below[(2 * bx + 1) * width + 2 * by] != code
+				|| below[(2 * bx + 1) * width + 2 * by + 1] != code)
+			return MIXED;
+		return code;
+	}
+}
@@ -0,0 +1,267 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+
+/**
+ * Two level planner over a QuadtreeMap, for floors with large open areas.
+ * <p>
+ * A* first runs over the blocks of the tree, where blocks touching at a side
+ * or a corner are neighbours. Moving between two blocks is priced as the
+ * Chebyshev distance between their centres times the mean of their costs,
+ * with zero costs counted as the cheapest positive cost, so an open area is
+ * crossed in a few expansions however many cells it has. The cell path is
+ * then refined with A* that may only enter the blocks on that route and the
+ * cells around its doors, guided by waypoints laid along the route, so it
+ * barely leaves the route's line. The route is picked with block level costs
+ * and the waypoints can overestimate, so the result can cost more than a full
+ * search, a few percent on average. When the route can't be walked cell by
+ * cell the planner falls back to a full A* search. Cells blocked in the map
+ * are avoided by both levels.
+ */
+class QuadtreePlanner implements PathPlanner {
+
+	private final QuadtreeMap _map;
+	private final NavigationGrid _grid;
+	private final int _minCost;
+	private final int[] _g;
+	private final int[] _parent;
+	private final int[] _searchOf;
+	private final IndexedMinHeap _open;
+	private final int[] _nearDoorIn;
+	private final int[] _routeStep;
+	private int[] _waypoint = new int[64];
+	private int[] _remaining = new int[64];
+	private int _routeLength;
+	private final CorridorPlanner _corridor;
+	private final CorridorPlanner _fallback;
+	private int _search;
+	private int _blockExpansions;
+	private boolean _fellBack;
+
+	/**
+	 * A* limited to the blocks of the last route and the cells around its doors,
+	 * or anywhere not blocked for the fallback
+	 */
+	private class CorridorPlanner extends AStarPlanner {
+
+		private final boolean _onRoute;
+
+		CorridorPlanner(NavigationGrid grid, Heuristic heuristic, boolean onRoute){
+			super(grid, heuristic);
+			_onRoute = onRoute;
+		}
+
+		@Override
+		protected boolean canEnter(int cell) {
+			if(_map.isBlocked(cell))
+				return false;
+			if(!_onRoute || _nearDoorIn[cell] == _search)
+				return true;
+			int block = _map.blockOf(cell);
+			return block >= 0 && _searchOf[block] == -_search;
+		}
+	}
+
+	/**
+	 * Estimate along the route: moves to the waypoint where the route enters
+	 * the next block, then the cost from waypoint to waypoint. It can
+	 * overestimate where the route bends, which only costs path quality, and
+	 * it keeps the search from flooding the blocks around the route's turns.
+	 */
+	private class RouteHeuristic implements Heuristic {
+
+		@Override
+		public void prepare(int source, int target) {
+		}
+
+		@Override
+		public int estimate(int cell, int target) {
+			int block = _map.blockOf(cell);
+			int step = block >= 0 && _searchOf[block] == -_search ? _routeStep[block] : -1;
+			if(step < 0 || step + 1 >= _routeLength)
+				return _minCost * _grid.distance(cell, target);
+			return weight(block) * _grid.distance(cell, _waypoint[step]) + _remaining[step];
+		}
+	}
+
+	/**
+	 * @param map quadtree to plan on, not changed with setBlocked while a query runs
+	 */
+	QuadtreePlanner(QuadtreeMap map){
+		_map = map;
+		_grid = map.getGrid();
+		_minCost = Math.max(1, _grid.getMinPositiveCost());
+		_g = new int[map.getBlockCapacity()];
+		_parent = new int[map.getBlockCapacity()];
+		_searchOf = new int[map.getBlockCapacity()];
+		_open = new IndexedMinHeap(map.getBlockCapacity());
+		_nearDoorIn = new int[_grid.getCellCount()];
+		_routeStep = new int[map.getBlockCapacity()];
+		_corridor = new CorridorPlanner(_grid, new RouteHeuristic(), true);
+		_fallback = new CorridorPlanner(_grid, new OctileHeuristic(_grid), false);
+	}
+
+	/**
+	 * @return number of blocks the last plan expanded
+	 */
+	int getLastBlockExpansions(){
+		return _blockExpansions;
+	}
+
+	/**
+	 * @return true if the last plan had to search the whole grid
+	 */
+	boolean isLastFallback(){
+		return _fellBack;
+	}
+
+	@Override
+	public PlannedPath plan(int source, int target) {
+		_blockExpansions = 0;
+		_fellBack = false;
+		int sourceBlock = _map.blockOf(source);
+		int targetBlock = _map.blockOf(target);
+		if(sourceBlock < 0 || targetBlock < 0)
+			return null;
+
+		startSearch();
+		_g[sourceBlock] = 0;
+		_parent[sourceBlock] = -1;
+		_searchOf[sourceBlock] = _search;
+		_open.insertOrUpdate(sourceBlock, AStarPlanner.key(estimate(sourceBlock, targetBlock), 0));
+		while(!_open.isEmpty()){
+			int block = _open.poll();
+			_blockExpansions++;
+			if(block == targetBlock)
+				return refine(source, target, targetBlock);
+			expand(block, targetBlock);
+		}
+		return null;
+	}
+
+	/**
+	 * Relaxes every block touching block, walking around its border and
+	 * skipping ahead by the size of each neighbour found
+	 */
+	private void expand(int block, int targetBlock){
+		int x0 = _map.xOf(block);
+		int y0 = _map.yOf(block);
+		int size = _map.sizeOf(block);
+		for(int side=0; side<2; side++){
+			int x = side == 0 ? x0 - 1 : x0 + size;
+			for(int y=y0 - 1; y<=y0 + size; ){
+				int next = _map.blockAt(x, y);
+				if(next < 0){
+					y++;
+					continue;
+				}
+				relax(block, next, targetBlock);
+				y = _map.yOf(next) + _map.sizeOf(next);
+			}
+			int y = side == 0 ? y0 - 1 : y0 + size;
+			for(x=x0; x<x0 + size; ){
+				int next = _map.blockAt(x, y);
+				if(next < 0){
+					x++;
+					continue;
+				}
+				relax(block, next, targetBlock);
+				x = _map.xOf(next) + _map.sizeOf(next);
+			}
+		}
+	}
+
+	private void relax(int block, int next, int targetBlock){
+		int g = _g[block] + distance(block, next) * (weight(block) + weight(next));
+		if(_searchOf[next] != _search || g < _g[next]){
+			_searchOf[next] = _search;
+			_g[next] = g;
+			_parent[next] = block;
+			_open.insertOrUpdate(next, AStarPlanner.key(g + estimate(next, targetBlock), g));
+		}
+	}
+
+	/**
+	 * Lower bound on the block level cost from block to targetBlock, consistent with relax
+	 */
+	private int estimate(int block, int targetBlock){
+		return distance(block, targetBlock) * 2 * _minCost;
+	}
+
+	/**
+	 * Chebyshev distance between the centres of two blocks, in half cells
+	 */
+	private int distance(int a, int b){
+		int dx = 2 * (_map.xOf(a) - _map.xOf(b)) + _map.sizeOf(a) - _map.sizeOf(b);
+		int dy = 2 * (_map.yOf(a) - _map.yOf(b)) + _map.sizeOf(a) - _map.sizeOf(b);
+		return Math.max(Math.abs(dx), Math.abs(dy));
+	}
+
+	private int weight(int block){
+		return Math.max(_minCost, _map.getCost(block));
+	}
+
+	/**
+	 * Marks the route's blocks, lays waypoints along it and runs A* through it
+	 */
+	private PlannedPath refine(int source, int target, int targetBlock){
+		_routeLength = 0;
+		for(int block=targetBlock; block >= 0; block=_parent[block])
+			_routeLength++;
+		if(_waypoint.length < _routeLength){
+			_waypoint = new int[_routeLength];
+			_remaining = new int[_routeLength];
+		}
+
+		// Waypoints are laid back from the target, each the cell of the next block closest to the one after it
+		int step = _routeLength;
+		int next = -1;
+		int after = target;
+		int rest = 0;
+		for(int block=targetBlock; block >= 0; next=block, block=_parent[block]){
+			_searchOf[block] = -_search;
+			_routeStep[block] = --step;
+			if(next >= 0){
+				int x = clamp(_grid.xOf(after), _map.xOf(next), _map.sizeOf(next));
+				int y = clamp(_grid.yOf(after), _map.yOf(next), _map.sizeOf(next));
+				_waypoint[step] = _grid.indexOf(x, y);
+				_remaining[step] = rest + weight(next) * _grid.distance(_waypoint[step], after);
+				after = _waypoint[step];
+				rest = _remaining[step];
+			}
+			if(!_map.isDoor(block))
+				continue;
+			// Hops over the door may land on any cell around it
+			int x = _map.xOf(block);
+			int y = _map.yOf(block);
+			for(int d=0; d<8; d++){
+				int nx = x + NavigationGrid.DX[d];
+				int ny = y + NavigationGrid.DY[d];
+				if(nx >= 0 && ny >= 0 && nx < _grid.getSizeX() && ny < _grid.getSizeY())
+					_nearDoorIn[_grid.indexOf(nx, ny)] = _search;
+			}
+		}
+
+		PlannedPath path = _corridor.plan(source, target);
+		if(path == null){
+			_fellBack = true;
+			path = _fallback.plan(source, target);
+		}
+		if(path == null)
+			return null;
+		return new PlannedPath(path.getCells(), path.getCost(), _blockExpansions + path.getExpansions(), path.getDoorVersion());
+	}
+
+	private static int clamp(int value, int start, int size){
+		return Math.max(start, Math.min(start + size - 1, value));
+	}
+
+	private void startSearch(){
+		_open.clear();
+		if(++_search == Integer.MAX_VALUE){
+			Arrays.fill(_searchOf, 0);
+			Arrays.fill(_nearDoorIn, 0);
+			_search = 1;
+		}
+	}
+}
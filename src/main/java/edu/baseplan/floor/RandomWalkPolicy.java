@@ -0,0 +1,39 @@
+package edu.baseplan.floor;
+
+/**
+ * Reproducible random walk, cleans dirty locations and otherwise moves
+ * in a direction derived only from the seed, robot id and tick.
+ */
+public class RandomWalkPolicy implements TickPolicy {
+
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private final long _seed;
+
+	public RandomWalkPolicy(long seed){
+		_seed = seed;
+	}
+
+	@Override
+	public Direction decide(int robot, long tick, Location location, FloorNavigationProxy proxy) {
+		if(!location.isClean())
+			return null;
+
+		long h = mix(_seed ^ mix(robot * 0x9E3779B97F4A7C15L + tick));
+		int first = (int) ((h >>> 1) % DIRECTIONS.length);
+		for(int i=0; i<DIRECTIONS.length; i++){
+			Direction d = DIRECTIONS[(first + i) % DIRECTIONS.length];
+			if(proxy.canMove(location, d))
+				return d;
+		}
+		return null;
+	}
+
+	/**
+	 * SplitMix64 finalizer
+	 */
+	private static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,172 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Cells a robot can drive to from where it is and still get back to a
+ * charging station on the charge it has left.
+ * <p>
+ * A cell is in the envelope when the cost of getting to it plus its cost in
+ * the ChargerDistanceField is at most the charge. The search settles cells
+ * in order of that sum. The field is a consistent bound, because the field
+ * cost of a cell is at most a move plus the field cost of the cell moved to,
+ * so the sum never drops along a move and the search settles every cell at
+ * its cheapest cost. It also means a cell outside the envelope never leads to
+ * one inside it, so the search stops at the first cell over the charge. With
+ * move costs of 0 to 3 and every move reversible, the sum grows by 0 to 6 per
+ * move and the queue is a ring of buckets.
+ * <p>
+ * The settled cells are kept in order. Asking again from the same cell with
+ * less charge, as the battery drains, clears the tail of the envelope and
+ * asking with more charge resumes the paused search. A new start cell or a
+ * door change starts the search over.
+ */
+class ReachabilityEnvelope {
+
+	// Larger than the most the bound grows by in one move
+	private static final int RING = 8;
+
+	private final NavigationGrid _grid;
+	private final Floor _floor;
+	private final ChargerDistanceField _field;
+	private final BitSet _envelope;
+	private final int[] _cost;
+	private final int[] _reachedIn;
+	private final int[] _settledIn;
+	private final int[][] _buckets = new int[RING][];
+	private final int[] _bucketSize = new int[RING];
+	private int[] _settled;
+	private int[] _settledBound;
+	private int _settledCount;
+	private int _shown;
+	private int _queued;
+	private int _bound;
+	private int _start = -1;
+	private long _version;
+	private int _search;
+
+	/**
+	 * @param grid grid the envelope is computed on
+	 * @param field power needed to reach a charging station from every cell of grid
+	 */
+	ReachabilityEnvelope(NavigationGrid grid, ChargerDistanceField field){
+		_grid = grid;
+		_floor = grid.getFloor();
+		_field = field;
+		_envelope = new BitSet(grid.getCellCount());
+		_cost = new int[grid.getCellCount()];
+		_reachedIn = new int[grid.getCellCount()];
+		_settledIn = new int[grid.getCellCount()];
+		_settled = new int[256];
+		_settledBound = new int[256];
+		for(int b=0; b<RING; b++)
+			_buckets[b] = new int[64];
+	}
+
+	/**
+	 * Cells reachable from start with power left to get from them to a charging station
+	 * @param start dense index of the cell the robot is on
+	 * @param charge power left in the battery
+	 * @return a new BitSet with the dense index of every cell in the envelope set,
+	 * empty if no charging station can be reached from start
+	 */
+	synchronized BitSet query(int start, int charge){
+		_field.refresh();
+		if(start != _start || _version != _floor.getDoorVersion())
+			restart(start);
+		if(charge > _bound)
+			resume(charge);
+
+		// Settled cells are in order of their bound, show the ones within the charge
+		int shown = _shown;
+		while(shown < _settledCount && _settledBound[shown] <= charge)
+			_envelope.set(_settled[shown++]);
+		while(shown > 0 && _settledBound[shown - 1] > charge)
+			_envelope.clear(_settled[--shown]);
+		_shown = shown;
+		return (BitSet) _envelope.clone();
+	}
+
+	/**
+	 * @return number of cells the search has settled since the start cell last changed
+	 */
+	synchronized int getSettledCount(){
+		return _settledCount;
+	}
+
+	private void restart(int start){
+		_version = _floor.getDoorVersion();
+		_start = start;
+		_envelope.clear();
+		_settledCount = 0;
+		_shown = 0;
+		_queued = 0;
+		_bound = 0;
+		Arrays.fill(_bucketSize, 0);
+		if(++_search == Integer.MAX_VALUE){
+			Arrays.fill(_reachedIn, 0);
+			Arrays.fill(_settledIn, 0);
+			_search = 1;
+		}
+		int home = _field.getCost(start);
+		if(!_grid.isPassable(start) || home == ChargerDistanceField.UNREACHABLE){
+			_bound = Integer.MAX_VALUE;
+			return;
+		}
+		_cost[start] = 0;
+		_reachedIn[start] = _search;
+		push(start, home);
+		_bound = home - 1;
+	}
+
+	/**
+	 * Settles cells in order of their cost plus field cost until every cell within charge is settled
+	 */
+	private void resume(int charge){
+		for(int bound=_bound + 1; _queued > 0 && bound<=charge; bound++){
+			int b = bound & (RING - 1);
+			while(_bucketSize[b] > 0){
+				int cell = _buckets[b][--_bucketSize[b]];
+				_queued--;
+				if(_settledIn[cell] == _search || _cost[cell] + _field.getCost(cell) != bound)
+					continue;
+				_settledIn[cell] = _search;
+				settle(cell, bound);
+				for(int d=0; d<8; d++){
+					int next = _grid.destination(cell, d);
+					if(next < 0)
+						continue;
+					int home = _field.getCost(next);
+					int cost = _cost[cell] + _grid.getCost(next);
+					if(home == ChargerDistanceField.UNREACHABLE || _reachedIn[next] == _search && cost >= _cost[next])
+						continue;
+					_reachedIn[next] = _search;
+					_cost[next] = cost;
+					push(next, cost + home);
+				}
+			}
+			_bound = bound;
+		}
+		// Nothing left to settle, no charge reaches further
+		if(_queued == 0)
+			_bound = Integer.MAX_VALUE;
+	}
+
+	private void settle(int cell, int bound){
+		if(_settledCount == _settled.length){
+			_settled = Arrays.copyOf(_settled, _settledCount * 2);
+			_settledBound = Arrays.copyOf(_settledBound, _settledCount * 2);
+		}
+		_settled[_settledCount] = cell;
+		_settledBound[_settledCount++] = bound;
+	}
+
+	private void push(int cell, int bound){
+		int b = bound & (RING - 1);
+		if(_bucketSize[b] == _buckets[b].length)
+			_buckets[b] = Arrays.copyOf(_buckets[b], _bucketSize[b] * 2);
+		_buckets[b][_bucketSize[b]++] = cell;
+		_queued++;
+	}
+}
@@ -0,0 +1,446 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Answers whether one cell can be reached from another with the doors as
+ * they are now, on the graph of rooms, doors and links of a RoomMap.
+ * <p>
+ * With few doors every combination of door states is worked out up front,
+ * in parallel: for each bit mask of open doors, the component of every node
+ * that has a link. A query looks up the mask of the doors as they are, so it
+ * is two array reads, and a door change flips one bit.
+ * <p>
+ * With more doors each node carries the label of its component, and the
+ * nodes of a component are kept in a list. An opened door merges the
+ * components at the ends of the links it opens, relabelling the smaller one,
+ * so a node is relabelled at most log n times as doors open. A closed door
+ * can only split the components its links were in. Searches from the ends of
+ * those links run side by side until they meet, and nothing changes, or until
+ * all but one run out of nodes; only the pieces they ran out in get new
+ * labels, so the cost is that of the smaller pieces. Door changes are picked
+ * up from the door state version, as in ChargerDistanceField, and only the
+ * doors that changed are applied. Queries read a copy of the room labels
+ * that refresh publishes once it is done, as RoomMap does, so they never
+ * see a relabelling halfway through.
+ */
+class ReachabilityOracle {
+
+	/**
+	 * Most doors the states of which are all worked out up front
+	 */
+	static final int MASK_DOORS = 12;
+
+	private final RoomMap _rooms;
+	private final Floor _floor;
+	private final int _doorCount;
+	private final boolean[] _doorOpen;
+	private final boolean[] _doorSnapshot;
+	private volatile long _version;
+
+	// Every door state combination, for few doors
+	private final int[] _localOf;
+	private final int _localCount;
+	private final int[] _linkMask;
+	private final byte[] _componentByMask;
+	private volatile int _mask;
+
+	// Component labels and lists, for many doors
+	private final int[] _componentOf;
+	private volatile int[] _roomLabel;
+	private final int[] _nextNode;
+	private final int[] _previousNode;
+	private final int[] _head;
+	private final int[] _componentSize;
+	private final int[] _freeLabels;
+	private int _freeCount;
+	private final int[] _seenIn;
+	private final int[] _ownerOf;
+	private int[][] _queues = new int[8][];
+	private int _search;
+	private int _lastRelabelled;
+
+	/**
+	 * @param rooms rooms and doors to answer queries on
+	 */
+	ReachabilityOracle(RoomMap rooms){
+		_rooms = rooms;
+		_floor = rooms.getGrid().getFloor();
+		_doorCount = _floor.getDoorCount();
+		_doorOpen = new boolean[_doorCount];
+		_doorSnapshot = new boolean[_doorCount];
+		_version = _floor.readDoorStates(_doorOpen);
+		int nodeCount = rooms.getNodeCount();
+
+		if(_doorCount <= MASK_DOORS){
+			_localOf = new int[nodeCount];
+			Arrays.fill(_localOf, -1);
+			int local = 0;
+			for(int node=0; node<nodeCount; node++)
+				if(rooms.getNodeLinkEnd(node) > rooms.getNodeLinkStart(node))
+					_localOf[node] = local++;
+			_localCount = local;
+			_linkMask = new int[rooms.getLinkCount()];
+			for(int link=0; link<_linkMask.length; link++)
+				for(int i=rooms.getLinkDoorStart(link); i<rooms.getLinkDoorEnd(link); i++)
+					_linkMask[link] |= 1 << rooms.getLinkDoor(i);
+			_componentByMask = new byte[(1 << _doorCount) * _localCount];
+			IntStream.range(0, 1 << _doorCount).parallel().forEach(this::labelMask);
+			_mask = maskOf(_doorOpen);
+			_componentOf = null;
+			_roomLabel = null;
+			_nextNode = null;
+			_previousNode = null;
+			_head = null;
+			_componentSize = null;
+			_freeLabels = null;
+			_seenIn = null;
+			_ownerOf = null;
+			return;
+		}
+
+		_localOf = null;
+		_localCount = 0;
+		_linkMask = null;
+		_componentByMask = null;
+		_componentOf = new int[nodeCount];
+		_nextNode = new int[nodeCount];
+		_previousNode = new int[nodeCount];
+		_head = new int[nodeCount];
+		_componentSize = new int[nodeCount];
+		_freeLabels = new int[nodeCount];
+		_seenIn = new int[nodeCount];
+		_ownerOf = new int[nodeCount];
+		for(int node=0; node<nodeCount; node++){
+			_componentOf[node] = node;
+			_nextNode[node] = -1;
+			_previousNode[node] = -1;
+			_head[node] = node;
+			_componentSize[node] = 1;
+		}
+		for(int i=0; i<_queues.length; i++)
+			_queues[i] = new int[16];
+		for(int door=0; door<_doorCount; door++)
+			if(_doorOpen[door])
+				doorOpened(door);
+		_roomLabel = Arrays.copyOf(_componentOf, rooms.getRoomCount());
+	}
+
+	/**
+	 * @param a dense cell index
+	 * @param b dense cell index
+	 * @return true if both cells are in rooms and the open doors connect those rooms
+	 */
+	boolean isReachable(int a, int b){
+		int roomA = _rooms.roomOf(a);
+		int roomB = _rooms.roomOf(b);
+		if(roomA < 0 || roomB < 0)
+			return false;
+		if(roomA == roomB)
+			return true;
+		refresh();
+		if(_componentByMask == null){
+			int[] roomLabel = _roomLabel;
+			return roomLabel[roomA] == roomLabel[roomB];
+		}
+		int localA = _localOf[roomA];
+		int localB = _localOf[roomB];
+		if(localA < 0 || localB < 0)
+			return false;
+		int row = _mask * _localCount;
+		return _componentByMask[row + localA] == _componentByMask[row + localB];
+	}
+
+	/**
+	 * @return true if every door state combination was worked out up front
+	 */
+	boolean usesDoorMasks(){
+		return _componentByMask != null;
+	}
+
+	/**
+	 * @return number of nodes labelled again by the door changes of the last refresh
+	 */
+	int getLastRelabelled(){
+		return _lastRelabelled;
+	}
+
+	/**
+	 * Applies the doors that changed since the last call
+	 */
+	void refresh(){
+		if(_version == _floor.getDoorVersion())
+			return;
+		synchronized(this){
+			long version = _floor.readDoorStates(_doorSnapshot);
+			if(version == _version)
+				return;
+			_lastRelabelled = 0;
+			for(int door=0; door<_doorCount; door++){
+				if(_doorSnapshot[door] == _doorOpen[door])
+					continue;
+				_doorOpen[door] = _doorSnapshot[door];
+				if(_componentByMask != null)
+					continue;
+				if(_doorOpen[door])
+					doorOpened(door);
+				else
+					doorClosed(door);
+			}
+			if(_componentByMask != null)
+				_mask = maskOf(_doorOpen);
+			else if(_lastRelabelled > 0)
+				_roomLabel = Arrays.copyOf(_componentOf, _roomLabel.length);
+			_version = version;
+		}
+	}
+
+	private static int maskOf(boolean[] open){
+		int mask = 0;
+		for(int door=0; door<open.length; door++)
+			if(open[door])
+				mask |= 1 << door;
+		return mask;
+	}
+
+	/**
+	 * Labels the nodes with links for one combination of open doors, each with the lowest local node of its component
+	 */
+	private void labelMask(int mask){
+		int[] parent = new int[_localCount];
+		for(int i=0; i<_localCount; i++)
+			parent[i] = i;
+		for(int link=0; link<_linkMask.length; link++){
+			if((_linkMask[link] & ~mask) != 0)
+				continue;
+			int a = find(parent, _localOf[_rooms.getLinkFrom(link)]);
+			int b = find(parent, _localOf[_rooms.getLinkTo(link)]);
+			parent[Math.max(a, b)] = Math.min(a, b);
+		}
+		int row = mask * _localCount;
+		for(int i=0; i<_localCount; i++)
+			_componentByMask[row + i] = (byte) find(parent, i);
+	}
+
+	private static int find(int[] parent, int i){
+		while(parent[i] != i){
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Merges the components at the ends of every link the door opened
+	 */
+	private void doorOpened(int door){
+		for(int i=_rooms.getDoorLinkStart(door); i<_rooms.getDoorLinkEnd(door); i++){
+			int link = _rooms.getDoorLink(i);
+			if(_rooms.isLinkOpen(link, _doorOpen))
+				merge(_componentOf[_rooms.getLinkFrom(link)], _componentOf[_rooms.getLinkTo(link)]);
+		}
+	}
+
+	/**
+	 * Relabels the smaller of two components into the larger one
+	 */
+	private void merge(int a, int b){
+		if(a == b)
+			return;
+		if(_componentSize[a] < _componentSize[b]){
+			int swap = a;
+			a = b;
+			b = swap;
+		}
+		// Relabel b's list and splice it in after the head of a's
+		int last = -1;
+		for(int node=_head[b]; node>=0; node=_nextNode[node]){
+			_componentOf[node] = a;
+			last = node;
+		}
+		int after = _nextNode[_head[a]];
+		_nextNode[_head[a]] = _head[b];
+		_previousNode[_head[b]] = _head[a];
+		_nextNode[last] = after;
+		if(after >= 0)
+			_previousNode[after] = last;
+		_componentSize[a] += _componentSize[b];
+		_lastRelabelled += _componentSize[b];
+		_freeLabels[_freeCount++] = b;
+	}
+
+	/**
+	 * Splits the components of the links the door closed, the ends of the
+	 * links of one component are searched from together
+	 */
+	private void doorClosed(int door){
+		int[] ends = new int[2 * (_rooms.getDoorLinkEnd(door) - _rooms.getDoorLinkStart(door))];
+		int count = 0;
+		for(int i=_rooms.getDoorLinkStart(door); i<_rooms.getDoorLinkEnd(door); i++){
+			int link = _rooms.getDoorLink(i);
+			if(!isOpenWithout(link, door))
+				continue;
+			count = addEnd(ends, count, _rooms.getLinkFrom(link));
+			count = addEnd(ends, count, _rooms.getLinkTo(link));
+		}
+		while(count > 0){
+			int label = _componentOf[ends[0]];
+			int[] seeds = new int[count];
+			int seedCount = 0;
+			int left = 0;
+			for(int i=0; i<count; i++){
+				if(_componentOf[ends[i]] == label)
+					seeds[seedCount++] = ends[i];
+				else
+					ends[left++] = ends[i];
+			}
+			count = left;
+			split(seeds, seedCount);
+		}
+	}
+
+	private static int addEnd(int[] ends, int count, int node){
+		for(int i=0; i<count; i++)
+			if(ends[i] == node)
+				return count;
+		ends[count] = node;
+		return count + 1;
+	}
+
+	/**
+	 * @return true if every door of the link other than door is open
+	 */
+	private boolean isOpenWithout(int link, int door){
+		for(int i=_rooms.getLinkDoorStart(link); i<_rooms.getLinkDoorEnd(link); i++){
+			int other = _rooms.getLinkDoor(i);
+			if(other != door && !_doorOpen[other])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Searches from every seed of one component at once, one node per search
+	 * in turn. Searches that meet are joined, and a group of searches that
+	 * runs out of nodes has found a piece of the split component. The search
+	 * stops once all searches are joined, so nothing split, or once one group
+	 * is left running, which keeps the old label while every finished piece
+	 * gets a new one. Only the smaller pieces are ever walked in full.
+	 */
+	private void split(int[] seeds, int count){
+		if(count < 2)
+			return;
+		if(++_search == Integer.MAX_VALUE){
+			Arrays.fill(_seenIn, 0);
+			_search = 1;
+		}
+		if(_queues.length < count)
+			_queues = Arrays.copyOf(_queues, count);
+		int[] group = new int[count];
+		int[] head = new int[count];
+		int[] tail = new int[count];
+		for(int i=0; i<count; i++){
+			if(_queues[i] == null)
+				_queues[i] = new int[16];
+			group[i] = i;
+			_queues[i][tail[i]++] = seeds[i];
+			_seenIn[seeds[i]] = _search;
+			_ownerOf[seeds[i]] = i;
+		}
+
+		int groups = count;
+		int running = count;
+		while(groups > 1 && running > 1){
+			for(int i=0; i<count; i++){
+				if(head[i] == tail[i])
+					continue;
+				int at = _queues[i][head[i]++];
+				for(int l=_rooms.getNodeLinkStart(at); l<_rooms.getNodeLinkEnd(at); l++){
+					int link = _rooms.getNodeLink(l);
+					if(!_rooms.isLinkOpen(link, _doorOpen))
+						continue;
+					int next = _rooms.getLinkFrom(link) == at ? _rooms.getLinkTo(link) : _rooms.getLinkFrom(link);
+					if(_seenIn[next] == _search){
+						int a = find(group, i);
+						int b = find(group, _ownerOf[next]);
+						if(a != b){
+							group[Math.max(a, b)] = Math.min(a, b);
+							groups--;
+						}
+						continue;
+					}
+					_seenIn[next] = _search;
+					_ownerOf[next] = i;
+					if(tail[i] == _queues[i].length)
+						_queues[i] = Arrays.copyOf(_queues[i], tail[i] * 2);
+					_queues[i][tail[i]++] = next;
+				}
+			}
+			running = countRunning(group, head, tail);
+		}
+		if(groups == 1)
+			return;
+
+		// Every finished group is a piece of its own, one unfinished group or the last one keeps the old label
+		int old = _componentOf[seeds[0]];
+		int kept = -1;
+		for(int i=0; i<count && kept < 0; i++)
+			if(head[i] < tail[i])
+				kept = find(group, i);
+		if(kept < 0)
+			kept = find(group, 0);
+		for(int g=0; g<count; g++){
+			if(find(group, g) != g || g == kept)
+				continue;
+			int label = _freeLabels[--_freeCount];
+			_head[label] = -1;
+			_componentSize[label] = 0;
+			for(int i=0; i<count; i++){
+				if(find(group, i) != g)
+					continue;
+				for(int q=0; q<tail[i]; q++)
+					move(_queues[i][q], old, label);
+			}
+			_lastRelabelled += _componentSize[label];
+		}
+	}
+
+	/**
+	 * @return number of groups that have a search with nodes left
+	 */
+	private static int countRunning(int[] group, int[] head, int[] tail){
+		int running = 0;
+		for(int i=0; i<group.length; i++){
+			if(head[i] == tail[i])
+				continue;
+			// Count each group once, at its first running search
+			boolean counted = false;
+			for(int j=0; j<i && !counted; j++)
+				counted = head[j] < tail[j] && find(group, j) == find(group, i);
+			if(!counted)
+				running++;
+		}
+		return running;
+	}
+
+	/**
+	 * Takes node out of the list of label from and puts it first in the list of label to
+	 */
+	private void move(int node, int from, int to){
+		if(_previousNode[node] >= 0)
+			_nextNode[_previousNode[node]] = _nextNode[node];
+		else
+			_head[from] = _nextNode[node];
+		if(_nextNode[node] >= 0)
+			_previousNode[_nextNode[node]] = _previousNode[node];
+		_componentSize[from]--;
+		_previousNode[node] = -1;
+		_nextNode[node] = _head[to];
+		if(_head[to] >= 0)
+			_previousNode[_head[to]] = node;
+		_head[to] = node;
+		_componentSize[to]++;
+		_componentOf[node] = to;
+	}
+}
@@ -0,0 +1,162 @@
+package edu.baseplan.floor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free occupancy reservations over the dense cell indices of a Floor.
+ * <p>
+ * Every cell has one long slot holding the owning robot id in the high 32 bits
+ * and the last tick the reservation is valid for in the low 32 bits. Slots are
+ * only changed with compare and set, so robots never block each other and a
+ * reader only pays for one volatile read. A reservation whose tick has passed
+ * counts as free and can be taken over by any robot.
+ */
+class ReservationTable {
+
+	/**
+	 * Tick used for claims that are held until they are released
+	 */
+	static final int FOREVER = Integer.MAX_VALUE;
+	private static final long FREE = 0L;
+	private final AtomicLongArray _slots;
+	private volatile int _tick;
+
+	/**
+	 * @param cells number of cells on the floor
+	 */
+	ReservationTable(int cells){
+		_slots = new AtomicLongArray(cells);
+	}
+
+	ReservationTable(Floor floor){
+		this(floor.getSizeX() * floor.getSizeY());
+	}
+
+	private static long pack(int robot, int untilTick){
+		return ((long) (robot + 1) << 32) | (untilTick & 0xFFFFFFFFL);
+	}
+
+	private static int ownerOf(long slot){
+		return (int) (slot >>> 32) - 1;
+	}
+
+	private static int untilOf(long slot){
+		return (int) slot;
+	}
+
+	private boolean isHeldByOther(long slot, int robot){
+		return slot != FREE && ownerOf(slot) != robot && untilOf(slot) >= _tick;
+	}
+
+	/**
+	 * Claims a cell until the robot releases it
+	 * @param cell dense cell index
+	 * @param robot id of the robot, must not be negative
+	 * @return true if the robot now holds the cell, false if another robot holds it
+	 */
+	boolean claim(int cell, int robot){
+		return reserve(cell, robot, FOREVER);
+	}
+
+	/**
+	 * Reserves a cell up to and including untilTick. A robot that already
+	 * holds the cell replaces its own reservation.
+	 * @param cell dense cell index
+	 * @param robot id of the robot, must not be negative
+	 * @param untilTick last tick of the reservation
+	 * @return true if the reservation was made, false if another robot holds the cell
+	 */
+	boolean reserve(int cell, int robot, int untilTick){
+		long reservation = pack(robot, untilTick);
+		while(true){
+			long slot = _slots.get(cell);
+			if(isHeldByOther(slot, robot))
+				return false;
+			if(_slots.compareAndSet(cell, slot, reservation))
+				return true;
+		}
+	}
+
+	/**
+	 * Reserves the cells of a planned path, cells[i] is reserved until
+	 * startTick + i + hold. If any cell is held by another robot, the
+	 * reservations made by this call are rolled back and cells the robot
+	 * held before the call keep their earlier reservation.
+	 * @param cells dense cell indices in path order
+	 * @param robot id of the robot
+	 * @param startTick tick the robot is on cells[0]
+	 * @param hold extra ticks each cell stays reserved after the planned arrival
+	 * @return true if the whole path is reserved
+	 */
+	boolean reservePath(int[] cells, int robot, int startTick, int hold){
+		long[] previous = new long[cells.length];
+		for(int i=0; i<cells.length; i++){
+			long reservation = pack(robot, startTick + i + hold);
+			while(true){
+				long slot = _slots.get(cells[i]);
+				if(isHeldByOther(slot, robot)){
+					// Undo newest first, a path that waits on a cell reserves it more than once
+					for(int j=i - 1; j>=0; j--)
+						_slots.compareAndSet(cells[j], pack(robot, startTick + j + hold), previous[j]);
+					return false;
+				}
+				if(_slots.compareAndSet(cells[i], slot, reservation)){
+					previous[i] = slot;
+					break;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Releases a cell, does nothing if the robot does not hold it
+	 * @param cell dense cell index
+	 * @param robot id of the robot
+	 */
+	void release(int cell, int robot){
+		while(true){
+			long slot = _slots.get(cell);
+			if(slot == FREE || ownerOf(slot) != robot)
+				return;
+			if(_slots.compareAndSet(cell, slot, FREE))
+				return;
+		}
+	}
+
+	/**
+	 * Indicates whether a robot may enter a cell
+	 * @param cell dense cell index
+	 * @param robot id of the robot asking
+	 * @return true if the cell is free, expired or held by robot itself
+	 */
+	boolean isAvailable(int cell, int robot){
+		return !isHeldByOther(_slots.get(cell), robot);
+	}
+
+	/**
+	 * @param cell dense cell index
+	 * @return id of the robot holding the cell, or -1 if the cell is free or expired
+	 */
+	int getOwner(int cell){
+		long slot = _slots.get(cell);
+		if(slot == FREE || untilOf(slot) < _tick)
+			return -1;
+		return ownerOf(slot);
+	}
+
+	/**
+	 * @return current tick used to expire time window reservations
+	 */
+	int getTick(){
+		return _tick;
+	}
+
+	/**
+	 * Moves the clock forward, reservations that end before the new tick expire
+	 * @param tick the new current tick
+	 */
+	void setTick(int tick){
+		_tick = tick;
+	}
+}
@@ -0,0 +1,17 @@
+package edu.baseplan.floor;
+
+/**
+ * A single robot's control loop body, driven by FleetRunner.
+ * Each robot gets its own FloorNavigationProxy so heading state
+ * is never shared between robots.
+ */
+public interface RobotController {
+
+	/**
+	 * Performs one blocking control step for a robot
+	 * @param proxy the robot's own navigation proxy over the shared floor
+	 * @param location the robot's current location
+	 * @return the robot's location after the step, or null to stop the robot
+	 */
+	Location step(FloorNavigationProxy proxy, Location location);
+}
@@ -0,0 +1,456 @@
+package edu.baseplan.floor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Splits the open cells of a NavigationGrid into rooms. Two open cells are in
+ * the same room when a robot can walk from one to the other without passing
+ * a door. Doors and obstacles belong to no room.
+ * <p>
+ * Rooms are labelled with a union-find over the cells, run on columns in
+ * parallel. Runs of open cells down a column are joined first, then every
+ * run with the runs it touches in the next column, so there is one join per
+ * pair of touching runs rather than per pair of cells. Roots are linked with
+ * a compare and set, the larger cell under the smaller, so strips of columns
+ * only meet at their borders and the root of a room is its first cell. Rooms
+ * are numbered in order of their first cell.
+ * <p>
+ * Doors join rooms into a small graph. Its nodes are the rooms and the doors
+ * a robot can land on, when a hop over one door ends on the next. A link
+ * joins two nodes with one move, a hop over a door or a step off a door the
+ * robot stands on, and lists every door the move needs open: the door hopped
+ * over and the doors it starts or ends on. Which rooms are connected with the
+ * doors that are open is worked out on that graph again after a door
+ * changes, so roomOf and isConnected are array reads.
+ */
+class RoomMap {
+
+	private static final int STRIP = 16;
+
+	private final NavigationGrid _grid;
+	private final Floor _floor;
+	private final int[] _roomOf;
+	private final int _roomCount;
+	private final int[] _roomSize;
+	private final int _nodeCount;
+	private final int _linkCount;
+	private final int[] _linkFrom;
+	private final int[] _linkTo;
+	private final int[] _linkDoorStart;
+	private final int[] _linkDoors;
+	private final int[] _doorLinkStart;
+	private final int[] _doorLinks;
+	private final int[] _nodeLinkStart;
+	private final int[] _nodeLinks;
+
+	private final boolean[] _doorOpen;
+	private volatile int[] _componentOf;
+	private volatile long _version = -1;
+
+	RoomMap(NavigationGrid grid){
+		_grid = grid;
+		_floor = grid.getFloor();
+		int sizeX = grid.getSizeX();
+		int sizeY = grid.getSizeY();
+
+		// Runs of open cells down a column are joined first, every cell under the run's first cell
+		AtomicIntegerArray parent = new AtomicIntegerArray(grid.getCellCount());
+		IntStream.range(0, sizeX).parallel().forEach(x -> {
+			int run = -1;
+			for(int cell=x * sizeY; cell<(x + 1) * sizeY; cell++){
+				if(grid.getKind(cell) != NavigationGrid.OPEN)
+					run = -1;
+				else if(run < 0)
+					run = cell;
+				parent.lazySet(cell, run < 0 ? cell : run);
+			}
+		});
+
+		// Then each run with the runs of the next column it touches, on strips of columns
+		IntStream.range(0, (sizeX + STRIP - 2) / STRIP).parallel().forEach(strip -> {
+			for(int x=strip * STRIP; x<Math.min(sizeX - 1, (strip + 1) * STRIP); x++){
+				int base = x * sizeY;
+				for(int y=0; y<sizeY; y++){
+					if(grid.getKind(base + y) != NavigationGrid.OPEN)
+						continue;
+					int start = y;
+					while(y + 1 < sizeY && grid.getKind(base + y + 1) == NavigationGrid.OPEN)
+						y++;
+					int from = Math.max(0, start - 1);
+					for(int ny=from; ny<=Math.min(sizeY - 1, y + 1); ny++){
+						int next = base + sizeY + ny;
+						if(grid.getKind(next) == NavigationGrid.OPEN
+								&& (ny == from || grid.getKind(next - 1) != NavigationGrid.OPEN))
+							join(parent, base + start, next);
+					}
+				}
+			}
+		});
+
+		_roomOf = new int[grid.getCellCount()];
+		int[] sizes = new int[16];
+		int rooms = 0;
+		for(int cell=0; cell<_roomOf.length; cell++){
+			if(grid.getKind(cell) != NavigationGrid.OPEN){
+				_roomOf[cell] = -1;
+				continue;
+			}
+			if(cell % sizeY != 0 && _roomOf[cell - 1] >= 0)
+				_roomOf[cell] = _roomOf[cell - 1];
+			else{
+				// Roots are first cells, so a root other than the cell itself is labelled already
+				int root = find(parent, cell);
+				if(root == cell){
+					if(rooms == sizes.length)
+						sizes = Arrays.copyOf(sizes, rooms * 2);
+					_roomOf[cell] = rooms++;
+				}
+				else
+					_roomOf[cell] = _roomOf[root];
+			}
+			sizes[_roomOf[cell]]++;
+		}
+		_roomCount = rooms;
+		_roomSize = Arrays.copyOf(sizes, rooms);
+
+		// Doors a hop over another door can end on, a robot may stand there
+		int doorCount = _floor.getDoorCount();
+		int[] doorCells = grid.getDoorCells();
+		int[] doorAt = new int[doorCells.length];
+		for(int door=0; door<doorCount; door++)
+			doorAt[Arrays.binarySearch(doorCells, _floor.indexOf(_floor.getDoor(door)))] = door;
+		boolean[] landing = new boolean[doorCount];
+		for(int door=0; door<doorCount; door++){
+			int cell = _floor.indexOf(_floor.getDoor(door));
+			for(int d=0; d<8; d++){
+				int over = step(cell, d, -1);
+				int from = step(cell, d, -2);
+				landing[door] |= from >= 0 && grid.getKind(over) == NavigationGrid.DOOR
+						&& grid.getKind(from) != NavigationGrid.OBSTACLE;
+			}
+		}
+		_nodeCount = rooms + doorCount;
+
+		// One link per move that leaves a room or a door, each move once
+		List<int[]> links = new ArrayList<int[]>();
+		for(int door=0; door<doorCount; door++){
+			int cell = _floor.indexOf(_floor.getDoor(door));
+			int first = links.size();
+			for(int d=0; d<8; d++){
+				int from = step(cell, d, -1);
+				int to = step(cell, d, 1);
+				if(d < 4 && from >= 0 && to >= 0 && grid.getKind(from) != NavigationGrid.OBSTACLE
+						&& grid.getKind(to) != NavigationGrid.OBSTACLE){
+					addLink(links, first, nodeOf(from, doorCells, doorAt), nodeOf(to, doorCells, doorAt),
+							door, doorOf(from, doorCells, doorAt), doorOf(to, doorCells, doorAt));
+				}
+				if(landing[door] && to >= 0 && grid.getKind(to) == NavigationGrid.OPEN)
+					addLink(links, first, rooms + door, _roomOf[to], door, -1, -1);
+			}
+		}
+		_linkCount = links.size();
+		_linkFrom = new int[_linkCount];
+		_linkTo = new int[_linkCount];
+		_linkDoorStart = new int[_linkCount + 1];
+		int[] doorLinkCount = new int[doorCount + 1];
+		int[] nodeLinkCount = new int[_nodeCount + 1];
+		for(int link=0; link<_linkCount; link++){
+			int[] entry = links.get(link);
+			_linkFrom[link] = entry[0];
+			_linkTo[link] = entry[1];
+			_linkDoorStart[link + 1] = _linkDoorStart[link] + entry.length - 2;
+			for(int i=2; i<entry.length; i++)
+				doorLinkCount[entry[i] + 1]++;
+			nodeLinkCount[entry[0] + 1]++;
+			nodeLinkCount[entry[1] + 1]++;
+		}
+		_linkDoors = new int[_linkDoorStart[_linkCount]];
+		_doorLinkStart = prefixSums(doorLinkCount);
+		_doorLinks = new int[_linkDoors.length];
+		_nodeLinkStart = prefixSums(nodeLinkCount);
+		_nodeLinks = new int[_linkCount * 2];
+		int[] doorFill = Arrays.copyOf(_doorLinkStart, doorCount);
+		int[] nodeFill = Arrays.copyOf(_nodeLinkStart, _nodeCount);
+		for(int link=0; link<_linkCount; link++){
+			int[] entry = links.get(link);
+			for(int i=2; i<entry.length; i++){
+				_linkDoors[_linkDoorStart[link] + i - 2] = entry[i];
+				_doorLinks[doorFill[entry[i]]++] = link;
+			}
+			_nodeLinks[nodeFill[entry[0]]++] = link;
+			_nodeLinks[nodeFill[entry[1]]++] = link;
+		}
+		_doorOpen = new boolean[doorCount];
+	}
+
+	/**
+	 * Links the roots of a and b, the larger one under the smaller
+	 */
+	private static void join(AtomicIntegerArray parent, int a, int b){
+		while(true){
+			int rootA = find(parent, a);
+			int rootB = find(parent, b);
+			if(rootA == rootB)
+				return;
+			int low = Math.min(rootA, rootB);
+			int high = Math.max(rootA, rootB);
+			if(parent.compareAndSet(high, high, low))
+				return;
+		}
+	}
+
+	/**
+	 * Root of cell, halving the path on the way
+	 */
+	private static int find(AtomicIntegerArray parent, int cell){
+		while(true){
+			int up = parent.get(cell);
+			if(up == cell)
+				return cell;
+			int next = parent.get(up);
+			if(next != up)
+				parent.compareAndSet(cell, up, next);
+			cell = up;
+		}
+	}
+
+	/**
+	 * Door number of a door cell, -1 for any other cell
+	 */
+	private static int doorOf(int cell, int[] doorCells, int[] doorAt){
+		int i = Arrays.binarySearch(doorCells, cell);
+		return i < 0 ? -1 : doorAt[i];
+	}
+
+	private int nodeOf(int cell, int[] doorCells, int[] doorAt){
+		return _roomOf[cell] >= 0 ? _roomOf[cell] : _roomCount + doorOf(cell, doorCells, doorAt);
+	}
+
+	/**
+	 * Adds a link between two nodes unless it joins a node to itself, or the
+	 * same door already has it from another move
+	 * @param first position of the door's first link in links
+	 * @param door the door the move hops over or steps off
+	 * @param start door the move starts on, or -1
+	 * @param end door the move ends on, or -1
+	 */
+	private static void addLink(List<int[]> links, int first, int a, int b, int door, int start, int end){
+		if(a == b)
+			return;
+		int[] doors = {door, start, end};
+		Arrays.sort(doors);
+		int count = 0;
+		for(int i=0; i<doors.length; i++)
+			if(doors[i] >= 0 && (count == 0 || doors[i] != doors[count - 1]))
+				doors[count++] = doors[i];
+		int[] link = new int[2 + count];
+		link[0] = Math.min(a, b);
+		link[1] = Math.max(a, b);
+		System.arraycopy(doors, 0, link, 2, count);
+		for(int i=first; i<links.size(); i++)
+			if(Arrays.equals(links.get(i), link))
+				return;
+		links.add(link);
+	}
+
+	private static int[] prefixSums(int[] counts){
+		for(int i=1; i<counts.length; i++)
+			counts[i] += counts[i - 1];
+		return counts;
+	}
+
+	private int step(int door, int direction, int distance){
+		int x = _grid.xOf(door) + NavigationGrid.DX[direction] * distance;
+		int y = _grid.yOf(door) + NavigationGrid.DY[direction] * distance;
+		if(x < 0 || y < 0 || x >= _grid.getSizeX() || y >= _grid.getSizeY())
+			return -1;
+		return _grid.indexOf(x, y);
+	}
+
+	NavigationGrid getGrid(){
+		return _grid;
+	}
+
+	/**
+	 * @param cell dense cell index
+	 * @return the room of the cell, or -1 for doors and obstacles
+	 */
+	int roomOf(int cell){
+		return _roomOf[cell];
+	}
+
+	/**
+	 * @param x x-coordinate of the cell
+	 * @param y y-coordinate of the cell
+	 * @return the room of the cell, or -1 for doors and obstacles
+	 */
+	int roomOf(int x, int y){
+		return _roomOf[_grid.indexOf(x, y)];
+	}
+
+	int getRoomCount(){
+		return _roomCount;
+	}
+
+	/**
+	 * @param room room number
+	 * @return number of cells in the room
+	 */
+	int getRoomSize(int room){
+		return _roomSize[room];
+	}
+
+	/**
+	 * @return number of nodes of the door graph, the rooms first and then one per door
+	 */
+	int getNodeCount(){
+		return _nodeCount;
+	}
+
+	/**
+	 * @param door door index, see Floor.getDoor
+	 * @return node of a robot standing on the door
+	 */
+	int getDoorNode(int door){
+		return _roomCount + door;
+	}
+
+	int getLinkCount(){
+		return _linkCount;
+	}
+
+	/**
+	 * @param link link number
+	 * @return one node the link joins, the lower one
+	 */
+	int getLinkFrom(int link){
+		return _linkFrom[link];
+	}
+
+	int getLinkTo(int link){
+		return _linkTo[link];
+	}
+
+	/**
+	 * @param link link number
+	 * @return position in getLinkDoor of the first door the link needs open
+	 */
+	int getLinkDoorStart(int link){
+		return _linkDoorStart[link];
+	}
+
+	int getLinkDoorEnd(int link){
+		return _linkDoorStart[link + 1];
+	}
+
+	int getLinkDoor(int i){
+		return _linkDoors[i];
+	}
+
+	/**
+	 * @param link link number
+	 * @param doorOpen state of every door, indexed as in Floor.getDoor
+	 * @return true if every door the link needs is open
+	 */
+	boolean isLinkOpen(int link, boolean[] doorOpen){
+		for(int i=_linkDoorStart[link]; i<_linkDoorStart[link + 1]; i++)
+			if(!doorOpen[_linkDoors[i]])
+				return false;
+		return true;
+	}
+
+	/**
+	 * @param door door index, see Floor.getDoor
+	 * @return position in getDoorLink of the first link that needs the door
+	 */
+	int getDoorLinkStart(int door){
+		return _doorLinkStart[door];
+	}
+
+	int getDoorLinkEnd(int door){
+		return _doorLinkStart[door + 1];
+	}
+
+	int getDoorLink(int i){
+		return _doorLinks[i];
+	}
+
+	/**
+	 * @param node room number or door node
+	 * @return position in getNodeLink of the first link of the node
+	 */
+	int getNodeLinkStart(int node){
+		return _nodeLinkStart[node];
+	}
+
+	int getNodeLinkEnd(int node){
+		return _nodeLinkStart[node + 1];
+	}
+
+	int getNodeLink(int i){
+		return _nodeLinks[i];
+	}
+
+	/**
+	 * @param room room number
+	 * @return the first room of the rooms connected to room through open doors
+	 */
+	int componentOf(int room){
+		refresh();
+		return _componentOf[room];
+	}
+
+	/**
+	 * @param a dense cell index
+	 * @param b dense cell index
+	 * @return true if both cells are in rooms and the open doors connect those rooms
+	 */
+	boolean isConnected(int a, int b){
+		if(_roomOf[a] < 0 || _roomOf[b] < 0)
+			return false;
+		refresh();
+		int[] componentOf = _componentOf;
+		return componentOf[_roomOf[a]] == componentOf[_roomOf[b]];
+	}
+
+	/**
+	 * Joins the nodes of every open link again if a door changed since the last call
+	 */
+	void refresh(){
+		if(_version == _floor.getDoorVersion())
+			return;
+		synchronized(this){
+			long version = _floor.readDoorStates(_doorOpen);
+			if(version == _version)
+				return;
+			// Roots are the lowest node, so a component with a room has a room for its root
+			int[] parent = new int[_nodeCount];
+			for(int node=0; node<_nodeCount; node++)
+				parent[node] = node;
+			for(int link=0; link<_linkCount; link++){
+				if(!isLinkOpen(link, _doorOpen))
+					continue;
+				int a = rootOf(parent, _linkFrom[link]);
+				int b = rootOf(parent, _linkTo[link]);
+				parent[Math.max(a, b)] = Math.min(a, b);
+			}
+			int[] componentOf = new int[_roomCount];
+			for(int room=0; room<_roomCount; room++)
+				componentOf[room] = rootOf(parent, room);
+			_componentOf = componentOf;
+			_version = version;
+		}
+	}
+
+	private static int rootOf(int[] parent, int room){
+		while(parent[room] != room){
+			parent[room] = parent[parent[room]];
+			room = parent[room];
+		}
+		return room;
+	}
+}
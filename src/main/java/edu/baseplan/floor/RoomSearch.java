@@ -0,0 +1,108 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+
+/**
+ * Dijkstra confined to a single room of a RoomMap. Inside a room every move
+ * is a plain step to a neighbouring open cell, so no door logic is needed.
+ * The arrays are reused between searches, one RoomSearch per thread.
+ */
+class RoomSearch {
+
+	static final int UNREACHED = Integer.MAX_VALUE;
+
+	private final RoomMap _rooms;
+	private final NavigationGrid _grid;
+	private final int[] _distance;
+	private final int[] _searchOf;
+	private final IndexedMinHeap _heap;
+	private int _search;
+	private int _settled;
+
+	RoomSearch(RoomMap rooms){
+		_rooms = rooms;
+		_grid = rooms.getGrid();
+		_distance = new int[_grid.getCellCount()];
+		_searchOf = new int[_grid.getCellCount()];
+		_heap = new IndexedMinHeap(_grid.getCellCount());
+	}
+
+	/**
+	 * Cost of walking from the sources to every cell of their room
+	 * @param sources cells of one room
+	 * @param count number of sources to use
+	 * @param startCosts cost already paid when standing on each source
+	 */
+	void forward(int[] sources, int count, int[] startCosts){
+		start();
+		for(int i=0; i<count; i++)
+			reach(sources[i], startCosts[i]);
+		run(_rooms.roomOf(sources[0]), false);
+	}
+
+	/**
+	 * Cost of walking from every cell of target's room to target
+	 * @param target dense cell index
+	 */
+	void backward(int target){
+		start();
+		reach(target, 0);
+		run(_rooms.roomOf(target), true);
+	}
+
+	/**
+	 * @param cell dense cell index
+	 * @return distance found by the last search, or UNREACHED
+	 */
+	int distance(int cell){
+		return _searchOf[cell] == _search ? _distance[cell] : UNREACHED;
+	}
+
+	/**
+	 * @return number of cells settled by the last search
+	 */
+	int getSettledCount(){
+		return _settled;
+	}
+
+	private void start(){
+		_heap.clear();
+		_settled = 0;
+		if(++_search == Integer.MAX_VALUE){
+			Arrays.fill(_searchOf, 0);
+			_search = 1;
+		}
+	}
+
+	private void reach(int cell, int distance){
+		if(_searchOf[cell] != _search || distance < _distance[cell]){
+			_searchOf[cell] = _search;
+			_distance[cell] = distance;
+			_heap.insertOrUpdate(cell, distance);
+		}
+	}
+
+	/**
+	 * Forward searches pay for the cell stepped onto, backward searches for the cell stepped off
+	 */
+	private void run(int room, boolean backward){
+		int sizeX = _grid.getSizeX();
+		int sizeY = _grid.getSizeY();
+		while(!_heap.isEmpty()){
+			int cell = _heap.poll();
+			_settled++;
+			int distance = _distance[cell];
+			int x = cell / sizeY;
+			int y = cell - x * sizeY;
+			for(int d=0; d<8; d++){
+				int nx = x + NavigationGrid.DX[d];
+				int ny = y + NavigationGrid.DY[d];
+				if(nx < 0 || ny < 0 || nx >= sizeX || ny >= sizeY)
+					continue;
+				int next = nx * sizeY + ny;
+				if(_rooms.roomOf(next) == room)
+					reach(next, distance + _grid.getCost(backward ? cell : next));
+			}
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package edu.baseplan.floor;
+
+/**
+ * PlannedPath that also says when to make each move. The robot waits in
+ * place until the departure tick of a move, and every move takes one tick.
+ */
+class ScheduledPath extends PlannedPath {
+
+	private final long[] _departures;
+	private final long _arrival;
+
+	/**
+	 * @param cells dense cell indices from source to target
+	 * @param departures departures[i] is the tick the move from cells[i] to cells[i + 1] starts
+	 * @param arrival tick the robot reaches the target
+	 * @param cost total power cost of the path
+	 * @param expansions number of states the planner expanded
+	 * @param doorVersion door state version the path was planned against
+	 */
+	ScheduledPath(int[] cells, long[] departures, long arrival, int cost, int expansions, long doorVersion){
+		super(cells, cost, expansions, doorVersion);
+		_departures = departures;
+		_arrival = arrival;
+	}
+
+	/**
+	 * @return departure tick of every move
+	 */
+	long[] getDepartures(){
+		return _departures;
+	}
+
+	/**
+	 * @return tick the robot reaches the target
+	 */
+	long getArrivalTime(){
+		return _arrival;
+	}
+}
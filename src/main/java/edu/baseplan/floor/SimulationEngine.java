@@ -0,0 +1,331 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Lockstep simulation of a robot fleet over one floor.
+ * <p>
+ * The floor is partitioned into square regions. Every tick all robots
+ * of a region decide and claim their moves inside one ForkJoinPool task,
+ * moves that leave their region are resolved afterwards in a sequential
+ * merge phase in robot id order, and cleaning is applied per region.
+ * Because the regions and the merge order only depend on the configuration,
+ * runs are bit-identical for any pool parallelism.
+ * <p>
+ * Rules for a tick:
+ * <li>a robot may only move onto a cell that no robot occupied at the start of the tick</li>
+ * <li>of several robots claiming the same cell, robots from the cell's own region win over
+ * robots coming from other regions, ties are won by the lowest robot id</li>
+ * <li>of several robots cleaning the same cell, only the lowest robot id removes dirt</li>
+ */
+public class SimulationEngine {
+
+	private static final Logger logger = LogManager.getLogger(SimulationEngine.class.getName());
+	private static final int STAY = -1;
+	private static final int CROSS_REGION = -2;
+
+	private final Floor _floor;
+	private final TickPolicy _policy;
+	private final ForkJoinPool _pool;
+	private final FloorNavigationProxy _proxy;
+	private final int _sizeY;
+	private final int _regionSize;
+	private final int _regionsY;
+	private final int _regionCount;
+
+	private final int[] _robotCell;
+	private final int[] _robotTarget;
+	private final int[] _occupancy;
+	private final int[] _claim;
+	private final int[] _cleaner;
+	private final int[] _regionStart;
+	private final int[] _regionRobots;
+	private final long[] _regionMoves;
+	private final long[] _regionBlocked;
+	private final long[] _regionCleaned;
+
+	private long _tick;
+	private long _moves;
+	private long _blocked;
+	private long _dirtRemoved;
+
+	/**
+	 * @param floorPlanFilename .cft file to simulate
+	 * @param robots number of robots, placed on the charging stations in round robin order
+	 * @param policy decides the action of every robot on every tick
+	 * @param regionSize side length of the square regions the floor is partitioned into
+	 * @param parallelism number of worker threads
+	 */
+	public SimulationEngine(String floorPlanFilename, int robots, TickPolicy policy, int regionSize, int parallelism){
+		this(loadFloor(floorPlanFilename), robots, policy, regionSize, new ForkJoinPool(parallelism));
+	}
+
+	SimulationEngine(Floor floor, int robots, TickPolicy policy, int regionSize, ForkJoinPool pool){
+		if(regionSize < 1)
+			throw new IllegalArgumentException("regionSize must be positive");
+
+		_floor = floor;
+		_policy = policy;
+		_pool = pool;
+		_proxy = new FloorNavigationProxy(floor);
+		_sizeY = floor.getSizeY();
+		_regionSize = regionSize;
+		_regionsY = (_sizeY + regionSize - 1) / regionSize;
+		_regionCount = ((floor.getSizeX() + regionSize - 1) / regionSize) * _regionsY;
+
+		int cells = floor.getSizeX() * _sizeY;
+		_robotCell = new int[robots];
+		_robotTarget = new int[robots];
+		_occupancy = new int[cells];
+		_claim = new int[cells];
+		_cleaner = new int[cells];
+		_regionStart = new int[_regionCount + 1];
+		_regionRobots = new int[robots];
+		_regionMoves = new long[_regionCount];
+		_regionBlocked = new long[_regionCount];
+		_regionCleaned = new long[_regionCount];
+
+		int stations = floor.getChargingStationCount();
+		for(int r=0; r<robots; r++){
+			_robotCell[r] = floor.indexOf(floor.getChargingStation(r % stations));
+			_occupancy[_robotCell[r]]++;
+		}
+	}
+
+	private static Floor loadFloor(String floorPlanFilename){
+		Floor floor = new Floor();
+		floor.createFloorPlanFromFile(floorPlanFilename);
+		return floor;
+	}
+
+	/**
+	 * Region of a cell, regions are numbered column by column like cells
+	 */
+	private int regionOf(int cell){
+		int x = cell / _sizeY;
+		int y = cell % _sizeY;
+		return (x / _regionSize) * _regionsY + y / _regionSize;
+	}
+
+	/**
+	 * Advances the simulation by the given number of ticks
+	 * @param ticks number of ticks to run
+	 */
+	public void run(int ticks){
+		for(int i=0; i<ticks; i++)
+			tick();
+	}
+
+	/**
+	 * Advances every robot by one tick
+	 */
+	public void tick(){
+		bucketRobotsByRegion();
+		_pool.invoke(new RegionTask(0, _regionCount, true));
+		mergeCrossRegionMoves();
+		_pool.invoke(new RegionTask(0, _regionCount, false));
+
+		for(int r=0; r<_robotCell.length; r++){
+			int target = _robotTarget[r];
+			if(target >= 0){
+				_occupancy[_robotCell[r]]--;
+				_occupancy[target]++;
+				_claim[target] = 0;
+				_robotCell[r] = target;
+			}
+		}
+		for(int region=0; region<_regionCount; region++){
+			_moves += _regionMoves[region];
+			_blocked += _regionBlocked[region];
+			_dirtRemoved += _regionCleaned[region];
+		}
+		_tick++;
+	}
+
+	/**
+	 * Counting sort of robots into regions, keeps robot id order inside each region
+	 */
+	private void bucketRobotsByRegion(){
+		Arrays.fill(_regionStart, 0);
+		for(int r=0; r<_robotCell.length; r++)
+			_regionStart[regionOf(_robotCell[r]) + 1]++;
+		for(int region=0; region<_regionCount; region++)
+			_regionStart[region + 1] += _regionStart[region];
+
+		int[] next = Arrays.copyOf(_regionStart, _regionCount);
+		for(int r=0; r<_robotCell.length; r++)
+			_regionRobots[next[regionOf(_robotCell[r])]++] = r;
+	}
+
+	/**
+	 * Decide phase for one region, only writes claims for cells inside the region
+	 */
+	private void decideRegion(int region){
+		long moves = 0;
+		long blocked = 0;
+		for(int i=_regionStart[region]; i<_regionStart[region + 1]; i++){
+			int robot = _regionRobots[i];
+			int cell = _robotCell[robot];
+			AbstractCell current = _floor.getCellAt(cell);
+			_robotTarget[robot] = STAY;
+
+			Direction direction = _policy.decide(robot, _tick, new Location(current, Direction.NORTH), _proxy);
+			if(direction == null){
+				if(_cleaner[cell] == 0)
+					_cleaner[cell] = robot + 1;
+				continue;
+			}
+
+			AbstractCell destination = _floor.getDestinationCell(current, direction);
+			if(destination == null)
+				continue;
+
+			int target = _floor.indexOf(destination);
+			if(regionOf(target) != region)
+				_robotTarget[robot] = CROSS_REGION - target;
+			else if(_occupancy[target] == 0 && _claim[target] == 0){
+				_claim[target] = robot + 1;
+				_robotTarget[robot] = target;
+				moves++;
+			}
+			else
+				blocked++;
+		}
+		_regionMoves[region] = moves;
+		_regionBlocked[region] = blocked;
+	}
+
+	/**
+	 * Sequential merge phase, robots leaving their region claim cells in robot id order
+	 */
+	private void mergeCrossRegionMoves(){
+		for(int r=0; r<_robotTarget.length; r++){
+			if(_robotTarget[r] > CROSS_REGION)
+				continue;
+
+			int target = CROSS_REGION - _robotTarget[r];
+			if(_occupancy[target] == 0 && _claim[target] == 0){
+				_claim[target] = r + 1;
+				_robotTarget[r] = target;
+				_moves++;
+			}
+			else{
+				_robotTarget[r] = STAY;
+				_blocked++;
+			}
+		}
+	}
+
+	/**
+	 * Apply phase for one region, cleans the cells whose winning cleaner is in the region
+	 */
+	private void cleanRegion(int region){
+		long cleaned = 0;
+		for(int i=_regionStart[region]; i<_regionStart[region + 1]; i++){
+			int robot = _regionRobots[i];
+			int cell = _robotCell[robot];
+			if(_cleaner[cell] == robot + 1){
+				cleaned += _floor.getCellAt(cell).getDirt();
+				_cleaner[cell] = 0;
+			}
+		}
+		_regionCleaned[region] = cleaned;
+	}
+
+	private class RegionTask extends RecursiveAction {
+
+		private static final long serialVersionUID = -1830917315716453180L;
+		private final int _from;
+		private final int _to;
+		private final boolean _decide;
+
+		RegionTask(int from, int to, boolean decide){
+			_from = from;
+			_to = to;
+			_decide = decide;
+		}
+
+		@Override
+		protected void compute() {
+			if(_to - _from > 1){
+				int mid = (_from + _to) >>> 1;
+				invokeAll(new RegionTask(_from, mid, _decide), new RegionTask(mid, _to, _decide));
+			}
+			else if(_to > _from){
+				if(_decide)
+					decideRegion(_from);
+				else
+					cleanRegion(_from);
+			}
+		}
+	}
+
+	/**
+	 * Releases the worker threads of this engine
+	 */
+	public void shutdown(){
+		_pool.shutdown();
+	}
+
+	/**
+	 * @return number of ticks simulated so far
+	 */
+	public long getTick(){
+		return _tick;
+	}
+
+	/**
+	 * @return total moves made by all robots
+	 */
+	public long getMoves(){
+		return _moves;
+	}
+
+	/**
+	 * @return total moves rejected because the target cell was occupied or claimed by another robot
+	 */
+	public long getBlockedMoves(){
+		return _blocked;
+	}
+
+	/**
+	 * @return total units of dirt removed by all robots
+	 */
+	public long getDirtRemoved(){
+		return _dirtRemoved;
+	}
+
+	/**
+	 * Current location of a robot
+	 * @param robot id of the robot
+	 * @return a new Location for the robot's cell
+	 */
+	public Location getRobotLocation(int robot){
+		return new Location(_floor.getCellAt(_robotCell[robot]), Direction.NORTH);
+	}
+
+	/**
+	 * Fingerprint of the positions of all robots, equal fingerprints
+	 * from two runs indicate identical fleet states
+	 * @return hash of every robot's cell index
+	 */
+	public int getStateHash(){
+		return Arrays.hashCode(_robotCell);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Tick: ").append(_tick).append("\n");
+		sb.append("Robots: ").append(_robotCell.length).append("\n");
+		sb.append("Moves: ").append(_moves).append("\n");
+		sb.append("Blocked Moves: ").append(_blocked).append("\n");
+		sb.append("Dirt Removed: ").append(_dirtRemoved).append("\n");
+		logger.debug("toString() was called");
+		return sb.toString();
+	}
+}
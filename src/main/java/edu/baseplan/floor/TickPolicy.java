@@ -0,0 +1,19 @@
+package edu.baseplan.floor;
+
+/**
+ * Decides what a robot does on one tick of a SimulationEngine run.
+ * Implementations must be deterministic functions of their arguments
+ * for runs to be reproducible, and may be called from several threads at once.
+ */
+public interface TickPolicy {
+
+	/**
+	 * Chooses the robot's action for this tick
+	 * @param robot id of the robot, starting at 0
+	 * @param tick current tick number, starting at 0
+	 * @param location the robot's current location
+	 * @param proxy navigation proxy over the simulated floor, only canMove should be used
+	 * @return the direction to move in, or null to stay and clean the current location
+	 */
+	Direction decide(int robot, long tick, Location location, FloorNavigationProxy proxy);
+}
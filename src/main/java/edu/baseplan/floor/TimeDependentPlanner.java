@@ -0,0 +1,192 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+
+/**
+ * Cheapest path over time against a DoorSchedule.
+ * <p>
+ * A move takes one tick and hopping a door needs it open, and the door
+ * landed on if there is one, at the tick the move starts. A robot may wait
+ * in place for a door to open, waiting costs no power, but not while standing
+ * on a door. Instead of one state per cell and tick, the search keeps labels
+ * (cell, arrival tick, power cost) and leaves out waiting as a move of its
+ * own: a move towards a closed door departs at the door's next opening. As
+ * waiting is free, a label on an open cell is only worth keeping if no label
+ * settled there arrived earlier, so the state cache is one earliest settled
+ * arrival per cell. Labels landing on a door are always kept, robots can't
+ * wait there. Labels are settled by power cost plus estimate, then arrival
+ * time, the result is the cheapest path and among those the earliest.
+ */
+class TimeDependentPlanner {
+
+	private final NavigationGrid _grid;
+	private final DoorSchedule _schedule;
+	private final Heuristic _heuristic;
+	private final int[] _doorNumber;
+	private final long[] _bestTime;
+	private final int[] _searchOf;
+	private int _search;
+
+	private int[] _labelCell = new int[256];
+	private long[] _labelTime = new long[256];
+	private int[] _labelCost = new int[256];
+	private int[] _labelParent = new int[256];
+	private int _labelCount;
+
+	private final IndexedMinHeap _open = new IndexedMinHeap(256);
+
+	/**
+	 * @param grid grid of the schedule's floor
+	 * @param schedule door opening times
+	 */
+	TimeDependentPlanner(NavigationGrid grid, DoorSchedule schedule){
+		_grid = grid;
+		_schedule = schedule;
+		_heuristic = new OctileHeuristic(grid);
+		_bestTime = new long[grid.getCellCount()];
+		_searchOf = new int[grid.getCellCount()];
+
+		Floor floor = grid.getFloor();
+		_doorNumber = new int[grid.getDoorCells().length];
+		for(int i=0; i<floor.getDoorCount(); i++)
+			_doorNumber[Arrays.binarySearch(grid.getDoorCells(), floor.indexOf(floor.getDoor(i)))] = i;
+	}
+
+	/**
+	 * @param source dense index of the start cell
+	 * @param startTime tick the robot is at source
+	 * @param target dense index of the goal cell
+	 * @return the cheapest path and the ticks to make its moves at, or null if target can't be reached
+	 */
+	ScheduledPath plan(int source, long startTime, int target){
+		long doorVersion = _grid.getDoorVersion();
+		byte sourceKind = _grid.getKind(source);
+		if(sourceKind == NavigationGrid.OBSTACLE || _grid.getKind(target) == NavigationGrid.OBSTACLE)
+			return null;
+		if(sourceKind == NavigationGrid.DOOR && !_schedule.isOpenAt(doorNumber(source), startTime))
+			return null;
+
+		_heuristic.prepare(source, target);
+		if(++_search == Integer.MAX_VALUE){
+			Arrays.fill(_searchOf, 0);
+			_search = 1;
+		}
+		_labelCount = 0;
+		_open.clear();
+		_open.insertOrUpdate(addLabel(source, startTime, 0, -1), key(_heuristic.estimate(source, target), 0));
+
+		int expansions = 0;
+		while(!_open.isEmpty()){
+			int label = _open.poll();
+			int cell = _labelCell[label];
+			long time = _labelTime[label];
+			boolean onDoor = _grid.getKind(cell) == NavigationGrid.DOOR;
+			if(!onDoor){
+				if(_searchOf[cell] == _search && _bestTime[cell] <= time)
+					continue;
+				_searchOf[cell] = _search;
+				_bestTime[cell] = time;
+			}
+			expansions++;
+			if(cell == target)
+				return tracePath(label, expansions, doorVersion);
+
+			for(int d=0; d<8; d++){
+				int x = _grid.xOf(cell) + NavigationGrid.DX[d];
+				int y = _grid.yOf(cell) + NavigationGrid.DY[d];
+				if(x < 0 || y < 0 || x >= _grid.getSizeX() || y >= _grid.getSizeY())
+					continue;
+				int next = _grid.indexOf(x, y);
+				byte kind = _grid.getKind(next);
+				if(kind == NavigationGrid.OBSTACLE)
+					continue;
+
+				long departure = time;
+				if(kind == NavigationGrid.DOOR){
+					int door = next;
+					x += NavigationGrid.DX[d];
+					y += NavigationGrid.DY[d];
+					if(x < 0 || y < 0 || x >= _grid.getSizeX() || y >= _grid.getSizeY())
+						continue;
+					next = _grid.indexOf(x, y);
+					kind = _grid.getKind(next);
+					if(kind == NavigationGrid.OBSTACLE)
+						continue;
+					departure = departure(door, kind == NavigationGrid.DOOR ? next : -1, time);
+					if(departure == DoorSchedule.NEVER || (onDoor && departure != time))
+						continue;
+				}
+
+				long arrival = departure + 1;
+				if(_searchOf[next] == _search && _bestTime[next] <= arrival)
+					continue;
+				int cost = _labelCost[label] + _grid.getCost(next);
+				_open.insertOrUpdate(addLabel(next, arrival, cost, label), key(cost + _heuristic.estimate(next, target), arrival - startTime));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return number of labels created by the last plan
+	 */
+	int getLastLabelCount(){
+		return _labelCount;
+	}
+
+	/**
+	 * First tick at or after time both doors are open
+	 * @param second dense index of a door landed on, -1 if there is none
+	 */
+	private long departure(int first, int second, long time){
+		while(true){
+			long open = _schedule.nextOpenTime(doorNumber(first), time);
+			if(open == DoorSchedule.NEVER || second < 0)
+				return open;
+			time = _schedule.nextOpenTime(doorNumber(second), open);
+			if(time == open || time == DoorSchedule.NEVER)
+				return time;
+		}
+	}
+
+	private int doorNumber(int cell){
+		return _doorNumber[Arrays.binarySearch(_grid.getDoorCells(), cell)];
+	}
+
+	private ScheduledPath tracePath(int label, int expansions, long doorVersion){
+		int length = 1;
+		for(int l=label; _labelParent[l] >= 0; l=_labelParent[l])
+			length++;
+		int[] cells = new int[length];
+		long[] departures = new long[length - 1];
+		for(int l=label; l >= 0; l=_labelParent[l]){
+			cells[--length] = _labelCell[l];
+			if(length > 0)
+				departures[length - 1] = _labelTime[l] - 1;
+		}
+		return new ScheduledPath(cells, departures, _labelTime[label], _labelCost[label], expansions, doorVersion);
+	}
+
+	private int addLabel(int cell, long time, int cost, int parent){
+		if(_labelCount == _labelCell.length){
+			int size = _labelCount * 2;
+			_labelCell = Arrays.copyOf(_labelCell, size);
+			_labelTime = Arrays.copyOf(_labelTime, size);
+			_labelCost = Arrays.copyOf(_labelCost, size);
+			_labelParent = Arrays.copyOf(_labelParent, size);
+			_open.ensureCapacity(size);
+		}
+		_labelCell[_labelCount] = cell;
+		_labelTime[_labelCount] = time;
+		_labelCost[_labelCount] = cost;
+		_labelParent[_labelCount] = parent;
+		return _labelCount++;
+	}
+
+	/**
+	 * Orders labels by f, and on equal f by ticks since the start
+	 */
+	private static long key(int f, long elapsed){
+		return ((long) f << 32) | Math.min(elapsed, 0xFFFFFFFFL);
+	}
+}
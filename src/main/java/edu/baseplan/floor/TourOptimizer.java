@@ -0,0 +1,569 @@
+package edu.baseplan.floor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Orders the dirty cells of a floor into a tour a robot can drive on one
+ * battery at a time, with recharge stops at the charging stations.
+ * <p>
+ * The tour is built route first, split second. Moves cost what the cell
+ * landed on costs and most moves can be made backwards, so going from a to b
+ * mostly costs as much as going from b to a plus the cost of b minus the cost
+ * of a. Counting the cell left as well makes the costs symmetric, which the
+ * order of the tour is optimised on. A full cost matrix would take a search over the floor per
+ * dirty cell, so the costs are kept between neighbours only: one Dijkstra
+ * search from every dirty cell at once splits the floor into the regions
+ * each cell is nearest to, and two cells are neighbours when their regions
+ * touch, at the cost of the cheapest path over that border. The borders are
+ * collected on the pool in parallel. Costs between cells that are not
+ * neighbours are the cheapest chain of neighbours. The tour is built with
+ * the savings of Clarke and Wright over the neighbour pairs and then improved
+ * with 2-opt moves between neighbours. Last, the tour is walked with the
+ * battery: before a leg that would leave too little power to reach a charging
+ * station from the next cell, the robot recharges at the station nearest to
+ * where it is or at the one the next cell is cheapest to reach from,
+ * whichever is cheaper. A hop that lands on a door can't be made backwards,
+ * so the way to a station and the way from one are searched separately, on
+ * the transposed graph and on the graph. The costs to and from a station
+ * the battery walk recharges at are searched once per plan and kept. The
+ * symmetric costs the order is built on are estimates, so every leg the
+ * walk drives is searched forwards, up to the power left, and the cost of
+ * the tour adds up those searches. Dirty cells that can't be reached, or are too far
+ * from every station for one battery, are left out. Everything runs on a
+ * NavigationGraph, so doors that change while planning don't affect the tour.
+ */
+class TourOptimizer {
+
+	private static final int UNREACHED = BucketSearch.UNREACHED;
+	private static final int SKIPPED = -2;
+
+	// Border records are packed as node, node, cost in 20, 20 and 24 bits
+	private static final int NODE_BITS = 20;
+	private static final int COST_BITS = 24;
+	private static final int CHUNK = 1 << 14;
+
+	// Savings are packed as the saving below MAX_SAVING, node, node in 23, 20 and 20 bits
+	private static final long MAX_SAVING = (1L << 23) - 1;
+
+	private final NavigationGraph _graph;
+	private final NavigationGraph _transposed;
+	private final NavigationGrid _grid;
+	private final ForkJoinPool _pool;
+	private final BucketSearch _search;
+
+	// Nodes of the current plan, node 0 is the start and the others are dirty cells
+	private int _nodeCount;
+	private int[] _cellOf;
+	private int[] _nodeOf;
+	// Cost to the nearest station and that station, cost from the station nearest by the way there and that station
+	private int[] _home;
+	private int[] _station;
+	private int[] _away;
+	private int[] _awayStation;
+	// Costs from and to the stations the battery walk recharged at, by station cell
+	private Map<Integer, int[]> _fromStation;
+	private Map<Integer, int[]> _toStation;
+	private int[] _neighbourStart;
+	private int[] _neighbour;
+	private int[] _neighbourCost;
+	private int _improvements;
+
+	/**
+	 * @param graph graph to plan on
+	 * @param pool pool the borders between regions are collected on
+	 */
+	TourOptimizer(NavigationGraph graph, ForkJoinPool pool){
+		_graph = graph;
+		_transposed = graph.transpose();
+		_grid = graph.getGrid();
+		_pool = pool;
+		_search = new BucketSearch(graph.getCellCount());
+	}
+
+	/**
+	 * @return number of 2-opt moves the last plan made
+	 */
+	int getLastImprovements(){
+		return _improvements;
+	}
+
+	/**
+	 * @return average number of neighbours of a dirty cell in the last plan
+	 */
+	double getLastNeighbourCount(){
+		return _nodeCount == 0 ? 0 : (double) _neighbour.length / _nodeCount;
+	}
+
+	/**
+	 * Plans a tour over dirty cells for a battery of capacity that has charge left at the start
+	 * @param start dense index of the cell the robot is on
+	 * @param charge power left in the battery
+	 * @param capacity power in a full battery
+	 * @param dirty dense indices of the cells to clean, fewer than a million
+	 * @param chargers dense indices of the charging stations
+	 * @return the tour, or null if the robot can't reach a charging station with the charge it has
+	 */
+	DirtTour plan(int start, int charge, int capacity, int[] dirty, int[] chargers){
+		if(dirty.length >= 1 << NODE_BITS)
+			throw new IllegalArgumentException("too many dirty cells for one tour: " + dirty.length);
+		if(!_grid.isPassable(start))
+			return null;
+		int[] stations = Arrays.stream(chargers).filter(_grid::isPassable).toArray();
+		_search.run(_transposed, stations, (cell, cost) -> false);
+		if(_search.costOf(start) == UNREACHED || _search.costOf(start) > charge)
+			return null;
+
+		// Dirty cells no full battery gets to and back from are left out before planning
+		_nodeOf = new int[_grid.getCellCount()];
+		Arrays.fill(_nodeOf, -1);
+		_cellOf = new int[dirty.length + 1];
+		_home = new int[dirty.length + 1];
+		_station = new int[dirty.length + 1];
+		_away = new int[dirty.length + 1];
+		_awayStation = new int[dirty.length + 1];
+		int[] skipped = new int[dirty.length];
+		int skippedCount = 0;
+		_nodeCount = 0;
+		addNode(start);
+		for(int cell : dirty){
+			if(_nodeOf[cell] != -1)
+				continue;
+			if(!_grid.isPassable(cell) || _search.costOf(cell) == UNREACHED){
+				skipped[skippedCount++] = cell;
+				_nodeOf[cell] = SKIPPED;
+				continue;
+			}
+			addNode(cell);
+		}
+		_search.run(_graph, stations, (cell, cost) -> false);
+		int nodes = 0;
+		for(int node=0; node<_nodeCount; node++){
+			int cell = _cellOf[node];
+			if(node > 0 && (_search.costOf(cell) == UNREACHED || (long) _search.costOf(cell) + _home[node] > capacity)){
+				skipped[skippedCount++] = cell;
+				_nodeOf[cell] = SKIPPED;
+				continue;
+			}
+			_nodeOf[cell] = nodes;
+			_cellOf[nodes] = cell;
+			_home[nodes] = _home[node];
+			_station[nodes] = _station[node];
+			_away[nodes] = _search.costOf(cell);
+			_awayStation[nodes++] = _search.rootOf(cell);
+		}
+		_nodeCount = nodes;
+
+		findNeighbours();
+		int[] tour = new int[_nodeCount];
+		int[] leg = new int[_nodeCount];
+		int length = savingsTour(tour, leg);
+		for(int i=length; i<_nodeCount; i++)
+			skipped[skippedCount++] = _cellOf[tour[i]];
+		improve(tour, leg, length);
+		_fromStation = new HashMap<Integer, int[]>();
+		_toStation = new HashMap<Integer, int[]>();
+		return split(tour, length, charge, capacity, Arrays.copyOf(skipped, skippedCount));
+	}
+
+	/**
+	 * Adds cell as a node with the cost to its nearest station from the last search, which ran towards the stations
+	 */
+	private void addNode(int cell){
+		_nodeOf[cell] = _nodeCount;
+		_cellOf[_nodeCount] = cell;
+		_home[_nodeCount] = _search.costOf(cell);
+		_station[_nodeCount++] = _search.rootOf(cell);
+	}
+
+	/**
+	 * Splits the floor into the regions nearest to each node and makes nodes
+	 * with touching regions neighbours. Going from a over the border x, y to b
+	 * costs cost(a, x) + cost(y) + cost(y, b), which with the cell left
+	 * counted is cost(a, x) + cost(b, y) + cost(a) + cost(b), the two search
+	 * costs plus the costs of both nodes.
+	 */
+	private void findNeighbours(){
+		int[] roots = Arrays.copyOf(_cellOf, _nodeCount);
+		_search.run(_graph, roots, (cell, cost) -> false);
+
+		int chunks = (_graph.getCellCount() + CHUNK - 1) / CHUNK;
+		long[][] borders = new long[chunks][];
+		try{
+			_pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(chunk -> {
+				borders[chunk] = collectBorders(chunk * CHUNK, Math.min(_graph.getCellCount(), (chunk + 1) * CHUNK));
+			})).get();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while collecting borders", e);
+		}
+		catch(ExecutionException e){
+			throw new IllegalStateException("collecting borders failed", e.getCause());
+		}
+		int count = 0;
+		for(long[] chunk : borders)
+			count += chunk.length;
+		long[] records = new long[count];
+		count = 0;
+		for(long[] chunk : borders){
+			System.arraycopy(chunk, 0, records, count, chunk.length);
+			count += chunk.length;
+		}
+		Arrays.parallelSort(records);
+
+		// The cheapest record of every pair comes first, each pair is a neighbour both ways
+		_neighbourStart = new int[_nodeCount + 1];
+		int pairs = 0;
+		for(int i=0; i<count; i++){
+			if(i > 0 && records[i] >>> COST_BITS == records[i - 1] >>> COST_BITS)
+				continue;
+			records[pairs++] = records[i];
+			_neighbourStart[nodeA(records[i]) + 1]++;
+			_neighbourStart[nodeB(records[i]) + 1]++;
+		}
+		for(int node=0; node<_nodeCount; node++)
+			_neighbourStart[node + 1] += _neighbourStart[node];
+		_neighbour = new int[2 * pairs];
+		_neighbourCost = new int[2 * pairs];
+		int[] fill = Arrays.copyOf(_neighbourStart, _nodeCount);
+		for(int i=0; i<pairs; i++){
+			int a = nodeA(records[i]);
+			int b = nodeB(records[i]);
+			int cost = (int) (records[i] & ((1 << COST_BITS) - 1));
+			_neighbour[fill[a]] = b;
+			_neighbourCost[fill[a]++] = cost;
+			_neighbour[fill[b]] = a;
+			_neighbourCost[fill[b]++] = cost;
+		}
+		for(int node=0; node<_nodeCount; node++)
+			sortByCost(_neighbourStart[node], _neighbourStart[node + 1]);
+	}
+
+	/**
+	 * @return a record for every move between cells of different regions that leaves the region of the lower node
+	 */
+	private long[] collectBorders(int from, int to){
+		long[] records = new long[64];
+		int count = 0;
+		for(int cell=from; cell<to; cell++){
+			if(_search.costOf(cell) == UNREACHED)
+				continue;
+			int a = _nodeOf[_search.rootOf(cell)];
+			for(int edge=_graph.getEdgeStart(cell), end=_graph.getEdgeEnd(cell); edge<end; edge++){
+				int next = _graph.getEdgeTarget(edge);
+				if(_search.costOf(next) == UNREACHED)
+					continue;
+				int b = _nodeOf[_search.rootOf(next)];
+				if(b <= a)
+					continue;
+				long cost = (long) _search.costOf(cell) + _search.costOf(next) + _grid.getCost(_cellOf[a]) + _grid.getCost(_cellOf[b]);
+				// A border this expensive is never worth a leg of its own
+				if(cost >= 1L << COST_BITS)
+					continue;
+				if(count == records.length)
+					records = Arrays.copyOf(records, count * 2);
+				records[count++] = ((long) a << NODE_BITS | b) << COST_BITS | cost;
+			}
+		}
+		return Arrays.copyOf(records, count);
+	}
+
+	private static int nodeA(long record){
+		return (int) (record >>> (NODE_BITS + COST_BITS));
+	}
+
+	private static int nodeB(long record){
+		return (int) (record >>> COST_BITS) & ((1 << NODE_BITS) - 1);
+	}
+
+	private void sortByCost(int from, int to){
+		for(int i=from + 1; i<to; i++){
+			int node = _neighbour[i];
+			int cost = _neighbourCost[i];
+			int j = i - 1;
+			for(; j>=from && _neighbourCost[j] > cost; j--){
+				_neighbour[j + 1] = _neighbour[j];
+				_neighbourCost[j + 1] = _neighbourCost[j];
+			}
+			_neighbour[j + 1] = node;
+			_neighbourCost[j + 1] = cost;
+		}
+	}
+
+	/**
+	 * @return symmetric cost between two neighbours, -1 if they are not neighbours
+	 */
+	private int neighbourCost(int a, int b){
+		for(int i=_neighbourStart[a]; i<_neighbourStart[a + 1]; i++)
+			if(_neighbour[i] == b)
+				return _neighbourCost[i];
+		return -1;
+	}
+
+	/**
+	 * Savings of Clarke and Wright: every node starts on a trip of its own from
+	 * the start, and the trips ending at two neighbours a and b are joined
+	 * there, the largest saving cost(start, a) + cost(start, b) - cost(a, b)
+	 * first. Only neighbours are joined, so a few paths may be left, they are
+	 * chained from the start, each time to the path end nearest over the
+	 * chain of neighbours.
+	 * @param tour filled with the nodes in order, the ones that can't be reached at the end
+	 * @param leg leg[i] is set to the symmetric cost between tour[i] and tour[i + 1]
+	 * @return number of nodes on the tour
+	 */
+	private int savingsTour(int[] tour, int[] leg){
+		// Symmetric costs from the start, over the chain of neighbours
+		int[] fromStart = new int[_nodeCount];
+		int[] reachedIn = new int[_nodeCount];
+		IndexedMinHeap open = new IndexedMinHeap(_nodeCount);
+		chainSearch(0, 1, fromStart, reachedIn, open, null, null);
+
+		long[] savings = new long[_neighbour.length / 2];
+		int count = 0;
+		for(int a=1; a<_nodeCount; a++){
+			for(int i=_neighbourStart[a]; i<_neighbourStart[a + 1]; i++){
+				int b = _neighbour[i];
+				if(b <= a || reachedIn[a] != 1 || reachedIn[b] != 1)
+					continue;
+				long saving = Math.min(MAX_SAVING, (long) fromStart[a] + fromStart[b] - _neighbourCost[i]);
+				if(saving > 0)
+					savings[count++] = ((MAX_SAVING - saving) << NODE_BITS | a) << NODE_BITS | b;
+			}
+		}
+		Arrays.parallelSort(savings, 0, count);
+
+		// Every node keeps up to two links, a path is a set in the union-find
+		int[] link = new int[2 * _nodeCount];
+		int[] linkCost = new int[2 * _nodeCount];
+		Arrays.fill(link, -1);
+		int[] set = new int[_nodeCount];
+		for(int node=0; node<_nodeCount; node++)
+			set[node] = node;
+		for(int i=0; i<count; i++){
+			int a = (int) (savings[i] >>> NODE_BITS) & ((1 << NODE_BITS) - 1);
+			int b = (int) savings[i] & ((1 << NODE_BITS) - 1);
+			if(link[2 * a + 1] >= 0 || link[2 * b + 1] >= 0)
+				continue;
+			int rootA = find(set, a);
+			int rootB = find(set, b);
+			if(rootA == rootB)
+				continue;
+			set[rootA] = rootB;
+			int cost = neighbourCost(a, b);
+			int slotA = link[2 * a] < 0 ? 2 * a : 2 * a + 1;
+			int slotB = link[2 * b] < 0 ? 2 * b : 2 * b + 1;
+			link[slotA] = b;
+			linkCost[slotA] = cost;
+			link[slotB] = a;
+			linkCost[slotB] = cost;
+		}
+
+		boolean[] visited = new boolean[_nodeCount];
+		int[] distance = new int[_nodeCount];
+		visited[0] = true;
+		int at = 0;
+		int length = 1;
+		for(int search=2; length < _nodeCount; search++){
+			int next = chainSearch(at, search, distance, reachedIn, open, visited, link);
+			if(next < 0)
+				break;
+			// Walk the path from the end found to its other end
+			int cost = distance[next];
+			int previous = -1;
+			while(next >= 0){
+				visited[next] = true;
+				leg[length - 1] = cost;
+				tour[length++] = next;
+				int step = link[2 * next] >= 0 && link[2 * next] != previous ? 2 * next
+						: link[2 * next + 1] >= 0 && link[2 * next + 1] != previous ? 2 * next + 1 : -1;
+				previous = next;
+				next = step < 0 ? -1 : link[step];
+				cost = step < 0 ? 0 : linkCost[step];
+			}
+			at = previous;
+		}
+		int end = length;
+		for(int node=0; node<_nodeCount; node++)
+			if(!visited[node])
+				tour[end++] = node;
+		return length;
+	}
+
+	/**
+	 * Dijkstra over the chain of neighbours from a node, nodes passed through are counted once, as the cell left
+	 * @param search number of this search, distance is valid where reachedIn holds it
+	 * @param visited stops at the first node not visited yet with at most one of its two slots in link taken, null to reach every node
+	 * @return the node the search stopped at, -1 if it reached every node it could
+	 */
+	private int chainSearch(int from, int search, int[] distance, int[] reachedIn, IndexedMinHeap open, boolean[] visited, int[] link){
+		open.clear();
+		distance[from] = 0;
+		reachedIn[from] = search;
+		open.insertOrUpdate(from, 0);
+		while(!open.isEmpty()){
+			int node = open.poll();
+			if(visited != null && !visited[node] && link[2 * node + 1] < 0)
+				return node;
+			for(int i=_neighbourStart[node]; i<_neighbourStart[node + 1]; i++){
+				int other = _neighbour[i];
+				int d = distance[node] + _neighbourCost[i] - (node == from ? 0 : _grid.getCost(_cellOf[node]));
+				if(reachedIn[other] != search || d < distance[other]){
+					reachedIn[other] = search;
+					distance[other] = d;
+					open.insertOrUpdate(other, d);
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static int find(int[] set, int node){
+		while(set[node] != node){
+			set[node] = set[set[node]];
+			node = set[node];
+		}
+		return node;
+	}
+
+	/**
+	 * 2-opt between neighbours: replaces two legs by a leg to a neighbour and
+	 * a leg between the nodes after them, reversing the nodes in between,
+	 * while that makes the tour cheaper. The start stays first and the tour
+	 * is open at its end.
+	 */
+	private void improve(int[] tour, int[] leg, int length){
+		int[] position = new int[_nodeCount];
+		for(int i=0; i<length; i++)
+			position[tour[i]] = i;
+		_improvements = 0;
+		boolean improved = true;
+		while(improved){
+			improved = false;
+			for(int i=0; i<length - 1; i++){
+				int a = tour[i];
+				for(int n=_neighbourStart[a]; n<_neighbourStart[a + 1]; n++){
+					int cost = _neighbourCost[n];
+					if(cost >= leg[i])
+						break;
+					int j = position[_neighbour[n]];
+					if(j > i + 1){
+						// a - tour[i + 1] ... c - tour[j + 1] becomes a - c ... tour[i + 1] - tour[j + 1]
+						int other = j + 1 < length ? neighbourCost(tour[i + 1], tour[j + 1]) : 0;
+						if(other < 0 || cost + other >= leg[i] + (j + 1 < length ? leg[j] : 0))
+							continue;
+						reverse(tour, leg, position, i + 1, j);
+						leg[i] = cost;
+						if(j + 1 < length)
+							leg[j] = other;
+					}
+					else if(j + 1 < i){
+						// c - tour[j + 1] ... tour[i - 1] - a becomes c - a ... tour[j + 1] - tour[i + 1]
+						int other = neighbourCost(tour[j + 1], tour[i + 1]);
+						if(other < 0 || cost + other >= leg[i] + leg[j])
+							continue;
+						reverse(tour, leg, position, j + 1, i);
+						leg[j] = cost;
+						leg[i] = other;
+					}
+					else
+						continue;
+					_improvements++;
+					improved = true;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reverses tour[from..to] along with the legs between them
+	 */
+	private static void reverse(int[] tour, int[] leg, int[] position, int from, int to){
+		for(int i=from, j=to; i<j; i++, j--){
+			int swap = tour[i];
+			tour[i] = tour[j];
+			tour[j] = swap;
+			position[tour[i]] = i;
+			position[tour[j]] = j;
+		}
+		for(int i=from, j=to - 1; i<j; i++, j--){
+			int swap = leg[i];
+			leg[i] = leg[j];
+			leg[j] = swap;
+		}
+	}
+
+	/**
+	 * Walks the tour with the battery and inserts recharge stops where the next leg would strand the robot
+	 */
+	private DirtTour split(int[] tour, int length, int charge, int capacity, int[] skipped){
+		int[] stops = new int[2 * length + 1];
+		boolean[] recharge = new boolean[stops.length];
+		int stopCount = 0;
+		int[] left = Arrays.copyOf(skipped, skipped.length + length);
+		int leftCount = skipped.length;
+		int total = 0;
+		int battery = charge;
+		int at = tour[0];
+		stops[stopCount++] = _cellOf[at];
+		for(int i=1; i<length; i++){
+			int next = tour[i];
+			int direct = cost(_cellOf[at], _cellOf[next], battery - _home[next]);
+			if(direct != UNREACHED && direct + _home[next] <= battery){
+				battery -= direct;
+				total += direct;
+				stops[stopCount++] = _cellOf[next];
+				at = next;
+				continue;
+			}
+
+			// Recharge at the station nearest to here, or at the one the next cell is cheapest to reach from
+			int fromHere = _fromStation.computeIfAbsent(_station[at], station -> costTable(_graph, station))[_cellOf[next]];
+			int viaHere = fromHere == UNREACHED || fromHere + _home[next] > capacity ? UNREACHED : _home[at] + fromHere;
+			int toThere = _toStation.computeIfAbsent(_awayStation[next], station -> costTable(_transposed, station))[_cellOf[at]];
+			int viaThere = toThere == UNREACHED || toThere > battery ? UNREACHED : toThere + _away[next];
+			if(viaHere == UNREACHED && viaThere == UNREACHED){
+				left[leftCount++] = _cellOf[next];
+				continue;
+			}
+			boolean here = viaHere <= viaThere;
+			recharge[stopCount] = true;
+			stops[stopCount++] = here ? _station[at] : _awayStation[next];
+			stops[stopCount++] = _cellOf[next];
+			total += here ? viaHere : viaThere;
+			battery = capacity - (here ? fromHere : _away[next]);
+			at = next;
+		}
+		recharge[stopCount] = true;
+		stops[stopCount++] = _station[at];
+		total += _home[at];
+		return new DirtTour(Arrays.copyOf(stops, stopCount), Arrays.copyOf(recharge, stopCount), total,
+				Arrays.copyOf(left, leftCount));
+	}
+
+	/**
+	 * @return cost of every cell from station on graph, UNREACHED where there is no path
+	 */
+	private int[] costTable(NavigationGraph graph, int station){
+		_search.run(graph, new int[]{station}, (cell, cost) -> false);
+		int[] table = new int[graph.getCellCount()];
+		for(int cell=0; cell<table.length; cell++)
+			table[cell] = _search.costOf(cell);
+		return table;
+	}
+
+	/**
+	 * @param limit most power the path may take
+	 * @return cost of the cheapest path between two cells, UNREACHED if there is none within limit
+	 */
+	private int cost(int from, int to, int limit){
+		if(limit < 0 || _search.run(_graph, new int[]{from}, (cell, cost) -> cell == to || cost > limit) != to)
+			return UNREACHED;
+		return _search.costOf(to);
+	}
+}
@@ -0,0 +1,190 @@
+package edu.baseplan.floor;
+
+/**
+ * Planner over (cell, heading) states for robots that pay to rotate.
+ * <p>
+ * A state is a cell together with the Direction the robot faces, numbered
+ * cell * 8 + heading. Moving in a direction first turns the robot to face it,
+ * each 45 degree step costs turnCost, then it pays the power cost of the cell
+ * it lands on. The search runs backwards from the target, ordered by an A*
+ * estimate towards the robot, and is resumed rather than restarted while the
+ * target and doors stay the same (Reverse Resumable A*, Silver). A query only
+ * searches until the robot's state is closed, then follows the moves the
+ * search recorded, so replanning every tick along the way to one goal mostly
+ * finds its state already closed. A state's cost, search number and closed
+ * flag share one long and its next move is one byte. Use one planner per robot.
+ */
+class TurnAwarePlanner implements PathPlanner {
+
+	private static final long CLOSED = 1L << 63;
+	private static final int OVER_DOOR = 8;
+	private static final int UNSET = -1;
+
+	private final NavigationGrid _grid;
+	private final Heuristic _heuristic;
+	private final int _turnCost;
+	private final long[] _state;
+	private final byte[] _next;
+	private final IndexedMinHeap _open;
+	private long _search;
+	private int _source;
+	private int _target;
+	private long _doorVersion;
+	private int _expansions;
+
+	/**
+	 * Planner ordering its search with the OctileHeuristic
+	 * @param grid grid to plan on
+	 * @param turnCost cost of turning 45 degrees
+	 */
+	TurnAwarePlanner(NavigationGrid grid, int turnCost){
+		this(grid, new OctileHeuristic(grid), turnCost);
+	}
+
+	/**
+	 * @param grid grid to plan on
+	 * @param heuristic heuristic for grid that is consistent in its first argument
+	 * @param turnCost cost of turning 45 degrees
+	 */
+	TurnAwarePlanner(NavigationGrid grid, Heuristic heuristic, int turnCost){
+		if(turnCost < 0)
+			throw new IllegalArgumentException("turnCost can't be negative");
+		_grid = grid;
+		_heuristic = heuristic;
+		_turnCost = turnCost;
+		_state = new long[grid.getCellCount() * 8];
+		_next = new byte[grid.getCellCount() * 8];
+		_open = new IndexedMinHeap(grid.getCellCount() * 8);
+		_target = UNSET;
+	}
+
+	int getTurnCost(){
+		return _turnCost;
+	}
+
+	/**
+	 * Plans from source with the robot free to start in any heading
+	 */
+	@Override
+	public PlannedPath plan(int source, int target) {
+		return plan(source, -1, target);
+	}
+
+	/**
+	 * @param source dense index of the start cell
+	 * @param heading Direction ordinal the robot faces at source, -1 if any heading will do
+	 * @param target dense index of the goal cell
+	 * @return the path, with turns included in its cost, or null if target can't be reached
+	 */
+	PlannedPath plan(int source, int heading, int target) {
+		if(!_grid.isPassable(source) || !_grid.isPassable(target))
+			return null;
+		if(target != _target || _doorVersion != _grid.getDoorVersion())
+			restart(source, target);
+
+		_expansions = 0;
+		int start = heading >= 0 ? resume(source * 8 + heading, source * 8 + heading) : resume(source * 8, source * 8 + 7);
+		if(start < 0)
+			return null;
+		return new PlannedPath(tracePath(start), (int) _state[start], _expansions, _doorVersion);
+	}
+
+	/**
+	 * @return number of states closed by the last plan
+	 */
+	int getLastExpansions(){
+		return _expansions;
+	}
+
+	private void restart(int source, int target){
+		_open.clear();
+		_search++;
+		_source = source;
+		_target = target;
+		_doorVersion = _grid.getDoorVersion();
+		long reached = _search << 32;
+		for(int h=0; h<8; h++){
+			_state[target * 8 + h] = reached;
+			_next[target * 8 + h] = UNSET;
+			_open.insertOrUpdate(target * 8 + h, AStarPlanner.key(_heuristic.estimate(_source, target), 0));
+		}
+	}
+
+	/**
+	 * Continues the backward search until one of the states first to last is closed.
+	 * They share a cell and so their estimate, the first one closed is the cheapest.
+	 * @return the cheapest closed state, or -1 if none of them can reach the target
+	 */
+	private int resume(int first, int last){
+		int best = -1;
+		for(int state=first; state<=last; state++)
+			if(isClosed(state) && (best < 0 || (int) _state[state] < (int) _state[best]))
+				best = state;
+		if(best >= 0)
+			return best;
+
+		while(!_open.isEmpty()){
+			int state = _open.poll();
+			_state[state] |= CLOSED;
+			_expansions++;
+
+			// Predecessors face any heading, cell behind, or behind the door in between
+			int cell = state >> 3;
+			int direction = state & 7;
+			int cost = (int) _state[state] + _grid.getCost(cell);
+			for(int back=1; back<=2; back++){
+				int from = _grid.origin(cell, direction, back == 2);
+				if(from < 0)
+					continue;
+				int estimate = _heuristic.estimate(_source, from);
+				for(int h=0; h<8; h++){
+					int turns = Math.abs(direction - h);
+					int fromCost = cost + Math.min(turns, 8 - turns) * _turnCost;
+					int fromState = from * 8 + h;
+					long packed = _state[fromState];
+					if((packed >>> 32 & ~(CLOSED >>> 32)) != _search || (packed & CLOSED) == 0 && fromCost < (int) packed){
+						_state[fromState] = (_search << 32) | fromCost;
+						_next[fromState] = (byte) (direction | (back == 2 ? OVER_DOOR : 0));
+						_open.insertOrUpdate(fromState, AStarPlanner.key(fromCost + estimate, fromCost));
+					}
+				}
+			}
+			if(state >= first && state <= last)
+				return state;
+		}
+		return -1;
+	}
+
+	private boolean isClosed(int state){
+		long packed = _state[state];
+		return (packed & CLOSED) != 0 && (packed >>> 32 & ~(CLOSED >>> 32)) == _search;
+	}
+
+	/**
+	 * Cells along the recorded moves from state to the target
+	 */
+	private int[] tracePath(int state){
+		int length = 1;
+		for(int s=state; _next[s] != UNSET; s=following(s))
+			length++;
+		int[] cells = new int[length];
+		cells[0] = state >> 3;
+		for(int i=1; i<length; i++){
+			state = following(state);
+			cells[i] = state >> 3;
+		}
+		return cells;
+	}
+
+	/**
+	 * State the recorded move out of state leads to
+	 */
+	private int following(int state){
+		int direction = _next[state] & 7;
+		int step = (_next[state] & OVER_DOOR) != 0 ? 2 : 1;
+		int cell = state >> 3;
+		int x = _grid.xOf(cell) + NavigationGrid.DX[direction] * step;
+		int y = _grid.yOf(cell) + NavigationGrid.DY[direction] * step;
+		return _grid.indexOf(x, y) * 8 + direction;
+	}
+}
@@ -0,0 +1,80 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class AStarPlannerTest {
+
+	@Test
+	public void testMatchesDijkstraOnRandomFloors(){
+		for(long seed=1; seed<=5; seed++){
+			Floor floor = TestFloors.createRandomFloor(40, seed);
+			NavigationGrid grid = floor.getNavigationGrid();
+			AStarPlanner astar = new AStarPlanner(grid);
+			AStarPlanner dijkstra = new AStarPlanner(grid, Heuristic.ZERO);
+			Random random = new Random(seed);
+
+			for(int query=0; query<50; query++){
+				int source = random.nextInt(grid.getCellCount());
+				int target = random.nextInt(grid.getCellCount());
+				PlannedPath expected = dijkstra.plan(source, target);
+				PlannedPath actual = astar.plan(source, target);
+				if(expected == null){
+					assertNull(actual);
+					continue;
+				}
+				assertNotNull(actual);
+				assertEquals(expected.getCost(), actual.getCost());
+				TestFloors.assertValidPath(grid, actual, source, target);
+			}
+		}
+	}
+
+	@Test
+	public void testPrefersCheapCarpetAndUsesDoors(){
+		Floor floor = new Floor();
+		assertTrue(floor.createFloorPlan(new StringReader(
+				  "WWWWWWW\n"
+				+ "WBHHHBW\n"
+				+ "WBBBBBW\n"
+				+ "WWWDWWW\n"
+				+ "WBBBBCW\n"
+				+ "WWWWWWW\n")));
+		NavigationGrid grid = floor.getNavigationGrid();
+		AStarPlanner planner = new AStarPlanner(grid);
+
+		// Crossing the high pile row costs 3 per cell, the bare floor detour is cheaper
+		PlannedPath path = planner.plan(grid.indexOf(1, 1), grid.indexOf(1, 5));
+		assertEquals(4, path.getCost());
+		TestFloors.assertValidPath(grid, path, grid.indexOf(1, 1), grid.indexOf(1, 5));
+
+		floor.getDoor(0).close();
+		assertNull(planner.plan(grid.indexOf(1, 1), grid.indexOf(4, 3)));
+		floor.getDoor(0).open();
+		path = planner.plan(grid.indexOf(1, 1), grid.indexOf(4, 3));
+		assertNotNull(path);
+		TestFloors.assertValidPath(grid, path, grid.indexOf(1, 1), grid.indexOf(4, 3));
+
+		// The planned directions can be replayed through the proxy
+		FloorNavigationProxy proxy = new FloorNavigationProxy(floor);
+		Location location = new Location(floor.getCellAt(1, 1), Direction.NORTH);
+		List<Direction> directions = proxy.planPath(location, new Location(floor.getCellAt(4, 3), Direction.NORTH));
+		for(Direction direction : directions){
+			assertTrue(proxy.canMove(location, direction));
+			location = proxy.move(location, direction);
+		}
+		assertEquals(4, location.getLongitude());
+		assertEquals(3, location.getLatitude());
+
+		// So can the turning ones, starting from the robot's heading
+		directions = proxy.planPath(location, new Location(floor.getCellAt(1, 1), Direction.NORTH), 2);
+		for(Direction direction : directions)
+			location = proxy.move(location, direction);
+		assertEquals(1, location.getLongitude());
+		assertEquals(1, location.getLatitude());
+	}
+}
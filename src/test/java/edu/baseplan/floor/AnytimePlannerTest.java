@@ -0,0 +1,146 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AnytimePlannerTest {
+
+	@Test
+	public void testAnytimePlannerKeepsBoundAndConverges() throws Exception {
+		for(long seed=1; seed<=4; seed++){
+			Floor floor = seed % 2 == 0 ? TestFloors.createRandomFloor(40, seed) : TestFloors.createWarehouseFloor(120, seed);
+			NavigationGrid grid = floor.getNavigationGrid();
+			AStarPlanner astar = new AStarPlanner(grid);
+			AnytimePlanner anytime = new AnytimePlanner(grid);
+			Random random = new Random(seed);
+
+			for(int query=0; query<50; query++){
+				int source = random.nextInt(grid.getCellCount());
+				int target = random.nextInt(grid.getCellCount());
+				PlannedPath expected = astar.plan(source, target);
+				BoundedPath first = anytime.planWithin(source, target, 0);
+				if(first != null){
+					TestFloors.assertValidPath(grid, first, source, target);
+					assertTrue(first.getBound() >= 1.0 && first.getBound() <= AnytimePlanner.INITIAL_EPSILON);
+					assertTrue(first.getCost() <= first.getBound() * expected.getCost());
+				}
+
+				// More time continues the same search down to the optimal path
+				PlannedPath actual = anytime.plan(source, target);
+				if(expected == null){
+					assertNull(actual);
+					assertTrue(anytime.isFinished());
+					continue;
+				}
+				assertNotNull(actual);
+				assertEquals(expected.getCost(), actual.getCost());
+				assertTrue(((BoundedPath) actual).isOptimal());
+				TestFloors.assertValidPath(grid, actual, source, target);
+			}
+		}
+
+		Floor floor = TestFloors.createWarehouseFloor(200, 7);
+		NavigationGrid grid = floor.getNavigationGrid();
+		int source = grid.indexOf(1, 1);
+		int target = grid.indexOf(198, 198);
+		AnytimePlanner anytime = new AnytimePlanner(grid);
+		anytime.planWithin(source, target, 0);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try{
+			BoundedPath path = anytime.improveInBackground(executor).get();
+			assertTrue(path.isOptimal());
+			assertSame(path, anytime.getBestPath());
+			assertEquals(new AStarPlanner(grid).plan(source, target).getCost(), path.getCost());
+		}
+		finally{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testAnytimeWaitsForCancelledBackgroundImprovement() throws Exception{
+		Floor floor = TestFloors.createWarehouseFloor(200, 7);
+		NavigationGrid grid = floor.getNavigationGrid();
+		int source = grid.indexOf(1, 1);
+		int target = grid.indexOf(198, 198);
+		int optimal = new AStarPlanner(grid).plan(source, target).getCost();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try{
+			// Queued behind another task, the next query stops it before it starts
+			final CountDownLatch release = new CountDownLatch(1);
+			executor.execute(() -> {
+				try{
+					release.await();
+				}
+				catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+			});
+			AnytimePlanner anytime = new AnytimePlanner(grid);
+			anytime.planWithin(source, target, 0);
+			Future<BoundedPath> queued = anytime.improveInBackground(executor);
+			assertEquals(optimal, anytime.plan(source, target).getCost());
+			release.countDown();
+			queued.get();
+			assertEquals(optimal, anytime.getBestPath().getCost());
+			assertTrue(anytime.getBestPath().isOptimal());
+
+			// Cancelling the Future while the search runs must not let the next query start beside it
+			anytime = new AnytimePlanner(grid);
+			anytime.planWithin(source, target, 0);
+			Future<BoundedPath> running = anytime.improveInBackground(executor);
+			Thread.sleep(5);
+			running.cancel(false);
+			BoundedPath path = anytime.planWithin(source, target, TimeUnit.SECONDS.toNanos(60));
+			assertEquals(optimal, path.getCost());
+			assertTrue(path.isOptimal());
+			TestFloors.assertValidPath(grid, path, source, target);
+		}
+		finally{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testAnytimeReturnsCloseToTheDeadline() throws Exception {
+		Floor floor = TestFloors.createWarehouseFloor(300, 7);
+		NavigationGrid grid = floor.getNavigationGrid();
+		AnytimePlanner anytime = new AnytimePlanner(grid);
+		Random random = new Random(3);
+		long budget = TimeUnit.MILLISECONDS.toNanos(5);
+		long margin = TimeUnit.MILLISECONDS.toNanos(1);
+		List<Long> overruns = new ArrayList<Long>();
+		for(int query=0; query<60; query++){
+			int source;
+			int target;
+			do
+				source = grid.indexOf(1 + random.nextInt(20), 1 + random.nextInt(20));
+			while(!grid.isPassable(source));
+			do
+				target = grid.indexOf(298 - random.nextInt(20), 298 - random.nextInt(20));
+			while(!grid.isPassable(target));
+			// A CPU that is shared or throttled stalls a thread that never pauses
+			Thread.sleep(20);
+			long start = System.nanoTime();
+			anytime.planWithin(source, target, budget);
+			long overrun = System.nanoTime() - start - budget;
+			// The first queries warm up the compiler
+			if(query >= 20 && !anytime.isFinished())
+				overruns.add(overrun);
+		}
+		assertTrue(overruns.size() >= 20);
+		// A thread that is preempted can be late now and then, the search itself must not be
+		Collections.sort(overruns);
+		assertTrue(overruns.get(overruns.size() / 2) <= margin);
+	}
+}
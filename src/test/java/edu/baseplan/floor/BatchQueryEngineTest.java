@@ -0,0 +1,86 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+public class BatchQueryEngineTest {
+
+	@Test
+	public void testCostsMatchAStar(){
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try{
+			for(long seed=1; seed<=3; seed++){
+				Floor floor = seed == 2 ? TestFloors.createRandomFloor(60, seed) : TestFloors.createWarehouseFloor(150, seed);
+				NavigationGrid grid = floor.getNavigationGrid();
+				AStarPlanner astar = new AStarPlanner(grid);
+				BatchQueryEngine engine = new BatchQueryEngine(floor.getNavigationGraph(), pool);
+				Random random = new Random(seed);
+
+				// Robots asking for a few shared chargers and destinations, plus some one off queries
+				int[] robots = new int[40];
+				int[] destinations = new int[5];
+				for(int i=0; i<robots.length; i++)
+					robots[i] = random.nextInt(grid.getCellCount());
+				for(int i=0; i<destinations.length; i++)
+					destinations[i] = random.nextInt(grid.getCellCount());
+				int[] sources = new int[300];
+				int[] targets = new int[sources.length];
+				for(int q=0; q<sources.length; q++){
+					sources[q] = q < 200 ? robots[q % robots.length] : random.nextInt(grid.getCellCount());
+					targets[q] = q < 200 ? destinations[q % destinations.length] : random.nextInt(grid.getCellCount());
+				}
+
+				int[] costs = engine.costs(sources, targets);
+				assertTrue(engine.getLastGroupCount() < 120);
+				for(int q=0; q<sources.length; q++){
+					PlannedPath path = astar.plan(sources[q], targets[q]);
+					assertEquals(path == null ? BatchQueryEngine.UNREACHED : path.getCost(), costs[q]);
+				}
+			}
+		}
+		finally{
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testSearchesTowardsTargetsFollowDoors(){
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try{
+			Floor floor = TestFloors.createBuildingFloor(4, 4, 8, 3);
+			NavigationGrid grid = floor.getNavigationGrid();
+			AStarPlanner astar = new AStarPlanner(grid);
+			BatchQueryEngine engine = new BatchQueryEngine(floor.getNavigationGraph(), pool);
+			Random random = new Random(3);
+
+			// Many robots heading for one cell puts every query in the target's group
+			int[] sources = new int[60];
+			int[] targets = new int[sources.length];
+			for(int round=0; round<6; round++){
+				int target = random.nextInt(grid.getCellCount());
+				for(int q=0; q<sources.length; q++){
+					sources[q] = random.nextInt(grid.getCellCount());
+					targets[q] = target;
+				}
+				int[] costs = engine.costs(sources, targets);
+				for(int q=0; q<sources.length; q++){
+					PlannedPath path = astar.plan(sources[q], targets[q]);
+					assertEquals(path == null ? BatchQueryEngine.UNREACHED : path.getCost(), costs[q]);
+				}
+				for(int i=0; i<floor.getDoorCount(); i+=2){
+					DoorCell door = floor.getDoor(random.nextInt(floor.getDoorCount()));
+					if(door.isOpen())
+						door.close();
+					else
+						door.open();
+				}
+			}
+		}
+		finally{
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class ChargerDistanceFieldTest {
+
+	@Test
+	public void testCostsMatchPlannedPaths(){
+		Floor floor = TestFloors.createRandomFloor(30, 11);
+		NavigationGrid grid = floor.getNavigationGrid();
+		ChargerDistanceField field = floor.getChargerDistanceField();
+		AStarPlanner planner = new AStarPlanner(grid);
+		Random random = new Random(11);
+
+		for(int i=0; i<100; i++){
+			int cell = random.nextInt(grid.getCellCount());
+			int best = ChargerDistanceField.UNREACHABLE;
+			for(int s=0; s<floor.getChargingStationCount(); s++){
+				PlannedPath path = planner.plan(cell, floor.indexOf(floor.getChargingStation(s)));
+				if(path != null)
+					best = Math.min(best, path.getCost());
+			}
+			assertEquals(best, field.getCost(cell));
+			if(best != ChargerDistanceField.UNREACHABLE){
+				PlannedPath path = planner.plan(cell, floor.indexOf(floor.getChargingStation(field.getStation(cell))));
+				assertEquals(best, path.getCost());
+			}
+		}
+	}
+
+	@Test
+	public void testRepairMatchesRebuildAfterDoorChanges(){
+		Floor floor = TestFloors.createWarehouseFloor(80, 5);
+		NavigationGrid grid = floor.getNavigationGrid();
+		ChargerDistanceField field = floor.getChargerDistanceField();
+		Random random = new Random(5);
+
+		for(int change=0; change<30; change++){
+			DoorCell door = floor.getDoor(random.nextInt(floor.getDoorCount()));
+			if(door.isOpen())
+				door.close();
+			else
+				door.open();
+
+			field.refresh();
+			assertTrue(field.getLastRepairSize() < grid.getCellCount());
+			ChargerDistanceField rebuilt = new ChargerDistanceField(grid);
+			for(int cell=0; cell<grid.getCellCount(); cell++){
+				assertEquals(rebuilt.getCost(cell), field.getCost(cell));
+				int next = field.getNextCell(cell);
+				if(next >= 0){
+					assertEquals(next, grid.destination(cell, grid.directionOf(cell, next)));
+					assertEquals(field.getCost(cell), field.getCost(next) + grid.getCost(next));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CoveragePlannerTest {
+
+	@Test
+	public void testCoveragePlannerSweepsEveryReachableCell(){
+		// Rooms behind chained doors are only linked through the door the hop lands on
+		Floor[] floors = {TestFloors.createWarehouseFloor(120, 1), TestFloors.createBuildingFloor(4, 4, 15, 2), TestFloors.createRandomFloor(80, 3), TestFloors.createChainedDoorFloor()};
+		for(int i=0; i<floors[3].getDoorCount(); i++)
+			floors[3].getDoor(i).open();
+		for(Floor floor : floors){
+			NavigationGrid grid = floor.getNavigationGrid();
+			CoveragePlanner planner = new CoveragePlanner(floor.getRoomMap());
+			int start = grid.indexOf(1, 1);
+			PlannedPath path = planner.plan(start);
+			assertNotNull(path);
+			TestFloors.assertValidPath(grid, path, start, path.getTarget());
+
+			// Breadth first over the moves finds the open cells the route has to land on
+			boolean[] visited = new boolean[grid.getCellCount()];
+			for(int cell : path.getCells())
+				visited[cell] = true;
+			boolean[] reached = new boolean[grid.getCellCount()];
+			int[] queue = new int[grid.getCellCount()];
+			int tail = 0;
+			queue[tail++] = start;
+			reached[start] = true;
+			int covered = 0;
+			long lowerBound = -grid.getCost(start);
+			for(int head=0; head<tail; head++){
+				int cell = queue[head];
+				if(grid.getKind(cell) == NavigationGrid.OPEN){
+					assertTrue(visited[cell]);
+					covered++;
+					lowerBound += grid.getCost(cell);
+				}
+				for(int d=0; d<8; d++){
+					int next = grid.destination(cell, d);
+					if(next >= 0 && !reached[next]){
+						reached[next] = true;
+						queue[tail++] = next;
+					}
+				}
+			}
+			assertEquals(covered, planner.getLastCoveredCount());
+			assertEquals(lowerBound, planner.getLastLowerBound());
+			assertTrue(path.getCost() >= lowerBound);
+			// The tiny chained floor has to walk back through its doors
+			if(floor != floors[3])
+				assertTrue(path.getCost() * 4 <= lowerBound * 5);
+		}
+
+		// With every door closed only the start's room is swept
+		Floor floor = floors[1];
+		for(int i=0; i<floor.getDoorCount(); i++)
+			floor.getDoor(i).close();
+		NavigationGrid grid = floor.getNavigationGrid();
+		RoomMap rooms = floor.getRoomMap();
+		CoveragePlanner planner = new CoveragePlanner(rooms);
+		PlannedPath path = planner.plan(grid.indexOf(1, 1));
+		assertEquals(rooms.getRoomSize(rooms.roomOf(grid.indexOf(1, 1))), planner.getLastCoveredCount());
+		for(int cell : path.getCells())
+			assertEquals(rooms.roomOf(grid.indexOf(1, 1)), rooms.roomOf(cell));
+		assertNull(planner.plan(grid.indexOf(0, 0)));
+	}
+}
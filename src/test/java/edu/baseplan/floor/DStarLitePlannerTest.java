@@ -0,0 +1,71 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class DStarLitePlannerTest {
+
+	@Test
+	public void testDStarLiteFollowsDoorChanges(){
+		Floor floor = TestFloors.createWarehouseFloor(80, 7);
+		NavigationGrid grid = floor.getNavigationGrid();
+		DStarLitePlanner planner = new DStarLitePlanner(grid);
+		AStarPlanner astar = new AStarPlanner(grid);
+		Random random = new Random(7);
+
+		int robot = grid.indexOf(2, 2);
+		int goal = grid.indexOf(77, 77);
+		PlannedPath path = planner.plan(robot, goal);
+		int initialExpansions = planner.getLastExpansions();
+		long repairExpansions = 0;
+		int repairs = 0;
+		while(path != null && robot != goal){
+			// Move a few cells along the path, then flip a door and plan again
+			robot = path.getCells()[Math.min(4, path.getMoveCount())];
+			DoorCell door = floor.getDoor(random.nextInt(floor.getDoorCount()));
+			if(door.isOpen())
+				door.close();
+			else
+				door.open();
+
+			path = planner.plan(robot, goal);
+			PlannedPath expected = astar.plan(robot, goal);
+			if(expected == null){
+				assertNull(path);
+				break;
+			}
+			assertNotNull(path);
+			TestFloors.assertValidPath(grid, path, robot, goal);
+			assertEquals(expected.getCost(), path.getCost());
+			repairExpansions += planner.getLastExpansions();
+			repairs++;
+		}
+		assertTrue(repairs > 5);
+		assertTrue(repairExpansions / repairs < initialExpansions);
+	}
+
+	@Test
+	public void testDStarLiteWalksZeroCostCellsToTheGoal(){
+		// Free chargers next to each other tie for the cheapest step without getting closer
+		Floor floor = TestFloors.createRandomFloor(40, 9);
+		NavigationGrid grid = floor.getNavigationGrid();
+		AStarPlanner astar = new AStarPlanner(grid);
+		Random random = new Random(1);
+		for(int query=0; query<40; query++){
+			int source = random.nextInt(grid.getCellCount());
+			int target = random.nextInt(grid.getCellCount());
+			if(!grid.isPassable(source) || !grid.isPassable(target))
+				continue;
+			PlannedPath expected = astar.plan(source, target);
+			PlannedPath actual = new DStarLitePlanner(grid).plan(source, target);
+			if(expected == null){
+				assertNull(actual);
+				continue;
+			}
+			TestFloors.assertValidPath(grid, actual, source, target);
+			assertEquals(expected.getCost(), actual.getCost());
+		}
+	}
+}
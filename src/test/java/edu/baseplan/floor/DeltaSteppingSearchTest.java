@@ -0,0 +1,38 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+public class DeltaSteppingSearchTest {
+
+	@Test
+	public void testCostsMatchDijkstra(){
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try{
+			for(long seed=1; seed<=3; seed++){
+				Floor floor = seed == 2 ? TestFloors.createRandomFloor(60, seed) : TestFloors.createWarehouseFloor(150, seed);
+				NavigationGrid grid = floor.getNavigationGrid();
+				AStarPlanner dijkstra = new AStarPlanner(grid, Heuristic.ZERO);
+				Random random = new Random(seed);
+
+				for(int delta : new int[] {1, 3, 8}){
+					DeltaSteppingSearch search = new DeltaSteppingSearch(floor.getNavigationGraph(), delta, pool);
+					int source = floor.indexOf(floor.getChargingStation(0));
+					int[] costs = search.costsFrom(source);
+					assertEquals(0, costs[source]);
+					for(int query=0; query<100; query++){
+						int target = random.nextInt(grid.getCellCount());
+						PlannedPath path = dijkstra.plan(source, target);
+						assertEquals(path == null ? DeltaSteppingSearch.UNREACHED : path.getCost(), costs[target]);
+					}
+				}
+			}
+		}
+		finally{
+			pool.shutdown();
+		}
+	}
+}
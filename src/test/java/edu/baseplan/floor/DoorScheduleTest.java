@@ -0,0 +1,118 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class DoorScheduleTest {
+
+	@Test
+	public void testIntervalsMerge(){
+		Floor floor = TestFloors.createBuildingFloor(2, 1, 5, 1);
+		DoorSchedule schedule = new DoorSchedule(floor);
+		assertFalse(schedule.isScheduled(0));
+		assertEquals(7, schedule.nextOpenTime(0, 7));
+
+		schedule.addOpenInterval(0, 20, 30);
+		schedule.addOpenInterval(0, 5, 10);
+		schedule.addOpenInterval(0, 10, 12);
+		assertTrue(schedule.isScheduled(0));
+		assertEquals(5, schedule.nextOpenTime(0, 0));
+		assertEquals(11, schedule.nextOpenTime(0, 11));
+		assertEquals(20, schedule.nextOpenTime(0, 12));
+		assertEquals(DoorSchedule.NEVER, schedule.nextOpenTime(0, 30));
+
+		schedule.applyTo(15);
+		assertFalse(floor.getDoor(0).isOpen());
+		schedule.applyTo(25);
+		assertTrue(floor.getDoor(0).isOpen());
+	}
+
+	@Test
+	public void testMatchesTimeExpandedSearch(){
+		for(long seed=1; seed<=4; seed++){
+			Floor floor = TestFloors.createBuildingFloor(3, 3, 4, seed);
+			NavigationGrid grid = floor.getNavigationGrid();
+			DoorSchedule schedule = new DoorSchedule(floor);
+			Random random = new Random(seed);
+			for(int door=0; door<floor.getDoorCount(); door++){
+				for(long start=random.nextInt(10); start<60; start+=5 + random.nextInt(15))
+					schedule.addOpenInterval(door, start, start + 1 + random.nextInt(4));
+			}
+			TimeDependentPlanner planner = new TimeDependentPlanner(grid, schedule);
+
+			for(int query=0; query<40; query++){
+				int source = random.nextInt(grid.getCellCount());
+				int target = random.nextInt(grid.getCellCount());
+				if(grid.getKind(source) != NavigationGrid.OPEN)
+					continue;
+				long start = random.nextInt(10);
+				long[] expected = timeExpandedSearch(grid, schedule, source, start, target, 200);
+				ScheduledPath path = planner.plan(source, start, target);
+				if(expected == null){
+					assertNull(path);
+					continue;
+				}
+				assertNotNull(path);
+				assertEquals(expected[0], path.getCost());
+				assertEquals(expected[1], path.getArrivalTime());
+
+				// Every door hopped is open when the move starts
+				int[] cells = path.getCells();
+				long[] departures = path.getDepartures();
+				for(int i=1; i<cells.length; i++){
+					assertTrue(departures[i - 1] >= (i == 1 ? start : departures[i - 2] + 1));
+					if(grid.distance(cells[i - 1], cells[i]) > 1){
+						int door = 0;
+						while(floor.indexOf(floor.getDoor(door)) != (cells[i - 1] + cells[i]) / 2)
+							door++;
+						assertTrue(schedule.isOpenAt(door, departures[i - 1]));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Dijkstra over one state per cell and tick up to horizon, ordered by cost and then time
+	 * @return cost and arrival tick, or null if target can't be reached before horizon
+	 */
+	private static long[] timeExpandedSearch(NavigationGrid grid, DoorSchedule schedule, int source, long start, int target, int horizon){
+		long[] best = new long[grid.getCellCount() * horizon];
+		Arrays.fill(best, Long.MAX_VALUE);
+		IndexedMinHeap open = new IndexedMinHeap(best.length);
+		int first = source * horizon + (int) start;
+		best[first] = start;
+		open.insertOrUpdate(first, start);
+		while(!open.isEmpty()){
+			int state = open.poll();
+			int cell = state / horizon;
+			int time = state % horizon;
+			long cost = best[state] >> 32;
+			if(cell == target)
+				return new long[] {cost, time};
+			if(time + 1 >= horizon)
+				continue;
+			for(int d=-1; d<8; d++){
+				int next;
+				if(d < 0)
+					next = grid.getKind(cell) == NavigationGrid.DOOR ? -1 : cell;
+				else{
+					schedule.applyTo(time);
+					next = grid.destination(cell, d);
+				}
+				if(next < 0)
+					continue;
+				int nextState = next * horizon + time + 1;
+				long key = ((cost + (d < 0 ? 0 : grid.getCost(next))) << 32) | (time + 1);
+				if(key < best[nextState]){
+					best[nextState] = key;
+					open.insertOrUpdate(nextState, key);
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,119 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class DoorStateVersionTest {
+
+	private static Floor createTwoDoorFloor(){
+		Floor floor = new Floor();
+		assertTrue(floor.createFloorPlan(new StringReader(
+				  "WWWWWW\n"
+				+ "WCBBBW\n"
+				+ "WWDWWW\n"
+				+ "WBBBBW\n"
+				+ "WWWDWW\n"
+				+ "WBBBBW\n"
+				+ "WWWWWW\n")));
+		assertEquals(2, floor.getDoorCount());
+		for(int i=0; i<floor.getDoorCount(); i++)
+			floor.getDoor(i).open();
+		return floor;
+	}
+
+	@Test
+	public void testVersionCountsRealChanges(){
+		Floor floor = createTwoDoorFloor();
+		DoorCell door = floor.getDoor(0);
+		long version = floor.getDoorVersion();
+
+		// Opening an open door changes nothing
+		door.open();
+		assertEquals(version, floor.getDoorVersion());
+
+		door.close();
+		assertEquals(version + 1, floor.getDoorVersion());
+		assertEquals(version + 1, door.getChangedAtVersion());
+		door.close();
+		assertEquals(version + 1, floor.getDoorVersion());
+
+		floor.getDoor(1).close();
+		assertEquals(version + 2, floor.getDoorVersion());
+		assertEquals(version + 1, door.getChangedAtVersion());
+		assertEquals(version + 2, floor.getDoor(1).getChangedAtVersion());
+	}
+
+	@Test
+	public void testOptimisticReadFailsAcrossAChange(){
+		DoorStateVersion version = new DoorStateVersion();
+		long stamp = version.beginRead();
+		assertTrue(version.validate(stamp));
+
+		long write = version.beginUpdate();
+		assertFalse(version.validate(version.beginRead()));
+		assertEquals(1, version.nextVersion());
+		assertEquals(1, version.endUpdate(write, true));
+		assertFalse(version.validate(stamp));
+		assertEquals(1, version.getVersion());
+
+		// An update that changes nothing keeps the version but still fails earlier stamps
+		stamp = version.beginRead();
+		assertEquals(1, version.endUpdate(version.beginUpdate(), false));
+		assertFalse(version.validate(stamp));
+	}
+
+	@Test
+	public void testDoorVersionIsVisibleWithFloorVersion() throws InterruptedException{
+		final Floor floor = createTwoDoorFloor();
+		final DoorCell door = floor.getDoor(0);
+		door.close();
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread writer = new Thread(() -> {
+			for(int i=0; i<5000; i++){
+				if(door.isOpen())
+					door.close();
+				else
+					door.open();
+			}
+			done.set(true);
+		});
+		writer.start();
+
+		// Only this door changes, so it changed at the latest version a reader has seen
+		while(!done.get()){
+			long version = floor.getDoorVersion();
+			assertTrue(door.getChangedAtVersion() >= version);
+		}
+		writer.join();
+	}
+
+	@Test
+	public void testReadDoorStatesIsConsistent() throws InterruptedException{
+		final Floor floor = createTwoDoorFloor();
+		final long base = floor.getDoorVersion();
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread writer = new Thread(() -> {
+			// Both doors flip in turn, they agree exactly at even versions
+			for(int i=0; i<5000; i++){
+				if(floor.getDoor(i % 2).isOpen())
+					floor.getDoor(i % 2).close();
+				else
+					floor.getDoor(i % 2).open();
+			}
+			done.set(true);
+		});
+		writer.start();
+
+		boolean[] open = new boolean[floor.getDoorCount()];
+		while(!done.get()){
+			long version = floor.readDoorStates(open);
+			assertEquals((version - base) % 2 == 0, open[0] == open[1]);
+		}
+		writer.join();
+		assertEquals(base + 5000, floor.readDoorStates(open));
+		assertTrue(open[0] && open[1]);
+	}
+}
@@ -0,0 +1,151 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.junit.Test;
+
+public class FleetRunnerTest {
+
+	/**
+	 * Moves in the first direction it can, round and round
+	 */
+	private static class Wanderer implements RobotController {
+		private int _turn;
+
+		@Override
+		public Location step(FloorNavigationProxy proxy, Location location){
+			for(int i=0; i<8; i++){
+				Direction direction = Direction.values()[(_turn++) % 8];
+				if(proxy.canMove(location, direction))
+					return proxy.move(location, direction);
+			}
+			return location;
+		}
+	}
+
+	@Test
+	public void testStartStopAndMetrics() throws InterruptedException{
+		FleetRunner fleet = new FleetRunner(TestFloors.createDirtyFloor(20));
+		for(int i=0; i<4; i++)
+			fleet.addRobot(new Wanderer());
+		assertEquals(4, fleet.getRobotCount());
+		assertEquals(0, fleet.getMetrics().getElapsedNanos());
+
+		fleet.start();
+		try{
+			fleet.addRobot(new Wanderer());
+			fail("robots can't join a running fleet");
+		}
+		catch(IllegalStateException e){
+			// expected
+		}
+		Thread.sleep(100);
+		fleet.stop();
+
+		FleetMetrics metrics = fleet.getMetrics();
+		assertEquals(4, metrics.getRobotCount());
+		assertTrue(metrics.getSteps() > 0);
+		assertTrue(metrics.getMoves() > 0);
+		assertTrue(metrics.getMoves() <= metrics.getSteps());
+		assertTrue(metrics.getElapsedNanos() > 0);
+		assertEquals(metrics.getMoves() * 1e9 / metrics.getElapsedNanos(), metrics.getMovesPerSecond(), 1e-6);
+
+		// Nothing runs after stop, and stopping again does nothing
+		long steps = metrics.getSteps();
+		Thread.sleep(20);
+		assertEquals(steps, fleet.getMetrics().getSteps());
+		fleet.stop();
+	}
+
+	@Test
+	public void testRobotsNeverShareACell() throws InterruptedException{
+		// One charging station, far more robots than it can hold
+		final Floor floor = TestFloors.createDirtyFloor(9);
+		assertEquals(1, floor.getChargingStationCount());
+		final int robots = 12;
+		final AtomicIntegerArray occupants = new AtomicIntegerArray(floor.getSizeX() * floor.getSizeY());
+		final AtomicInteger shared = new AtomicInteger();
+		final AtomicLongArray steps = new AtomicLongArray(robots);
+
+		FleetRunner fleet = new FleetRunner(floor);
+		fleet.enableCollisionAvoidance();
+		for(int i=0; i<robots; i++){
+			final int robot = i;
+			fleet.addRobot(new RobotController() {
+				private final Random _random = new Random(robot);
+				private boolean _placed;
+
+				@Override
+				public Location step(FloorNavigationProxy proxy, Location location){
+					int cell = floor.indexOf(location.getLongitude(), location.getLatitude());
+					if(!_placed){
+						_placed = true;
+						if(occupants.incrementAndGet(cell) != 1)
+							shared.incrementAndGet();
+					}
+					steps.incrementAndGet(robot);
+					Direction direction = Direction.values()[_random.nextInt(8)];
+					if(!proxy.canMove(location, direction))
+						return location;
+
+					// The robot still holds its cell, so nobody else can count it here until move releases it
+					occupants.decrementAndGet(cell);
+					Location next = proxy.move(location, direction);
+					if(occupants.incrementAndGet(floor.indexOf(next.getLongitude(), next.getLatitude())) != 1)
+						shared.incrementAndGet();
+					return next;
+				}
+			});
+		}
+		fleet.start();
+		Thread.sleep(300);
+		long[] before = new long[robots];
+		for(int i=0; i<robots; i++)
+			before[i] = steps.get(i);
+		Thread.sleep(300);
+		fleet.stop();
+
+		assertEquals(0, shared.get());
+		assertTrue(fleet.getMetrics().getMoves() > 0);
+		// Lost races leave a robot where it was rather than stopping it
+		for(int i=0; i<robots; i++)
+			assertTrue(steps.get(i) > before[i]);
+	}
+
+	@Test
+	public void testMetricsWithoutElapsedTime(){
+		FleetMetrics metrics = new FleetMetrics(3, 10, 12, 0);
+		assertEquals(0, metrics.getMovesPerSecond(), 0);
+		assertEquals(5, new FleetMetrics(3, 10, 12, 2000000000L).getMovesPerSecond(), 1e-9);
+	}
+
+	@Test
+	public void testStopInterruptsRobotsBlockedInStep() throws InterruptedException{
+		final CountDownLatch blocked = new CountDownLatch(1);
+		FleetRunner fleet = new FleetRunner(TestFloors.createDirtyFloor(10));
+		fleet.setStopTimeout(100);
+		fleet.addRobot((proxy, location) -> {
+			blocked.countDown();
+			try{
+				Thread.sleep(TimeUnit.MINUTES.toMillis(10));
+			}
+			catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			return location;
+		});
+		fleet.start();
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+		long start = System.nanoTime();
+		fleet.stop();
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		assertEquals(1, fleet.getMetrics().getSteps());
+	}
+}
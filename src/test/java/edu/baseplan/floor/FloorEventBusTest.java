@@ -0,0 +1,83 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class FloorEventBusTest {
+
+	@Test
+	public void testDirtAndDoorChangesAreDelivered() throws InterruptedException{
+		Floor floor = new Floor();
+		assertTrue(floor.createFloorPlan(new StringReader("WWWWW\nWCBBW\nWWDWW\nWBBBW\nWWWWW\n")));
+
+		DoorCell door = floor.getDoor(0);
+		door.close();
+		final List<Long> received = new ArrayList<Long>();
+		floor.addChangeListener(new FloorChangeListener() {
+			@Override
+			public void onFloorChanges(long[] events, int count) {
+				synchronized(received){
+					for(int i=0; i<count; i++)
+						received.add(events[i]);
+				}
+			}
+		});
+
+		AbstractCell bare = floor.getCellAt(1, 2);
+		bare._dirt = 2;
+		bare.getDirt();
+		bare.getDirt();
+		door.open();
+		door.close();
+		floor.getEventBus().shutdown();
+
+		assertEquals(4, received.size());
+		assertEquals(FloorEventBus.DIRT_REMOVED, FloorEventBus.typeOf(received.get(0)));
+		assertEquals(1, FloorEventBus.valueOf(received.get(0)));
+		assertEquals(FloorEventBus.CELL_CLEANED, FloorEventBus.typeOf(received.get(1)));
+		assertEquals(floor.indexOf(bare), FloorEventBus.cellOf(received.get(1)));
+		assertEquals(FloorEventBus.DOOR_OPENED, FloorEventBus.typeOf(received.get(2)));
+		assertEquals(FloorEventBus.DOOR_CLOSED, FloorEventBus.typeOf(received.get(3)));
+		assertEquals(floor.indexOf(door), FloorEventBus.cellOf(received.get(3)));
+		assertEquals(floor.getDoorVersion(), FloorEventBus.valueOf(received.get(3)));
+	}
+
+	@Test
+	public void testFullRingDropsInsteadOfBlocking() throws InterruptedException{
+		FloorEventBus bus = new FloorEventBus(8, 4);
+		bus.setSizeY(10);
+		final Object gate = new Object();
+		final boolean[] release = {false};
+		bus.addListener(new FloorChangeListener() {
+			@Override
+			public void onFloorChanges(long[] events, int count) {
+				synchronized(gate){
+					while(!release[0]){
+						try{
+							gate.wait();
+						}
+						catch(InterruptedException e){
+							return;
+						}
+					}
+				}
+			}
+		});
+
+		// The listener is stuck, so the ring fills up and later events are dropped
+		for(int i=0; i<100; i++)
+			bus.record(FloorEventBus.DIRT_REMOVED, 1, i % 10, 0);
+		assertTrue(bus.getDroppedCount() > 0);
+		assertEquals(100, bus.getDroppedCount() + bus.getRecordedCount());
+
+		synchronized(gate){
+			release[0] = true;
+			gate.notifyAll();
+		}
+		bus.shutdown();
+	}
+}
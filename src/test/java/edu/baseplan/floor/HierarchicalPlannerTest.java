@@ -0,0 +1,112 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class HierarchicalPlannerTest {
+
+	@Test
+	public void testHierarchicalPlannerStaysInRouteRooms(){
+		Floor floor = TestFloors.createBuildingFloor(8, 8, 9, 3);
+		NavigationGrid grid = floor.getNavigationGrid();
+		PortalGraph graph = floor.getPortalGraph();
+		HierarchicalPlanner planner = new HierarchicalPlanner(graph);
+		AStarPlanner astar = new AStarPlanner(grid);
+		Random random = new Random(3);
+
+		for(int query=0; query<60; query++){
+			if(query % 10 == 0){
+				DoorCell door = floor.getDoor(random.nextInt(floor.getDoorCount()));
+				if(door.isOpen())
+					door.close();
+				else
+					door.open();
+			}
+			int source = grid.indexOf(1 + random.nextInt(9), 1 + random.nextInt(9));
+			int target = grid.indexOf(grid.getSizeX() - 2 - random.nextInt(9), grid.getSizeY() - 2 - random.nextInt(9));
+			PlannedPath expected = astar.plan(source, target);
+			PlannedPath actual = planner.plan(source, target);
+			if(expected == null){
+				assertNull(actual);
+				continue;
+			}
+			assertNotNull(actual);
+			TestFloors.assertValidPath(grid, actual, source, target);
+			assertTrue(actual.getCost() <= expected.getCost() * 11 / 10);
+			// Corner to corner of an 8x8 building, the search should stay in a thin corridor of rooms
+			assertTrue(actual.getExpansions() < grid.getCellCount() / 4);
+		}
+	}
+
+	@Test
+	public void testHierarchicalPlannerCrossesChainedDoors(){
+		// The left rooms of this floor are joined by two doors in a row, a hop over one lands on the other
+		Floor chained = TestFloors.createChainedDoorFloor();
+		for(int i=0; i<chained.getDoorCount(); i++)
+			chained.getDoor(i).open();
+		RoomMap rooms = chained.getRoomMap();
+		PortalGraph graph = chained.getPortalGraph();
+		int top = rooms.roomOf(2, 2);
+		boolean portal = false;
+		for(int exit=graph.getExitStart(top); exit<graph.getExitEnd(top); exit++)
+			portal |= graph.getPortalRoom(graph.getExit(exit)) == rooms.roomOf(5, 2);
+		assertTrue(portal);
+
+		Floor[] floors = {chained, TestFloors.createRandomFloor(30, 8)};
+		for(Floor floor : floors){
+			NavigationGrid grid = floor.getNavigationGrid();
+			HierarchicalPlanner planner = new HierarchicalPlanner(floor.getPortalGraph());
+			AStarPlanner astar = new AStarPlanner(grid);
+			Random random = new Random(8);
+			for(int query=0; query<200; query++){
+				int source = random.nextInt(grid.getCellCount());
+				int target = random.nextInt(grid.getCellCount());
+				PlannedPath expected = astar.plan(source, target);
+				PlannedPath actual = planner.plan(source, target);
+				if(expected == null){
+					assertNull(actual);
+					continue;
+				}
+				assertNotNull(actual);
+				TestFloors.assertValidPath(grid, actual, source, target);
+				assertTrue(actual.getCost() <= expected.getCost() * 11 / 10);
+			}
+		}
+	}
+
+	@Test
+	public void testHierarchicalPlannerAgreesOnUnreachableQueries(){
+		// Half the doors closed, and queries that start or end on doors
+		Floor[] floors = {TestFloors.createBuildingFloor(6, 6, 8, 4), TestFloors.createRandomFloor(30, 9), TestFloors.createChainedDoorFloor()};
+		for(Floor floor : floors){
+			for(int i=0; i<floor.getDoorCount(); i++){
+				if(i % 2 == 0)
+					floor.getDoor(i).close();
+				else
+					floor.getDoor(i).open();
+			}
+			NavigationGrid grid = floor.getNavigationGrid();
+			HierarchicalPlanner planner = new HierarchicalPlanner(floor.getPortalGraph());
+			AStarPlanner astar = new AStarPlanner(grid);
+			int[] doors = grid.getDoorCells();
+			Random random = new Random(4);
+			int unreachable = 0;
+			for(int query=0; query<300; query++){
+				int source = query % 3 == 1 && doors.length > 0 ? doors[random.nextInt(doors.length)] : random.nextInt(grid.getCellCount());
+				int target = query % 3 == 2 && doors.length > 0 ? doors[random.nextInt(doors.length)] : random.nextInt(grid.getCellCount());
+				PlannedPath expected = astar.plan(source, target);
+				PlannedPath actual = planner.plan(source, target);
+				if(expected == null){
+					assertNull(actual);
+					unreachable++;
+					continue;
+				}
+				assertNotNull(actual);
+				TestFloors.assertValidPath(grid, actual, source, target);
+			}
+			assertTrue(unreachable > 0);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class JumpPointPlannerTest {
+
+	@Test
+	public void testJumpPointSearchMatchesAStar(){
+		for(long seed=1; seed<=5; seed++){
+			Floor floor = seed == 5 ? TestFloors.createBuildingFloor(4, 4, 30, 2)
+					: seed % 2 == 0 ? TestFloors.createRandomFloor(40, seed) : TestFloors.createWarehouseFloor(120, seed);
+			NavigationGrid grid = floor.getNavigationGrid();
+			AStarPlanner astar = new AStarPlanner(grid);
+			JumpPointPlanner jps = new JumpPointPlanner(grid);
+			// Floor types change from cell to cell on the random floors, jumps can't help there
+			assertEquals(seed % 2 == 0, jps.isFallingBack());
+			Random random = new Random(seed);
+			long astarExpansions = 0;
+			long jpsExpansions = 0;
+
+			for(int query=0; query<100; query++){
+				int source = random.nextInt(grid.getCellCount());
+				int target = random.nextInt(grid.getCellCount());
+				PlannedPath expected = astar.plan(source, target);
+				PlannedPath actual = jps.plan(source, target);
+				if(expected == null){
+					assertNull(actual);
+					continue;
+				}
+				assertNotNull(actual);
+				assertEquals(expected.getCost(), actual.getCost());
+				TestFloors.assertValidPath(grid, actual, source, target);
+				astarExpansions += expected.getExpansions();
+				jpsExpansions += actual.getExpansions();
+			}
+			// An order of magnitude fewer expansions on large rooms of one floor type each.
+			// Carpet patches inside a room make their edges boundary cells, the warehouse
+			// floors only reach about 5x and are checked for costs alone.
+			if(seed == 5)
+				assertTrue(jpsExpansions * 10 < astarExpansions);
+			else if(seed % 2 == 0)
+				assertEquals(astarExpansions, jpsExpansions);
+		}
+	}
+}
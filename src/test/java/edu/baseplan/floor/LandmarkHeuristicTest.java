@@ -0,0 +1,69 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class LandmarkHeuristicTest {
+
+	@Test
+	public void testLandmarksMatchAStarWithFewerExpansions() throws InterruptedException{
+		String [] floorPlanFiles = {"TEST_A.cft", "TEST_B.cft", "TEST_C.cft", "TEST_D.cft", "TEST_E.cft"};
+		for(String file : floorPlanFiles){
+			Floor floor = new Floor();
+			assertTrue(floor.createFloorPlanFromFile(file));
+			for(int i=0; i<floor.getDoorCount(); i++)
+				floor.getDoor(i).open();
+			assertLandmarksMatchAStar(floor, 1);
+		}
+
+		Floor floor = TestFloors.createBuildingFloor(12, 12, 9, 5);
+		long[] expansions = assertLandmarksMatchAStar(floor, 5);
+		assertTrue(expansions[1] * 2 < expansions[0]);
+
+		// Tables follow the doors, queries made before the new tables are ready stay exact
+		LandmarkHeuristic landmarks = floor.getLandmarkHeuristic();
+		for(int i=0; i<floor.getDoorCount(); i+=2)
+			floor.getDoor(i).close();
+		assertFalse(landmarks.isCurrent());
+		assertLandmarksMatchAStar(floor, 6);
+		landmarks.awaitRebuild();
+		assertTrue(landmarks.isCurrent());
+		expansions = assertLandmarksMatchAStar(floor, 7);
+		assertTrue(expansions[1] * 2 < expansions[0]);
+
+		// A door that opens makes the old tables overestimate, they must not be used
+		for(int i=0; i<floor.getDoorCount(); i+=2)
+			floor.getDoor(i).open();
+		assertLandmarksMatchAStar(floor, 8);
+		landmarks.awaitRebuild();
+	}
+
+	/**
+	 * @return total expansions of plain A* and of A* with landmarks
+	 */
+	private static long[] assertLandmarksMatchAStar(Floor floor, long seed){
+		NavigationGrid grid = floor.getNavigationGrid();
+		AStarPlanner astar = new AStarPlanner(grid);
+		AStarPlanner alt = new AStarPlanner(grid, floor.getLandmarkHeuristic());
+		Random random = new Random(seed);
+		long[] expansions = new long[2];
+		for(int query=0; query<100; query++){
+			int source = random.nextInt(grid.getCellCount());
+			int target = random.nextInt(grid.getCellCount());
+			PlannedPath expected = astar.plan(source, target);
+			PlannedPath actual = alt.plan(source, target);
+			if(expected == null){
+				assertNull(actual);
+				continue;
+			}
+			assertNotNull(actual);
+			assertEquals(expected.getCost(), actual.getCost());
+			TestFloors.assertValidPath(grid, actual, source, target);
+			expansions[0] += expected.getExpansions();
+			expansions[1] += actual.getExpansions();
+		}
+		return expansions;
+	}
+}
@@ -0,0 +1,72 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class NavigationGraphTest {
+
+	/**
+	 * Checks that graph has exactly the moves NavigationGrid.destination allows
+	 */
+	private static void assertMatchesGrid(NavigationGrid grid, NavigationGraph graph){
+		assertEquals(grid.getCellCount(), graph.getCellCount());
+		for(int cell=0; cell<grid.getCellCount(); cell++){
+			int edge = graph.getEdgeStart(cell);
+			for(int d=0; d<8; d++){
+				int next = grid.isPassable(cell) ? grid.destination(cell, d) : -1;
+				if(next < 0)
+					continue;
+				assertTrue(edge < graph.getEdgeEnd(cell));
+				assertEquals(next, graph.getEdgeTarget(edge));
+				assertEquals(d, graph.getEdgeDirection(edge));
+				assertEquals(grid.getCost(next), graph.getEdgeWeight(edge));
+				edge++;
+			}
+			assertEquals(graph.getEdgeEnd(cell), edge);
+		}
+	}
+
+	@Test
+	public void testRefreshMatchesRebuildAfterDoorChanges(){
+		Floor floor = TestFloors.createWarehouseFloor(60, 9);
+		NavigationGrid grid = floor.getNavigationGrid();
+		NavigationGraph graph = floor.getNavigationGraph();
+		assertMatchesGrid(grid, graph);
+		assertSame(graph, floor.getNavigationGraph());
+		Random random = new Random(9);
+
+		for(int change=0; change<20; change++){
+			for(int i=random.nextInt(3); i>=0; i--){
+				DoorCell door = floor.getDoor(random.nextInt(floor.getDoorCount()));
+				if(door.isOpen())
+					door.close();
+				else
+					door.open();
+			}
+			NavigationGraph refreshed = floor.getNavigationGraph();
+			assertNotSame(graph, refreshed);
+			assertEquals(floor.getDoorVersion(), refreshed.getDoorVersion());
+			assertMatchesGrid(grid, refreshed);
+			graph = refreshed;
+		}
+	}
+
+	@Test
+	public void testTransposeReversesEveryEdge(){
+		Floor floor = TestFloors.createRandomFloor(30, 4);
+		NavigationGraph graph = floor.getNavigationGraph();
+		NavigationGraph reverse = graph.transpose();
+		assertEquals(graph.getEdgeCount(), reverse.getEdgeCount());
+		for(int cell=0; cell<graph.getCellCount(); cell++){
+			for(int edge=reverse.getEdgeStart(cell); edge<reverse.getEdgeEnd(cell); edge++){
+				int from = reverse.getEdgeTarget(edge);
+				boolean found = false;
+				for(int e=graph.getEdgeStart(from); e<graph.getEdgeEnd(from); e++)
+					found |= graph.getEdgeTarget(e) == cell && graph.getEdgeDirection(e) == reverse.getEdgeDirection(edge);
+				assertTrue(found);
+			}
+		}
+	}
+}
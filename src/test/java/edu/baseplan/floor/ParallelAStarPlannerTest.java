@@ -0,0 +1,46 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+public class ParallelAStarPlannerTest {
+
+	@Test
+	public void testMatchesAStar(){
+		for(int workers : new int[] {1, 4}){
+			ForkJoinPool pool = new ForkJoinPool(workers);
+			try{
+				for(long seed=1; seed<=3; seed++){
+					Floor floor = seed == 2 ? TestFloors.createRandomFloor(60, seed) : TestFloors.createWarehouseFloor(150, seed);
+					NavigationGrid grid = floor.getNavigationGrid();
+					AStarPlanner astar = new AStarPlanner(grid);
+					ParallelAStarPlanner parallel = new ParallelAStarPlanner(floor.getNavigationGraph(), new OctileHeuristic(grid), pool);
+					assertEquals(workers, parallel.getWorkerCount());
+					Random random = new Random(seed);
+
+					for(int query=0; query<50; query++){
+						int source = random.nextInt(grid.getCellCount());
+						int target = random.nextInt(grid.getCellCount());
+						PlannedPath expected = astar.plan(source, target);
+						PlannedPath actual = parallel.plan(source, target);
+						if(expected == null){
+							assertNull(actual);
+							continue;
+						}
+						assertNotNull(actual);
+						assertEquals(expected.getCost(), actual.getCost());
+						TestFloors.assertValidPath(grid, actual, source, target);
+						if(workers == 1)
+							assertEquals(0, parallel.getLastMessages());
+					}
+				}
+			}
+			finally{
+				pool.shutdown();
+			}
+		}
+	}
+}
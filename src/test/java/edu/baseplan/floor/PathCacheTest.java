@@ -0,0 +1,102 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import org.junit.Test;
+
+public class PathCacheTest {
+
+	private static Floor createTwoRoomFloor(){
+		Floor floor = new Floor();
+		assertTrue(floor.createFloorPlan(new StringReader(
+				  "WWWWWWWW\n"
+				+ "WCBBBBBW\n"
+				+ "WBBBBBBW\n"
+				+ "WWWDWWWW\n"
+				+ "WBBBBBDW\n"
+				+ "WWWWWWWW\n")));
+		for(int i=0; i<floor.getDoorCount(); i++)
+			floor.getDoor(i).open();
+		return floor;
+	}
+
+	@Test
+	public void testOnlyPathsThroughChangedDoorsAreInvalidated(){
+		Floor floor = createTwoRoomFloor();
+		NavigationGrid grid = floor.getNavigationGrid();
+		PathCache cache = new PathCache(grid, 1 << 20);
+		AStarPlanner planner = new AStarPlanner(grid);
+		int throughDoor = grid.indexOf(4, 2);
+		int sameRoom = grid.indexOf(2, 6);
+		int source = grid.indexOf(1, 2);
+
+		PlannedPath planned = cache.plan(planner, source, throughDoor);
+		cache.plan(planner, source, sameRoom);
+		assertEquals(2, cache.getMisses());
+
+		// Cached paths decode back to the same cells
+		PlannedPath cached = cache.plan(planner, source, throughDoor);
+		assertArrayEquals(planned.getCells(), cached.getCells());
+		assertEquals(planned.getCost(), cached.getCost());
+		assertEquals(1, cache.getHits());
+
+		// A door no cached path uses changes, both entries survive
+		DoorCell otherDoor = (DoorCell) floor.getCellAt(4, 6);
+		otherDoor.close();
+		assertNotNull(cache.get(source, throughDoor));
+		assertNotNull(cache.get(source, sameRoom));
+		assertEquals(0, cache.getInvalidations());
+
+		// The door between the rooms changes, only the path through it is dropped
+		((DoorCell) floor.getCellAt(3, 3)).close();
+		assertNull(cache.get(source, throughDoor));
+		assertNotNull(cache.get(source, sameRoom));
+		assertEquals(1, cache.getInvalidations());
+	}
+
+	@Test
+	public void testPathsAreDroppedWhenADoorOpensAShortcut(){
+		Floor floor = new Floor();
+		assertTrue(floor.createFloorPlan(new StringReader(
+				  "WWWWWWWWW\n"
+				+ "WCBBBBBBW\n"
+				+ "WWWWDWWBW\n"
+				+ "WBBBBBBBW\n"
+				+ "WWWWWWWWW\n")));
+		NavigationGrid grid = floor.getNavigationGrid();
+		PathCache cache = new PathCache(grid, 1 << 20);
+		AStarPlanner planner = new AStarPlanner(grid);
+		int source = grid.indexOf(1, 2);
+		int target = grid.indexOf(3, 1);
+		DoorCell door = (DoorCell) floor.getCellAt(2, 4);
+		door.close();
+
+		// With the door closed the path goes around, opening it is a shortcut the cached path doesn't pass
+		PlannedPath around = cache.plan(planner, source, target);
+		assertNotNull(around);
+		door.open();
+		assertNull(cache.get(source, target));
+		assertEquals(1, cache.getInvalidations());
+		PlannedPath shortcut = cache.plan(planner, source, target);
+		assertTrue(shortcut.getCost() < around.getCost());
+		assertEquals(planner.plan(source, target).getCost(), shortcut.getCost());
+		assertNotNull(cache.get(source, target));
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsedWithinBudget(){
+		Floor floor = createTwoRoomFloor();
+		NavigationGrid grid = floor.getNavigationGrid();
+		PathCache cache = new PathCache(grid, 400);
+		AStarPlanner planner = new AStarPlanner(grid);
+		int source = grid.indexOf(1, 1);
+
+		for(int y=2; y<7; y++)
+			cache.plan(planner, source, grid.indexOf(2, y));
+		assertTrue(cache.getBytesUsed() <= 400);
+		assertTrue(cache.getEvictions() > 0);
+		assertNull(cache.get(source, grid.indexOf(2, 2)));
+		assertNotNull(cache.get(source, grid.indexOf(2, 6)));
+	}
+}
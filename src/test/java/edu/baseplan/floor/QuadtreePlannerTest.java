@@ -0,0 +1,73 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class QuadtreePlannerTest {
+
+	@Test
+	public void testQuadtreePlannerOnOpenFloors(){
+		for(long seed=1; seed<=3; seed++){
+			Floor floor = TestFloors.createOpenFloor(200, seed);
+			NavigationGrid grid = floor.getNavigationGrid();
+			QuadtreeMap map = floor.getQuadtreeMap();
+			QuadtreePlanner planner = new QuadtreePlanner(map);
+			AStarPlanner astar = new AStarPlanner(grid);
+			Random random = new Random(seed);
+			long astarCost = 0;
+			long quadtreeCost = 0;
+			long astarExpansions = 0;
+			long quadtreeExpansions = 0;
+
+			for(int query=0; query<50; query++){
+				int source = random.nextInt(grid.getCellCount());
+				int target = random.nextInt(grid.getCellCount());
+				PlannedPath expected = astar.plan(source, target);
+				PlannedPath actual = planner.plan(source, target);
+				if(expected == null){
+					assertNull(actual);
+					continue;
+				}
+				assertNotNull(actual);
+				TestFloors.assertValidPath(grid, actual, source, target);
+				assertTrue(actual.getCost() <= expected.getCost() * 3 / 2 + 2);
+				astarCost += expected.getCost();
+				quadtreeCost += actual.getCost();
+				astarExpansions += expected.getExpansions();
+				quadtreeExpansions += actual.getExpansions();
+			}
+			assertTrue(quadtreeCost * 10 <= astarCost * 11);
+			assertTrue(quadtreeExpansions * 4 < astarExpansions);
+		}
+
+		// Blocking a row of cells reroutes around it and freeing them restores the tree
+		Floor floor = TestFloors.createOpenFloor(128, 4);
+		NavigationGrid grid = floor.getNavigationGrid();
+		QuadtreeMap map = floor.getQuadtreeMap();
+		QuadtreePlanner planner = new QuadtreePlanner(map);
+		int blocks = map.getBlockCount();
+		int source = grid.indexOf(100, 10);
+		int target = grid.indexOf(100, 120);
+		for(int x=50; x<127; x++)
+			if(grid.getKind(grid.indexOf(x, 60)) == NavigationGrid.OPEN)
+				map.setBlocked(grid.indexOf(x, 60), true);
+		PlannedPath path = planner.plan(source, target);
+		assertNotNull(path);
+		TestFloors.assertValidPath(grid, path, source, target);
+		for(int cell : path.getCells()){
+			assertFalse(map.isBlocked(cell));
+			assertFalse(grid.yOf(cell) == 60 && grid.xOf(cell) >= 50);
+		}
+		for(int x=50; x<127; x++)
+			if(grid.getKind(grid.indexOf(x, 60)) == NavigationGrid.OPEN)
+				map.setBlocked(grid.indexOf(x, 60), false);
+		assertEquals(blocks, map.getBlockCount());
+
+		// Doors are read as they are, closing them all cuts the floor in two
+		for(int i=0; i<floor.getDoorCount(); i++)
+			floor.getDoor(i).close();
+		assertNull(planner.plan(grid.indexOf(10, 10), grid.indexOf(100, 100)));
+	}
+}
@@ -0,0 +1,42 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.Test;
+
+public class ReachabilityEnvelopeTest {
+
+	@Test
+	public void testReachableEnvelopeMatchesPlannedPaths(){
+		Floor floor = TestFloors.createWarehouseFloor(40, 7);
+		NavigationGrid grid = floor.getNavigationGrid();
+		ChargerDistanceField field = floor.getChargerDistanceField();
+		ReachabilityEnvelope envelope = new ReachabilityEnvelope(grid, field);
+		AStarPlanner planner = new AStarPlanner(grid);
+		Random random = new Random(7);
+
+		for(int query=0; query<6; query++){
+			if(query == 3)
+				floor.getDoor(0).close();
+			int start;
+			do
+				start = random.nextInt(grid.getCellCount());
+			while(field.getCost(start) == ChargerDistanceField.UNREACHABLE);
+			int[] cost = new int[grid.getCellCount()];
+			for(int cell=0; cell<grid.getCellCount(); cell++){
+				PlannedPath path = planner.plan(start, cell);
+				cost[cell] = path == null || field.getCost(cell) == ChargerDistanceField.UNREACHABLE ? -1
+						: path.getCost() + field.getCost(cell);
+			}
+
+			// Draining the battery and charging it again both match a search from scratch
+			for(int charge : new int[]{120, 80, 40, field.getCost(start) - 1, 100}){
+				BitSet cells = envelope.query(start, charge);
+				for(int cell=0; cell<grid.getCellCount(); cell++)
+					assertEquals(cost[cell] >= 0 && cost[cell] <= charge, cells.get(cell));
+			}
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.Random;
+import org.junit.Test;
+
+public class ReachabilityOracleTest {
+
+	@Test
+	public void testTwoDoorsInARow(){
+		Floor floor = new Floor();
+		assertTrue(floor.createFloorPlan(new StringReader(
+				  "WWWWW\n"
+				+ "WCBBW\n"
+				+ "WWDWW\n"
+				+ "WWDWW\n"
+				+ "WBBBW\n"
+				+ "WWWWW\n")));
+		NavigationGrid grid = floor.getNavigationGrid();
+		ReachabilityOracle oracle = new ReachabilityOracle(floor.getRoomMap());
+		int top = grid.indexOf(1, 2);
+		int bottom = grid.indexOf(4, 2);
+
+		// A hop over either door lands on the other one, so both have to be open
+		for(int states=0; states<4; states++){
+			for(int door=0; door<2; door++){
+				if((states & 1 << door) != 0)
+					floor.getDoor(door).open();
+				else
+					floor.getDoor(door).close();
+			}
+			assertEquals(states == 3, oracle.isReachable(top, bottom));
+			assertEquals(states == 3, oracle.isReachable(bottom, top));
+			assertTrue(oracle.isReachable(top, grid.indexOf(1, 1)));
+		}
+	}
+
+	@Test
+	public void testReloadAnswersForTheNewPlan(){
+		Floor floor = new Floor();
+		assertTrue(floor.createFloorPlan(new StringReader(
+				  "WWWWWWWWW\n"
+				+ "WCBBDBBBW\n"
+				+ "WWWWWWWWW\n")));
+		floor.getDoor(0).open();
+		NavigationGrid grid = floor.getNavigationGrid();
+		assertTrue(floor.getReachabilityOracle().isReachable(grid.indexOf(1, 1), grid.indexOf(1, 6)));
+
+		// Same cells, but a wall where the door was
+		assertTrue(floor.createFloorPlan(new StringReader(
+				  "WWWWWWWWW\n"
+				+ "WCBBWBBBW\n"
+				+ "WWWWWWWWW\n")));
+		grid = floor.getNavigationGrid();
+		ReachabilityOracle oracle = floor.getReachabilityOracle();
+		assertFalse(oracle.isReachable(grid.indexOf(1, 1), grid.indexOf(1, 6)));
+		assertTrue(oracle.isReachable(grid.indexOf(1, 5), grid.indexOf(1, 7)));
+	}
+
+	@Test
+	public void testMatchesRoomMapAsDoorsChange(){
+		Floor[] floors = {TestFloors.createBuildingFloor(2, 3, 8, 1), TestFloors.createBuildingFloor(6, 6, 6, 2),
+				TestFloors.createChainedDoorFloor(), TestFloors.createRandomFloor(8, 5), TestFloors.createRandomFloor(30, 6)};
+		for(Floor floor : floors){
+			RoomMap rooms = floor.getRoomMap();
+			ReachabilityOracle oracle = new ReachabilityOracle(rooms);
+			assertEquals(floor.getDoorCount() <= ReachabilityOracle.MASK_DOORS, oracle.usesDoorMasks());
+
+			// One cell of every room stands for the room
+			int[] cellOf = new int[rooms.getRoomCount()];
+			for(int cell=rooms.getGrid().getCellCount() - 1; cell>=0; cell--)
+				if(rooms.roomOf(cell) >= 0)
+					cellOf[rooms.roomOf(cell)] = cell;
+
+			Random random = new Random(floor.getDoorCount());
+			for(int change=0; change<60; change++){
+				// Sometimes several doors change between two queries
+				for(int flips=1 + random.nextInt(3); flips>0; flips--){
+					DoorCell door = floor.getDoor(random.nextInt(floor.getDoorCount()));
+					if(door.isOpen())
+						door.close();
+					else
+						door.open();
+				}
+				for(int a : cellOf)
+					for(int b : cellOf)
+						assertEquals(rooms.isConnected(a, b), oracle.isReachable(a, b));
+			}
+			assertFalse(oracle.isReachable(0, cellOf[0]));
+		}
+	}
+}
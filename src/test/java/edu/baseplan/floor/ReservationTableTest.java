@@ -0,0 +1,101 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Test;
+
+public class ReservationTableTest {
+
+	@Test
+	public void testClaimAndRelease(){
+		ReservationTable table = new ReservationTable(10);
+
+		assertTrue(table.claim(3, 0));
+		// Claiming again is allowed for the owner, not for anyone else
+		assertTrue(table.claim(3, 0));
+		assertFalse(table.claim(3, 1));
+		assertFalse(table.isAvailable(3, 1));
+		assertTrue(table.isAvailable(3, 0));
+		assertEquals(0, table.getOwner(3));
+
+		// Only the owner can release
+		table.release(3, 1);
+		assertEquals(0, table.getOwner(3));
+		table.release(3, 0);
+		assertEquals(-1, table.getOwner(3));
+		assertTrue(table.claim(3, 1));
+	}
+
+	@Test
+	public void testTimeWindowReservations(){
+		ReservationTable table = new ReservationTable(10);
+		int[] path = {1, 2, 3, 4};
+
+		assertTrue(table.reservePath(path, 5, 0, 0));
+		assertFalse(table.isAvailable(4, 6));
+
+		// Cell 1 was only reserved for tick 0, cell 4 until tick 3
+		table.setTick(1);
+		assertTrue(table.isAvailable(1, 6));
+		assertFalse(table.isAvailable(4, 6));
+		table.setTick(4);
+		assertTrue(table.isAvailable(4, 6));
+
+		// A path that runs into another robot's cell is rolled back
+		table.setTick(0);
+		assertTrue(table.claim(8, 7));
+		assertFalse(table.reservePath(new int[]{6, 7, 8}, 6, 0, 0));
+		assertEquals(-1, table.getOwner(6));
+		assertEquals(-1, table.getOwner(7));
+
+		// Cells the robot held before the call stay held after a roll back
+		assertTrue(table.claim(6, 6));
+		assertFalse(table.reservePath(new int[]{6, 7, 7, 8}, 6, 0, 0));
+		assertEquals(6, table.getOwner(6));
+		table.setTick(100);
+		assertEquals(6, table.getOwner(6));
+		assertEquals(-1, table.getOwner(7));
+	}
+
+	@Test
+	public void testOneOwnerPerCellUnderContention() throws InterruptedException{
+		final int cells = 64;
+		final int robots = 16;
+		final ReservationTable table = new ReservationTable(cells);
+		final AtomicIntegerArray holders = new AtomicIntegerArray(cells);
+		final AtomicIntegerArray violations = new AtomicIntegerArray(1);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[robots];
+
+		for(int r=0; r<robots; r++){
+			final int robot = r;
+			threads[r] = new Thread(() -> {
+				try{
+					start.await();
+				}
+				catch(InterruptedException e){
+					return;
+				}
+				for(int i=0; i<20000; i++){
+					int cell = (i * 31 + robot * 7) % cells;
+					if(table.claim(cell, robot)){
+						if(holders.incrementAndGet(cell) != 1)
+							violations.incrementAndGet(0);
+						holders.decrementAndGet(cell);
+						table.release(cell, robot);
+					}
+				}
+			});
+			threads[r].start();
+		}
+		start.countDown();
+		for(Thread t : threads)
+			t.join();
+
+		assertEquals(0, violations.get(0));
+		for(int c=0; c<cells; c++)
+			assertEquals(-1, table.getOwner(c));
+	}
+}
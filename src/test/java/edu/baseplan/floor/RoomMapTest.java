@@ -0,0 +1,137 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class RoomMapTest {
+
+	@Test
+	public void testRoomsMatchBreadthFirstSearch(){
+		Floor[] floors = {TestFloors.createBuildingFloor(5, 4, 12, 1), TestFloors.createRandomFloor(60, 2),
+				TestFloors.createWarehouseFloor(90, 3)};
+		for(Floor floor : floors){
+			NavigationGrid grid = floor.getNavigationGrid();
+			RoomMap rooms = floor.getRoomMap();
+
+			// Rooms are numbered in order of their first cell, as a flood fill from every unlabelled cell finds them
+			int[] roomOf = new int[grid.getCellCount()];
+			Arrays.fill(roomOf, -1);
+			int[] queue = new int[grid.getCellCount()];
+			int count = 0;
+			for(int start=0; start<roomOf.length; start++){
+				if(roomOf[start] >= 0 || grid.getKind(start) != NavigationGrid.OPEN)
+					continue;
+				int tail = 0;
+				queue[tail++] = start;
+				roomOf[start] = count;
+				for(int head=0; head<tail; head++){
+					for(int d=0; d<8; d++){
+						int x = grid.xOf(queue[head]) + NavigationGrid.DX[d];
+						int y = grid.yOf(queue[head]) + NavigationGrid.DY[d];
+						if(x < 0 || y < 0 || x >= grid.getSizeX() || y >= grid.getSizeY())
+							continue;
+						int next = grid.indexOf(x, y);
+						if(roomOf[next] < 0 && grid.getKind(next) == NavigationGrid.OPEN){
+							roomOf[next] = count;
+							queue[tail++] = next;
+						}
+					}
+				}
+				assertEquals(tail, rooms.getRoomSize(count++));
+			}
+			assertEquals(count, rooms.getRoomCount());
+			for(int cell=0; cell<roomOf.length; cell++)
+				assertEquals(roomOf[cell], rooms.roomOf(grid.xOf(cell), grid.yOf(cell)));
+
+			// Each link is listed under both its nodes and every door it needs
+			for(int link=0; link<rooms.getLinkCount(); link++){
+				assertTrue(rooms.getLinkFrom(link) < rooms.getLinkTo(link));
+				assertTrue(isListed(rooms, link, rooms.getLinkFrom(link)));
+				assertTrue(isListed(rooms, link, rooms.getLinkTo(link)));
+				for(int i=rooms.getLinkDoorStart(link); i<rooms.getLinkDoorEnd(link); i++){
+					int door = rooms.getLinkDoor(i);
+					boolean listed = false;
+					for(int j=rooms.getDoorLinkStart(door); j<rooms.getDoorLinkEnd(door); j++)
+						listed |= rooms.getDoorLink(j) == link;
+					assertTrue(listed);
+				}
+			}
+		}
+	}
+
+	private static boolean isListed(RoomMap rooms, int link, int node){
+		for(int i=rooms.getNodeLinkStart(node); i<rooms.getNodeLinkEnd(node); i++)
+			if(rooms.getNodeLink(i) == link)
+				return true;
+		return false;
+	}
+
+	@Test
+	public void testReloadLabelsTheNewPlan(){
+		Floor floor = TestFloors.createChainedDoorFloor();
+		assertEquals(3, floor.getRoomMap().getRoomCount());
+		floor.getPortalGraph();
+
+		// Two rooms without a door, the rooms and portals of the old plan must not survive the reload
+		assertTrue(floor.createFloorPlan(new StringReader(
+				  "WWWWWWWWW\n"
+				+ "WCBBWBBBW\n"
+				+ "WWWWWWWWW\n")));
+		NavigationGrid grid = floor.getNavigationGrid();
+		RoomMap rooms = floor.getRoomMap();
+		assertSame(grid, rooms.getGrid());
+		assertEquals(2, rooms.getRoomCount());
+		HierarchicalPlanner planner = new HierarchicalPlanner(floor.getPortalGraph());
+		assertNotNull(planner.plan(grid.indexOf(1, 1), grid.indexOf(1, 3)));
+		assertNull(planner.plan(grid.indexOf(1, 1), grid.indexOf(1, 6)));
+	}
+
+	@Test
+	public void testConnectedFollowsDoors(){
+		Floor[] floors = {TestFloors.createBuildingFloor(4, 4, 10, 4), TestFloors.createChainedDoorFloor(),
+				TestFloors.createRandomFloor(30, 4)};
+		for(Floor floor : floors)
+			assertConnectedFollowsDoors(floor);
+	}
+
+	private static void assertConnectedFollowsDoors(Floor floor){
+		NavigationGrid grid = floor.getNavigationGrid();
+		RoomMap rooms = floor.getRoomMap();
+		Random random = new Random(4);
+
+		for(int change=0; change<40; change++){
+			DoorCell door = floor.getDoor(random.nextInt(floor.getDoorCount()));
+			if(door.isOpen())
+				door.close();
+			else
+				door.open();
+
+			// Cells reached over the moves from a random open cell are the connected ones
+			int start;
+			do
+				start = random.nextInt(grid.getCellCount());
+			while(rooms.roomOf(start) < 0);
+			boolean[] reached = new boolean[grid.getCellCount()];
+			int[] queue = new int[grid.getCellCount()];
+			int tail = 0;
+			queue[tail++] = start;
+			reached[start] = true;
+			for(int head=0; head<tail; head++){
+				for(int d=0; d<8; d++){
+					int next = grid.destination(queue[head], d);
+					if(next >= 0 && !reached[next]){
+						reached[next] = true;
+						queue[tail++] = next;
+					}
+				}
+			}
+			for(int cell=0; cell<grid.getCellCount(); cell++)
+				if(rooms.roomOf(cell) >= 0)
+					assertEquals(reached[cell], rooms.isConnected(start, cell));
+		}
+	}
+}
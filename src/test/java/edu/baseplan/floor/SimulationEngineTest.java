@@ -0,0 +1,56 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+public class SimulationEngineTest {
+
+	@Test
+	public void testSameResultForAnyParallelism(){
+
+		int[] parallelism = {1, 2, 4};
+		int hash = 0;
+		long moves = 0;
+
+		for(int i=0; i<parallelism.length; i++){
+			SimulationEngine engine = new SimulationEngine(TestFloors.createDirtyFloor(48), 300,
+					new RandomWalkPolicy(42), 8, new ForkJoinPool(parallelism[i]));
+			engine.run(50);
+			engine.shutdown();
+
+			assertEquals(50, engine.getTick());
+			assertTrue(engine.getMoves() > 0);
+			if(i == 0){
+				hash = engine.getStateHash();
+				moves = engine.getMoves();
+			}
+			else{
+				// Robot positions and move counts must not depend on the number of workers
+				assertEquals(hash, engine.getStateHash());
+				assertEquals(moves, engine.getMoves());
+			}
+		}
+	}
+
+	@Test
+	public void testRobotsNeverShareACellAfterLeavingStations(){
+
+		SimulationEngine engine = new SimulationEngine(TestFloors.createDirtyFloor(32), 100,
+				new RandomWalkPolicy(7), 4, new ForkJoinPool(4));
+		engine.run(30);
+		engine.shutdown();
+
+		// Every robot that moved must be alone on its cell
+		for(int a=0; a<100; a++){
+			Location la = engine.getRobotLocation(a);
+			if(la.getFloorType() == FloorType.CHARGINGSTATION)
+				continue;
+			for(int b=a+1; b<100; b++){
+				Location lb = engine.getRobotLocation(b);
+				assertFalse(la.getLongitude() == lb.getLongitude() && la.getLatitude() == lb.getLatitude());
+			}
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Floors and checks shared by the tests
+ */
+final class TestFloors {
+
+	private TestFloors(){
+	}
+
+	/**
+	 * Walled floor plan with random carpet, obstacles, chargers and doors, every door state is random too
+	 */
+	static Floor createRandomFloor(int size, long seed){
+		Random random = new Random(seed);
+		String types = "BBBBLLHHOD";
+		StringBuilder sb = new StringBuilder();
+		for(int x=0; x<size; x++){
+			for(int y=0; y<size; y++){
+				if(x == 0 || y == 0 || x == size - 1 || y == size - 1)
+					sb.append('W');
+				else if((x == 1 && y == 1) || random.nextInt(50) == 0)
+					sb.append('C');
+				else
+					sb.append(types.charAt(random.nextInt(types.length())));
+			}
+			sb.append('\n');
+		}
+		Floor floor = new Floor();
+		assertTrue(floor.createFloorPlan(new StringReader(sb.toString())));
+		for(int i=0; i<floor.getDoorCount(); i++){
+			if(random.nextBoolean())
+				floor.getDoor(i).open();
+			else
+				floor.getDoor(i).close();
+		}
+		return floor;
+	}
+
+	/**
+	 * Open floor plan with shelf rows, a few carpet areas and a dividing wall with doors
+	 */
+	static Floor createWarehouseFloor(int size, long seed){
+		Random random = new Random(seed);
+		char[][] plan = new char[size][size];
+		for(int x=0; x<size; x++)
+			for(int y=0; y<size; y++)
+				plan[x][y] = x == 0 || y == 0 || x == size - 1 || y == size - 1 ? 'W' : 'B';
+		for(int i=0; i<size / 20; i++){
+			int x = 1 + random.nextInt(size - 12);
+			int y = 1 + random.nextInt(size - 12);
+			char carpet = random.nextBoolean() ? 'L' : 'H';
+			for(int dx=0; dx<10; dx++)
+				for(int dy=0; dy<10; dy++)
+					plan[x + dx][y + dy] = carpet;
+		}
+		for(int x=4; x<size - 4; x+=6)
+			for(int y=3; y<size - 3; y++)
+				if(y % 12 != 0)
+					plan[x][y] = 'O';
+		for(int y=1; y<size - 1; y++)
+			plan[size / 2][y] = y % 16 == 8 ? 'D' : 'W';
+		plan[1][1] = 'C';
+		plan[size - 2][size - 2] = 'C';
+
+		StringBuilder sb = new StringBuilder();
+		for(int x=0; x<size; x++)
+			sb.append(plan[x]).append('\n');
+		Floor floor = new Floor();
+		assertTrue(floor.createFloorPlan(new StringReader(sb.toString())));
+		for(int i=0; i<floor.getDoorCount(); i++){
+			if(random.nextInt(4) == 0)
+				floor.getDoor(i).close();
+			else
+				floor.getDoor(i).open();
+		}
+		return floor;
+	}
+
+	/**
+	 * Grid of square rooms with random carpet, every wall between two rooms has a door
+	 */
+	static Floor createBuildingFloor(int roomsX, int roomsY, int roomSize, long seed){
+		Random random = new Random(seed);
+		int sizeX = roomsX * (roomSize + 1) + 1;
+		int sizeY = roomsY * (roomSize + 1) + 1;
+		String carpets = "BBLH";
+		char[][] plan = new char[sizeX][sizeY];
+		for(int x=0; x<sizeX; x++){
+			for(int y=0; y<sizeY; y++){
+				if(x % (roomSize + 1) == 0 || y % (roomSize + 1) == 0)
+					plan[x][y] = 'W';
+				else
+					plan[x][y] = carpets.charAt((x / (roomSize + 1) * 7 + y / (roomSize + 1) * 3 + (int) seed) % carpets.length());
+			}
+		}
+		for(int rx=0; rx<roomsX; rx++){
+			for(int ry=0; ry<roomsY; ry++){
+				int x = rx * (roomSize + 1);
+				int y = ry * (roomSize + 1);
+				if(rx > 0)
+					plan[x][y + 1 + random.nextInt(roomSize)] = 'D';
+				if(ry > 0)
+					plan[x + 1 + random.nextInt(roomSize)][y] = 'D';
+				if(random.nextInt(3) == 0)
+					plan[x + 1 + random.nextInt(roomSize)][y + 1 + random.nextInt(roomSize)] = 'O';
+			}
+		}
+		plan[1][1] = 'C';
+
+		StringBuilder sb = new StringBuilder();
+		for(int x=0; x<sizeX; x++)
+			sb.append(plan[x]).append('\n');
+		Floor floor = new Floor();
+		assertTrue(floor.createFloorPlan(new StringReader(sb.toString())));
+		for(int i=0; i<floor.getDoorCount(); i++)
+			floor.getDoor(i).open();
+		return floor;
+	}
+
+	/**
+	 * Mostly bare floor with a few carpet patches and obstacles, split in two by a wall with doors
+	 */
+	static Floor createOpenFloor(int size, long seed){
+		Random random = new Random(seed);
+		char[][] plan = new char[size][size];
+		for(int x=0; x<size; x++)
+			for(int y=0; y<size; y++)
+				plan[x][y] = x == 0 || y == 0 || x == size - 1 || y == size - 1 ? 'W' : 'B';
+		for(int i=0; i<size / 16; i++){
+			int x = 1 + random.nextInt(size - 22);
+			int y = 1 + random.nextInt(size - 22);
+			char fill = "LHO".charAt(random.nextInt(3));
+			for(int dx=0; dx<20; dx++)
+				for(int dy=0; dy<20; dy++)
+					plan[x + dx][y + dy] = fill;
+		}
+		for(int y=1; y<size - 1; y++)
+			plan[size / 3][y] = y % (size / 4) == size / 8 ? 'D' : 'W';
+		plan[1][1] = 'C';
+
+		StringBuilder sb = new StringBuilder();
+		for(int x=0; x<size; x++)
+			sb.append(plan[x]).append('\n');
+		Floor floor = new Floor();
+		assertTrue(floor.createFloorPlan(new StringReader(sb.toString())));
+		for(int i=0; i<floor.getDoorCount(); i++)
+			floor.getDoor(i).open();
+		return floor;
+	}
+
+	/**
+	 * Three rooms, the bottom one is joined to the top left one by two doors in
+	 * a row so a hop over the first door lands on the second. The doors on the
+	 * right touch each other diagonally.
+	 */
+	static Floor createChainedDoorFloor(){
+		Floor floor = new Floor();
+		assertTrue(floor.createFloorPlan(new StringReader(
+				  "WWWWWWW\n"
+				+ "WCBBWBW\n"
+				+ "WBBBDBW\n"
+				+ "WWDWDWW\n"
+				+ "WWDWWWW\n"
+				+ "WBBBBBW\n"
+				+ "WWWWWWW\n")));
+		return floor;
+	}
+
+	/**
+	 * Door free floor plan with a fixed dirt pattern, so floors built from it are identical
+	 */
+	static Floor createDirtyFloor(int size){
+		StringBuilder sb = new StringBuilder();
+		for(int x=0; x<size; x++){
+			for(int y=0; y<size; y++){
+				if(x == 0 || y == 0 || x == size - 1 || y == size - 1)
+					sb.append('W');
+				else if(x % 7 == 0 && y % 5 == 0)
+					sb.append('C');
+				else if(x % 11 == 3 && y % 4 != 0)
+					sb.append('O');
+				else
+					sb.append('B');
+			}
+			sb.append('\n');
+		}
+		Floor floor = new Floor();
+		assertTrue(floor.createFloorPlan(new StringReader(sb.toString())));
+		for(int x=0; x<size; x++)
+			for(int y=0; y<size; y++)
+				if(!floor.getCellAt(x, y).isObstructed())
+					floor.getCellAt(x, y)._dirt = (x * y) % 3;
+		return floor;
+	}
+
+	/**
+	 * Checks that every step of path is a legal move and that the costs add up
+	 */
+	static void assertValidPath(NavigationGrid grid, PlannedPath path, int source, int target){
+		int[] cells = path.getCells();
+		assertEquals(source, cells[0]);
+		assertEquals(target, cells[cells.length - 1]);
+		int cost = 0;
+		for(int i=1; i<cells.length; i++){
+			assertEquals(cells[i], grid.destination(cells[i - 1], grid.directionOf(cells[i - 1], cells[i])));
+			cost += grid.getCost(cells[i]);
+		}
+		assertEquals(path.getCost(), cost);
+	}
+}
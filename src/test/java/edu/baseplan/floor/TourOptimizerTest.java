@@ -0,0 +1,115 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+public class TourOptimizerTest {
+
+	@Test
+	public void testTourOptimizerRechargesBeforeBatteryRunsOut(){
+		Floor floor = TestFloors.createWarehouseFloor(120, 1);
+		NavigationGrid grid = floor.getNavigationGrid();
+		int[] dirty = pickDirtyCells(floor, 150, 4);
+		DirtTour tour = assertTourDrivable(floor, dirty, 300);
+		assertTrue(tour.getRechargeCount() > 1);
+		assertTourDrivable(floor, dirty, 5000);
+
+		// Without power to reach a charging station there is no tour
+		TourOptimizer optimizer = new TourOptimizer(floor.getNavigationGraph(), ForkJoinPool.commonPool());
+		assertNull(optimizer.plan(grid.indexOf(60, 60), 0, 300, dirty, floor.getChargingStationCells()));
+	}
+
+	@Test
+	public void testTourLegsHoldWhereHopsLandOnDoors(){
+		// Hops that land on a door cost differently each way, the battery has to hold on the real legs
+		Floor chained = TestFloors.createChainedDoorFloor();
+		for(int i=0; i<chained.getDoorCount(); i++)
+			chained.getDoor(i).open();
+		for(int capacity : new int[]{4, 8, 30})
+			assertTourDrivable(chained, pickDirtyCells(chained, 20, 1), capacity);
+
+		Floor building = TestFloors.createBuildingFloor(5, 5, 7, 2);
+		for(int capacity : new int[]{60, 120, 1000})
+			assertTourDrivable(building, pickDirtyCells(building, 120, 2), capacity);
+
+		for(long seed : new long[]{5, 7}){
+			Floor floor = TestFloors.createRandomFloor(50, seed);
+			for(int capacity : new int[]{15, 30, 60, 500})
+				assertTourDrivable(floor, pickDirtyCells(floor, 150, seed), capacity);
+		}
+	}
+
+	/**
+	 * @return up to count distinct open cells that are not charging stations
+	 */
+	private static int[] pickDirtyCells(Floor floor, int count, long seed){
+		NavigationGrid grid = floor.getNavigationGrid();
+		Set<Integer> stations = new HashSet<Integer>();
+		for(int charger : floor.getChargingStationCells())
+			stations.add(charger);
+		int open = 0;
+		for(int cell=0; cell<grid.getCellCount(); cell++)
+			if(grid.getKind(cell) == NavigationGrid.OPEN && !stations.contains(cell))
+				open++;
+		Random random = new Random(seed);
+		Set<Integer> picked = new HashSet<Integer>();
+		int[] dirty = new int[Math.min(count, open)];
+		for(int i=0; i<dirty.length; i++){
+			do
+				dirty[i] = random.nextInt(grid.getCellCount());
+			while(grid.getKind(dirty[i]) != NavigationGrid.OPEN || stations.contains(dirty[i]) || !picked.add(dirty[i]));
+		}
+		return dirty;
+	}
+
+	/**
+	 * Plans from the first charging station with a full battery and drives the tour with Dijkstra legs
+	 * @return the tour
+	 */
+	private static DirtTour assertTourDrivable(Floor floor, int[] dirty, int capacity){
+		NavigationGrid grid = floor.getNavigationGrid();
+		AStarPlanner dijkstra = new AStarPlanner(grid, Heuristic.ZERO);
+		TourOptimizer optimizer = new TourOptimizer(floor.getNavigationGraph(), ForkJoinPool.commonPool());
+		int[] chargers = floor.getChargingStationCells();
+		Set<Integer> stations = new HashSet<Integer>();
+		for(int charger : chargers)
+			stations.add(charger);
+
+		DirtTour tour = optimizer.plan(chargers[0], capacity, capacity, dirty, chargers);
+		assertNotNull(tour);
+		int[] stops = tour.getStops();
+		assertEquals(chargers[0], stops[0]);
+		assertTrue(tour.isRecharge(stops.length - 1));
+		assertTrue(stations.contains(stops[stops.length - 1]));
+
+		// The battery never runs dry between stops, every cell left in is cleaned and the legs add up to the cost
+		Set<Integer> cleaned = new HashSet<Integer>();
+		int battery = capacity;
+		int cost = 0;
+		for(int i=1; i<stops.length; i++){
+			PlannedPath leg = dijkstra.plan(stops[i - 1], stops[i]);
+			assertNotNull(leg);
+			battery -= leg.getCost();
+			cost += leg.getCost();
+			assertTrue(battery >= 0);
+			if(tour.isRecharge(i)){
+				assertTrue(stations.contains(stops[i]));
+				battery = capacity;
+			}
+			else
+				cleaned.add(stops[i]);
+		}
+		assertEquals(cost, tour.getCost());
+		for(int cell : tour.getSkipped())
+			assertTrue(cleaned.add(cell));
+		for(int cell : dirty)
+			assertTrue(cleaned.remove(cell));
+		assertTrue(cleaned.isEmpty());
+		return tour;
+	}
+}
@@ -0,0 +1,57 @@
+package edu.baseplan.floor;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class TurnAwarePlannerTest {
+
+	@Test
+	public void testTurnAwarePlannerCountsTurns(){
+		for(long seed=1; seed<=3; seed++){
+			Floor floor = TestFloors.createRandomFloor(30, seed);
+			NavigationGrid grid = floor.getNavigationGrid();
+			AStarPlanner astar = new AStarPlanner(grid);
+			TurnAwarePlanner free = new TurnAwarePlanner(grid, 0);
+			TurnAwarePlanner turning = new TurnAwarePlanner(grid, 2);
+			TurnAwarePlanner dijkstra = new TurnAwarePlanner(grid, Heuristic.ZERO, 2);
+			Random random = new Random(seed);
+
+			for(int query=0; query<50; query++){
+				int source = random.nextInt(grid.getCellCount());
+				int target = random.nextInt(grid.getCellCount());
+				int heading = random.nextInt(8);
+				PlannedPath expected = astar.plan(source, target);
+				PlannedPath path = turning.plan(source, heading, target);
+				if(expected == null){
+					assertNull(free.plan(source, target));
+					assertNull(path);
+					continue;
+				}
+				assertEquals(expected.getCost(), free.plan(source, target).getCost());
+				assertEquals(dijkstra.plan(source, heading, target).getCost(), path.getCost());
+
+				// The cost is the cell costs plus 2 for every 45 degrees turned
+				int[] cells = path.getCells();
+				int[] moveCost = new int[cells.length];
+				for(int i=1; i<cells.length; i++){
+					int direction = grid.directionOf(cells[i - 1], cells[i]);
+					assertEquals(cells[i], grid.destination(cells[i - 1], direction));
+					int turns = Math.abs(direction - heading);
+					moveCost[i] = 2 * Math.min(turns, 8 - turns) + grid.getCost(cells[i]);
+					moveCost[0] += moveCost[i];
+					heading = direction;
+				}
+				assertEquals(path.getCost(), moveCost[0]);
+
+				// Replanning one move further along reuses the search
+				if(cells.length > 2){
+					PlannedPath rest = turning.plan(cells[1], grid.directionOf(cells[0], cells[1]), target);
+					assertEquals(0, turning.getLastExpansions());
+					assertEquals(path.getCost() - moveCost[1], rest.getCost());
+				}
+			}
+		}
+	}
+}